@@ -0,0 +1,322 @@
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Parent;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListView;
+import javafx.scene.control.ScrollPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.StackPane;
+import javafx.scene.layout.VBox;
+import javafx.scene.text.Text;
+import javafx.stage.Stage;
+
+
+// Memory and frame time of the project board at N tasks: the VBox of task cards in a ScrollPane
+// it used to be, against the ListView ProjectViewHelper shows now. Each board runs in its own JVM,
+// in a window with project.css. It measures the heap the board holds after a GC, then the time
+// between pulses over FRAMES frames while idle, while scrolling a step every frame, and while a
+// task is added every frame (the way a busy room looks).
+//
+// With --headless there is no window and no frame times: the list board is its item model alone,
+// and the node board uses the same panes with Text in place of Labels and Buttons (controls need a
+// running toolkit), so its memory is a lower bound.
+//
+// Usage: ProjectBoardTest [--tasks=N] [--boards=nodes,list] [--headless]
+// Needs JavaFX on the class path, and a display without --headless. The exit code is 1 if the list board holds more
+// than a tenth of the memory of the node board, or if its p99 frame time while scrolling or adding
+// is over 33 ms (two 60 Hz frames).
+public class ProjectBoardTest {
+    private static final int FRAMES = 300;
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        int taskCount = Integer.parseInt(ProjectServer.option(args, "tasks", "100000"));
+        boolean headless = Arrays.asList(args).contains("--headless");
+        String board = ProjectServer.option(args, "board", null);
+        if (board != null) {
+            if (headless) {
+                measureHeadless(board, taskCount);
+            } else {
+                measure(board, taskCount);
+            }
+            return;
+        }
+
+        List<double[]> results = new ArrayList<>();
+        String[] boards = ProjectServer.option(args, "boards", "nodes,list").split(",");
+        for (String name : boards) {
+            double[] result = child(name, taskCount, headless);
+            results.add(result);
+            if (headless) {
+                System.out.printf("%-5s %d tasks: %7.1f MB held (%.0f bytes/task)%n", name, taskCount, result[0],
+                    result[0] * 1e6 / taskCount);
+            } else {
+                System.out.printf("%-5s %d tasks: %7.1f MB held; frame p50/p99/max ms: idle %s, scrolling %s,"
+                    + " adding %s%n", name, taskCount, result[0], frames(result, 1), frames(result, 4), frames(result, 7));
+            }
+        }
+        if (boards.length == 2 && boards[1].equals("list")) {
+            double[] nodes = results.get(0);
+            double[] list = results.get(1);
+            check(list[0] * 10 <= nodes[0], "the list board holds a tenth of the node board's memory or less");
+            if (!headless) {
+                check(list[5] <= 33 && list[8] <= 33, "the list board's p99 frame is within 33 ms scrolling and adding");
+            }
+        }
+        System.out.println(failures == 0 ? "OK" : failures + " check(s) failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // { MB held, then p50, p99, max ms for idle, scrolling and adding }, from a child JVM
+    private static double[] child(String board, int taskCount, boolean headless) throws Exception {
+        String java = ProcessHandle.current().info().command().orElse("java");
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "ProjectBoardTest",
+            "--board=" + board, "--tasks=" + taskCount, headless ? "--headless" : "--window")
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+        double[] result = null;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("RESULT ")) {
+                    result = Arrays.stream(line.substring(7).split(" ")).mapToDouble(Double::parseDouble).toArray();
+                }
+            }
+        }
+        if (process.waitFor() != 0 || result == null) {
+            throw new IllegalStateException("The " + board + " board did not finish");
+        }
+        return result;
+    }
+
+    private static String frames(double[] result, int from) {
+        return String.format("%.1f/%.1f/%.1f", result[from], result[from + 1], result[from + 2]);
+    }
+
+    private static void measure(String board, int taskCount) throws Exception {
+        CompletableFuture<Void> started = new CompletableFuture<>();
+        Platform.startup(() -> started.complete(null));
+        started.get();
+        long base = onFx(ProjectBoardTest::heapUsed);
+
+        Board shown = onFx(() -> {
+            Board created = board.equals("list") ? new ListBoard() : new NodeBoard();
+            List<ProjectMessage> tasks = new ArrayList<>(taskCount);
+            for (int i = 1; i <= taskCount; i++) {
+                tasks.add(task(i));
+            }
+            created.load(tasks);
+            Scene scene = new Scene(created.root(), 800, 600);
+            URL css = ProjectBoardTest.class.getResource("styleCSS/project.css");
+            if (css != null) {
+                scene.getStylesheets().add(css.toExternalForm());
+            }
+            Stage stage = new Stage();
+            stage.setScene(scene);
+            stage.show();
+            return created;
+        });
+        // Let the first layout and render happen before measuring
+        frameTimes(null);
+        long held = onFx(ProjectBoardTest::heapUsed) - base;
+
+        double[] idle = frameTimes(null);
+        double[] scrolling = frameTimes(shown::scrollStep);
+        int[] next = { taskCount + 1 };
+        double[] adding = frameTimes(() -> shown.add(task(next[0]++)));
+        System.out.printf("RESULT %.1f %.2f %.2f %.2f %.2f %.2f %.2f %.2f %.2f %.2f%n", held / 1e6,
+            idle[0], idle[1], idle[2], scrolling[0], scrolling[1], scrolling[2], adding[0], adding[1], adding[2]);
+        Platform.exit();
+    }
+
+    private static void measureHeadless(String board, int taskCount) {
+        long base = heapUsed();
+        List<Object> kept = new ArrayList<>(taskCount);
+        for (int i = 1; i <= taskCount; i++) {
+            ProjectMessage task = task(i);
+            kept.add(board.equals("list") ? ProjectTaskItem.from(task) : NodeBoard.textCard(task));
+        }
+        long held = heapUsed() - base;
+        System.out.printf("RESULT %.1f %d%n", held / 1e6, kept.size());
+    }
+
+    // p50, p99 and max ms between FRAMES consecutive pulses, running 'perFrame' in each
+    private static double[] frameTimes(Runnable perFrame) throws Exception {
+        long[] stamps = new long[FRAMES + 1];
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        Platform.runLater(() -> new AnimationTimer() {
+            int count = 0;
+
+            @Override
+            public void handle(long now) {
+                stamps[count++] = now;
+                if (count == stamps.length) {
+                    stop();
+                    done.complete(null);
+                } else if (perFrame != null) {
+                    perFrame.run();
+                }
+            }
+        }.start());
+        done.get();
+        long[] gaps = new long[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            gaps[i] = stamps[i + 1] - stamps[i];
+        }
+        Arrays.sort(gaps);
+        return new double[] { gaps[FRAMES / 2] / 1e6, gaps[FRAMES * 99 / 100] / 1e6, gaps[FRAMES - 1] / 1e6 };
+    }
+
+    private static long heapUsed() {
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static <T> T onFx(Callable<T> work) throws Exception {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Platform.runLater(() -> {
+            try {
+                result.complete(work.call());
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result.get();
+    }
+
+    private static ProjectMessage task(int id) {
+        ProjectTask task = new ProjectTask(id, "task " + id, "description of task " + id, "alice");
+        if (id % 3 == 0) {
+            task.markCompleted("bob", new Date());
+        }
+        return ProjectMessage.taskAdded(task);
+    }
+
+    private interface Board {
+        void load(List<ProjectMessage> tasks);
+
+        void add(ProjectMessage task);
+
+        void scrollStep();
+
+        Parent root();
+    }
+
+    private static final class ListBoard implements Board {
+        final ListView<ProjectTaskItem> taskList = new ListView<>();
+        final ProjectViewHelper helper = new ProjectViewHelper(taskList, new ListView<>(), new ListView<>(),
+            new Label(), () -> "alice", () -> null);
+        int top = 0;
+
+        public void load(List<ProjectMessage> tasks) {
+            helper.handleTaskSnapshot(tasks, true);
+        }
+
+        public void add(ProjectMessage task) {
+            helper.handleTaskAdded(task);
+        }
+
+        public void scrollStep() {
+            top = (top + 7) % taskList.getItems().size();
+            taskList.scrollTo(top);
+        }
+
+        public Parent root() {
+            return new VBox(taskList);
+        }
+    }
+
+    // The board before the ListView: one card of labels and buttons per task
+    private static final class NodeBoard implements Board {
+        final VBox taskArea = new VBox(10);
+        final ScrollPane scrollPane = new ScrollPane(taskArea);
+
+        NodeBoard() {
+            scrollPane.setFitToWidth(true);
+            taskArea.heightProperty().addListener((obs, ov, nv) -> scrollPane.setVvalue(1.0));
+        }
+
+        public void load(List<ProjectMessage> tasks) {
+            List<VBox> cards = new ArrayList<>(tasks.size());
+            for (ProjectMessage task : tasks) {
+                cards.add(card(task));
+            }
+            taskArea.getChildren().setAll(cards);
+        }
+
+        public void add(ProjectMessage task) {
+            taskArea.getChildren().add(card(task));
+        }
+
+        public void scrollStep() {
+            scrollPane.setVvalue((scrollPane.getVvalue() + 0.0007) % 1.0);
+        }
+
+        public Parent root() {
+            return scrollPane;
+        }
+
+        // The same card with Text in place of the controls, for --headless
+        static VBox textCard(ProjectMessage task) {
+            VBox card = new VBox(5);
+            card.setUserData(task.getTaskId());
+            card.setPadding(new Insets(10));
+            card.getStyleClass().add("COMPLETED".equals(task.field(3)) ? "task-completed" : "task-pending");
+            HBox buttons = new HBox(10);
+            buttons.getChildren().addAll(new StackPane(new Text("Mark Complete")), new StackPane(new Text("Delete")));
+            card.getChildren().addAll(new StackPane(new Text("Task #" + task.getTaskId() + ": " + task.field(0))),
+                new StackPane(new Text(task.field(1))), new StackPane(new Text("Assigned by: " + task.field(2))), buttons);
+            return card;
+        }
+
+        static VBox card(ProjectMessage task) {
+            boolean completed = "COMPLETED".equals(task.field(3));
+            VBox card = new VBox(5);
+            card.setUserData(task.getTaskId());
+            card.setPadding(new Insets(10));
+            card.getStyleClass().add(completed ? "task-completed" : "task-pending");
+            Label title = new Label("Task #" + task.getTaskId() + ": " + task.field(0));
+            title.getStyleClass().add("task-title");
+            Label description = new Label(task.field(1));
+            description.setWrapText(true);
+            description.getStyleClass().add("task-description");
+            Label assigned = new Label("Assigned by: " + task.field(2));
+            assigned.getStyleClass().add("task-assigned");
+            HBox buttons = new HBox(10);
+            buttons.setAlignment(Pos.CENTER_LEFT);
+            Button delete = new Button("Delete");
+            delete.getStyleClass().add("delete-button");
+            if (completed) {
+                Label completedBy = new Label("\u2713 Completed by " + task.field(4));
+                completedBy.getStyleClass().add("completed-label");
+                buttons.getChildren().addAll(completedBy, delete);
+            } else {
+                buttons.getChildren().addAll(new Button("Mark Complete"), delete);
+            }
+            card.getChildren().addAll(title, description, assigned, buttons);
+            return card;
+        }
+    }
+
+    private static void check(boolean passed, String what) {
+        System.out.println((passed ? "ok    " : "FAIL  ") + what);
+        if (!passed) failures++;
+    }
+}
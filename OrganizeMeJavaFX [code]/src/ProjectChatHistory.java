@@ -0,0 +1,390 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+
+// Every chat line the server has relayed, numbered from 1, for HISTORY paging and the tail a
+// joining client is sent. On disk it is an append-only log split into segments
+//
+//   chat-<firstSeq>.log   records: int length, int crc32, utf8 text
+//   chat-<firstSeq>.idx   (sealed segments) count + 1 longs: each record's offset, then the end
+//
+// so any page is one index read and one contiguous data read, however much is stored. The
+// active segment keeps its offsets in memory and is rescanned on startup; the newest lines are
+// also kept in a ring and served without touching the disk. Lines are written but not fsynced:
+// a crash may lose the last moments of chat, never corrupt older pages.
+// Without a directory only the ring is kept; a cluster replica fills that ring with mirror().
+class ProjectChatHistory {
+    static final int DEFAULT_TAIL_LINES = 1000;
+    private static final int SEGMENT_LINES = 1 << 20;
+    private static final long SEGMENT_BYTES = 256L << 20;
+    private static final int MAX_LINE_BYTES = 1 << 20;
+    // A page is sent as one frame, so it stops short of the frame limit whatever 'limit' asks for
+    private static final int MAX_PAGE_BYTES = 512 * 1024;
+
+    private final Path dir;
+    private final String[] tail;
+    private final List<Segment> segments = new ArrayList<>();
+    private int lastSeq = 0;
+    // First line in the ring; above 1 only for a mirror, whose older lines live on the owner
+    private int ringStart = 1;
+
+    record Page(int firstSeq, List<String> lines, boolean more) {}
+
+    private static final class Segment {
+        final int firstSeq;
+        final FileChannel data;
+        FileChannel index;     // sealed segments only
+        int[] offsets;         // active segment only: count + 1 entries in use
+        int count;
+        long size;
+
+        Segment(int firstSeq, FileChannel data) {
+            this.firstSeq = firstSeq;
+            this.data = data;
+        }
+
+        long offset(int i) throws IOException {
+            if (offsets != null) {
+                return offsets[i];
+            }
+            ByteBuffer entry = ByteBuffer.allocate(8);
+            readFully(index, entry, (long) i * 8);
+            return entry.getLong(0);
+        }
+
+        // Offsets from..to inclusive, in one index read
+        long[] offsets(int from, int to) throws IOException {
+            long[] result = new long[to - from + 1];
+            if (offsets != null) {
+                for (int i = from; i <= to; i++) {
+                    result[i - from] = offsets[i];
+                }
+                return result;
+            }
+            ByteBuffer entries = ByteBuffer.allocate(result.length * 8);
+            readFully(index, entries, (long) from * 8);
+            entries.flip().asLongBuffer().get(result);
+            return result;
+        }
+    }
+
+    public ProjectChatHistory(Path dir, int tailLines) {
+        this.dir = dir;
+        this.tail = new String[Math.max(1, tailLines)];
+    }
+
+    // ---- startup ----
+
+    public synchronized void open() throws IOException {
+        if (dir == null) return;
+        Files.createDirectories(dir);
+
+        List<Integer> firstSeqs = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "chat-*.log")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                firstSeqs.add(Integer.parseInt(name.substring(5, name.length() - 4)));
+            }
+        }
+        firstSeqs.sort(null);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < firstSeqs.size(); i++) {
+            boolean last = i == firstSeqs.size() - 1;
+            Segment segment = openSegment(firstSeqs.get(i), last);
+            segments.add(segment);
+            lastSeq = segment.firstSeq + segment.count - 1;
+        }
+        if (segments.isEmpty()) {
+            segments.add(createSegment(1));
+        }
+        // Warm the ring from the newest lines on disk
+        int from = Math.max(1, lastSeq - tail.length + 1);
+        if (lastSeq > 0) {
+            List<String> recent = readRange(from, lastSeq);
+            for (int i = 0; i < recent.size(); i++) {
+                tail[(from + i - 1) % tail.length] = recent.get(i);
+            }
+        }
+        System.out.println("Chat history: " + lastSeq + " lines in " + segments.size() + " segments, opened in "
+            + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    private Segment openSegment(int firstSeq, boolean last) throws IOException {
+        Path dataFile = dataFile(firstSeq);
+        Path indexFile = indexFile(firstSeq);
+        if (!last && Files.exists(indexFile)) {
+            Segment segment = new Segment(firstSeq, FileChannel.open(dataFile, StandardOpenOption.READ));
+            segment.index = FileChannel.open(indexFile, StandardOpenOption.READ);
+            segment.count = (int) (segment.index.size() / 8) - 1;
+            segment.size = segment.offset(segment.count);
+            return segment;
+        }
+        // Active segment, or one whose index was never written: rebuild offsets by scanning
+        Segment segment = new Segment(firstSeq, FileChannel.open(dataFile, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        scan(segment);
+        // Drop a torn record left by a crash mid-write
+        segment.data.truncate(segment.size);
+        if (!last) {
+            seal(segment);
+        }
+        return segment;
+    }
+
+    // A record that doesn't check out is skipped, not taken as the end: only when no valid record
+    // follows it is it the torn tail of a crash, which openSegment then cuts off
+    private void scan(Segment segment) throws IOException {
+        segment.offsets = new int[1024];
+        long position = 0;
+        long fileSize = segment.data.size();
+        while (position + 8 <= fileSize) {
+            int length = recordLength(segment.data, position, fileSize);
+            if (length < 0) {
+                long next = nextRecord(segment.data, position + 1, fileSize);
+                if (next < 0) break;
+                System.err.println("Skipping " + (next - position) + " corrupt bytes in "
+                    + dataFile(segment.firstSeq).getFileName() + " at offset " + position);
+                position = next;
+                continue;
+            }
+            addOffset(segment, position);
+            position += 8 + length;
+        }
+        segment.size = position;
+        setEnd(segment);
+    }
+
+    // Length of the record at 'position', or -1 if there is no complete record with a matching crc
+    private static int recordLength(FileChannel data, long position, long fileSize) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(8);
+        readFully(data, header, position);
+        int length = header.getInt(0);
+        if (length < 0 || length > MAX_LINE_BYTES || position + 8 + length > fileSize) return -1;
+        ByteBuffer text = ByteBuffer.allocate(length);
+        readFully(data, text, position + 8);
+        CRC32 crc = new CRC32();
+        crc.update(text.array());
+        return (int) crc.getValue() == header.getInt(4) ? length : -1;
+    }
+
+    // First offset at or after 'from' where a valid record starts, or -1
+    private static long nextRecord(FileChannel data, long from, long fileSize) throws IOException {
+        ByteBuffer window = ByteBuffer.allocate(64 * 1024);
+        // Windows overlap by 7 bytes so every header position is looked at once
+        for (long base = from; base + 8 <= fileSize; base += window.capacity() - 7) {
+            window.clear();
+            window.limit((int) Math.min(window.capacity(), fileSize - base));
+            readFully(data, window, base);
+            for (int i = 0; i + 8 <= window.limit(); i++) {
+                int length = window.getInt(i);
+                if (length >= 0 && length <= MAX_LINE_BYTES && recordLength(data, base + i, fileSize) >= 0) {
+                    return base + i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private Segment createSegment(int firstSeq) throws IOException {
+        Segment segment = new Segment(firstSeq, FileChannel.open(dataFile(firstSeq),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        segment.offsets = new int[1024];
+        setEnd(segment);
+        return segment;
+    }
+
+    // Writes the offsets out so the segment never needs scanning again. The data goes to disk
+    // first, so an index never describes records that are not there.
+    private void seal(Segment segment) throws IOException {
+        segment.data.force(false);
+        Path indexFile = indexFile(segment.firstSeq);
+        ByteBuffer entries = ByteBuffer.allocate((segment.count + 1) * 8);
+        for (int i = 0; i <= segment.count; i++) {
+            entries.putLong(segment.offsets[i]);
+        }
+        entries.flip();
+        try (FileChannel out = FileChannel.open(indexFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (entries.hasRemaining()) {
+                out.write(entries);
+            }
+            out.force(false);
+        }
+        segment.index = FileChannel.open(indexFile, StandardOpenOption.READ);
+        segment.offsets = null;
+    }
+
+    // ---- appends ----
+
+    // Returns the line's sequence number
+    public synchronized int append(String text) throws IOException {
+        int seq = lastSeq + 1;
+        if (dir != null) {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            // The scan on startup would take a longer record for corruption
+            if (bytes.length > MAX_LINE_BYTES) {
+                throw new IOException("Chat line of " + bytes.length + " bytes is too long to keep");
+            }
+            Segment active = segments.get(segments.size() - 1);
+            if (active.count >= SEGMENT_LINES || active.size >= SEGMENT_BYTES) {
+                seal(active);
+                active = createSegment(seq);
+                segments.add(active);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            ByteBuffer record = ByteBuffer.allocate(8 + bytes.length);
+            record.putInt(bytes.length).putInt((int) crc.getValue()).put(bytes).flip();
+            long position = active.size;
+            while (record.hasRemaining()) {
+                position += active.data.write(record, position);
+            }
+            addOffset(active, active.size);
+            active.size = position;
+            setEnd(active);
+        }
+        tail[(seq - 1) % tail.length] = text;
+        lastSeq = seq;
+        return seq;
+    }
+
+    // Appends the offset of record 'count' and counts it
+    private static void addOffset(Segment segment, long offset) {
+        if (segment.count + 2 > segment.offsets.length) {
+            segment.offsets = Arrays.copyOf(segment.offsets, segment.offsets.length * 2);
+        }
+        segment.offsets[segment.count++] = (int) offset;
+    }
+
+    private static void setEnd(Segment segment) {
+        segment.offsets[segment.count] = (int) segment.size;
+    }
+
+    // Replica side: stores a line the owner numbered. Lines arrive in order, but a mirror may
+    // start anywhere.
+    public synchronized void mirror(int seq, String text) {
+        if (seq <= 0 || dir != null) return;
+        if (seq != lastSeq + 1) {
+            ringStart = seq;
+        }
+        tail[(seq - 1) % tail.length] = text;
+        lastSeq = seq;
+    }
+
+    // ---- reads ----
+
+    public synchronized int getLastSeq() {
+        return lastSeq;
+    }
+
+    // Up to 'limit' lines ending just before 'beforeSeq' (0 = the newest lines), oldest first
+    public Page page(int beforeSeq, int limit) throws IOException {
+        int first;
+        int newest;
+        int oldestKept;
+        // 'more' tells the client to page back, which for a mirror means asking the owner
+        int oldestAnywhere;
+        List<String> lines = null;
+        synchronized (this) {
+            newest = beforeSeq <= 0 || beforeSeq > lastSeq ? lastSeq : beforeSeq - 1;
+            oldestKept = dir != null ? 1 : Math.max(ringStart, lastSeq - tail.length + 1);
+            oldestAnywhere = ringStart > 1 ? 1 : oldestKept;
+            first = Math.max(oldestKept, newest - Math.max(limit, 0) + 1);
+            if (newest < first) {
+                return new Page(newest + 1, List.of(), false);
+            }
+            if (first > lastSeq - tail.length) {
+                lines = new ArrayList<>(newest - first + 1);
+                for (int seq = first; seq <= newest; seq++) {
+                    lines.add(tail[(seq - 1) % tail.length]);
+                }
+            }
+        }
+        if (lines == null) {
+            lines = readRange(first, newest);
+        }
+        // Keep the newest lines that fit; the rest are the next page
+        int bytes = 0;
+        int keep = 0;
+        for (int i = lines.size() - 1; i >= 0; i--) {
+            bytes += lines.get(i).length() * 3 + 5;
+            if (bytes > MAX_PAGE_BYTES && keep > 0) break;
+            keep++;
+        }
+        if (keep < lines.size()) {
+            first += lines.size() - keep;
+            lines = lines.subList(lines.size() - keep, lines.size());
+        }
+        return new Page(first, lines, first > oldestAnywhere);
+    }
+
+    // Lines first..last from disk. Segments are only ever appended to the list and the ranges read
+    // here are already written, so only the segment lookup needs the lock.
+    private List<String> readRange(int first, int last) throws IOException {
+        List<String> lines = new ArrayList<>(last - first + 1);
+        int seq = first;
+        while (seq <= last) {
+            Segment segment;
+            long[] offsets;
+            int to;
+            synchronized (this) {
+                segment = segmentFor(seq);
+                to = Math.min(last, segment.firstSeq + segment.count - 1);
+                offsets = segment.offsets(seq - segment.firstSeq, to - segment.firstSeq + 1);
+            }
+            long startOffset = offsets[0];
+            ByteBuffer block = ByteBuffer.allocate((int) (offsets[offsets.length - 1] - startOffset));
+            readFully(segment.data, block, startOffset);
+            // Records are read at their own offsets: bytes the scan skipped may lie between them
+            for (int i = 0; i < offsets.length - 1; i++) {
+                int position = (int) (offsets[i] - startOffset);
+                int length = block.getInt(position);
+                // The crc after the length was checked when the segment was scanned
+                lines.add(new String(block.array(), position + 8, length, StandardCharsets.UTF_8));
+            }
+            seq = to + 1;
+        }
+        return lines;
+    }
+
+    // Binary search by first sequence number
+    private Segment segmentFor(int seq) {
+        int low = 0;
+        int high = segments.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (segments.get(mid).firstSeq <= seq) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return segments.get(low);
+    }
+
+    private Path dataFile(int firstSeq) {
+        return dir.resolve("chat-" + firstSeq + ".log");
+    }
+
+    private Path indexFile(int firstSeq) {
+        return dir.resolve("chat-" + firstSeq + ".idx");
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) throw new IOException("Unexpected end of chat segment");
+            position += n;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+
+// Checks and times ProjectChatHistory on a scratch directory: appends N lines, reopens (which
+// rescans the active segment), times HISTORY pages from the ring and from disk, then damages a
+// record in the middle of the active segment and checks that a reopen skips only that record.
+//
+// Usage: ProjectChatHistoryTest [--lines=N] [--dir=PATH]
+// The exit code is 1 if any check fails. The directory is deleted afterwards unless --dir is given.
+public class ProjectChatHistoryTest {
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        int count = 200_000;
+        Path dir = null;
+        for (String arg : args) {
+            if (arg.startsWith("--lines=")) count = Integer.parseInt(arg.substring(8));
+            else if (arg.startsWith("--dir=")) dir = Path.of(arg.substring(6));
+            else {
+                System.err.println("Unknown option " + arg);
+                System.exit(2);
+            }
+        }
+        boolean scratch = dir == null;
+        if (scratch) {
+            dir = Files.createTempDirectory("chat-history-test");
+        }
+        try {
+            run(dir, count);
+        } finally {
+            if (scratch) {
+                try (Stream<Path> files = Files.walk(dir)) {
+                    files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+                }
+            }
+        }
+        System.out.println(failures == 0 ? "OK" : failures + " check(s) failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void run(Path dir, int count) throws IOException {
+        ProjectChatHistory history = new ProjectChatHistory(dir, ProjectChatHistory.DEFAULT_TAIL_LINES);
+        history.open();
+        long start = System.nanoTime();
+        for (int i = 1; i <= count; i++) {
+            history.append(line(i));
+        }
+        System.out.printf("append %d lines: %.2f us/line%n", count, (System.nanoTime() - start) / 1e3 / count);
+
+        check(appendRefused(history, "x".repeat((1 << 20) + 1)), "a line over the record limit is refused");
+        check(history.getLastSeq() == count, "a refused line takes no sequence number");
+
+        start = System.nanoTime();
+        history = new ProjectChatHistory(dir, ProjectChatHistory.DEFAULT_TAIL_LINES);
+        history.open();
+        System.out.printf("reopen: %.0f ms%n", (System.nanoTime() - start) / 1e6);
+        check(history.getLastSeq() == count, "reopen finds every line (" + history.getLastSeq() + ")");
+
+        timePages(history, 0, "newest (ring)");
+        timePages(history, count, "random (disk)");
+        check(history.page(count / 2 + 1, 50).lines().get(49).equals(line(count / 2)), "a page from disk has the right lines");
+
+        // Corrupt one record's text in the middle of the active segment: its crc no longer matches
+        Path segment;
+        try (Stream<Path> files = Files.list(dir)) {
+            segment = files.filter(file -> file.getFileName().toString().endsWith(".log"))
+                .max(Comparator.comparingLong(file -> file.toFile().lastModified())).orElseThrow();
+        }
+        long size = Files.size(segment);
+        try (FileChannel data = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            data.write(ByteBuffer.wrap(new byte[] { '#' }), size / 2);
+        }
+        history = new ProjectChatHistory(dir, ProjectChatHistory.DEFAULT_TAIL_LINES);
+        history.open();
+        check(history.getLastSeq() == count - 1, "a corrupt record costs one line (" + history.getLastSeq() + ")");
+        check(Files.size(segment) == size, "the segment is not truncated");
+        ProjectChatHistory.Page newest = history.page(0, 1);
+        check(newest.lines().get(0).equals(line(count)), "the newest line survives");
+    }
+
+    private static boolean appendRefused(ProjectChatHistory history, String text) {
+        try {
+            history.append(text);
+            return false;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private static void timePages(ProjectChatHistory history, int bound, String label) throws IOException {
+        Random random = new Random(1);
+        long[] samples = new long[20_000];
+        for (int i = 0; i < samples.length; i++) {
+            int before = bound == 0 ? 0 : 1 + random.nextInt(bound);
+            long start = System.nanoTime();
+            history.page(before, 50);
+            samples[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(samples);
+        System.out.printf("page(%s, 50): p50 %.1f us, p99 %.1f us%n", label,
+            samples[samples.length / 2] / 1e3, samples[samples.length * 99 / 100] / 1e3);
+    }
+
+    private static String line(int i) {
+        return "user" + (i % 37) + ": message number " + i + " about task #" + (i % 9973);
+    }
+
+    private static void check(boolean passed, String what) {
+        System.out.println((passed ? "ok    " : "FAIL  ") + what);
+        if (!passed) failures++;
+    }
+}
@@ -0,0 +1,95 @@
+import javafx.collections.ObservableListBase;
+
+import java.util.List;
+import java.util.Objects;
+
+
+// The chat panel's messages: a fixed-capacity ring that ListView reads directly, so however long a
+// session runs the client keeps at most 'capacity' lines and the view only has cells for the visible ones.
+// Appending to a full log drops the oldest line in the same change; history pages are only ever
+// prepended into free capacity, so scrolling back never pushes out what was just read. FX thread only.
+class ProjectChatLog extends ObservableListBase<ProjectChatLog.Line> {
+
+    enum Kind { SYSTEM, OWN, CONTACT }
+
+    // seq is the server's chat line number, 0 for local lines and servers without history
+    record Line(String text, Kind kind, String time, int seq) {}
+
+    private final Line[] lines;
+    private int head = 0;
+    private int size = 0;
+
+    public ProjectChatLog(int capacity) {
+        this.lines = new Line[Math.max(1, capacity)];
+    }
+
+    public int capacity() {
+        return lines.length;
+    }
+
+    @Override
+    public Line get(int index) {
+        Objects.checkIndex(index, size);
+        return lines[(head + index) % lines.length];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    // Number of the oldest / newest server chat line held, 0 if none
+    public int oldestSeq() {
+        for (int i = 0; i < size; i++) {
+            int seq = get(i).seq();
+            if (seq > 0) return seq;
+        }
+        return 0;
+    }
+
+    public int newestSeq() {
+        for (int i = size - 1; i >= 0; i--) {
+            int seq = get(i).seq();
+            if (seq > 0) return seq;
+        }
+        return 0;
+    }
+
+    // Puts older lines (oldest first) in front of the current ones, keeping the newest of them that
+    // fit in the free capacity. Returns how many went in.
+    public int prepend(List<Line> older) {
+        int count = Math.min(older.size(), lines.length - size);
+        if (count == 0) return 0;
+        List<Line> kept = older.subList(older.size() - count, older.size());
+        beginChange();
+        try {
+            head = (head - count + lines.length) % lines.length;
+            for (int i = 0; i < count; i++) {
+                lines[(head + i) % lines.length] = kept.get(i);
+            }
+            size += count;
+            nextAdd(0, count);
+        } finally {
+            endChange();
+        }
+        return count;
+    }
+
+    public void append(Line line) {
+        beginChange();
+        try {
+            if (size == lines.length) {
+                Line oldest = lines[head];
+                lines[head] = null;
+                head = (head + 1) % lines.length;
+                size--;
+                nextRemove(0, oldest);
+            }
+            lines[(head + size) % lines.length] = line;
+            size++;
+            nextAdd(size - 1, size);
+        } finally {
+            endChange();
+        }
+    }
+}
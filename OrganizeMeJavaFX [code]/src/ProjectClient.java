@@ -1,17 +1,55 @@
 import java.io.*;
+import java.net.ProtocolException;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class ProjectClient {
 
+    // How long to wait for the HELLO reply before assuming a server that only speaks text
+    private static final int HELLO_TIMEOUT_MS = 3000;
+    // How long the server may take to answer USERNAME; opening a project can mean recovering it
+    private static final int JOIN_TIMEOUT_MS = 15_000;
+    // Reconnect backoff: doubles from the base up to the cap, each wait jittered so a server
+    // restart is not met by every client at the same instant
+    private static final long RECONNECT_BASE_MS = 500;
+    private static final long RECONNECT_MAX_MS = 30_000;
+    private static final int MAX_OFFLINE_COMMANDS = 1000;
+
     private final String serverAddress;
     private final int port;
     private final String username;
     private final ProjectEvents events;
 
     private Socket socket;
-    private PrintWriter out;
-    private BufferedReader in;
+    private ProjectWireCodec.WireWriter out;
+    private ProjectWireCodec.WireReader in;
     private volatile boolean connected = false;
+    private boolean binaryRequested = false;
+    private boolean binary = false;
+    // Ask for the board as a few TASK_SNAPSHOT parts on join instead of one TASK_ADDED per task
+    private boolean bulkSyncRequested = true;
+    private boolean resumable = false;
+    // Server numbers chat lines, sends recent ones on join and answers HISTORY
+    private volatile boolean chatHistory = false;
+    // Project to join; null for the server's default one, which is all an older server has
+    private String projectId;
+    private boolean rooms = false;
+
+    // Sync cursor, kept across connect() calls: the server epoch and the last task event applied.
+    // On reconnect the server uses it to send only what was missed.
+    private volatile String syncEpoch;
+    private volatile int lastSeq;
+
+    private boolean autoReconnect = false;
+    private volatile boolean closed = false;
+    private volatile Thread reconnectThread;
+    // Commands issued while offline, sent in order right after the next successful connect
+    private final ArrayDeque<ProjectMessage> offlineQueue = new ArrayDeque<>();
 
     public ProjectClient(String serverAddress, int port, String username, ProjectEvents events) {
         this.serverAddress = serverAddress;
@@ -20,82 +58,364 @@ public class ProjectClient {
         this.events = events;
     }
 
+    // Ask for length-prefixed binary frames instead of text lines; call before connect()
+    public void setBinaryProtocol(boolean binaryRequested) {
+        this.binaryRequested = binaryRequested;
+    }
+
+    public boolean isBinaryProtocol() {
+        return binary;
+    }
+
+    // Call before connect()
+    public void setProject(String projectId) {
+        this.projectId = projectId;
+    }
+
+    public void setBulkSync(boolean bulkSyncRequested) {
+        this.bulkSyncRequested = bulkSyncRequested;
+    }
+
+    // Reconnect on its own after a lost connection and queue up to MAX_OFFLINE_COMMANDS
+    // commands until it is back; call before connect()
+    public void setAutoReconnect(boolean autoReconnect) {
+        this.autoReconnect = autoReconnect;
+    }
+
     public void connect() throws IOException {
+        closed = false;
+        open();
+    }
+
+    private void open() throws IOException {
         socket = new Socket(serverAddress, port);
-        out = new PrintWriter(socket.getOutputStream(), true);
-        in  = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        connected = true;
+        List<ProjectMessage> early;
+        try {
+            out = new ProjectWireCodec.WireWriter(socket.getOutputStream());
+            in  = new ProjectWireCodec.WireReader(new BufferedInputStream(socket.getInputStream()));
+
+            List<String> earlyLines = negotiate();
+            out.setBinary(binary);
+            if (projectId != null && !rooms) {
+                throw new JoinRefusedException("This server only has the shared project board");
+            }
 
-        // Identify to server
-        out.println("USERNAME:" + username);
+            synchronized (this) {
+                if (closed) {
+                    throw new IOException("Disconnected");
+                }
+                if (projectId != null) {
+                    out.write(ProjectMessage.project(projectId));
+                }
+                if (resumable && syncEpoch != null) {
+                    out.write(ProjectMessage.resume(syncEpoch, lastSeq));
+                }
+                // Identify to server
+                out.write(ProjectMessage.username(username).withoutLineBreaks());
+                out.flush();
+            }
+            early = awaitJoin(earlyLines);
+
+            synchronized (this) {
+                if (closed) {
+                    throw new IOException("Disconnected");
+                }
+                // Then whatever was typed while offline, before any new command can overtake it.
+                // An unjoined connection ignores commands, so they are only dropped from the queue
+                // once the server has taken the user in and the flush succeeded.
+                for (ProjectMessage queued : offlineQueue) {
+                    out.write(queued);
+                }
+                out.flush();
+                offlineQueue.clear();
+                connected = true;
+            }
+        } catch (IOException e) {
+            closeQuietly();
+            throw e;
+        }
 
         // Start listener thread
-        Thread listener = new Thread(this::listenForMessages);
+        Thread listener = new Thread(() -> listenForMessages(early));
         listener.setDaemon(true);
         listener.start();
     }
 
-    private void listenForMessages() {
+    // Reads until the server welcomes the user. A taken username (usually our own old session,
+    // until the server notices it is gone) or a project that isn't available fails the attempt.
+    // Everything read, the welcome included, is returned for the listener to handle first.
+    private List<ProjectMessage> awaitJoin(List<String> earlyLines) throws IOException {
+        List<ProjectMessage> early = new ArrayList<>();
+        for (String line : earlyLines) {
+            early.add(ProjectMessage.parse(line, true));
+        }
+        socket.setSoTimeout(JOIN_TIMEOUT_MS);
+        try {
+            while (true) {
+                ProjectMessage message;
+                if (binary) {
+                    message = in.readFrame();
+                    if (message == null) throw new EOFException("Server closed the connection");
+                } else {
+                    String line = in.readLine();
+                    if (line == null) throw new EOFException("Server closed the connection");
+                    message = ProjectMessage.parse(line, true);
+                }
+                if (message == null) continue;
+                early.add(message);
+                if (message.getType() != ProjectMessage.Type.SYSTEM) continue;
+
+                String text = message.field(0);
+                if (text.startsWith("Welcome to the project")) {
+                    return early;
+                } else if (text.startsWith("Username already taken")) {
+                    throw new IOException("Username " + username + " is already taken");
+                } else if (text.startsWith("Invalid project name") || text.startsWith("Invalid username")) {
+                    throw new JoinRefusedException(text);
+                } else if (text.startsWith("Project ") && text.endsWith(" is not available")) {
+                    throw new IOException(text);
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            throw new IOException("No answer from the server after joining");
+        } finally {
+            socket.setSoTimeout(0);
+        }
+    }
+
+    // Sends HELLO and waits for the reply. Older servers never answer HELLO, so a timeout just
+    // means "plain text, one TASK_ADDED per task, no resume". Broadcasts can be queued ahead of the
+    // reply; those lines are returned for the listener to handle first.
+    private List<String> negotiate() throws IOException {
+        List<String> features = new ArrayList<>();
+        if (binaryRequested) features.add(ProjectWireCodec.FEATURE_BINARY);
+        if (bulkSyncRequested) features.add(ProjectWireCodec.FEATURE_SNAPSHOT);
+        features.add(ProjectWireCodec.FEATURE_RESUME);
+        features.add(ProjectWireCodec.FEATURE_HISTORY);
+        features.add(ProjectWireCodec.FEATURE_ROOMS);
+        features.add(ProjectWireCodec.FEATURE_HEARTBEAT);
+        out.write(ProjectMessage.hello(ProjectWireCodec.VERSION, String.join(",", features)));
+        out.flush();
+        List<String> earlyLines = new ArrayList<>();
+        long deadline = System.currentTimeMillis() + HELLO_TIMEOUT_MS;
+        try {
+            long remaining;
+            while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+                socket.setSoTimeout((int) remaining);
+                String line = in.readLine();
+                if (line == null) break;
+                ProjectMessage reply = ProjectMessage.parse(line, true);
+                if (reply != null && reply.getType() == ProjectMessage.Type.HELLO) {
+                    List<String> accepted = Arrays.asList(reply.field(1).split(","));
+                    binary = accepted.contains(ProjectWireCodec.FEATURE_BINARY);
+                    resumable = accepted.contains(ProjectWireCodec.FEATURE_RESUME);
+                    chatHistory = accepted.contains(ProjectWireCodec.FEATURE_HISTORY);
+                    rooms = accepted.contains(ProjectWireCodec.FEATURE_ROOMS);
+                    return earlyLines;
+                }
+                earlyLines.add(line);
+            }
+        } catch (SocketTimeoutException e) {
+            // No reply: an older server
+        } finally {
+            socket.setSoTimeout(0);
+        }
+        binary = false;
+        resumable = false;
+        chatHistory = false;
+        rooms = false;
+        return earlyLines;
+    }
+
+    private void listenForMessages(List<ProjectMessage> early) {
         try {
-            String message;
-            while (connected && (message = in.readLine()) != null) {
+            for (ProjectMessage message : early) {
                 dispatch(message);
             }
+            if (binary) {
+                ProjectMessage message;
+                while (connected && (message = in.readFrame()) != null) {
+                    dispatch(message);
+                }
+            } else {
+                String line;
+                while (connected && (line = in.readLine()) != null) {
+                    dispatch(ProjectMessage.parse(line, true));
+                }
+            }
         } catch (IOException e) {
-            if (connected) {
+            if (connected && !autoReconnect) {
                 events.onDisconnected("Connection lost: " + e.getMessage());
             }
         } finally {
-            connected = false;
+            synchronized (this) {
+                connected = false;
+            }
             closeQuietly();
         }
+        if (autoReconnect && !closed) {
+            reconnect();
+        }
     }
 
-    private void dispatch(String message) {
-        if (message.startsWith("SYSTEM:")) {
-            events.onSystemMessage(message.substring(7));
-        } else if (message.startsWith("MESSAGE:")) {
-            events.onChatMessage(message.substring(8));
-        } else if (message.startsWith("USERS:")) {
-            events.onUsersUpdated(message.substring(6));
-        } else if (message.startsWith("TASK_ADDED:")) {
-            events.onTaskAdded(message.substring(11));
-        } else if (message.startsWith("TASK_COMPLETED:")) {
-            events.onTaskCompleted(message.substring(15));
-        } else if (message.startsWith("TASK_DELETED:")) {
-            events.onTaskDeleted(message.substring(13));
+    // Runs on the old listener thread until a connect succeeds or disconnect() is called
+    private void reconnect() {
+        reconnectThread = Thread.currentThread();
+        try {
+            for (int attempt = 1; !closed; attempt++) {
+                long delay = backoffDelay(attempt);
+                events.onReconnecting(attempt, delay);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (closed) break;
+                try {
+                    open();
+                    events.onReconnected();
+                    return;
+                } catch (JoinRefusedException e) {
+                    // Trying again won't change the answer
+                    closed = true;
+                    events.onDisconnected("Could not rejoin: " + e.getMessage());
+                    return;
+                } catch (IOException e) {
+                    System.err.println("Reconnect attempt " + attempt + " failed: " + e.getMessage());
+                }
+            }
+        } finally {
+            reconnectThread = null;
+        }
+    }
+
+    // Half the exponential step plus a random share of the other half
+    static long backoffDelay(int attempt) {
+        long step = Math.min(RECONNECT_MAX_MS, RECONNECT_BASE_MS << Math.min(attempt - 1, 16));
+        return step / 2 + ThreadLocalRandom.current().nextLong(step / 2 + 1);
+    }
+
+    private void dispatch(ProjectMessage message) throws IOException {
+        if (message == null) return;
+        if (message.getType() == ProjectMessage.Type.SYNC) {
+            syncEpoch = message.field(0);
+            lastSeq = message.getSeq();
+            return;
+        }
+        if (message.getType().hasSeq && message.getSeq() > 0) {
+            // Already applied (seen before a reconnect)
+            if (message.getSeq() <= lastSeq) return;
+            lastSeq = message.getSeq();
+        }
+        switch (message.getType()) {
+            case SYSTEM -> events.onSystemMessage(message.field(0));
+            case CHAT -> events.onChatMessage(message.field(0));
+            case CHAT_LINE -> events.onChatMessage(message.field(1), chatSeq(message.field(0)));
+            case CHAT_PAGE -> events.onChatHistory(message.getChatLines(), chatSeq(message.field(0)),
+                message.field(1).equals("1"));
+            case USERS -> events.onUsersUpdated(message.field(0));
+            case TASK_ADDED -> events.onTaskAdded(message);
+            case TASK_COMPLETED -> events.onTaskCompleted(message);
+            case TASK_DELETED -> events.onTaskDeleted(message);
+            case TASK_SNAPSHOT -> events.onTaskSnapshot(ProjectTaskSnapshot.decode(message),
+                ProjectTaskSnapshot.isFirstPart(message));
+            case PING -> pong();
+            default -> { }
+        }
+    }
+
+    private static int chatSeq(String field) throws ProtocolException {
+        try {
+            return Integer.parseInt(field);
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Bad chat sequence number " + field);
         }
     }
 
     // ---- outgoing commands ----
-    public void sendChat(String message) {
-        if (connected) out.println("MESSAGE:" + message);
+    // Each returns false if the command was dropped: offline without auto-reconnect, or the
+    // offline queue is full
+    public boolean sendChat(String message) {
+        return send(ProjectMessage.sendChat(message));
     }
 
-    public void addTask(String title, String description) {
-        if (connected) out.println("ADD_TASK:" + title + "|" + description);
+    public boolean addTask(String title, String description) {
+        return send(ProjectMessage.addTask(title, description));
     }
 
-    public void completeTask(int taskId) {
-        if (connected) out.println("COMPLETE_TASK:" + taskId);
+    public boolean completeTask(int taskId) {
+        return send(ProjectMessage.completeTask(taskId));
     }
 
-    public void deleteTask(int taskId) {
-        if (connected) out.println("DELETE_TASK:" + taskId);
+    public boolean deleteTask(int taskId) {
+        return send(ProjectMessage.deleteTask(taskId));
+    }
+
+    // Asks for up to 'limit' chat lines older than 'beforeSeq'; the page arrives as onChatHistory.
+    // Not queued while offline: the join page after a reconnect covers it.
+    public boolean requestChatHistory(int beforeSeq, int limit) {
+        return connected && chatHistory && send(ProjectMessage.history(beforeSeq, limit));
+    }
+
+    // Called from the FX thread; a failed write shows up as a disconnect on the listener
+    private synchronized boolean send(ProjectMessage message) {
+        // The server would replace them anyway, and a text connection can't carry them
+        message = message.withoutLineBreaks();
+        if (connected) {
+            try {
+                out.write(message);
+                out.flush();
+                return true;
+            } catch (IOException e) {
+                // Most likely never reached the server; queue it for the reconnect below
+            }
+        }
+        if (!autoReconnect || closed || offlineQueue.size() >= MAX_OFFLINE_COMMANDS) {
+            return false;
+        }
+        offlineQueue.add(message);
+        return true;
+    }
+
+    // Straight to the socket: a PONG is only worth anything on the connection the PING came in on
+    private synchronized void pong() {
+        if (!connected) return;
+        try {
+            out.write(ProjectMessage.pong());
+            out.flush();
+        } catch (IOException e) {
+            // The listener sees the broken connection on its next read
+        }
     }
 
     public boolean isConnected() {
         return connected;
     }
 
+    public synchronized int getQueuedCommandCount() {
+        return offlineQueue.size();
+    }
+
     public void disconnect() {
+        closed = true;
         connected = false;
+        Thread waiting = reconnectThread;
+        if (waiting != null) {
+            waiting.interrupt();
+        }
         closeQuietly();
     }
 
     private void closeQuietly() {
-        try { if (out != null) out.close(); } catch (Exception ignored) {}
-        try { if (in  != null) in.close(); } catch (Exception ignored) {}
         try { if (socket != null) socket.close(); } catch (Exception ignored) {}
     }
+
+    // The server won't take this client in however often it asks, so there is no point reconnecting
+    static class JoinRefusedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        JoinRefusedException(String message) {
+            super(message);
+        }
+    }
 }
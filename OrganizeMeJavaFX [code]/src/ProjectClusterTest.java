@@ -0,0 +1,284 @@
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+
+// Three ProjectServer nodes on this machine, each in its own JVM (NIO with one selector thread,
+// memory-only), sharing projects over the TCP bus. Real ProjectClients on different nodes check
+// that tasks and chat reach every node, that a username taken on one node is refused on another,
+// that a late joiner gets the board from its node's replica and that rooms stay apart. Then one
+// client adds N tasks on a node that doesn't own the room and every node's client times each
+// TASK_ADDED. Last, the owner of a room is frozen (SIGSTOP) while a client joins that room, and
+// chat in a room of the joiner's node must keep flowing. Linux only, for kill.
+//
+// Usage: ProjectClusterTest [--port=N] [--tasks=N] [--max-p99-ms=MS]
+// Nodes a, b and c take client ports N, N+1, N+2 and bus ports N+10, N+11, N+12. The exit code is 1
+// if any check fails.
+public class ProjectClusterTest {
+    private static final String[] NODES = { "a", "b", "c" };
+    private static int failures = 0;
+
+    // Everything one client has seen, with the time each task title first arrived
+    private static final class Probe implements ProjectEvents {
+        final Map<String, Long> tasks = new ConcurrentHashMap<>();
+        final List<String> chat = new CopyOnWriteArrayList<>();
+
+        public void onSystemMessage(String message) {}
+        public void onChatMessage(String message) { chat.add(message); }
+        public void onUsersUpdated(String usersCsv) {}
+        public void onTaskAdded(ProjectMessage task) { tasks.putIfAbsent(task.field(0), System.nanoTime()); }
+        public void onTaskCompleted(ProjectMessage task) {}
+        public void onTaskDeleted(ProjectMessage task) {}
+        public void onDisconnected(String reason) {}
+
+        @Override
+        public void onTaskSnapshot(List<ProjectMessage> snapshot, boolean reset) {
+            for (ProjectMessage task : snapshot) {
+                onTaskAdded(task);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = Integer.parseInt(ProjectServer.option(args, "port", "13401"));
+        int taskCount = Integer.parseInt(ProjectServer.option(args, "tasks", "2000"));
+        long maxP99 = Long.parseLong(ProjectServer.option(args, "max-p99-ms", "100"));
+        StringBuilder cluster = new StringBuilder();
+        for (int i = 0; i < NODES.length; i++) {
+            cluster.append(i > 0 ? "," : "").append(NODES[i]).append("@localhost:").append(port + 10 + i);
+        }
+        String java = ProcessHandle.current().info().command().orElse("java");
+        List<Process> nodes = new ArrayList<>();
+        try {
+            for (int i = 0; i < NODES.length; i++) {
+                nodes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "ProjectServer",
+                    "--io=nio", "--io-threads=1", "--port=" + (port + i), "--data-dir=none", "--ping-interval=0",
+                    "--metrics-log=0", "--node=" + NODES[i], "--cluster=" + cluster)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start());
+            }
+            for (int i = 0; i < NODES.length; i++) {
+                awaitPort(port + i);
+            }
+            awaitLinks(port);
+            acrossNodes(port);
+            latency(port, taskCount, maxP99);
+            ownerFrozen(port, nodes.get(2));
+        } finally {
+            for (Process node : nodes) {
+                node.destroy();
+                node.waitFor();
+            }
+        }
+        System.out.println(failures == 0 ? "OK" : failures + " check(s) failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // The nodes connect to each other in the background; joins fail until they have
+    private static void awaitLinks(int port) throws InterruptedException {
+        for (int i = 0; i < NODES.length; i++) {
+            for (String owner : NODES) {
+                for (int attempt = 0; ; attempt++) {
+                    try {
+                        client(port + i, roomOwnedBy(owner, "w"), "warmup", new Probe()).disconnect();
+                        break;
+                    } catch (IOException e) {
+                        if (attempt == 100) {
+                            throw new IllegalStateException("Node " + NODES[i] + " can't reach node " + owner);
+                        }
+                        Thread.sleep(100);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void acrossNodes(int port) throws Exception {
+        String room = roomOwnedBy("a", "p");
+        Probe ann = new Probe();
+        Probe bob = new Probe();
+        Probe cat = new Probe();
+        ProjectClient onA = client(port, room, "ann", ann);
+        ProjectClient onB = client(port + 1, room, "bob", bob);
+        ProjectClient onC = client(port + 2, room, "cat", cat);
+        onB.addTask("from-b", "");
+        onC.sendChat("hello from c");
+        onA.addTask("from-a", "");
+        boolean everywhere = await(() -> {
+            for (Probe probe : List.of(ann, bob, cat)) {
+                if (!probe.tasks.containsKey("from-a") || !probe.tasks.containsKey("from-b")
+                        || !probe.chat.contains("cat: hello from c")) {
+                    return false;
+                }
+            }
+            return true;
+        });
+        check(everywhere, "tasks and chat sent on any node reach the room's clients on every node");
+
+        boolean refused;
+        try {
+            client(port + 2, room, "bob", new Probe()).disconnect();
+            refused = false;
+        } catch (IOException e) {
+            refused = true;
+        }
+        check(refused, "a username taken on node b is refused on node c");
+
+        Probe dan = new Probe();
+        ProjectClient late = client(port + 1, room, "dan", dan);
+        check(await(() -> dan.tasks.containsKey("from-a") && dan.tasks.containsKey("from-b")),
+            "a late joiner on a replica node gets the board");
+
+        Probe eve = new Probe();
+        ProjectClient other = client(port, roomOwnedBy("b", "q"), "eve", eve);
+        other.addTask("other-room", "");
+        check(await(() -> eve.tasks.containsKey("other-room")) && !ann.tasks.containsKey("other-room")
+            && !cat.tasks.containsKey("other-room"), "a task in another room stays in that room");
+        for (ProjectClient client : List.of(onA, onB, onC, late, other)) {
+            client.disconnect();
+        }
+    }
+
+    // One client on node b adds tasks to a room owned by a; clients on all three nodes time them.
+    // The first round warms the nodes up.
+    private static void latency(int port, int taskCount, long maxP99) throws Exception {
+        for (int round = 0; round < 2; round++) {
+            latency(port, roomOwnedBy("a", "r" + round + "-"), taskCount, round == 1 ? maxP99 : -1);
+        }
+    }
+
+    private static void latency(int port, String room, int taskCount, long maxP99) throws Exception {
+        Probe[] receivers = { new Probe(), new Probe(), new Probe() };
+        List<ProjectClient> clients = new ArrayList<>();
+        ProjectClient sender = client(port + 1, room, "sender", new Probe());
+        for (int i = 0; i < NODES.length; i++) {
+            clients.add(client(port + i, room, "on-" + NODES[i], receivers[i]));
+        }
+        long[] sent = new long[taskCount];
+        for (int i = 0; i < taskCount; i++) {
+            sent[i] = System.nanoTime();
+            sender.addTask("t" + i, "");
+            // About 2000 adds a second
+            if (i % 10 == 9) Thread.sleep(5);
+        }
+        for (int i = 0; i < NODES.length; i++) {
+            Probe probe = receivers[i];
+            await(() -> probe.tasks.size() >= taskCount);
+            if (maxP99 < 0) {
+                continue;
+            }
+            long[] latencies = new long[taskCount];
+            int received = 0;
+            for (int t = 0; t < taskCount; t++) {
+                Long at = probe.tasks.get("t" + t);
+                if (at != null) latencies[received++] = at - sent[t];
+            }
+            Arrays.sort(latencies, 0, received);
+            double p99 = received > 0 ? latencies[(int) (received * 0.99)] / 1e6 : Double.NaN;
+            System.out.printf("TASK_ADDED from node b to a client on node %s%s: %d/%d, p50 %.2f ms, p99 %.2f ms,"
+                + " max %.2f ms%n", NODES[i], NODES[i].equals("a") ? " (owner)" : "", received, taskCount,
+                received > 0 ? latencies[received / 2] / 1e6 : Double.NaN, p99,
+                received > 0 ? latencies[received - 1] / 1e6 : Double.NaN);
+            check(received == taskCount && p99 <= maxP99, "node " + NODES[i] + " got every task with p99 within "
+                + maxP99 + " ms");
+        }
+        sender.disconnect();
+        for (ProjectClient client : clients) {
+            client.disconnect();
+        }
+    }
+
+    // While a join on node a waits on frozen node c, chat in a room node a owns keeps flowing
+    private static void ownerFrozen(int port, Process ownerNode) throws Exception {
+        Probe chatter = new Probe();
+        ProjectClient local = client(port, roomOwnedBy("a", "s"), "chatter", chatter);
+        signal(ownerNode, "STOP");
+        try {
+            Thread joiner = new Thread(() -> {
+                try {
+                    client(port, roomOwnedBy("c", "t"), "joiner", new Probe()).disconnect();
+                } catch (IOException e) {
+                    // Expected: the owner does not answer
+                }
+            });
+            joiner.start();
+            Thread.sleep(300);
+            long worst = 0;
+            boolean delivered = true;
+            for (int i = 0; i < 10 && delivered; i++) {
+                long start = System.nanoTime();
+                String line = "chatter: m" + i;
+                local.sendChat("m" + i);
+                delivered = await(() -> chatter.chat.contains(line));
+                worst = Math.max(worst, (System.nanoTime() - start) / 1_000_000);
+                Thread.sleep(100);
+            }
+            System.out.println("chat round trips on node a while a join waits on frozen node c: worst " + worst + " ms");
+            check(delivered && worst < 1000, "chat keeps flowing while a join waits on a frozen owner");
+            joiner.join();
+        } finally {
+            signal(ownerNode, "CONT");
+            local.disconnect();
+        }
+    }
+
+    // The same owner ProjectServer_Cluster picks: node ids sorted, room id hashed over them
+    private static String roomOwnedBy(String node, String prefix) {
+        for (int i = 0; ; i++) {
+            String room = prefix + i;
+            if (NODES[Math.floorMod(room.hashCode(), NODES.length)].equals(node)) {
+                return room;
+            }
+        }
+    }
+
+    private static ProjectClient client(int port, String room, String username, Probe probe) throws IOException {
+        ProjectClient client = new ProjectClient("localhost", port, username, probe);
+        client.setBinaryProtocol(true);
+        client.setBulkSync(true);
+        client.setProject(room);
+        client.setAutoReconnect(false);
+        client.connect();
+        return client;
+    }
+
+    // Polls for up to 5 s
+    private static boolean await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    private static void signal(Process process, String signal) throws Exception {
+        new ProcessBuilder("kill", "-" + signal, String.valueOf(process.pid())).inheritIO().start().waitFor();
+    }
+
+    private static void awaitPort(int port) throws InterruptedException {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            try {
+                new Socket("localhost", port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("Server did not start on port " + port);
+    }
+
+    private static void check(boolean passed, String what) {
+        System.out.println((passed ? "ok    " : "FAIL  ") + what);
+        if (!passed) failures++;
+    }
+}
@@ -0,0 +1,105 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+
+// Compares what idle connections cost the server in each --io mode. For every mode it starts a
+// ProjectServer in a child JVM, opens N sockets that each join under their own username and then
+// stay quiet, and reads the server's thread count and resident memory from /proc/<pid>/status
+// before and after. Linux only, for /proc.
+//
+// Usage: ProjectConnectionsTest [--clients=N] [--modes=thread,virtual,nio] [--port=N]
+// The exit code is 1 if a mode can't hold the connections, or if virtual or nio use more than a
+// tenth of the threads thread mode does.
+public class ProjectConnectionsTest {
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        int clients = Integer.parseInt(ProjectServer.option(args, "clients", "2000"));
+        String[] modes = ProjectServer.option(args, "modes", "thread,virtual,nio").split(",");
+        int port = Integer.parseInt(ProjectServer.option(args, "port", "12345"));
+
+        long platformThreads = -1;
+        System.out.printf("%-8s %8s %10s %14s%n", "mode", "threads", "RSS (MB)", "RSS per client");
+        for (String mode : modes) {
+            long[] usage = measure(mode, clients, port);
+            if (usage == null) {
+                continue;
+            }
+            System.out.printf("%-8s %8d %10d %11.1f KB%n", mode, usage[0], usage[1] >> 10,
+                (double) (usage[1] - usage[2]) / clients);
+            if (mode.equals("thread")) {
+                platformThreads = usage[0];
+            } else if (platformThreads > 0 && clients >= 1000) {
+                check(usage[0] * 10 < platformThreads, mode + " uses a tenth of thread mode's threads or fewer");
+            }
+        }
+        System.out.println(failures == 0 ? "OK" : failures + " check(s) failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // { threads, RSS KB, RSS KB before the clients } for a server in 'mode' holding 'clients' connections
+    private static long[] measure(String mode, int clients, int port) throws Exception {
+        String java = ProcessHandle.current().info().command().orElse("java");
+        Process server = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "ProjectServer",
+            "--io=" + mode, "--port=" + port, "--data-dir=none", "--ping-interval=0", "--metrics-log=0")
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            awaitPort(port);
+            long idle = status(server.pid(), "VmRSS");
+            for (int i = 0; i < clients; i++) {
+                Socket socket = new Socket("localhost", port);
+                OutputStream out = socket.getOutputStream();
+                out.write(("USERNAME:idle" + i + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                sockets.add(socket);
+            }
+            // Let the server take every join and settle
+            Thread.sleep(3000);
+            long threads = status(server.pid(), "Threads");
+            long rss = status(server.pid(), "VmRSS");
+            check(server.isAlive(), mode + " holds " + clients + " connections");
+            return new long[] { threads, rss, idle };
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            server.destroy();
+            server.waitFor();
+        }
+    }
+
+    private static long status(long pid, String field) throws IOException {
+        for (String line : Files.readAllLines(Path.of("/proc/" + pid + "/status"))) {
+            if (line.startsWith(field + ":")) {
+                return Long.parseLong(line.substring(field.length() + 1).trim().split("\\s+")[0]);
+            }
+        }
+        throw new IOException("No " + field + " in /proc/" + pid + "/status");
+    }
+
+    private static void awaitPort(int port) throws InterruptedException {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            try {
+                new Socket("localhost", port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("Server did not start on port " + port);
+    }
+
+    private static void check(boolean passed, String what) {
+        System.out.println((passed ? "ok    " : "FAIL  ") + what);
+        if (!passed) failures++;
+    }
+}
@@ -4,17 +4,16 @@ import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
-import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Optional;
 import java.util.function.Supplier;
 
 public class ProjectController {
 
-    @FXML private VBox taskArea;
-    @FXML private ScrollPane scrollPane;
+    @FXML private ListView<ProjectTaskItem> taskList;
     @FXML private TextField taskTitleInput;
     @FXML private TextArea taskDescriptionInput;
     @FXML private Button addTaskButton;
@@ -23,8 +22,7 @@ public class ProjectController {
     @FXML private Label userCount;
     @FXML private TextField messageInput;
     @FXML private Button sendMessageButton;
-    @FXML private VBox chatArea;
-    @FXML private ScrollPane chatScrollPane;
+    @FXML private ListView<ProjectChatLog.Line> chatList;
 
     private ProjectClient client;
     private String username;
@@ -32,6 +30,8 @@ public class ProjectController {
     private final BooleanProperty connected = new SimpleBooleanProperty(false);
 
     private ProjectViewHelper viewHelper;
+    // Network events reach the view in per-frame batches
+    private final ProjectEventCoalescer ui = new ProjectEventCoalescer();
 
     public void initialize() {
         // helper needs username + client suppliers
@@ -39,10 +39,8 @@ public class ProjectController {
         Supplier<ProjectClient> clientSupplier = () -> client;
 
         viewHelper = new ProjectViewHelper(
-            taskArea,
-            chatArea,
-            scrollPane,
-            chatScrollPane,
+            taskList,
+            chatList,
             userList,
             userCount,
             usernameSupplier,
@@ -79,9 +77,12 @@ public class ProjectController {
         String description = taskDescriptionInput.getText().trim();
 
         if (!title.isEmpty() && connected.get()) {
-            client.addTask(title, description);
-            taskTitleInput.clear();
-            taskDescriptionInput.clear();
+            if (client.addTask(title, description)) {
+                taskTitleInput.clear();
+                taskDescriptionInput.clear();
+            } else {
+                showOfflineQueueFull();
+            }
         } else if (title.isEmpty()) {
             Alert alert = new Alert(Alert.AlertType.WARNING);
             alert.setTitle("Invalid Task");
@@ -94,11 +95,22 @@ public class ProjectController {
     private void handleSendMessage() {
         String message = messageInput.getText().trim();
         if (!message.isEmpty() && connected.get()) {
-            client.sendChat(message);
-            messageInput.clear();
+            if (client.sendChat(message)) {
+                messageInput.clear();
+            } else {
+                showOfflineQueueFull();
+            }
         }
     }
 
+    private void showOfflineQueueFull() {
+        Alert alert = new Alert(Alert.AlertType.WARNING);
+        alert.setTitle("Offline");
+        alert.setHeaderText("Too many changes waiting for the server");
+        alert.setContentText("Wait for the connection to come back and try again.");
+        alert.showAndWait();
+    }
+
     public void showConnectionDialog() {
         TextInputDialog serverDialog = new TextInputDialog("localhost");
         serverDialog.setTitle("Connect to Project Server");
@@ -109,6 +121,22 @@ public class ProjectController {
         if (serverResult.isPresent()) {
             String serverAddress = serverResult.get();
 
+            TextInputDialog projectDialog = new TextInputDialog(ProjectMessage.DEFAULT_PROJECT);
+            projectDialog.setTitle("Project");
+            projectDialog.setHeaderText("Choose Project");
+            projectDialog.setContentText("Project name (letters, digits, - and _):");
+
+            Optional<String> projectResult = projectDialog.showAndWait();
+            if (projectResult.isEmpty()) {
+                primaryStage.close(); // Exit if user cancels
+                return;
+            }
+            String project = projectResult.get().trim();
+            if (!ProjectMessage.isValidProjectId(project)) {
+                showConnectionDialog(); // Retry if the name can't be used
+                return;
+            }
+
             TextInputDialog usernameDialog = new TextInputDialog();
             usernameDialog.setTitle("Username");
             usernameDialog.setHeaderText("Enter Username");
@@ -118,7 +146,7 @@ public class ProjectController {
             if (usernameResult.isPresent()) {
                 String username = usernameResult.get().trim();
                 if (!username.isEmpty()) {
-                    connectToServer(serverAddress, username);
+                    connectToServer(serverAddress, project, username);
                 } else {
                     showConnectionDialog(); // Retry if empty username
                 }
@@ -130,49 +158,67 @@ public class ProjectController {
         }
     }
 
-    private void connectToServer(String serverAddress, String username) {
+    private void connectToServer(String serverAddress, String project, String username) {
         this.username = username;
 
         ProjectEvents events = new ProjectEvents() {
             @Override
             public void onSystemMessage(String message) {
-                Platform.runLater(() -> 
+                ui.post(() -> 
                 viewHelper.addSystemMessage(message));
             }
 
             @Override
             public void onChatMessage(String message) {
-                Platform.runLater(() -> 
+                ui.post(() -> 
                 viewHelper.addChatMessage(message));
             }
 
+            @Override
+            public void onChatMessage(String message, int chatSeq) {
+                ui.post(() -> 
+                viewHelper.addChatMessage(message, chatSeq));
+            }
+
+            @Override
+            public void onChatHistory(List<String> messages, int firstSeq, boolean more) {
+                ui.post(() -> 
+                viewHelper.handleChatHistory(messages, firstSeq, more));
+            }
+
             @Override
             public void onUsersUpdated(String usersCsv) {
-                Platform.runLater(() -> 
+                ui.post(() -> 
                 viewHelper.updateUserList(usersCsv));
             }
 
             @Override
-            public void onTaskAdded(String taskData) {
-                Platform.runLater(() -> 
-                viewHelper.handleTaskAdded(taskData));
+            public void onTaskAdded(ProjectMessage task) {
+                ui.post(() -> 
+                viewHelper.handleTaskAdded(task));
+            }
+
+            @Override
+            public void onTaskCompleted(ProjectMessage task) {
+                ui.post(() -> 
+                viewHelper.handleTaskCompleted(task));
             }
 
             @Override
-            public void onTaskCompleted(String taskData) {
-                Platform.runLater(() -> 
-                viewHelper.handleTaskCompleted(taskData));
+            public void onTaskDeleted(ProjectMessage task) {
+                ui.post(() -> 
+                viewHelper.handleTaskDeleted(task));
             }
 
             @Override
-            public void onTaskDeleted(String taskData) {
-                Platform.runLater(() -> 
-                viewHelper.handleTaskDeleted(taskData));
+            public void onTaskSnapshot(List<ProjectMessage> tasks, boolean reset) {
+                ui.post(() -> 
+                viewHelper.handleTaskSnapshot(tasks, reset));
             }
 
             @Override
             public void onDisconnected(String reason) {
-                Platform.runLater(() -> {
+                ui.post(() -> {
                     viewHelper.addSystemMessage(reason);
                     connectionStatus.setText("Disconnected");
                     connectionStatus.getStyleClass().removeAll("status-connected");
@@ -180,33 +226,80 @@ public class ProjectController {
                     connected.set(false);
                 });
             }
-        };
 
-        client = new ProjectClient(serverAddress, 12345, username, events);
-
-        try {
-            client.connect();
-            connected.set(true);
+            // Inputs stay enabled while reconnecting: commands are queued and sent on reconnect
+            @Override
+            public void onReconnecting(int attempt, long delayMs) {
+                ui.post(() -> {
+                    if (attempt == 1) {
+                        viewHelper.addSystemMessage("Connection lost, reconnecting...");
+                    }
+                    connectionStatus.setText("Reconnecting (attempt " + attempt + ")...");
+                    connectionStatus.getStyleClass().removeAll("status-connected");
+                    connectionStatus.getStyleClass().add("status-disconnected");
+                });
+            }
 
-            connectionStatus.setText("Connected to " + serverAddress);
-            connectionStatus.getStyleClass().removeAll("status-disconnected");
-            connectionStatus.getStyleClass().add("status-connected");
-            primaryStage.setTitle("Project Manager - " + username);
+            @Override
+            public void onReconnected() {
+                ui.post(() -> {
+                    viewHelper.addSystemMessage("Reconnected");
+                    connectionStatus.setText("Connected to " + serverAddress);
+                    connectionStatus.getStyleClass().removeAll("status-disconnected");
+                    connectionStatus.getStyleClass().add("status-connected");
+                });
+            }
+        };
 
-        } catch (IOException e) {
-            Alert alert = new Alert(Alert.AlertType.ERROR);
-            alert.setTitle("Connection Error");
-            alert.setHeaderText("Failed to connect to server");
-            alert.setContentText("Error: " + e.getMessage());
-            alert.showAndWait();
-            showConnectionDialog(); // Retry
+        client = new ProjectClient(serverAddress, 12345, username, events);
+        // Opt in with -Dproject.protocol=binary; falls back to text against older servers
+        client.setBinaryProtocol("binary".equals(System.getProperty("project.protocol")));
+        client.setAutoReconnect(true);
+        // The default project is also the whole board of servers without projects
+        if (!project.equals(ProjectMessage.DEFAULT_PROJECT)) {
+            client.setProject(project);
         }
+
+        // Connecting waits for the server's replies, which can take seconds; the result comes back
+        // through 'ui' after whatever the client has already posted
+        ProjectClient connecting = client;
+        connectionStatus.setText("Connecting to " + serverAddress + "...");
+        Thread connector = new Thread(() -> {
+            try {
+                connecting.connect();
+                ui.post(() -> {
+                    if (client != connecting) return;
+                    connected.set(true);
+
+                    connectionStatus.setText("Connected to " + serverAddress);
+                    connectionStatus.getStyleClass().removeAll("status-disconnected");
+                    connectionStatus.getStyleClass().add("status-connected");
+                    primaryStage.setTitle("Project Manager - " + username + " @ " + project);
+                });
+            } catch (IOException e) {
+                // The dialogs wait for the user, which an update applied during a pulse must not do
+                ui.post(() -> Platform.runLater(() -> {
+                    if (client != connecting) return;
+                    connectionStatus.setText("Disconnected");
+                    Alert alert = new Alert(Alert.AlertType.ERROR);
+                    alert.setTitle("Connection Error");
+                    alert.setHeaderText("Failed to connect to server");
+                    alert.setContentText("Error: " + e.getMessage());
+                    alert.showAndWait();
+                    showConnectionDialog(); // Retry
+                }));
+            }
+        }, "project-connect");
+        connector.setDaemon(true);
+        connector.start();
     }
 
     public void disconnect() {
         connected.set(false);
         if (client != null) {
             client.disconnect();
+            // A connect still in progress then leaves the window alone
+            client = null;
         }
     }
 }
@@ -0,0 +1,72 @@
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+// Hands network events to the FX thread in per-frame batches instead of one Platform.runLater each.
+// The client's listener thread only enqueues; an AnimationTimer applies queued updates at each pulse
+// until the frame budget is spent and leaves the rest for the next frame, so a burst of thousands
+// of events still lets the window repaint and handle input. The timer only runs while there is work.
+class ProjectEventCoalescer {
+    static final long DEFAULT_FRAME_BUDGET_MS = 8;
+
+    private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean armed = new AtomicBoolean(false);
+    private final long frameBudgetNanos;
+    private AnimationTimer timer;
+
+    public ProjectEventCoalescer() {
+        this(Long.getLong("project.frameBudgetMs", DEFAULT_FRAME_BUDGET_MS));
+    }
+
+    public ProjectEventCoalescer(long frameBudgetMs) {
+        this.frameBudgetNanos = Math.max(1, frameBudgetMs) * 1_000_000L;
+    }
+
+    // Any thread
+    public void post(Runnable update) {
+        pending.add(update);
+        if (armed.compareAndSet(false, true)) {
+            Platform.runLater(this::startTimer);
+        }
+    }
+
+    private void startTimer() {
+        if (timer == null) {
+            timer = new AnimationTimer() {
+                @Override
+                public void handle(long now) {
+                    if (drain(System.nanoTime() + frameBudgetNanos)) {
+                        stopIfIdle();
+                    }
+                }
+            };
+        }
+        timer.start();
+    }
+
+    private void stopIfIdle() {
+        timer.stop();
+        armed.set(false);
+        // An update may have slipped in between the last poll and clearing 'armed'
+        if (!pending.isEmpty() && armed.compareAndSet(false, true)) {
+            timer.start();
+        }
+    }
+
+    // FX thread: applies updates in arrival order until the deadline (always at least one).
+    // True when the queue ran empty.
+    boolean drain(long deadlineNanos) {
+        Runnable update;
+        while ((update = pending.poll()) != null) {
+            update.run();
+            if (System.nanoTime() >= deadlineNanos) {
+                return pending.isEmpty();
+            }
+        }
+        return true;
+    }
+}
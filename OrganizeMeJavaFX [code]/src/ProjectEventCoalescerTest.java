@@ -0,0 +1,199 @@
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javafx.scene.Node;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+
+
+// Measures how long a burst of events keeps the FX thread from drawing a frame, with one
+// Platform.runLater per event as before and with ProjectEventCoalescer. The FX thread is simulated
+// (the toolkit needs a display): one thread runs a FIFO of tasks, and a timer posts a pulse to the
+// same FIFO every 16.7 ms, as the FX pulse timer does. Per-event mode puts every event in the FIFO;
+// coalesced mode queues them in the coalescer and each pulse drains it within the frame budget.
+// The stall is the longest gap between two pulses running, or between one and the burst's start
+// or end.
+//
+// The burst is 10,000 TASK_ADDED, 2,000 chat lines and 1,000 TASK_COMPLETED, interleaved as a
+// server sends them, or the text lines of a recorded one given with --burst. A stand-in view does a
+// fixed amount of scene-graph work per event (a VBox of four HBoxes for each task and chat line,
+// and a linear search by task id), like the node-per-task board.
+//
+// Usage: ProjectEventCoalescerTest [--burst=FILE] [--budget=MS] [--rounds=N]
+// Needs JavaFX on the class path. The exit code is 1 if the coalesced longest gap is not at least
+// five times shorter than the per-event one, or if an event is lost or applied out of order.
+public class ProjectEventCoalescerTest {
+    private static final long PULSE_MICROS = 16_667;
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        String file = ProjectServer.option(args, "burst", null);
+        long budget = Long.parseLong(ProjectServer.option(args, "budget",
+            String.valueOf(ProjectEventCoalescer.DEFAULT_FRAME_BUDGET_MS)));
+        int rounds = Integer.parseInt(ProjectServer.option(args, "rounds", "3"));
+        List<ProjectMessage> burst = file != null ? recorded(Path.of(file)) : generated();
+
+        long worstPerEvent = Long.MAX_VALUE;
+        long worstCoalesced = 0;
+        for (int round = 0; round < rounds; round++) {
+            worstPerEvent = Math.min(worstPerEvent, run(burst, false, budget));
+            worstCoalesced = Math.max(worstCoalesced, run(burst, true, budget));
+        }
+        check(worstCoalesced * 5 <= worstPerEvent, "coalesced, the longest frame gap is at least 5x shorter");
+        System.out.println(failures == 0 ? "OK" : failures + " check(s) failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // Returns the longest gap between pulses, in ns
+    private static long run(List<ProjectMessage> burst, boolean coalesced, long budgetMs) throws Exception {
+        View view = new View();
+        BlockingQueue<Runnable> fx = new LinkedBlockingQueue<>();
+        ProjectEventCoalescer coalescer = new ProjectEventCoalescer(budgetMs);
+        // post() would arm an AnimationTimer; the simulated pulse drains the queue instead
+        Field pendingField = ProjectEventCoalescer.class.getDeclaredField("pending");
+        pendingField.setAccessible(true);
+        @SuppressWarnings("unchecked")
+        Queue<Runnable> pending = (Queue<Runnable>) pendingField.get(coalescer);
+
+        List<Long> pulses = new ArrayList<>();
+        long budgetNanos = budgetMs * 1_000_000L;
+        int[] applied = { 0 };
+        boolean[] inOrder = { true };
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        timer.scheduleAtFixedRate(() -> fx.add(() -> {
+            pulses.add(System.nanoTime());
+            if (coalesced) {
+                coalescer.drain(System.nanoTime() + budgetNanos);
+            }
+        }), 0, PULSE_MICROS, TimeUnit.MICROSECONDS);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < burst.size(); i++) {
+            ProjectMessage message = burst.get(i);
+            int index = i;
+            Runnable update = () -> {
+                inOrder[0] &= applied[0] == index;
+                view.apply(message);
+                applied[0]++;
+            };
+            if (coalesced) {
+                pending.add(update);
+            } else {
+                fx.add(update);
+            }
+        }
+        while (applied[0] < burst.size()) {
+            fx.take().run();
+        }
+        long end = System.nanoTime();
+        timer.shutdownNow();
+
+        // The burst's start and end count as frames, so a burst that no pulse got through is one gap
+        int frames = pulses.size();
+        pulses.add(0, start);
+        pulses.add(end);
+        long longest = 0;
+        int over50 = 0;
+        for (int i = 1; i < pulses.size(); i++) {
+            long gap = pulses.get(i) - pulses.get(i - 1);
+            longest = Math.max(longest, gap);
+            over50 += gap > 50_000_000L ? 1 : 0;
+        }
+        System.out.printf("%-9s budget %d ms: %d events applied in %5d ms, %4d frames, longest gap %7.1f ms,"
+            + " gaps over 50 ms: %d%n", coalesced ? "coalesced" : "per-event", budgetMs, burst.size(),
+            (end - start) / 1_000_000, frames, longest / 1e6, over50);
+        if (!inOrder[0]) {
+            check(false, "events are applied once each, in arrival order");
+        }
+        return longest;
+    }
+
+    private static List<ProjectMessage> generated() {
+        List<ProjectMessage> burst = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            burst.add(ProjectMessage.taskAdded(new ProjectTask(i + 1, "task " + i, "description " + i, "burst")));
+            if (i % 5 == 0) {
+                burst.add(ProjectMessage.chat("burst: chat " + i));
+            }
+            if (i % 10 == 9) {
+                burst.add(ProjectMessage.taskCompleted(i, "task " + (i - 1), "burst"));
+            }
+        }
+        return burst;
+    }
+
+    private static List<ProjectMessage> recorded(Path file) throws Exception {
+        List<ProjectMessage> burst = new ArrayList<>();
+        for (String line : Files.readAllLines(file)) {
+            ProjectMessage message = ProjectMessage.parse(line, true);
+            if (message != null) {
+                burst.add(message);
+            }
+        }
+        return burst;
+    }
+
+    // Scene-graph work per event without Controls, which need a running toolkit
+    private static final class View {
+        final VBox tasks = new VBox();
+        final VBox chat = new VBox();
+
+        void apply(ProjectMessage message) {
+            switch (message.getType()) {
+                case SYSTEM, CHAT -> chat.getChildren().add(card(message.field(0)));
+                case TASK_ADDED -> {
+                    VBox card = card(message.field(0));
+                    card.setUserData(message.getTaskId());
+                    Node existing = find(message.getTaskId());
+                    if (existing != null) {
+                        tasks.getChildren().set(tasks.getChildren().indexOf(existing), card);
+                    } else {
+                        tasks.getChildren().add(card);
+                    }
+                }
+                case TASK_COMPLETED -> {
+                    chat.getChildren().add(card("Task completed: " + message.field(0)));
+                    Node card = find(message.getTaskId());
+                    if (card != null) {
+                        card.getStyleClass().add("task-completed");
+                    }
+                }
+                case TASK_DELETED -> tasks.getChildren().remove(find(message.getTaskId()));
+                default -> { }
+            }
+        }
+
+        Node find(int taskId) {
+            for (Node card : tasks.getChildren()) {
+                if (Integer.valueOf(taskId).equals(card.getUserData())) {
+                    return card;
+                }
+            }
+            return null;
+        }
+
+        static VBox card(String text) {
+            VBox card = new VBox(5);
+            for (int i = 0; i < 4; i++) {
+                HBox row = new HBox();
+                row.setUserData(text);
+                card.getChildren().add(row);
+            }
+            return card;
+        }
+    }
+
+    private static void check(boolean passed, String what) {
+        System.out.println((passed ? "ok    " : "FAIL  ") + what);
+        if (!passed) failures++;
+    }
+}
@@ -1,9 +1,33 @@
+import java.util.List;
+
 public interface ProjectEvents {
     void onSystemMessage(String message);
     void onChatMessage(String message);
+
+    // Chat from a server that keeps history, with the line's number in the chat log
+    default void onChatMessage(String message, int chatSeq) {
+        onChatMessage(message);
+    }
+
+    // A page of stored chat, oldest first: the newest lines on join, older ones after
+    // requestChatHistory. 'more' is true when even older lines exist.
+    default void onChatHistory(List<String> messages, int firstSeq, boolean more) {}
     void onUsersUpdated(String usersCsv);
-    void onTaskAdded(String taskData);
-    void onTaskCompleted(String taskData);
-    void onTaskDeleted(String taskData);
+    void onTaskAdded(ProjectMessage task);
+    void onTaskCompleted(ProjectMessage task);
+    void onTaskDeleted(ProjectMessage task);
+
+    // Initial sync in bulk: tasks is one TASK_SNAPSHOT part, reset is true for the first part
+    // (which replaces whatever board the client had)
+    default void onTaskSnapshot(List<ProjectMessage> tasks, boolean reset) {
+        for (ProjectMessage task : tasks) {
+            onTaskAdded(task);
+        }
+    }
     void onDisconnected(String reason);
+
+    // Auto-reconnect only, instead of onDisconnected: the connection dropped and attempt
+    // number 'attempt' starts in delayMs. Retries continue until disconnect() is called.
+    default void onReconnecting(int attempt, long delayMs) {}
+    default void onReconnected() {}
 }
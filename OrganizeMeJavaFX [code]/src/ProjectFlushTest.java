@@ -0,0 +1,209 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+
+// How many socket writes the server makes for its outbound messages. U text clients join one room
+// of a ProjectServer in a child JVM; S of them send chat lines carrying their send time, and every
+// client counts what reaches it. The server's write calls and CPU time come from /proc/<pid>/io
+// (syscw) and /proc/<pid>/stat. Per --io mode it runs a burst (each sender sends M lines as fast as
+// it can) and then paced sends (RATE lines a second each) at every --flush-delay given, timing the
+// delivery of one receiver in eight. Linux only, for /proc.
+//
+// --server-classpath runs the server from another build, e.g. one from before writes were batched,
+// for the before numbers.
+//
+// Usage: ProjectFlushTest [--users=U] [--senders=S] [--lines=M] [--rate=RATE] [--modes=thread,nio]
+//                         [--delays=0,2,10] [--port=N] [--server-classpath=PATH]
+// The exit code is 1 if a delivery goes missing, if a burst averages fewer than 10 messages per
+// write, or if the longest flush delay doesn't put more messages in each paced write than none.
+public class ProjectFlushTest {
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        int users = Integer.parseInt(ProjectServer.option(args, "users", "100"));
+        int senders = Integer.parseInt(ProjectServer.option(args, "senders", "4"));
+        int lines = Integer.parseInt(ProjectServer.option(args, "lines", "2000"));
+        int rate = Integer.parseInt(ProjectServer.option(args, "rate", "200"));
+        String[] modes = ProjectServer.option(args, "modes", "thread,nio").split(",");
+        String[] delays = ProjectServer.option(args, "delays", "0,2,10").split(",");
+        int port = Integer.parseInt(ProjectServer.option(args, "port", "12347"));
+        String classpath = ProjectServer.option(args, "server-classpath", System.getProperty("java.class.path"));
+
+        for (String mode : modes) {
+            double burst = run(classpath, mode, "0", port, users, senders, lines, 0);
+            check(burst >= 10, mode + ": a burst averages 10 or more messages per write");
+            double first = 0;
+            double last = 0;
+            for (int i = 0; i < delays.length; i++) {
+                last = run(classpath, mode, delays[i], port, users, senders, lines / 2, rate);
+                if (i == 0) first = last;
+            }
+            if (delays.length > 1) {
+                check(last > first, mode + ": a flush delay of " + delays[delays.length - 1]
+                    + " ms puts more messages in each paced write than " + delays[0] + " ms");
+            }
+        }
+        System.out.println(failures == 0 ? "OK" : failures + " check(s) failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // Returns deliveries per server write call; rate 0 is a burst
+    private static double run(String classpath, String mode, String delay, int port, int users, int senderCount,
+                              int lines, int rate) throws Exception {
+        String java = ProcessHandle.current().info().command().orElse("java");
+        Process server = new ProcessBuilder(java, "-cp", classpath, "ProjectServer", "--io=" + mode,
+            "--flush-delay=" + delay, "--port=" + port, "--data-dir=none", "--ping-interval=0", "--metrics-log=0")
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+        LongAdder received = new LongAdder();
+        long[] latencies = new long[1 << 22];
+        AtomicInteger latencyCount = new AtomicInteger();
+        CountDownLatch joined = new CountDownLatch(users);
+        List<Socket> sockets = new ArrayList<>();
+        PrintWriter[] senders = new PrintWriter[senderCount];
+        try {
+            awaitPort(port);
+            for (int u = 0; u < users; u++) {
+                Socket socket = new Socket("localhost", port);
+                sockets.add(socket);
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), false, StandardCharsets.UTF_8);
+                out.println("USERNAME:u" + u);
+                out.flush();
+                if (u < senderCount) {
+                    senders[u] = out;
+                }
+                boolean timed = rate > 0 && u % 8 == 0;
+                Thread reader = new Thread(() -> {
+                    try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                            StandardCharsets.UTF_8), 64 * 1024)) {
+                        String line;
+                        while ((line = in.readLine()) != null) {
+                            if (line.startsWith("SYSTEM:Welcome")) {
+                                joined.countDown();
+                            } else if (line.startsWith("MESSAGE:")) {
+                                long now = System.nanoTime();
+                                received.increment();
+                                int i;
+                                if (timed && (i = latencyCount.getAndIncrement()) < latencies.length) {
+                                    latencies[i] = now - Long.parseLong(line.substring(line.lastIndexOf(' ') + 1));
+                                }
+                            }
+                        }
+                    } catch (IOException e) {
+                        // Closed at the end of the run
+                    }
+                });
+                reader.setDaemon(true);
+                reader.start();
+            }
+            if (!joined.await(2, TimeUnit.MINUTES)) {
+                throw new IllegalStateException("Only " + (users - joined.getCount()) + " of " + users + " joined");
+            }
+            Thread.sleep(500);
+            received.reset();
+            long[] before = serverCounters(server.pid());
+
+            long start = System.nanoTime();
+            Thread[] threads = new Thread[senderCount];
+            for (int s = 0; s < senderCount; s++) {
+                PrintWriter out = senders[s];
+                threads[s] = new Thread(() -> {
+                    long first = System.nanoTime();
+                    for (int m = 0; m < lines; m++) {
+                        if (rate > 0) {
+                            long due = first + m * 1_000_000_000L / rate;
+                            long wait;
+                            while ((wait = due - System.nanoTime()) > 0) {
+                                LockSupport.parkNanos(Math.min(wait, 1_000_000));
+                            }
+                        }
+                        out.println("MESSAGE:line " + System.nanoTime());
+                        if (rate > 0 || m % 64 == 63) {
+                            out.flush();
+                        }
+                    }
+                    out.flush();
+                });
+                threads[s].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            long expected = (long) senderCount * lines * users;
+            long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(2);
+            while (received.sum() < expected && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long[] after = serverCounters(server.pid());
+            long deliveries = received.sum();
+            long writes = Math.max(1, after[0] - before[0]);
+            double cpu = (after[1] - before[1]) / 100.0;
+            System.out.printf("%-6s %-13s: %d/%d deliveries in %.2f s (%.0f/s), %d writes (%.1f messages each),"
+                + " server CPU %.2f us per delivery", mode, rate > 0 ? "delay " + delay + " ms" : "burst", deliveries,
+                expected, seconds, deliveries / seconds, writes, (double) deliveries / writes, cpu * 1e6 / deliveries);
+            int timed = Math.min(latencyCount.get(), latencies.length);
+            if (timed > 0) {
+                Arrays.sort(latencies, 0, timed);
+                System.out.printf(", latency p50 %.2f ms, p99 %.2f ms", latencies[timed / 2] / 1e6,
+                    latencies[(int) (timed * 0.99)] / 1e6);
+            }
+            System.out.println();
+            if (deliveries != expected) {
+                check(false, mode + (rate > 0 ? " delay " + delay : " burst") + ": every line reaches every client");
+            }
+            return (double) deliveries / writes;
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            server.destroy();
+            server.waitFor();
+        }
+    }
+
+    // { write calls, CPU ticks of 1/100 s } of a process
+    private static long[] serverCounters(long pid) throws IOException {
+        long writes = 0;
+        for (String line : Files.readAllLines(Path.of("/proc/" + pid + "/io"))) {
+            if (line.startsWith("syscw:")) {
+                writes = Long.parseLong(line.substring(6).trim());
+            }
+        }
+        String stat = Files.readString(Path.of("/proc/" + pid + "/stat"));
+        String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+        return new long[] { writes, Long.parseLong(fields[11]) + Long.parseLong(fields[12]) };
+    }
+
+    private static void awaitPort(int port) throws InterruptedException {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            try {
+                new Socket("localhost", port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("Server did not start on port " + port);
+    }
+
+    private static void check(boolean passed, String what) {
+        System.out.println((passed ? "ok    " : "FAIL  ") + what);
+        if (!passed) failures++;
+    }
+}
@@ -0,0 +1,454 @@
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+
+// Headless load generator: N simulated users, each a real ProjectClient, spread over P projects
+// and issuing a mix of chat, add, complete and delete at a fixed rate. Every chat line and task
+// title carries its send time, and completes and deletes are looked up by task id, so each
+// delivery to every member gives one end-to-end latency sample. All clients live in this JVM, so
+// send and receive times come from the same clock.
+//
+// Usage: ProjectLoadTest [--host=H] [--port=N] [--users=N] [--projects=N] [--rate=OPS_PER_USER_PER_S]
+//                        [--duration=S] [--warmup=S] [--mix=chat:60,add:20,complete:10,delete:10]
+//                        [--binary=true|false] [--threads=N] [--start-server[=SERVER ARGS]]
+//                        [--max-p99-ms=MS]
+// --start-server runs a ProjectServer in this process first (in memory, heartbeats off, plus any
+// space-separated options given), for a self-contained run in CI. With --max-p99-ms the exit code
+// is 1 if any operation's p99 latency is over it or if deliveries went missing.
+public class ProjectLoadTest {
+    private static final String STAMP = "load ";
+
+    private enum Op { CHAT, ADD, COMPLETE, DELETE }
+
+    // Per operation: commands sent, deliveries received and their latency
+    private static final Map<Op, LongAdder> sent = new LinkedHashMap<>();
+    private static final Map<Op, LongAdder> delivered = new LinkedHashMap<>();
+    private static final Map<Op, ProjectServer_Metrics.Histogram> latency = new LinkedHashMap<>();
+    static {
+        for (Op op : Op.values()) {
+            sent.put(op, new LongAdder());
+            delivered.put(op, new LongAdder());
+            latency.put(op, new ProjectServer_Metrics.Histogram());
+        }
+    }
+    private static final LongAdder disconnects = new LongAdder();
+    private static final LongAdder rejected = new LongAdder();
+    // Latency is only recorded once the warmup is over
+    private static volatile boolean measuring = false;
+
+    // What the users of one project know about its board: open tasks to complete, all to delete,
+    // and when each complete or delete was sent
+    private static final class Project {
+        final String id;
+        final List<User> members = new ArrayList<>();
+        final Set<Integer> open = ConcurrentHashMap.newKeySet();
+        final Set<Integer> all = ConcurrentHashMap.newKeySet();
+        final Map<Integer, Long> completeSent = new ConcurrentHashMap<>();
+        final Map<Integer, Long> deleteSent = new ConcurrentHashMap<>();
+        // Chat lines and adds sent while measuring; each must reach every member
+        final LongAdder broadcastsSent = new LongAdder();
+
+        Project(String id) {
+            this.id = id;
+        }
+
+        Integer pick(Set<Integer> ids) {
+            int size = ids.size();
+            if (size == 0) {
+                return null;
+            }
+            int skip = ThreadLocalRandom.current().nextInt(size);
+            for (Integer id : ids) {
+                if (skip-- == 0) {
+                    return id;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class User implements ProjectEvents {
+        final String name;
+        final Project project;
+        // The first member keeps the project's board state for everyone
+        final boolean tracker;
+        final CountDownLatch joined;
+        ProjectClient client;
+
+        User(String name, Project project, boolean tracker, CountDownLatch joined) {
+            this.name = name;
+            this.project = project;
+            this.tracker = tracker;
+            this.joined = joined;
+        }
+
+        @Override
+        public void onSystemMessage(String message) {
+            if (message.startsWith("Welcome to the project")) {
+                joined.countDown();
+            }
+        }
+
+        @Override
+        public void onChatMessage(String message) {
+            int at = message.indexOf(STAMP);
+            if (at >= 0) {
+                record(Op.CHAT, parseStamp(message.substring(at + STAMP.length())));
+            }
+        }
+
+        @Override
+        public void onUsersUpdated(String usersCsv) {
+        }
+
+        @Override
+        public void onTaskAdded(ProjectMessage task) {
+            if (tracker) {
+                project.open.add(task.getTaskId());
+                project.all.add(task.getTaskId());
+            }
+            String title = task.field(0);
+            if (title.startsWith(STAMP)) {
+                record(Op.ADD, parseStamp(title.substring(STAMP.length())));
+            }
+        }
+
+        @Override
+        public void onTaskCompleted(ProjectMessage task) {
+            if (tracker) {
+                project.open.remove(task.getTaskId());
+            }
+            Long sentAt = project.completeSent.get(task.getTaskId());
+            if (sentAt != null) {
+                record(Op.COMPLETE, sentAt);
+            }
+        }
+
+        @Override
+        public void onTaskDeleted(ProjectMessage task) {
+            if (tracker) {
+                project.open.remove(task.getTaskId());
+                project.all.remove(task.getTaskId());
+            }
+            Long sentAt = project.deleteSent.get(task.getTaskId());
+            if (sentAt != null) {
+                record(Op.DELETE, sentAt);
+            }
+        }
+
+        // The board as it was on join; nothing in it was sent during the run
+        @Override
+        public void onTaskSnapshot(List<ProjectMessage> tasks, boolean reset) {
+            if (tracker) {
+                for (ProjectMessage task : tasks) {
+                    project.all.add(task.getTaskId());
+                    if (!task.field(3).equals(TaskStatus.COMPLETED.name())) {
+                        project.open.add(task.getTaskId());
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void onDisconnected(String reason) {
+            disconnects.increment();
+            System.err.println(name + " disconnected: " + reason);
+        }
+
+        private static void record(Op op, long sentAt) {
+            if (measuring && sentAt > 0) {
+                delivered.get(op).increment();
+                latency.get(op).record(System.nanoTime() - sentAt);
+            }
+        }
+
+        private static long parseStamp(String text) {
+            try {
+                return Long.parseLong(text.trim());
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String host = ProjectServer.option(args, "host", "localhost");
+        int port = Integer.parseInt(ProjectServer.option(args, "port", "12345"));
+        int users = Integer.parseInt(ProjectServer.option(args, "users", "50"));
+        int projects = Integer.parseInt(ProjectServer.option(args, "projects", "1"));
+        double rate = Double.parseDouble(ProjectServer.option(args, "rate", "1"));
+        int duration = Integer.parseInt(ProjectServer.option(args, "duration", "30"));
+        int warmup = Integer.parseInt(ProjectServer.option(args, "warmup", "5"));
+        boolean binary = Boolean.parseBoolean(ProjectServer.option(args, "binary", "true"));
+        int threads = Integer.parseInt(ProjectServer.option(args, "threads", "4"));
+        String maxP99 = ProjectServer.option(args, "max-p99-ms", null);
+        Map<Op, Integer> mix = parseMix(ProjectServer.option(args, "mix", "chat:60,add:20,complete:10,delete:10"));
+
+        if (hasFlag(args, "start-server")) {
+            startServer(port, ProjectServer.option(args, "start-server", ""));
+        }
+
+        // Project 0 is the server's default one, so a single-project run works with any server
+        List<Project> boards = new ArrayList<>();
+        for (int p = 0; p < projects; p++) {
+            boards.add(new Project(p == 0 ? null : "load-" + p));
+        }
+        CountDownLatch joined = new CountDownLatch(users);
+        List<User> all = new ArrayList<>();
+        long connectStart = System.nanoTime();
+        for (int u = 0; u < users; u++) {
+            Project project = boards.get(u % projects);
+            User user = new User("load" + u + "-" + Long.toHexString(System.nanoTime() & 0xffff), project,
+                project.members.isEmpty(), joined);
+            user.client = new ProjectClient(host, port, user.name, user);
+            user.client.setBinaryProtocol(binary);
+            if (project.id != null) {
+                user.client.setProject(project.id);
+            }
+            try {
+                user.client.connect();
+            } catch (IOException e) {
+                System.err.println("Could not connect user " + u + ": " + e.getMessage());
+                System.exit(2);
+            }
+            project.members.add(user);
+            all.add(user);
+        }
+        if (!joined.await(60, TimeUnit.SECONDS)) {
+            System.err.println("Only " + (users - joined.getCount()) + " of " + users + " users joined");
+            System.exit(2);
+        }
+        System.out.printf("%d users joined %d project(s) in %.1f s%n", users, projects,
+            (System.nanoTime() - connectStart) / 1e9);
+
+        // Each driver thread paces its own slice of the users; sends are open-loop on a fixed
+        // schedule, so a slow server shows up as latency rather than as a lower offered load
+        long start = System.nanoTime();
+        long measureFrom = start + warmup * 1_000_000_000L;
+        long end = measureFrom + duration * 1_000_000_000L;
+        List<Thread> drivers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            List<User> slice = new ArrayList<>();
+            for (int u = t; u < users; u += threads) {
+                slice.add(all.get(u));
+            }
+            if (slice.isEmpty()) {
+                continue;
+            }
+            Thread driver = new Thread(() -> drive(slice, rate, mix, start, end), "load-driver-" + t);
+            driver.setDaemon(true);
+            driver.start();
+            drivers.add(driver);
+        }
+
+        LockSupport.parkNanos(measureFrom - System.nanoTime());
+        measuring = true;
+        Map<Op, Long> sentBefore = counts(sent);
+        long lastReport = System.nanoTime();
+        long deliveredBefore = total(delivered);
+        while (System.nanoTime() < end) {
+            Thread.sleep(Math.min(5000, Math.max(1, (end - System.nanoTime()) / 1_000_000)));
+            long now = System.nanoTime();
+            long deliveredNow = total(delivered);
+            System.out.printf("  %3.0f s: %.0f deliveries/s%n", (now - measureFrom) / 1e9,
+                (deliveredNow - deliveredBefore) / ((now - lastReport) / 1e9));
+            deliveredBefore = deliveredNow;
+            lastReport = now;
+        }
+        for (Thread driver : drivers) {
+            driver.join();
+        }
+        Map<Op, Long> sentDuring = counts(sent);
+        for (Op op : Op.values()) {
+            sentDuring.put(op, sentDuring.get(op) - sentBefore.get(op));
+        }
+        // Chat lines and adds always reach every member, so their deliveries can be checked
+        long expected = 0;
+        for (Project project : boards) {
+            expected += project.broadcastsSent.sum() * project.members.size();
+        }
+        long drainUntil = System.nanoTime() + 10_000_000_000L;
+        while (delivered.get(Op.CHAT).sum() + delivered.get(Op.ADD).sum() < expected && System.nanoTime() < drainUntil) {
+            Thread.sleep(20);
+        }
+        measuring = false;
+        boolean ok = report(users, projects, rate, duration, sentDuring, expected, maxP99);
+        for (User user : all) {
+            user.client.disconnect();
+        }
+        System.exit(ok ? 0 : 1);
+    }
+
+    private static void drive(List<User> users, double rate, Map<Op, Integer> mix, long start, long end) {
+        long intervalNanos = (long) (1e9 / (rate * users.size()));
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int weights = 0;
+        for (int weight : mix.values()) {
+            weights += weight;
+        }
+        long next = start;
+        for (int i = 0; next < end; i++, next += intervalNanos) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            User user = users.get(i % users.size());
+            int roll = random.nextInt(weights);
+            Op op = null;
+            for (Map.Entry<Op, Integer> entry : mix.entrySet()) {
+                roll -= entry.getValue();
+                if (roll < 0) {
+                    op = entry.getKey();
+                    break;
+                }
+            }
+            if (!send(user, op)) {
+                rejected.increment();
+            }
+        }
+    }
+
+    // Complete and delete fall back to an add while the board has nothing to work on
+    private static boolean send(User user, Op op) {
+        Project project = user.project;
+        long now = System.nanoTime();
+        if (op == Op.COMPLETE || op == Op.DELETE) {
+            Integer taskId = project.pick(op == Op.COMPLETE ? project.open : project.all);
+            if (taskId != null) {
+                // Only the first request for a task counts; the server ignores repeats
+                Map<Integer, Long> sentTimes = op == Op.COMPLETE ? project.completeSent : project.deleteSent;
+                if (sentTimes.putIfAbsent(taskId, now) == null) {
+                    if (op == Op.COMPLETE) {
+                        project.open.remove(taskId);
+                    } else {
+                        project.all.remove(taskId);
+                        project.open.remove(taskId);
+                    }
+                    sent.get(op).increment();
+                    return op == Op.COMPLETE ? user.client.completeTask(taskId) : user.client.deleteTask(taskId);
+                }
+            }
+            op = Op.ADD;
+        }
+        sent.get(op).increment();
+        if (measuring) {
+            project.broadcastsSent.increment();
+        }
+        if (op == Op.CHAT) {
+            return user.client.sendChat(STAMP + now);
+        }
+        return user.client.addTask(STAMP + now, "load test");
+    }
+
+    private static boolean report(int users, int projects, double rate, int duration, Map<Op, Long> sentDuring,
+                                  long expected, String maxP99) {
+        long sentTotal = 0;
+        for (long count : sentDuring.values()) {
+            sentTotal += count;
+        }
+        long received = total(delivered);
+        long checked = delivered.get(Op.CHAT).sum() + delivered.get(Op.ADD).sum();
+        System.out.printf("%d users in %d project(s) at %.2f ops/s each for %d s%n", users, projects, rate, duration);
+        System.out.printf("Sent %d commands (%.0f/s), %d refused by the client; %d deliveries (%.0f/s)%n",
+            sentTotal, sentTotal / (double) duration, rejected.sum(), received, received / (double) duration);
+        System.out.printf("Chat and add deliveries: %d of %d expected%n", checked, expected);
+        System.out.println("Latency, send to receive (ms):");
+        boolean ok = checked >= expected && disconnects.sum() == 0;
+        for (Op op : Op.values()) {
+            ProjectServer_Metrics.Histogram.Snapshot snapshot = latency.get(op).snapshot();
+            long count = snapshot.count();
+            if (count == 0) {
+                System.out.printf("  %-8s sent %7d, no deliveries%n", op, sentDuring.get(op));
+                continue;
+            }
+            double p99 = snapshot.percentile(0.99) / 1e6;
+            System.out.printf("  %-8s sent %7d, delivered %9d: p50 %7.2f  p90 %7.2f  p99 %7.2f  p99.9 %7.2f  max %7.2f%n",
+                op, sentDuring.get(op), count, snapshot.percentile(0.5) / 1e6, snapshot.percentile(0.9) / 1e6,
+                p99, snapshot.percentile(0.999) / 1e6, snapshot.max() / 1e6);
+            if (maxP99 != null && p99 > Double.parseDouble(maxP99)) {
+                ok = false;
+            }
+        }
+        if (disconnects.sum() > 0) {
+            System.out.println("Disconnects: " + disconnects.sum());
+        }
+        if (maxP99 != null) {
+            System.out.println(ok ? "PASS" : "FAIL");
+        }
+        return maxP99 == null || ok;
+    }
+
+    // "chat:60,add:20,..." in any order; operations left out are never sent
+    private static Map<Op, Integer> parseMix(String spec) {
+        Map<Op, Integer> mix = new LinkedHashMap<>();
+        for (String entry : spec.split(",")) {
+            String[] parts = entry.split(":");
+            int weight = Integer.parseInt(parts[1].trim());
+            if (weight > 0) {
+                mix.put(Op.valueOf(parts[0].trim().toUpperCase()), weight);
+            }
+        }
+        if (mix.isEmpty()) {
+            throw new IllegalArgumentException("--mix has no operations: " + spec);
+        }
+        return mix;
+    }
+
+    private static boolean hasFlag(String[] args, String name) {
+        for (String arg : args) {
+            if (arg.equals("--" + name) || arg.startsWith("--" + name + "=")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void startServer(int port, String extraArgs) throws InterruptedException {
+        List<String> serverArgs = new ArrayList<>(List.of("--port=" + port, "--data-dir=none",
+            "--ping-interval=0", "--metrics-log=0"));
+        if (!extraArgs.isBlank()) {
+            // Given first, so they win over the defaults above
+            serverArgs.addAll(0, List.of(extraArgs.trim().split("\\s+")));
+        }
+        Thread server = new Thread(() -> ProjectServer.main(serverArgs.toArray(new String[0])), "load-server");
+        server.setDaemon(true);
+        server.start();
+        // The server prints nothing that says it is listening before accept, so just poll the port
+        for (int attempt = 0; attempt < 100; attempt++) {
+            try {
+                new Socket("localhost", port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("Server did not start on port " + port);
+    }
+
+    private static Map<Op, Long> counts(Map<Op, LongAdder> counters) {
+        Map<Op, Long> snapshot = new LinkedHashMap<>();
+        for (Map.Entry<Op, LongAdder> entry : counters.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().sum());
+        }
+        return snapshot;
+    }
+
+    private static long total(Map<Op, LongAdder> counters) {
+        long sum = 0;
+        for (LongAdder counter : counters.values()) {
+            sum += counter.sum();
+        }
+        return sum;
+    }
+}
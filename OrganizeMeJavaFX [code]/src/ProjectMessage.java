@@ -0,0 +1,415 @@
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+
+// One protocol message between ProjectClient and ProjectServer, independent of the wire format.
+// A message is a type, an optional task id, a fixed number of string fields and, for task events,
+// the sequence number the server published it under; toText() gives
+// the legacy "PREFIX:a|b|c" line, ProjectWireCodec the length-prefixed binary frame.
+final class ProjectMessage {
+
+    // Type flags
+    private static final int TASK_ID = 1;   // carries a task id before the fields
+    private static final int SEQ = 2;       // carries the server's event sequence number after the fields
+    private static final int BODY = 4;      // ends with an opaque byte body (base64 on a text line)
+
+    enum Type {
+        // server -> client
+        SYSTEM(1, "SYSTEM:", true, 1, 0),
+        CHAT(2, "MESSAGE:", true, 1, 0),
+        USERS(3, "USERS:", true, 1, 0),
+        TASK_ADDED(4, "TASK_ADDED:", true, 5, TASK_ID | SEQ, 1),   // title, description, assignedBy, status, completedBy
+        TASK_COMPLETED(5, "TASK_COMPLETED:", true, 2, TASK_ID | SEQ, 0), // title, completedBy
+        TASK_DELETED(6, "TASK_DELETED:", true, 2, TASK_ID | SEQ, 0), // title, deletedBy
+        TASK_SNAPSHOT(7, "TASK_SNAPSHOT:", true, 3, BODY),         // part, parts, encoding + task block
+        SYNC(8, "SYNC:", true, 1, SEQ),                            // epoch; the board is current up to seq
+        CHAT_LINE(9, "CHAT:", true, 2, 0),                         // chat seq, text (last, so it may contain '|')
+        CHAT_PAGE(10, "CHAT_PAGE:", true, 2, BODY),                // first chat seq, more older + lines
+        PING(11, "PING:", true, 0, 0),                             // answer with PONG
+
+        // client -> server
+        USERNAME(32, "USERNAME:", false, 1, 0),
+        ADD_TASK(33, "ADD_TASK:", false, 2, 0),                    // title, description
+        COMPLETE_TASK(34, "COMPLETE_TASK:", false, 0, TASK_ID),
+        DELETE_TASK(35, "DELETE_TASK:", false, 0, TASK_ID),
+        SEND_CHAT(36, "MESSAGE:", false, 1, 0),
+        RESUME(37, "RESUME:", false, 1, SEQ),                      // epoch and last seq the client has applied
+        HISTORY(38, "HISTORY:", false, 2, 0),                      // before chat seq (0 = newest), limit
+        PROJECT(39, "PROJECT:", false, 1, 0),                      // project id to join, sent before USERNAME
+        PONG(40, "PONG:", false, 0, 0),
+
+        // both directions, always sent as a text line (version, features)
+        HELLO(64, "HELLO:", true, 2, 0);
+
+        final int code;
+        final String prefix;
+        final boolean fromServer;
+        final int fieldCount;
+        // On a text line, the field that keeps any '|' beyond the separators
+        final int freeField;
+        final boolean hasTaskId;
+        final boolean hasSeq;
+        final boolean hasBody;
+
+        private static final Type[] ALL = values();
+        private static final Type[] BY_CODE = new Type[128];
+        static {
+            for (Type type : ALL) {
+                BY_CODE[type.code] = type;
+            }
+        }
+
+        Type(int code, String prefix, boolean fromServer, int fieldCount, int flags) {
+            this(code, prefix, fromServer, fieldCount, flags, fieldCount - 1);
+        }
+
+        Type(int code, String prefix, boolean fromServer, int fieldCount, int flags, int freeField) {
+            this.code = code;
+            this.prefix = prefix;
+            this.fromServer = fromServer;
+            this.fieldCount = fieldCount;
+            this.freeField = freeField;
+            this.hasTaskId = (flags & TASK_ID) != 0;
+            this.hasSeq = (flags & SEQ) != 0;
+            this.hasBody = (flags & BODY) != 0;
+        }
+
+        static Type fromCode(int code) {
+            return code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+        }
+    }
+
+    private static final String[] NO_FIELDS = new String[0];
+    private static final byte[] NO_BODY = new byte[0];
+
+    private final Type type;
+    private final int taskId;
+    // 0 when not stamped (e.g. tasks replayed one by one for a client without SYNC support)
+    private final int seq;
+    private final String[] fields;
+    private final byte[] body;
+    // Broadcasts go to every client, so each encoding is built once and shared
+    // (written without locking: a racing thread just builds an identical copy)
+    private String text;
+    byte[] lineBytes;
+    byte[] frameBytes;
+
+    ProjectMessage(Type type, int taskId, String... fields) {
+        this(type, taskId, 0, NO_BODY, fields);
+    }
+
+    ProjectMessage(Type type, int taskId, int seq, byte[] body, String... fields) {
+        this.type = type;
+        this.taskId = taskId;
+        this.seq = seq;
+        this.fields = fields;
+        this.body = body;
+    }
+
+    // Same message stamped with the sequence number it was published under
+    public ProjectMessage withSeq(int seq) {
+        return new ProjectMessage(type, taskId, seq, body, fields);
+    }
+
+    // Text lines end at '\n' (and a '\r' before it), so a field containing either would let a binary
+    // client inject lines into what text clients read. Commands are cleaned up with this on arrival.
+    public ProjectMessage withoutLineBreaks() {
+        if (!hasLineBreak()) {
+            return this;
+        }
+        String[] cleaned = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            cleaned[i] = fields[i] == null ? null : fields[i].replace("\r\n", " ").replace('\r', ' ').replace('\n', ' ');
+        }
+        return new ProjectMessage(type, taskId, seq, body, cleaned);
+    }
+
+    boolean hasLineBreak() {
+        for (String field : fields) {
+            if (field != null && (field.indexOf('\n') >= 0 || field.indexOf('\r') >= 0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ---- factories ----
+
+    public static ProjectMessage system(String text) {
+        return new ProjectMessage(Type.SYSTEM, 0, text);
+    }
+
+    public static ProjectMessage chat(String text) {
+        return new ProjectMessage(Type.CHAT, 0, text);
+    }
+
+    // Chat for clients that keep history: the same text as CHAT plus its number in the chat log
+    public static ProjectMessage chatLine(int chatSeq, String text) {
+        return new ProjectMessage(Type.CHAT_LINE, 0, String.valueOf(chatSeq), text);
+    }
+
+    // Body: varint count, then each line as varint length + utf8
+    public static ProjectMessage chatPage(int firstSeq, boolean more, List<String> lines) {
+        List<byte[]> encoded = new ArrayList<>(lines.size());
+        int size = ProjectWireCodec.varintLength(lines.size());
+        for (String line : lines) {
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            encoded.add(bytes);
+            size += ProjectWireCodec.varintLength(bytes.length) + bytes.length;
+        }
+        ByteBuffer body = ByteBuffer.allocate(size);
+        ProjectWireCodec.writeVarint(body, lines.size());
+        for (byte[] bytes : encoded) {
+            ProjectWireCodec.writeVarint(body, bytes.length);
+            body.put(bytes);
+        }
+        return new ProjectMessage(Type.CHAT_PAGE, 0, 0, body.array(),
+            String.valueOf(firstSeq), more ? "1" : "0");
+    }
+
+    public static ProjectMessage users(String usersCsv) {
+        return new ProjectMessage(Type.USERS, 0, usersCsv);
+    }
+
+    public static ProjectMessage taskAdded(ProjectTask task) {
+        return new ProjectMessage(Type.TASK_ADDED, task.getId(), task.getTitle(), task.getDescription(),
+            task.getAssignedBy(), task.getStatus().name(),
+            task.getCompletedBy() != null ? task.getCompletedBy() : "");
+    }
+
+    public static ProjectMessage taskCompleted(int taskId, String title, String completedBy) {
+        return new ProjectMessage(Type.TASK_COMPLETED, taskId, title, completedBy);
+    }
+
+    public static ProjectMessage taskDeleted(int taskId, String title, String deletedBy) {
+        return new ProjectMessage(Type.TASK_DELETED, taskId, title, deletedBy);
+    }
+
+    public static ProjectMessage taskSnapshot(int part, int parts, String encoding, byte[] tasks) {
+        return new ProjectMessage(Type.TASK_SNAPSHOT, 0, 0, tasks,
+            String.valueOf(part), String.valueOf(parts), encoding);
+    }
+
+    public static ProjectMessage sync(String epoch, int seq) {
+        return new ProjectMessage(Type.SYNC, 0, seq, NO_BODY, epoch);
+    }
+
+    public static ProjectMessage resume(String epoch, int seq) {
+        return new ProjectMessage(Type.RESUME, 0, seq, NO_BODY, epoch);
+    }
+
+    public static ProjectMessage ping() {
+        return new ProjectMessage(Type.PING, 0, NO_FIELDS);
+    }
+
+    public static ProjectMessage pong() {
+        return new ProjectMessage(Type.PONG, 0, NO_FIELDS);
+    }
+
+    public static ProjectMessage project(String projectId) {
+        return new ProjectMessage(Type.PROJECT, 0, projectId);
+    }
+
+    // The project a client joins when it doesn't send PROJECT
+    static final String DEFAULT_PROJECT = "default";
+
+    // Project ids name a folder under the server's data dir
+    public static boolean isValidProjectId(String projectId) {
+        return projectId != null && projectId.matches("[A-Za-z0-9_-]{1,64}");
+    }
+
+    public static ProjectMessage username(String username) {
+        return new ProjectMessage(Type.USERNAME, 0, username);
+    }
+
+    public static ProjectMessage addTask(String title, String description) {
+        return new ProjectMessage(Type.ADD_TASK, 0, title, description);
+    }
+
+    public static ProjectMessage completeTask(int taskId) {
+        return new ProjectMessage(Type.COMPLETE_TASK, taskId, NO_FIELDS);
+    }
+
+    public static ProjectMessage deleteTask(int taskId) {
+        return new ProjectMessage(Type.DELETE_TASK, taskId, NO_FIELDS);
+    }
+
+    public static ProjectMessage sendChat(String text) {
+        return new ProjectMessage(Type.SEND_CHAT, 0, text);
+    }
+
+    public static ProjectMessage history(int beforeSeq, int limit) {
+        return new ProjectMessage(Type.HISTORY, 0, String.valueOf(beforeSeq), String.valueOf(limit));
+    }
+
+    public static ProjectMessage hello(int version, String features) {
+        return new ProjectMessage(Type.HELLO, 0, String.valueOf(version), features);
+    }
+
+    // ---- accessors ----
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getTaskId() {
+        return taskId;
+    }
+
+    public int getSeq() {
+        return seq;
+    }
+
+    public int getFieldCount() {
+        return fields.length;
+    }
+
+    public String field(int index) {
+        return fields[index];
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    // The lines of a CHAT_PAGE, oldest first
+    public List<String> getChatLines() throws ProtocolException {
+        ByteBuffer in = ByteBuffer.wrap(body);
+        long count = ProjectWireCodec.readVarint(in);
+        if (count < 0 || count > body.length) {
+            throw new ProtocolException("Corrupt chat page");
+        }
+        List<String> lines = new ArrayList<>((int) count);
+        for (int i = 0; i < count; i++) {
+            long length = ProjectWireCodec.readVarint(in);
+            if (length < 0 || length > in.remaining()) {
+                throw new ProtocolException("Corrupt chat page");
+            }
+            lines.add(new String(body, in.position(), (int) length, StandardCharsets.UTF_8));
+            in.position(in.position() + (int) length);
+        }
+        return lines;
+    }
+
+    // ---- legacy text format ----
+
+    public String toText() {
+        String line = text;
+        if (line == null) {
+            StringBuilder sb = new StringBuilder(64).append(type.prefix);
+            if (type.hasTaskId) {
+                sb.append(taskId);
+                if (fields.length > 0) sb.append('|');
+            }
+            for (int i = 0; i < fields.length; i++) {
+                if (i > 0) sb.append('|');
+                sb.append(fields[i]);
+            }
+            if (type.hasSeq) {
+                sb.append('|').append(seq);
+            }
+            if (type.hasBody) {
+                sb.append('|').append(Base64.getEncoder().encodeToString(body));
+            }
+            line = sb.toString();
+            text = line;
+        }
+        return line;
+    }
+
+    // Parses one text line sent by the server (fromServer) or by a client.
+    // Returns null for unknown commands, malformed task ids and lines with too few fields, which
+    // the old code ignored too.
+    public static ProjectMessage parse(String line, boolean fromServer) {
+        for (Type type : Type.ALL) {
+            if (type.fromServer != fromServer && type != Type.HELLO) continue;
+            if (!line.startsWith(type.prefix)) continue;
+            return parseBody(type, line, type.prefix.length());
+        }
+        return null;
+    }
+
+    private static ProjectMessage parseBody(Type type, String line, int start) {
+        int taskId = 0;
+        if (type.hasTaskId) {
+            int end = line.indexOf('|', start);
+            if (end < 0) end = line.length();
+            try {
+                taskId = Integer.parseInt(line, start, end, 10);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            start = Math.min(end + 1, line.length());
+        }
+
+        // Parts after the fields are taken from the end of the line, so a '|' in a title can't move them
+        int end = line.length();
+        byte[] body = NO_BODY;
+        if (type.hasBody) {
+            int bar = line.lastIndexOf('|');
+            if (bar < start) return null;
+            try {
+                body = Base64.getDecoder().decode(line.substring(bar + 1));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+            end = bar;
+        }
+
+        int seq = 0;
+        if (type.hasSeq) {
+            int bar = line.lastIndexOf('|', end - 1);
+            boolean present = bar >= start && separators(line, start, bar) >= type.fieldCount - 1;
+            try {
+                if (present) {
+                    seq = Integer.parseInt(line, bar + 1, end, 10);
+                    end = bar;
+                } else if (!type.hasTaskId) {
+                    return null;
+                }
+            } catch (NumberFormatException e) {
+                // A server from before sequence numbers leaves the part out of task events, so one that
+                // isn't a number belongs to the fields; the event still applies, just without a seq
+                if (!type.hasTaskId) return null;
+            }
+        }
+
+        if (type.fieldCount == 0) {
+            return new ProjectMessage(type, taskId, seq, body, NO_FIELDS);
+        }
+        if (separators(line, start, end) < type.fieldCount - 1) {
+            return null;
+        }
+        // Fields before the free one split from the front, the ones after it from the back
+        String[] fields = new String[type.fieldCount];
+        for (int i = 0; i < type.freeField; i++) {
+            int bar = line.indexOf('|', start);
+            fields[i] = line.substring(start, bar);
+            start = bar + 1;
+        }
+        for (int i = type.fieldCount - 1; i > type.freeField; i--) {
+            int bar = line.lastIndexOf('|', end - 1);
+            fields[i] = line.substring(bar + 1, end);
+            end = bar;
+        }
+        fields[type.freeField] = line.substring(start, end);
+        return new ProjectMessage(type, taskId, seq, body, fields);
+    }
+
+    private static int separators(String line, int start, int end) {
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            if (line.charAt(i) == '|') count++;
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return toText();
+    }
+}
@@ -0,0 +1,197 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+
+// Room isolation and fan-out cost, against a ProjectServer in a child JVM (NIO, memory-only).
+// R rooms of U text-protocol clients join; the first user of each room sends M chat lines and adds
+// one task, and every client counts what reaches it. The server's CPU time for that phase comes
+// from /proc/<pid>/stat, after the same lines have been sent once to warm it up. It runs R rooms,
+// then a tenth as many rooms sending ten times the lines, then those clients sending M lines on one
+// shared board as every client was before rooms. Linux only, for /proc.
+//
+// Usage: ProjectRoomsTest [--rooms=N] [--users=N] [--lines=M] [--port=N]
+// The exit code is 1 if a client misses a line or task of its room or gets one from another room,
+// if the server's CPU per broadcast grows more than 3x with 10x the connections, or if the shared
+// board costs less than 3x the rooms per broadcast.
+public class ProjectRoomsTest {
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        int rooms = Integer.parseInt(ProjectServer.option(args, "rooms", "1000"));
+        int users = Integer.parseInt(ProjectServer.option(args, "users", "10"));
+        int lines = Integer.parseInt(ProjectServer.option(args, "lines", "10"));
+        int port = Integer.parseInt(ProjectServer.option(args, "port", "12346"));
+
+        int fewer = Math.max(1, rooms / 10);
+        double large = run(rooms, users, lines, false, port);
+        // As many broadcasts as the large run, so there is as much CPU time to measure
+        double small = run(fewer, users, lines * rooms / fewer, false, port);
+        double shared = run(fewer, users, lines, true, port);
+        check(large <= small * 3, "CPU per broadcast at " + rooms * users + " connections is within 3x of that at "
+            + fewer * users);
+        check(shared >= small * 3, "a shared board costs at least 3x the rooms per broadcast");
+        System.out.println(failures == 0 ? "OK" : failures + " check(s) failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // Returns the server's CPU microseconds per broadcast (chat line or task) in the send phase
+    private static double run(int rooms, int users, int lines, boolean shared, int port) throws Exception {
+        String java = ProcessHandle.current().info().command().orElse("java");
+        Process server = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "ProjectServer",
+            "--io=nio", "--port=" + port, "--data-dir=none", "--ping-interval=0", "--metrics-log=0")
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+        int clients = rooms * users;
+        LongAdder chat = new LongAdder();
+        LongAdder foreignChat = new LongAdder();
+        LongAdder tasks = new LongAdder();
+        LongAdder foreignTasks = new LongAdder();
+        CountDownLatch joined = new CountDownLatch(clients);
+        List<Socket> sockets = new ArrayList<>();
+        PrintWriter[] senders = new PrintWriter[rooms];
+        ExecutorService readers = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            awaitPort(port);
+            long start = System.nanoTime();
+            for (int r = 0; r < rooms; r++) {
+                for (int u = 0; u < users; u++) {
+                    Socket socket = new Socket("localhost", port);
+                    sockets.add(socket);
+                    PrintWriter out = new PrintWriter(socket.getOutputStream(), false, StandardCharsets.UTF_8);
+                    out.println("HELLO:1|ROOMS");
+                    if (!shared) {
+                        out.println("PROJECT:room" + r);
+                    }
+                    out.println("USERNAME:user" + r + "_" + u);
+                    out.flush();
+                    if (u == 0) {
+                        senders[r] = out;
+                    }
+                    String sender = "MESSAGE:user" + r + "_0: ";
+                    String task = "|task of room" + r + "|";
+                    readers.execute(() -> {
+                        try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                                StandardCharsets.UTF_8))) {
+                            String line;
+                            while ((line = in.readLine()) != null) {
+                                if (line.startsWith("SYSTEM:Welcome")) {
+                                    joined.countDown();
+                                } else if (line.startsWith("MESSAGE:")) {
+                                    chat.increment();
+                                    if (!line.startsWith(sender)) foreignChat.increment();
+                                } else if (line.startsWith("TASK_ADDED:")) {
+                                    tasks.increment();
+                                    if (!line.contains(task)) foreignTasks.increment();
+                                }
+                            }
+                        } catch (IOException e) {
+                            // Closed at the end of the run
+                        }
+                    });
+                }
+            }
+            if (!joined.await(10, TimeUnit.MINUTES)) {
+                throw new IllegalStateException("Only " + (clients - joined.getCount()) + " of " + clients + " joined");
+            }
+            double joinSeconds = (System.nanoTime() - start) / 1e9;
+
+            // On a shared board every client gets every room's lines and tasks
+            long expectedChat = (long) clients * lines * (shared ? rooms : 1);
+            long expectedTasks = (long) clients * (shared ? rooms : 1);
+            // The same lines once unmeasured, so the small runs aren't mostly JIT compilation
+            for (int m = 0; m < lines; m++) {
+                for (PrintWriter sender : senders) {
+                    sender.println("MESSAGE:warmup " + m);
+                }
+            }
+            for (PrintWriter sender : senders) {
+                sender.flush();
+            }
+            long warmupDeadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(10);
+            while (chat.sum() < expectedChat && System.nanoTime() < warmupDeadline) {
+                Thread.sleep(20);
+            }
+            Thread.sleep(500);
+            chat.reset();
+            double cpuBefore = cpuSeconds(server.pid());
+            start = System.nanoTime();
+            for (int m = 0; m < lines; m++) {
+                for (PrintWriter sender : senders) {
+                    sender.println("MESSAGE:line " + m);
+                }
+            }
+            for (int r = 0; r < rooms; r++) {
+                senders[r].println("ADD_TASK:task of room" + r + "|d");
+                senders[r].flush();
+            }
+            long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(10);
+            while ((chat.sum() < expectedChat || tasks.sum() < expectedTasks) && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            // Anything extra, e.g. from another room, arrives shortly after
+            Thread.sleep(500);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            double cpu = cpuSeconds(server.pid()) - cpuBefore;
+            int broadcasts = rooms * (lines + 1);
+            long deliveries = chat.sum() + tasks.sum();
+            String name = shared ? clients + " clients on one board" : rooms + " rooms x " + users;
+            System.out.printf("%s: joined in %.1f s; %d broadcasts, %d deliveries in %.2f s, server CPU %.2f s"
+                + " (%.1f us per broadcast, %.2f us per delivery)%n", name, joinSeconds, broadcasts, deliveries,
+                seconds, cpu, cpu * 1e6 / broadcasts, cpu * 1e6 / deliveries);
+            check(chat.sum() == expectedChat && tasks.sum() == expectedTasks, name + ": every client got "
+                + (shared ? "every room's" : "its room's") + " lines and tasks, once (" + chat.sum() + "/" + expectedChat
+                + " lines, " + tasks.sum() + "/" + expectedTasks + " tasks)");
+            if (!shared) {
+                check(foreignChat.sum() == 0 && foreignTasks.sum() == 0, name + ": nothing from another room ("
+                    + foreignChat.sum() + " lines, " + foreignTasks.sum() + " tasks)");
+            }
+            return cpu * 1e6 / broadcasts;
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            readers.shutdownNow();
+            server.destroy();
+            server.waitFor();
+        }
+    }
+
+    // User plus system CPU of a process, from /proc/<pid>/stat (in clock ticks of 1/100 s)
+    private static double cpuSeconds(long pid) throws IOException {
+        String stat = Files.readString(Path.of("/proc/" + pid + "/stat"));
+        // Fields after the command name, which is in parentheses and may contain spaces
+        String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+        return (Long.parseLong(fields[11]) + Long.parseLong(fields[12])) / 100.0;
+    }
+
+    private static void awaitPort(int port) throws InterruptedException {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            try {
+                new Socket("localhost", port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("Server did not start on port " + port);
+    }
+
+    private static void check(boolean passed, String what) {
+        System.out.println((passed ? "ok    " : "FAIL  ") + what);
+        if (!passed) failures++;
+    }
+}
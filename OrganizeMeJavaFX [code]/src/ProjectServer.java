@@ -1,145 +1,311 @@
 import java.io.*;
 import java.net.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ProjectServer {
-    private static final int PORT = 12345;
-    private static Set<ProjectServer_ClientHandler> clients = ConcurrentHashMap.newKeySet();
-    private static Map<String, ProjectServer_ClientHandler> usernames = new ConcurrentHashMap<>();
-    private static Map<Integer, ProjectTask> tasks = new ConcurrentHashMap<>();
-    private static AtomicInteger taskIdCounter = new AtomicInteger(1);
+    private static int port = 12345;
+    // Every open connection, joined or not; broadcasts go through the rooms instead
+    private static Set<ProjectServer_Connection> clients = ConcurrentHashMap.newKeySet();
+
+    // Projects by id, opened on first join and kept for the life of the process.
+    // Clients that don't name one share DEFAULT_ROOM, which lives directly in the data dir.
+    static final String DEFAULT_ROOM = ProjectMessage.DEFAULT_PROJECT;
+    private static final Map<String, ProjectServer_Room> rooms = new ConcurrentHashMap<>();
+    private static final Map<String, Object> openLocks = new ConcurrentHashMap<>();
+    // A single node unless started with --cluster
+    private static ProjectServer_Cluster cluster;
+    // null when persistence is disabled (--data-dir=none)
+    private static Path dataDir;
+    private static int snapshotEvery = 100_000;
+    private static int resumeWindow = 10_000;
+    private static int chatOnJoin = 50;
+
+    // Per-client outbound queue limit and slow-consumer counters
+    private static int outboundCapacity = 10_000;
+    private static final AtomicLong droppedMessages = new AtomicLong();
+    private static final AtomicLong slowClientDisconnects = new AtomicLong();
+    // Milliseconds a queued message may wait for more to join it before the socket is written
+    private static int flushDelay = 0;
+    private static final AtomicLong flushes = new AtomicLong();
+    private static final AtomicLong flushedMessages = new AtomicLong();
+    private static final AtomicLong outboundBytes = new AtomicLong();
+
+    // Heartbeat seconds; a ping interval of 0 turns them off, the idle timeout defaults to 3 intervals
+    private static int pingInterval = 30;
+    private static int idleTimeout;
+    private static ProjectServer_Heartbeat heartbeat;
+    private static final AtomicLong reapedConnections = new AtomicLong();
     
 
 
+    // Usage: ProjectServer [--io=thread|virtual|nio] [--io-threads=N] [--io-workers=N] [--outbound-queue=N]
+    //                      [--data-dir=DIR|none] [--snapshot-every=N] [--resume-window=N]
+    //                      [--chat-on-join=N] [--port=N] [--ping-interval=S] [--idle-timeout=S]
+    //                      [--flush-delay=MS] [--metrics-port=N] [--metrics-log=S]
+    //                      [--node=ID --cluster=ID@HOST:PORT,ID@HOST:PORT,...]
     public static void main(String[] args) {
-        System.out.println("Project Management Server starting on port " + PORT + "...");
-        
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
+        String ioMode = option(args, "io", "thread");
+        port = Integer.parseInt(option(args, "port", String.valueOf(port)));
+        outboundCapacity = Integer.parseInt(option(args, "outbound-queue", String.valueOf(outboundCapacity)));
+        flushDelay = Integer.parseInt(option(args, "flush-delay", String.valueOf(flushDelay)));
+        resumeWindow = Integer.parseInt(option(args, "resume-window", String.valueOf(resumeWindow)));
+        snapshotEvery = Integer.parseInt(option(args, "snapshot-every", String.valueOf(snapshotEvery)));
+        chatOnJoin = Integer.parseInt(option(args, "chat-on-join", String.valueOf(chatOnJoin)));
+        pingInterval = Integer.parseInt(option(args, "ping-interval", String.valueOf(pingInterval)));
+        idleTimeout = Integer.parseInt(option(args, "idle-timeout", String.valueOf(pingInterval * 3)));
+        if (pingInterval > 0) {
+            heartbeat = new ProjectServer_Heartbeat(pingInterval * 1000L, Math.max(idleTimeout, pingInterval + 1) * 1000L);
+            heartbeat.start();
+        }
+        System.out.println("Project Management Server starting on port " + port + " (" + ioMode + " mode)...");
+
+        int metricsPort = Integer.parseInt(option(args, "metrics-port", "0"));
+        int metricsLog = Integer.parseInt(option(args, "metrics-log", "60"));
+        if (metricsPort > 0) {
+            try {
+                ProjectServer_Metrics.startEndpoint(metricsPort);
+            } catch (IOException e) {
+                System.err.println("Could not start the metrics endpoint: " + e.getMessage());
+            }
+        }
+        if (metricsLog > 0) {
+            ProjectServer_Metrics.startLog(metricsLog);
+        }
+
+        String dir = option(args, "data-dir", "project_data");
+        dataDir = dir.equals("none") ? null : Paths.get(dir);
+        try {
+            cluster = new ProjectServer_Cluster(clusterBus(option(args, "node", null), option(args, "cluster", null)));
+            cluster.start();
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println("Could not join the cluster: " + e.getMessage());
+            return;
+        }
+        // The default project is recovered up front, as the single board was before rooms
+        try {
+            if (cluster.owns(DEFAULT_ROOM)) {
+                room(DEFAULT_ROOM);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not recover project data from " + dir + ": " + e.getMessage());
+            return;
+        }
+
+        if (ioMode.equals("nio")) {
+            int defaultThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+            int ioThreads = Integer.parseInt(option(args, "io-threads", String.valueOf(defaultThreads)));
+            int defaultWorkers = Math.max(8, Runtime.getRuntime().availableProcessors() * 4);
+            int workerThreads = Integer.parseInt(option(args, "io-workers", String.valueOf(defaultWorkers)));
+            try {
+                new ProjectServer_NioServer(port, ioThreads, workerThreads).run();
+            } catch (IOException e) {
+                System.err.println("Server error: " + e.getMessage());
+            }
+            return;
+        }
+
+        // Virtual threads keep the blocking readLine handler but cost a few hundred bytes
+        // of heap per idle client instead of a platform thread and its stack
+        Executor handlerExecutor = ioMode.equals("virtual")
+            ? Executors.newVirtualThreadPerTaskExecutor()
+            : runnable -> new Thread(runnable).start();
+
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
             System.out.println("Server started successfully!");
             
             while (true) {
                 Socket clientSocket = serverSocket.accept();
+                clientSocket.setKeepAlive(true);
+                // Writes are already batched per burst (and held for --flush-delay), so Nagle would only add delay
+                clientSocket.setTcpNoDelay(true);
                 System.out.println("New client connected: " + clientSocket.getInetAddress());
                 
-                ProjectServer_ClientHandler clientHandler = new ProjectServer_ClientHandler(clientSocket);
-                clients.add(clientHandler);
-                new Thread(clientHandler).start();
+                ProjectServer_ClientHandler clientHandler = new ProjectServer_ClientHandler(clientSocket, handlerExecutor);
+                registerClient(clientHandler);
+                handlerExecutor.execute(clientHandler);
             }
         } catch (IOException e) {
             System.err.println("Server error: " + e.getMessage());
         }
     }
 
-
-
-    
-    public static synchronized void broadcastMessage(String message, ProjectServer_ClientHandler sender) {
-        for (ProjectServer_ClientHandler client : clients) {
-            client.sendMessage(message);
+    // Reads "--name=value" from the command line, falling back to the default
+    static String option(String[] args, String name, String defaultValue) {
+        String prefix = "--" + name + "=";
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) {
+                return arg.substring(prefix.length());
+            }
         }
+        return defaultValue;
     }
-    
-    public static synchronized void removeClient(ProjectServer_ClientHandler client) {
-        clients.remove(client);
-        if (client.getUsername() != null) {
-            usernames.remove(client.getUsername());
-            broadcastMessage("SYSTEM:" + client.getUsername() + " left the project", client);
+
+    // Without --cluster this is the only node; with it, the listed nodes share rooms over TCP
+    private static ProjectServer_Bus clusterBus(String nodeId, String spec) {
+        if (spec == null) {
+            return new ProjectServer_LoopbackBus("local", List.of("local"));
+        }
+        if (nodeId == null) {
+            throw new IllegalArgumentException("--cluster needs --node to say which entry is this server");
+        }
+        Map<String, InetSocketAddress> addresses = new HashMap<>();
+        for (String entry : spec.split(",")) {
+            int at = entry.indexOf('@');
+            int colon = entry.lastIndexOf(':');
+            if (at <= 0 || colon < at) {
+                throw new IllegalArgumentException("Bad cluster entry " + entry + ", expected ID@HOST:PORT");
+            }
+            addresses.put(entry.substring(0, at),
+                new InetSocketAddress(entry.substring(at + 1, colon), Integer.parseInt(entry.substring(colon + 1))));
         }
-        System.out.println("Client disconnected. Active clients: " + clients.size());
+        System.out.println("Node " + nodeId + " of a cluster of " + addresses.size());
+        return new ProjectServer_TcpBus(nodeId, addresses);
     }
-    
-    public static synchronized boolean addUsername(String username, ProjectServer_ClientHandler client) {
-        if (usernames.containsKey(username)) {
-            return false;
+
+    public static void registerClient(ProjectServer_Connection client) {
+        clients.add(client);
+        if (heartbeat != null) {
+            heartbeat.watch(client);
         }
-        usernames.put(username, client);
-        client.setUsername(username);
-        broadcastMessage("SYSTEM:" + username + " joined the project", client);
-        return true;
     }
-    
-    public static synchronized Set<String> getActiveUsers() {
-        return new HashSet<>(usernames.keySet());
+
+    static int getClientCount() {
+        return clients.size();
     }
-    
-    public static synchronized int addTask(String title, String description, String assignedBy) {
-        int taskId = taskIdCounter.getAndIncrement();
-        ProjectTask task = new ProjectTask(taskId, title, description, assignedBy);
-        tasks.put(taskId, task);
-        
-        String taskMessage = "TASK_ADDED:" + taskId + "|" + title + "|" + description + "|" + assignedBy + "|PENDING|";
-        broadcastMessage(taskMessage, null);
-        
-        return taskId;
+
+    static Collection<ProjectServer_Connection> getClients() {
+        return clients;
     }
-    
-    public static synchronized boolean completeTask(int taskId, String completedBy) {
-        ProjectTask task = tasks.get(taskId);
-        if (task != null && task.getStatus() == TaskStatus.PENDING) {
-            task.setStatus(TaskStatus.COMPLETED);
-            task.setCompletedBy(completedBy);
-            task.setCompletedDate(new Date());
-            
-            String taskMessage = "TASK_COMPLETED:" + taskId + "|" + task.getTitle() + "|" + completedBy;
-            broadcastMessage(taskMessage, null);
-            return true;
+
+    // Registered and not yet removed
+    static boolean isConnected(ProjectServer_Connection client) {
+        return clients.contains(client);
+    }
+
+    static boolean heartbeatEnabled() {
+        return heartbeat != null;
+    }
+
+    // The project with this id, recovering or creating it on first use; on a node that doesn't own
+    // it, that means a replica fetched from the owner. Opening happens under a lock per id, so a
+    // project is only ever opened once and a slow open holds up no other project; joins to rooms
+    // already open take no lock at all.
+    public static ProjectServer_Room room(String id) throws IOException {
+        ProjectServer_Room room = rooms.get(id);
+        if (room != null) {
+            return room;
+        }
+        synchronized (openLocks.computeIfAbsent(id, key -> new Object())) {
+            room = rooms.get(id);
+            if (room == null) {
+                Path roomDir = dataDir == null || !cluster.owns(id) ? null
+                    : id.equals(DEFAULT_ROOM) ? dataDir : dataDir.resolve("rooms").resolve(id);
+                room = new ProjectServer_Room(id, cluster, roomDir, snapshotEvery, resumeWindow);
+                room.open();
+                rooms.put(id, room);
+                System.out.println("Opened project " + id + " (" + rooms.size() + " open)");
+            }
+            return room;
         }
-        return false;
     }
-    
-    public static synchronized boolean deleteTask(int taskId, String deletedBy) {
-        ProjectTask task = tasks.get(taskId);
-        if (task != null) {
-            tasks.remove(taskId);
-            
-            String taskMessage = "TASK_DELETED:" + taskId + "|" + task.getTitle() + "|" + deletedBy;
-            broadcastMessage(taskMessage, null);
-            return true;
+
+    // False for a project this node only holds a replica of
+    static boolean ownsRoom(String id) {
+        return cluster.owns(id);
+    }
+
+    static Collection<ProjectServer_Room> openRooms() {
+        return rooms.values();
+    }
+
+    // A closed replica; the next join opens a fresh one
+    static void dropRoom(ProjectServer_Room room) {
+        rooms.remove(room.getId(), room);
+    }
+
+    static int getChatOnJoin() {
+        return chatOnJoin;
+    }
+
+    public static void removeClient(ProjectServer_Connection client) {
+        if (!clients.remove(client)) {
+            return;
         }
-        return false;
+        ProjectServer_Room room = client.getRoom();
+        if (room != null) {
+            room.removeMember(client);
+        }
+        System.out.println("Client disconnected. Active clients: " + clients.size() + ", " + outboundStats());
     }
-    
-    public static synchronized List<ProjectTask> getAllTasks() {
-        return new ArrayList<>(tasks.values());
+
+    static int getOutboundCapacity() {
+        return outboundCapacity;
     }
-}
 
-enum TaskStatus {
-    PENDING, COMPLETED
-}
+    static void recordDroppedMessage() {
+        droppedMessages.incrementAndGet();
+    }
 
-class ProjectTask {
-    private int id;
-    private String title;
-    private String description;
-    private String assignedBy;
-    private String completedBy;
-    private TaskStatus status;
-    private Date createdDate;
-    private Date completedDate;
-    
-    public ProjectTask(int id, String title, String description, String assignedBy) {
-        this.id = id;
-        this.title = title;
-        this.description = description;
-        this.assignedBy = assignedBy;
-        this.status = TaskStatus.PENDING;
-        this.createdDate = new Date();
+    static void recordSlowClientDisconnect() {
+        slowClientDisconnects.incrementAndGet();
+    }
+
+    static long getFlushDelayNanos() {
+        return flushDelay * 1_000_000L;
+    }
+
+    // One flush of 'messages' queued messages, 'bytes' long, to a socket
+    static void recordFlush(int messages, long bytes) {
+        flushes.incrementAndGet();
+        flushedMessages.addAndGet(messages);
+        outboundBytes.addAndGet(bytes);
+    }
+
+    static long getFlushes() {
+        return flushes.get();
+    }
+
+    static long getFlushedMessages() {
+        return flushedMessages.get();
+    }
+
+    static long getOutboundBytes() {
+        return outboundBytes.get();
+    }
+
+    public static long getDroppedMessages() {
+        return droppedMessages.get();
+    }
+
+    public static long getSlowClientDisconnects() {
+        return slowClientDisconnects.get();
+    }
+
+    static void recordReapedConnection() {
+        reapedConnections.incrementAndGet();
+    }
+
+    public static long getReapedConnections() {
+        return reapedConnections.get();
+    }
+
+    public static String outboundStats() {
+        int totalDepth = 0;
+        int maxDepth = 0;
+        for (ProjectServer_Connection client : clients) {
+            int depth = client.getOutboundDepth();
+            totalDepth += depth;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+        return "queued messages: " + totalDepth + " (max " + maxDepth + " per client), dropped: "
+            + droppedMessages.get() + ", slow clients disconnected: " + slowClientDisconnects.get()
+            + ", idle clients disconnected: " + reapedConnections.get()
+            + ", messages per flush: " + String.format("%.1f", (double) flushedMessages.get() / Math.max(1, flushes.get()));
     }
-    
-    // Getters and setters
-    public int getId() { return id; }
-    public String getTitle() { return title; }
-    public String getDescription() { return description; }
-    public String getAssignedBy() { return assignedBy; }
-    public String getCompletedBy() { return completedBy; }
-    public TaskStatus getStatus() { return status; }
-    public Date getCreatedDate() { return createdDate; }
-    public Date getCompletedDate() { return completedDate; }
-    
-    public void setCompletedBy(String completedBy) { this.completedBy = completedBy; }
-    public void setStatus(TaskStatus status) { this.status = status; }
-    public void setCompletedDate(Date completedDate) { this.completedDate = completedDate; }
 }
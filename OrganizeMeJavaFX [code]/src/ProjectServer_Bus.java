@@ -0,0 +1,47 @@
+import java.io.IOException;
+import java.util.List;
+
+
+// Links the server nodes of a cluster (see ProjectServer_Cluster). Messages to one node arrive in
+// the order they were sent; that is the only ordering the cluster relies on. Nothing is retried:
+// a node that can't be reached is reported down and its rooms are rebuilt once it is back.
+interface ProjectServer_Bus {
+
+    enum Kind {
+        // node -> room owner
+        SUBSCRIBE,      // keep a replica of the room; answered with SNAPSHOT
+        JOIN,           // claim a username; answered with JOINED or TAKEN
+        LEAVE,          // a member's connection closed
+        COMMAND,        // a client command (ADD_TASK, COMPLETE_TASK, DELETE_TASK, MESSAGE) to run as 'user'
+        HISTORY,        // a HISTORY request; answered with HISTORY_PAGE
+        // room owner -> node
+        SNAPSHOT,       // SYNC (epoch, seq), USERS, CHAT_PAGE parts, TASK_SNAPSHOT parts
+        JOINED,
+        TAKEN,
+        HISTORY_PAGE,   // one CHAT_PAGE
+        EVENT,          // a stamped task event or a numbered CHAT_LINE
+        MEMBER_JOINED,
+        MEMBER_LEFT
+    }
+
+    // 'node' is the sender; a reply carries the request's id, everything else 0
+    record Message(Kind kind, String room, String node, String user, long requestId, List<ProjectMessage> parts) {}
+
+    interface Listener {
+        // Called on the bus's receiving thread for the sending node, one message at a time
+        void onMessage(Message message);
+
+        // The link to the node was lost; anything sent to it since may not have arrived
+        void onNodeDown(String nodeId);
+    }
+
+    String getNodeId();
+
+    // Every node of the cluster including this one, in the same order on every node
+    List<String> getNodeIds();
+
+    void start(Listener listener) throws IOException;
+
+    // Never blocks. False if the node is not reachable right now and the message was dropped.
+    boolean send(String nodeId, Message message);
+}
@@ -1,61 +1,44 @@
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.net.Socket;
-import java.util.List;
-import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.LockSupport;
 
 
-class ProjectServer_ClientHandler implements Runnable {
+class ProjectServer_ClientHandler extends ProjectServer_Connection implements Runnable {
     private Socket socket;
-    private PrintWriter out;
-    private BufferedReader in;
-    private String username;
-    
-    public ProjectServer_ClientHandler(Socket socket) {
+    private ProjectWireCodec.WireWriter out;
+    private ProjectWireCodec.WireReader in;
+
+    // Runs the writer task on the same kind of thread as the reader (platform or virtual)
+    private final Executor writerExecutor;
+    private volatile Thread writerThread;
+    private volatile boolean closed = false;
+    // Set while the writer waits out the flush delay; new messages join the batch without waking it
+    private volatile boolean lingering = false;
+
+    public ProjectServer_ClientHandler(Socket socket, Executor writerExecutor) {
         this.socket = socket;
+        this.writerExecutor = writerExecutor;
     }
-    
+
     @Override
     public void run() {
         try {
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            out = new PrintWriter(socket.getOutputStream(), true);
-            
-            // Handle username setup
-            // out.println("SYSTEM:Enter your username:");
-            String usernameInput;
-            while ((usernameInput = in.readLine()) != null) {
-                if (usernameInput.startsWith("USERNAME:")) {
-                    String requestedUsername = usernameInput.substring(9);
-                    this.username = requestedUsername;
-                    if (ProjectServer.addUsername(requestedUsername, this)) {
-                        out.println("SYSTEM:Welcome to the project, " + requestedUsername + "!");
-                        sendUserList();
-                        sendAllTasks();
-                        break;
-                    } else {
-                        out.println("SYSTEM:Username already taken. Please choose another:");
-                    }
-                }
+            in = new ProjectWireCodec.WireReader(new BufferedInputStream(socket.getInputStream()));
+            out = new ProjectWireCodec.WireWriter(socket.getOutputStream());
+            writerExecutor.execute(this::writeLoop);
+
+            // Text lines until HELLO switches the connection to binary frames
+            String line;
+            while (!isBinary() && (line = in.readLine()) != null) {
+                markReceived();
+                handleLine(line);
             }
-            if (username == null) return;
-            
-            // Handle messages and commands
-            String message;
-            while ((message = in.readLine()) != null) {
-                if (message.startsWith("ADD_TASK:")) {
-                    handleAddTask(message.substring(9));
-                } else if (message.startsWith("COMPLETE_TASK:")) {
-                    handleCompleteTask(message.substring(14));
-                } else if (message.startsWith("DELETE_TASK:")) {
-                    handleDeleteTask(message.substring(12));
-                } else if (message.startsWith("MESSAGE:")) {
-                    String chatMessage = message.substring(8);
-                    String formattedMessage = "MESSAGE:" + username + ": " + chatMessage;
-                    ProjectServer.broadcastMessage(formattedMessage, this);
-                }
+            ProjectMessage message;
+            while (isBinary() && (message = in.readFrame()) != null) {
+                markReceived();
+                handleMessage(message);
             }
         } catch (IOException e) {
             System.out.println("Client handler error: " + e.getMessage());
@@ -63,79 +46,85 @@ class ProjectServer_ClientHandler implements Runnable {
             cleanup();
         }
     }
-    
-    private void handleAddTask(String taskData) {
-        String[] parts = taskData.split("\\|", 2);
-        if (parts.length == 2) {
-            String title = parts[0];
-            String description = parts[1];
-            ProjectServer.addTask(title, description, username);
-            System.out.println("Task added by " + username + ": " + title);
-        }
-    }
-    
-    private void handleCompleteTask(String taskIdStr) {
+
+    // The only place that touches the socket's output stream. Everything queued is written into
+    // the buffer before one flush, so a burst of broadcasts leaves in as few writes as the buffer
+    // allows. With a flush delay, a message may also wait that long for others to join it.
+    private void writeLoop() {
+        writerThread = Thread.currentThread();
+        long flushDelayNanos = ProjectServer.getFlushDelayNanos();
+        int unflushed = 0;
+        long unflushedBytes = 0;
+        long firstUnflushed = 0;
         try {
-            int taskId = Integer.parseInt(taskIdStr);
-            boolean success = ProjectServer.completeTask(taskId, username);
-            if (success) {
-                System.out.println("Task " + taskId + " completed by " + username);
+            while (!closed) {
+                ProjectMessage message = outbound.poll();
+                if (message == null) {
+                    if (unflushed == 0) {
+                        LockSupport.park(this);
+                        continue;
+                    }
+                    long wait = flushDelayNanos - (System.nanoTime() - firstUnflushed);
+                    if (wait > 0) {
+                        lingering = true;
+                        LockSupport.parkNanos(this, wait);
+                        lingering = false;
+                        continue;
+                    }
+                    out.flush();
+                    ProjectServer.recordFlush(unflushed, unflushedBytes);
+                    unflushed = 0;
+                    unflushedBytes = 0;
+                    continue;
+                }
+                if (unflushed++ == 0) {
+                    firstUnflushed = System.nanoTime();
+                }
+                unflushedBytes += out.write(message);
+                if (message.getType() == ProjectMessage.Type.HELLO) {
+                    out.setBinary(isBinary());
+                }
             }
-        } catch (NumberFormatException e) {
-            System.out.println("Invalid task ID: " + taskIdStr);
+        } catch (IOException e) {
+            disconnect();
         }
     }
-    
-    private void handleDeleteTask(String taskIdStr) {
-        try {
-            int taskId = Integer.parseInt(taskIdStr);
-            boolean success = ProjectServer.deleteTask(taskId, username);
-            if (success) {
-                System.out.println("Task " + taskId + " deleted by " + username);
-            }
-        } catch (NumberFormatException e) {
-            System.out.println("Invalid task ID: " + taskIdStr);
+
+    @Override
+    protected void onOutboundReady() {
+        if (!lingering) {
+            wakeWriter();
         }
     }
-    
-    private void sendAllTasks() {
-        List<ProjectTask> tasks = ProjectServer.getAllTasks();
-        for (ProjectTask task : tasks) {
-            String taskMessage = "TASK_ADDED:" + task.getId() + "|" + task.getTitle() + "|" + 
-                                task.getDescription() + "|" + task.getAssignedBy() + "|" + 
-                                task.getStatus() + "|" + 
-                                (task.getCompletedBy() != null ? task.getCompletedBy() : "");
-            sendMessage(taskMessage);
+
+    private void wakeWriter() {
+        Thread writer = writerThread;
+        if (writer != null) {
+            LockSupport.unpark(writer);
         }
     }
-    
-    public void sendMessage(String message) {
-        if (out != null) {
-            out.println(message);
+
+    @Override
+    protected void disconnect() {
+        closed = true;
+        wakeWriter();
+        try {
+            // Unblocks the reader, which then runs cleanup on its own thread
+            socket.close();
+        } catch (IOException e) {
+            System.err.println("Error closing client resources: " + e.getMessage());
         }
     }
-    
-    public void sendUserList() {
-        Set<String> users = ProjectServer.getActiveUsers();
-        sendMessage("USERS:" + String.join(",", users));
-    }
-    
-    public String getUsername() {
-        return username;
-    }
-    
-    public void setUsername(String username) {
-        this.username = username;
-    }
-    
+
     private void cleanup() {
+        closed = true;
+        wakeWriter();
         try {
-            if (in != null) in.close();
-            if (out != null) out.close();
             if (socket != null) socket.close();
         } catch (IOException e) {
             System.err.println("Error closing client resources: " + e.getMessage());
         }
+        outbound.clear();
         ProjectServer.removeClient(this);
     }
-}
\ No newline at end of file
+}
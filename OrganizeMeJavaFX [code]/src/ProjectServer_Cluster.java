@@ -0,0 +1,161 @@
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+
+// Several server nodes behind one address. Every room has one owner node, picked by hashing its
+// id over the node list, which keeps its journal, numbers its task events and chat lines and
+// decides who may take a username. The other nodes open a replica of the room when one of their
+// clients joins it: a copy of the board, members and recent chat that the owner keeps current
+// over the bus, so joins, resumes and the chat tail are served locally while every command is
+// forwarded to the owner. A node that goes down takes its rooms with it until it is back.
+//
+// Handlers called from the bus never wait on the bus themselves, so one node's messages can't
+// hold up its own replies.
+class ProjectServer_Cluster implements ProjectServer_Bus.Listener {
+    private static final long REQUEST_TIMEOUT_MS = 3000;
+
+    private final ProjectServer_Bus bus;
+    private final String nodeId;
+    private final List<String> nodeIds;
+    // Replicas by room id, registered before they subscribe so no event finds them missing
+    private final Map<String, ProjectServer_Room> replicas = new ConcurrentHashMap<>();
+
+    private record Pending(String node, CompletableFuture<ProjectServer_Bus.Message> reply,
+                           Consumer<ProjectServer_Bus.Message> onReply) {}
+    private final Map<Long, Pending> pending = new ConcurrentHashMap<>();
+    private final AtomicLong nextRequestId = new AtomicLong(1);
+
+    public ProjectServer_Cluster(ProjectServer_Bus bus) {
+        this.bus = bus;
+        this.nodeId = bus.getNodeId();
+        this.nodeIds = bus.getNodeIds();
+    }
+
+    public void start() throws IOException {
+        bus.start(this);
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public String ownerOf(String roomId) {
+        return nodeIds.get(Math.floorMod(roomId.hashCode(), nodeIds.size()));
+    }
+
+    public boolean owns(String roomId) {
+        return ownerOf(roomId).equals(nodeId);
+    }
+
+    void addReplica(ProjectServer_Room room) {
+        replicas.put(room.getId(), room);
+    }
+
+    void removeReplica(ProjectServer_Room room) {
+        replicas.remove(room.getId(), room);
+    }
+
+    // ---- sending ----
+
+    // Fire and forget; false if the node is unreachable
+    boolean send(String node, ProjectServer_Bus.Kind kind, String room, String user, List<ProjectMessage> parts) {
+        return bus.send(node, new ProjectServer_Bus.Message(kind, room, nodeId, user, 0, parts));
+    }
+
+    void reply(ProjectServer_Bus.Message request, ProjectServer_Bus.Kind kind, List<ProjectMessage> parts) {
+        bus.send(request.node(), new ProjectServer_Bus.Message(kind, request.room(), nodeId, request.user(),
+            request.requestId(), parts));
+    }
+
+    // Completes with the reply, or fails if the node is down or takes too long. onReply, if given,
+    // runs on the bus thread before anything the node sends after the reply is handled.
+    CompletableFuture<ProjectServer_Bus.Message> request(String node, ProjectServer_Bus.Kind kind, String room,
+                                                         String user, List<ProjectMessage> parts,
+                                                         Consumer<ProjectServer_Bus.Message> onReply) {
+        long requestId = nextRequestId.getAndIncrement();
+        CompletableFuture<ProjectServer_Bus.Message> reply = new CompletableFuture<>();
+        pending.put(requestId, new Pending(node, reply, onReply));
+        if (!bus.send(node, new ProjectServer_Bus.Message(kind, room, nodeId, user, requestId, parts))) {
+            reply.completeExceptionally(new IOException("Node " + node + " is not reachable"));
+        }
+        reply.orTimeout(REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        return reply.whenComplete((message, error) -> pending.remove(requestId));
+    }
+
+    // Blocking form of request for client threads
+    ProjectServer_Bus.Message call(String node, ProjectServer_Bus.Kind kind, String room, String user,
+                                   List<ProjectMessage> parts,
+                                   Consumer<ProjectServer_Bus.Message> onReply) throws IOException {
+        try {
+            return request(node, kind, room, user, parts, onReply).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof TimeoutException) {
+                throw new IOException("Node " + node + " did not answer " + kind + " for " + room);
+            }
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        }
+    }
+
+    // ---- receiving ----
+
+    @Override
+    public void onMessage(ProjectServer_Bus.Message message) {
+        switch (message.kind()) {
+            case SNAPSHOT, JOINED, TAKEN, HISTORY_PAGE -> {
+                Pending request = pending.remove(message.requestId());
+                if (request == null) {
+                    return; // timed out meanwhile
+                }
+                if (request.onReply() != null) {
+                    request.onReply().accept(message);
+                }
+                request.reply().complete(message);
+            }
+            case EVENT, MEMBER_JOINED, MEMBER_LEFT -> {
+                ProjectServer_Room replica = replicas.get(message.room());
+                if (replica != null) {
+                    replica.applyUpdate(message);
+                }
+            }
+            case SUBSCRIBE, JOIN, LEAVE, COMMAND, HISTORY -> {
+                if (!ProjectMessage.isValidProjectId(message.room()) || !owns(message.room())) {
+                    System.err.println("Node " + message.node() + " sent " + message.kind() + " for "
+                        + message.room() + ", which this node does not own");
+                    return;
+                }
+                try {
+                    ProjectServer.room(message.room()).handleRequest(message);
+                } catch (IOException e) {
+                    // The caller times out
+                    System.err.println("Could not open project " + message.room() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onNodeDown(String node) {
+        for (Map.Entry<Long, Pending> entry : pending.entrySet()) {
+            if (entry.getValue().node().equals(node)) {
+                entry.getValue().reply().completeExceptionally(new IOException("Node " + node + " went down"));
+            }
+        }
+        // Replicas can't be trusted once their owner's updates may have been lost; their clients
+        // reconnect and rejoin once it is back. Rooms owned here forget that node's members.
+        for (ProjectServer_Room room : ProjectServer.openRooms()) {
+            if (room.isOwned()) {
+                room.dropNode(node);
+            } else if (ownerOf(room.getId()).equals(node)) {
+                room.close("lost contact with node " + node);
+            }
+        }
+    }
+}
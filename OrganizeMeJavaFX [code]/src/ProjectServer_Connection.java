@@ -0,0 +1,320 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+// Protocol shared by every server transport (blocking socket thread or NIO selector).
+// Subclasses only deal with moving bytes; commands are interpreted here. A connection starts
+// with text lines and switches both directions to binary frames after a HELLO that asks for it.
+abstract class ProjectServer_Connection {
+    protected String username;
+    private boolean joined = false;
+    private volatile boolean binary = false;
+    private boolean helloSeen = false;
+    // Client understands TASK_SNAPSHOT, so the board is sent in bulk on join
+    private boolean bulkSync = false;
+    // Client understands SYNC and may send RESUME with the cursor it had before reconnecting
+    private boolean resumable = false;
+    private String resumeEpoch;
+    private int resumeSeq;
+    // Client keeps chat history: it gets numbered CHAT lines and may page back with HISTORY
+    private boolean chatHistory = false;
+    // Client answers PING, so a silent one is gone (see ProjectServer_Heartbeat)
+    private volatile boolean heartbeat = false;
+    private volatile long lastReceived = System.nanoTime();
+    private final long connectedAt = System.nanoTime();
+    // The project asked for with PROJECT, and the room joined with USERNAME
+    private String projectId = ProjectServer.DEFAULT_ROOM;
+    private volatile ProjectServer_Room room;
+    // Guarded by the room's chat lock: numbered chat starts after the join page
+    private boolean chatSubscribed = false;
+
+    // Guarded by the room's publish lock: task events go out only once the client is synced,
+    // and are parked in heldTaskEvents while its snapshot is being built
+    private boolean subscribed = false;
+    private List<ProjectMessage> heldTaskEvents;
+
+    protected final ProjectServer_OutboundQueue outbound =
+        new ProjectServer_OutboundQueue(ProjectServer.getOutboundCapacity());
+    private final AtomicBoolean overflowed = new AtomicBoolean(false);
+
+    // Called once per received text line, in order, from the connection's reader
+    protected void handleLine(String line) {
+        ProjectMessage message = ProjectMessage.parse(line, false);
+        if (message == null) {
+            if (line.startsWith("COMPLETE_TASK:") || line.startsWith("DELETE_TASK:")) {
+                System.out.println("Invalid task ID: " + line.substring(line.indexOf(':') + 1));
+            }
+            return;
+        }
+        if (message.getType() == ProjectMessage.Type.HELLO) {
+            handleHello(message);
+            return;
+        }
+        handleMessage(message);
+    }
+
+    // Called for every decoded command, text or binary
+    protected void handleMessage(ProjectMessage message) {
+        // Anything a client sends may end up on another client's text line
+        message = message.withoutLineBreaks();
+        if (tooLong(message)) {
+            sendMessage(ProjectMessage.system(message.getType() == ProjectMessage.Type.USERNAME
+                ? "Invalid username: longer than " + ProjectWireCodec.MAX_USERNAME_LENGTH + " characters"
+                : "Not sent: longer than " + ProjectWireCodec.MAX_FIELD_LENGTH + " characters"));
+            return;
+        }
+        if (!joined) {
+            if (message.getType() == ProjectMessage.Type.RESUME && resumable) {
+                resumeEpoch = message.field(0);
+                resumeSeq = message.getSeq();
+                return;
+            }
+            if (message.getType() == ProjectMessage.Type.PROJECT) {
+                projectId = message.field(0);
+                return;
+            }
+            // Handle username setup
+            if (message.getType() == ProjectMessage.Type.USERNAME) {
+                String requestedUsername = message.field(0);
+                this.username = requestedUsername;
+                ProjectServer_Room target = openRoom();
+                if (target == null) {
+                    return;
+                }
+                boolean added;
+                try {
+                    added = target.addMember(requestedUsername, this);
+                } catch (IOException e) {
+                    notAvailable(e);
+                    return;
+                }
+                if (added) {
+                    room = target;
+                    joined = true;
+                    sendMessage(ProjectMessage.system("Welcome to the project, " + requestedUsername + "!"));
+                    sendUserList();
+                    if (chatHistory) {
+                        room.syncChat(this, ProjectServer.getChatOnJoin());
+                    }
+                    room.syncTasks(this, bulkSync, resumable, resumeEpoch, resumeSeq);
+                } else {
+                    sendMessage(ProjectMessage.system("Username already taken. Please choose another:"));
+                }
+            }
+            return;
+        }
+
+        // Handle messages and commands
+        switch (message.getType()) {
+            case ADD_TASK, COMPLETE_TASK, DELETE_TASK, SEND_CHAT -> {
+                ProjectServer_Metrics.recordCommand(message.getType());
+                room.runCommand(username, message);
+            }
+            case HISTORY -> handleHistory(message);
+            default -> { }
+        }
+    }
+
+    private static boolean tooLong(ProjectMessage message) {
+        int max = message.getType() == ProjectMessage.Type.USERNAME
+            ? ProjectWireCodec.MAX_USERNAME_LENGTH : ProjectWireCodec.MAX_FIELD_LENGTH;
+        for (int i = 0; i < message.getFieldCount(); i++) {
+            if (message.field(i) != null && message.field(i).length() > max) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Only valid before USERNAME. The reply goes out as a text line; every byte after it,
+    // in both directions, is binary frames if BINARY was agreed on.
+    private void handleHello(ProjectMessage hello) {
+        if (joined || helloSeen) {
+            return;
+        }
+        helloSeen = true;
+        int version;
+        try {
+            version = Integer.parseInt(hello.field(0));
+        } catch (NumberFormatException e) {
+            version = 0;
+        }
+        List<String> requested = version >= 1 ? Arrays.asList(hello.field(1).split(",")) : List.of();
+        List<String> accepted = new ArrayList<>();
+        if (requested.contains(ProjectWireCodec.FEATURE_BINARY)) accepted.add(ProjectWireCodec.FEATURE_BINARY);
+        if (requested.contains(ProjectWireCodec.FEATURE_SNAPSHOT)) accepted.add(ProjectWireCodec.FEATURE_SNAPSHOT);
+        if (requested.contains(ProjectWireCodec.FEATURE_RESUME)) accepted.add(ProjectWireCodec.FEATURE_RESUME);
+        if (requested.contains(ProjectWireCodec.FEATURE_HISTORY)) accepted.add(ProjectWireCodec.FEATURE_HISTORY);
+        if (requested.contains(ProjectWireCodec.FEATURE_ROOMS)) accepted.add(ProjectWireCodec.FEATURE_ROOMS);
+        if (requested.contains(ProjectWireCodec.FEATURE_HEARTBEAT) && ProjectServer.heartbeatEnabled()) {
+            accepted.add(ProjectWireCodec.FEATURE_HEARTBEAT);
+        }
+
+        bulkSync = accepted.contains(ProjectWireCodec.FEATURE_SNAPSHOT);
+        resumable = accepted.contains(ProjectWireCodec.FEATURE_RESUME);
+        chatHistory = accepted.contains(ProjectWireCodec.FEATURE_HISTORY);
+        heartbeat = accepted.contains(ProjectWireCodec.FEATURE_HEARTBEAT);
+        // Set before queueing the reply: the writer reads it once the reply is out
+        binary = accepted.contains(ProjectWireCodec.FEATURE_BINARY);
+        sendMessage(ProjectMessage.hello(ProjectWireCodec.VERSION, String.join(",", accepted)));
+    }
+
+    // True once HELLO negotiated binary frames; the reader switches right after the HELLO line,
+    // the writer right after sending the HELLO reply
+    protected boolean isBinary() {
+        return binary;
+    }
+
+    protected boolean isJoined() {
+        return joined;
+    }
+
+    // Transports call this whenever bytes arrive from the client; a PONG needs no other handling
+    protected void markReceived() {
+        lastReceived = System.nanoTime();
+    }
+
+    long getLastReceived() {
+        return lastReceived;
+    }
+
+    long getConnectedAt() {
+        return connectedAt;
+    }
+
+    boolean usesHeartbeat() {
+        return heartbeat;
+    }
+
+    // null if the project can't be joined; like a taken username, the client may try again
+    private ProjectServer_Room openRoom() {
+        if (!ProjectMessage.isValidProjectId(projectId)) {
+            sendMessage(ProjectMessage.system("Invalid project name: " + projectId));
+            return null;
+        }
+        try {
+            return ProjectServer.room(projectId);
+        } catch (IOException e) {
+            notAvailable(e);
+            return null;
+        }
+    }
+
+    private void notAvailable(IOException e) {
+        System.err.println("Could not open project " + projectId + ": " + e.getMessage());
+        sendMessage(ProjectMessage.system("Project " + projectId + " is not available"));
+        // Owned by a node that is down or unreachable: close, so a reconnecting client backs off
+        // and tries again instead of sitting here unjoined
+        if (!ProjectServer.ownsRoom(projectId)) {
+            disconnect();
+        }
+    }
+
+    private void handleHistory(ProjectMessage request) {
+        if (!chatHistory) {
+            return;
+        }
+        try {
+            int beforeSeq = Integer.parseInt(request.field(0));
+            int limit = Integer.parseInt(request.field(1));
+            room.sendChatPage(this, beforeSeq, limit);
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid history request from " + username);
+        } catch (IOException e) {
+            System.err.println("Chat history read failed: " + e.getMessage());
+        }
+    }
+
+    // ---- chat (called under the room's chat lock) ----
+
+    void deliverChat(ProjectMessage legacy, ProjectMessage numbered) {
+        if (!chatHistory) {
+            offerBroadcast(legacy);
+        } else if (chatSubscribed) {
+            offerBroadcast(numbered);
+        }
+    }
+
+    void startChat() {
+        chatSubscribed = true;
+    }
+
+    // ---- task events (called under the room's publish lock) ----
+
+    void deliverTaskEvent(ProjectMessage event) {
+        if (heldTaskEvents != null) {
+            heldTaskEvents.add(event);
+        } else if (subscribed) {
+            offerBroadcast(event);
+        }
+    }
+
+    void holdTaskEvents() {
+        heldTaskEvents = new ArrayList<>();
+    }
+
+    void startTaskEvents() {
+        List<ProjectMessage> held = heldTaskEvents;
+        heldTaskEvents = null;
+        subscribed = true;
+        if (held != null) {
+            for (ProjectMessage event : held) {
+                offerBroadcast(event);
+            }
+        }
+    }
+
+    public void sendUserList() {
+        Set<String> users = room.getActiveUsers();
+        sendMessage(ProjectMessage.users(String.join(",", users)));
+    }
+
+    // Replies to this client's own requests, always queued
+    public void sendMessage(ProjectMessage message) {
+        outbound.add(message);
+        onOutboundReady();
+    }
+
+    // Broadcast path: never blocks. A client whose queue is full is too slow to keep up,
+    // so the message is dropped and the client is disconnected (it can rejoin and resync).
+    public void offerBroadcast(ProjectMessage message) {
+        if (outbound.offer(message)) {
+            onOutboundReady();
+            return;
+        }
+        ProjectServer.recordDroppedMessage();
+        if (overflowed.compareAndSet(false, true)) {
+            System.out.println("Disconnecting slow client " + username + ": outbound queue full ("
+                + outbound.depth() + " messages)");
+            ProjectServer.recordSlowClientDisconnect();
+            disconnect();
+        }
+    }
+
+    public int getOutboundDepth() {
+        return outbound.depth();
+    }
+
+    // Wake whatever drains 'outbound' for this transport
+    protected abstract void onOutboundReady();
+
+    // Close the connection asynchronously; removal from the server happens on the reader side
+    protected abstract void disconnect();
+
+    // null until the client has joined
+    public ProjectServer_Room getRoom() {
+        return room;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+}
@@ -0,0 +1,110 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+
+// Finds connections whose peer has gone away without closing them. A client that agreed to
+// HEARTBEAT is sent a PING after pingInterval without hearing from it and must answer with PONG;
+// after idleTimeout of silence it is disconnected. A connection also has idleTimeout to join,
+// however often it answers PING, so one that is never let in doesn't stay around.
+//
+// Connections sit in a timer wheel, each in the slot of the tick it next needs looking at, so a
+// tick only visits the connections that are due rather than every client on the server. The wheel
+// belongs to the heartbeat thread; other threads only hand it new connections.
+class ProjectServer_Heartbeat implements Runnable {
+    private static final long TICK_MS = 250;
+
+    private final long pingIntervalNanos;
+    private final long idleTimeoutNanos;
+    private final List<List<ProjectServer_Connection>> wheel = new ArrayList<>();
+    private final Queue<ProjectServer_Connection> added = new ConcurrentLinkedQueue<>();
+    private long tick = 0;
+
+    public ProjectServer_Heartbeat(long pingIntervalMs, long idleTimeoutMs) {
+        this.pingIntervalNanos = pingIntervalMs * 1_000_000;
+        this.idleTimeoutNanos = idleTimeoutMs * 1_000_000;
+        // Nothing is ever scheduled further ahead than the idle timeout
+        for (long i = idleTimeoutMs / TICK_MS + 2; i > 0; i--) {
+            wheel.add(new ArrayList<>());
+        }
+    }
+
+    public void start() {
+        Thread thread = new Thread(this, "project-heartbeat");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void watch(ProjectServer_Connection client) {
+        added.add(client);
+    }
+
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+        while (true) {
+            try {
+                Thread.sleep(TICK_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.nanoTime();
+            // Catch up on ticks missed while the thread was descheduled
+            long target = (now - start) / (TICK_MS * 1_000_000);
+            while (tick < target) {
+                tick++;
+                ProjectServer_Connection client;
+                while ((client = added.poll()) != null) {
+                    schedule(client, pingIntervalNanos);
+                }
+                // schedule() never picks the current slot, so it can be walked and cleared in place
+                List<ProjectServer_Connection> due = wheel.get((int) (tick % wheel.size()));
+                for (ProjectServer_Connection dueClient : due) {
+                    check(dueClient, now);
+                }
+                due.clear();
+            }
+        }
+    }
+
+    private void check(ProjectServer_Connection client, long now) {
+        if (!ProjectServer.isConnected(client)) {
+            return;
+        }
+        boolean pings = client.usesHeartbeat();
+        boolean joined = client.isJoined();
+        if (!pings && joined) {
+            // A client from before heartbeats can't be told apart from an idle one; only a failed
+            // write (or TCP keepalive) gets rid of it
+            return;
+        }
+        long idle = now - client.getLastReceived();
+        long unjoined = joined ? 0 : now - client.getConnectedAt();
+        if (idle >= idleTimeoutNanos || unjoined >= idleTimeoutNanos) {
+            System.out.println("Disconnecting " + (client.getUsername() != null ? client.getUsername() : "unjoined client")
+                + (idle >= idleTimeoutNanos ? ": nothing received for " + idle / 1_000_000_000 + " s"
+                    : ": not joined after " + unjoined / 1_000_000_000 + " s"));
+            ProjectServer.recordReapedConnection();
+            client.disconnect();
+            return;
+        }
+        long next;
+        if (pings && idle >= pingIntervalNanos) {
+            client.sendMessage(ProjectMessage.ping());
+            next = Math.min(pingIntervalNanos, idleTimeoutNanos - idle);
+        } else {
+            next = (pings ? pingIntervalNanos : idleTimeoutNanos) - idle;
+        }
+        if (!joined) {
+            next = Math.min(next, idleTimeoutNanos - unjoined);
+        }
+        schedule(client, next);
+    }
+
+    private void schedule(ProjectServer_Connection client, long delayNanos) {
+        long ticks = Math.max(1, (delayNanos + TICK_MS * 1_000_000 - 1) / (TICK_MS * 1_000_000));
+        ticks = Math.min(ticks, wheel.size() - 1);
+        wheel.get((int) ((tick + ticks) % wheel.size())).add(client);
+    }
+}
@@ -0,0 +1,69 @@
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+// Bus between nodes in the same JVM: messages are handed over as objects and delivered on the
+// receiving node's own dispatcher thread, in send order. A server started without --cluster is
+// the only node of one of these, so it owns every room and never sends anything.
+class ProjectServer_LoopbackBus implements ProjectServer_Bus {
+    private static final Map<String, ProjectServer_LoopbackBus> endpoints = new ConcurrentHashMap<>();
+
+    private final String nodeId;
+    private final List<String> nodeIds;
+    private Listener listener;
+    private ExecutorService dispatcher;
+
+    public ProjectServer_LoopbackBus(String nodeId, List<String> nodeIds) {
+        this.nodeId = nodeId;
+        this.nodeIds = List.copyOf(nodeIds);
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public List<String> getNodeIds() {
+        return nodeIds;
+    }
+
+    @Override
+    public void start(Listener listener) {
+        this.listener = listener;
+        if (nodeIds.size() > 1) {
+            dispatcher = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "project-bus-" + nodeId);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        endpoints.put(nodeId, this);
+    }
+
+    // Takes the node off the bus; the others see it go down
+    public void stop() {
+        if (!endpoints.remove(nodeId, this)) return;
+        for (ProjectServer_LoopbackBus other : endpoints.values()) {
+            if (other.nodeIds.contains(nodeId) && other.dispatcher != null) {
+                other.dispatcher.execute(() -> other.listener.onNodeDown(nodeId));
+            }
+        }
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Override
+    public boolean send(String targetId, Message message) {
+        ProjectServer_LoopbackBus target = endpoints.get(targetId);
+        if (target == null || target == this || target.dispatcher == null) {
+            return false;
+        }
+        target.dispatcher.execute(() -> target.listener.onMessage(message));
+        return true;
+    }
+}
@@ -0,0 +1,283 @@
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+
+// Numbers for capacity planning: connections, client commands, broadcast fan-out time and
+// outbound traffic. Recording is a counter add on the hot paths; everything else is computed
+// when the numbers are read, by the scrape endpoint (--metrics-port, Prometheus text format on
+// localhost) or the periodic log line (--metrics-log).
+final class ProjectServer_Metrics {
+    private static final ProjectMessage.Type[] COMMANDS = {
+        ProjectMessage.Type.ADD_TASK, ProjectMessage.Type.COMPLETE_TASK,
+        ProjectMessage.Type.DELETE_TASK, ProjectMessage.Type.SEND_CHAT
+    };
+
+    // Commands received from this node's clients, owned rooms or not
+    private static final Map<ProjectMessage.Type, LongAdder> commands = new EnumMap<>(ProjectMessage.Type.class);
+    static {
+        for (ProjectMessage.Type type : COMMANDS) {
+            commands.put(type, new LongAdder());
+        }
+    }
+
+    // Time to hand one chat line or task event to every member of a room on this node
+    static final Histogram chatFanout = new Histogram();
+    static final Histogram taskFanout = new Histogram();
+
+    private ProjectServer_Metrics() {
+    }
+
+    static void recordCommand(ProjectMessage.Type type) {
+        LongAdder counter = commands.get(type);
+        if (counter != null) {
+            counter.increment();
+        }
+    }
+
+    // ---- reporting ----
+
+    // Serves GET /metrics on the loopback interface only
+    static void startEndpoint(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        System.out.println("Metrics on http://127.0.0.1:" + server.getAddress().getPort() + "/metrics");
+    }
+
+    // Logs a summary line every 'seconds', with rates and percentiles over that interval
+    static void startLog(int seconds) {
+        Thread thread = new Thread(() -> {
+            Sample last = new Sample();
+            while (true) {
+                try {
+                    Thread.sleep(seconds * 1000L);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                Sample now = new Sample();
+                System.out.println(summary(last, now));
+                last = now;
+            }
+        }, "project-metrics-log");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Everything the log line needs from two points in time
+    private static final class Sample {
+        final long nanos = System.nanoTime();
+        final long[] commandCounts = new long[COMMANDS.length];
+        final long outboundBytes = ProjectServer.getOutboundBytes();
+        final Histogram.Snapshot chat = chatFanout.snapshot();
+        final Histogram.Snapshot task = taskFanout.snapshot();
+
+        Sample() {
+            for (int i = 0; i < COMMANDS.length; i++) {
+                commandCounts[i] = commands.get(COMMANDS[i]).sum();
+            }
+        }
+    }
+
+    private static String summary(Sample from, Sample to) {
+        double seconds = Math.max(1, to.nanos - from.nanos) / 1e9;
+        StringBuilder line = new StringBuilder("Metrics: ")
+            .append(ProjectServer.getClientCount()).append(" connections (")
+            .append(joinedMembers()).append(" joined), ")
+            .append(ProjectServer.openRooms().size()).append(" projects open, ")
+            .append(ownedTasks()).append(" tasks; commands/s");
+        for (int i = 0; i < COMMANDS.length; i++) {
+            line.append(' ').append(commandName(COMMANDS[i])).append(' ')
+                .append(String.format("%.1f", (to.commandCounts[i] - from.commandCounts[i]) / seconds));
+        }
+        line.append("; out ").append(String.format("%.1f", (to.outboundBytes - from.outboundBytes) / seconds / 1024))
+            .append(" KB/s; fan-out chat ").append(percentiles(to.chat.minus(from.chat)))
+            .append(", task ").append(percentiles(to.task.minus(from.task)));
+        return line.toString();
+    }
+
+    private static String percentiles(Histogram.Snapshot interval) {
+        if (interval.count() == 0) {
+            return "-";
+        }
+        return String.format("p50 %.1f p99 %.1f us (%d)", interval.percentile(0.5) / 1e3,
+            interval.percentile(0.99) / 1e3, interval.count());
+    }
+
+    static String render() {
+        StringBuilder out = new StringBuilder();
+        gauge(out, "project_connections", "Open client connections, joined or not", ProjectServer.getClientCount());
+        gauge(out, "project_members", "Joined clients connected to this node", joinedMembers());
+        gauge(out, "project_rooms_open", "Projects open on this node, owned or replicated", ProjectServer.openRooms().size());
+        gauge(out, "project_tasks", "Tasks on the boards of the projects this node owns", ownedTasks());
+        gauge(out, "project_outbound_queued_messages", "Messages waiting in client outbound queues", queuedMessages());
+
+        out.append("# HELP project_commands_total Commands received from clients on this node\n");
+        out.append("# TYPE project_commands_total counter\n");
+        for (ProjectMessage.Type type : COMMANDS) {
+            out.append("project_commands_total{command=\"").append(commandName(type)).append("\"} ")
+                .append(commands.get(type).sum()).append('\n');
+        }
+        counter(out, "project_outbound_bytes_total", "Bytes written to client sockets", ProjectServer.getOutboundBytes());
+        counter(out, "project_outbound_messages_total", "Messages written to client sockets", ProjectServer.getFlushedMessages());
+        counter(out, "project_outbound_flushes_total", "Socket flushes, each carrying one or more messages", ProjectServer.getFlushes());
+        counter(out, "project_dropped_messages_total", "Broadcasts dropped for clients whose queue was full", ProjectServer.getDroppedMessages());
+        counter(out, "project_slow_clients_disconnected_total", "Clients disconnected for a full outbound queue", ProjectServer.getSlowClientDisconnects());
+        counter(out, "project_idle_clients_disconnected_total", "Clients disconnected after the idle timeout", ProjectServer.getReapedConnections());
+
+        out.append("# HELP project_broadcast_fanout_seconds Time to hand one broadcast to every member of a room on this node\n");
+        out.append("# TYPE project_broadcast_fanout_seconds summary\n");
+        summaryLines(out, "chat", chatFanout.snapshot());
+        summaryLines(out, "task", taskFanout.snapshot());
+        return out.toString();
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" gauge\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void summaryLines(StringBuilder out, String kind, Histogram.Snapshot snapshot) {
+        String name = "project_broadcast_fanout_seconds";
+        for (double quantile : new double[] {0.5, 0.9, 0.99, 0.999, 1.0}) {
+            long nanos = quantile == 1.0 ? snapshot.max() : snapshot.percentile(quantile);
+            out.append(name).append("{kind=\"").append(kind).append("\",quantile=\"").append(quantile).append("\"} ")
+                .append(nanos / 1e9).append('\n');
+        }
+        out.append(name).append("_sum{kind=\"").append(kind).append("\"} ").append(snapshot.sum() / 1e9).append('\n');
+        out.append(name).append("_count{kind=\"").append(kind).append("\"} ").append(snapshot.count()).append('\n');
+    }
+
+    private static String commandName(ProjectMessage.Type type) {
+        // The wire name clients know it by
+        return type == ProjectMessage.Type.SEND_CHAT ? "MESSAGE" : type.name();
+    }
+
+    private static long joinedMembers() {
+        long members = 0;
+        for (ProjectServer_Room room : ProjectServer.openRooms()) {
+            members += room.getMemberCount();
+        }
+        return members;
+    }
+
+    private static long ownedTasks() {
+        long tasks = 0;
+        for (ProjectServer_Room room : ProjectServer.openRooms()) {
+            if (room.isOwned()) {
+                tasks += room.getTaskCount();
+            }
+        }
+        return tasks;
+    }
+
+    private static long queuedMessages() {
+        long queued = 0;
+        for (ProjectServer_Connection client : ProjectServer.getClients()) {
+            queued += client.getOutboundDepth();
+        }
+        return queued;
+    }
+
+    // Latency histogram in the style of HdrHistogram: a bucket per power of two, each split into
+    // eight linear sub-buckets, so every value is kept to within 12.5% in a fixed 488 counters
+    // and recording one is a single atomic add
+    static final class Histogram {
+        private static final int SUB_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long nanos) {
+            long value = Math.max(0, nanos);
+            counts.incrementAndGet(index(value));
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        Snapshot snapshot() {
+            long[] copy = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                copy[i] = counts.get(i);
+            }
+            return new Snapshot(copy, sum.sum(), max.get());
+        }
+
+        private static int index(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        // Largest value that lands in the bucket
+        private static long upperBound(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+            long width = 1L << (exponent - SUB_BITS);
+            return (SUB_BUCKETS + index % SUB_BUCKETS) * width + width - 1;
+        }
+
+        // Counts at one point in time; subtracting an earlier snapshot gives that interval
+        record Snapshot(long[] counts, long sum, long max) {
+            long count() {
+                long total = 0;
+                for (long c : counts) {
+                    total += c;
+                }
+                return total;
+            }
+
+            // Upper bound of the bucket holding the value at this quantile, 0 when empty
+            long percentile(double quantile) {
+                long rank = (long) Math.ceil(quantile * count());
+                long seen = 0;
+                for (int i = 0; i < counts.length; i++) {
+                    seen += counts[i];
+                    if (seen >= rank && seen > 0) {
+                        return Math.min(upperBound(i), max);
+                    }
+                }
+                return 0;
+            }
+
+            // The max stays the all-time one; it can't be taken apart by interval
+            Snapshot minus(Snapshot earlier) {
+                long[] diff = new long[counts.length];
+                for (int i = 0; i < counts.length; i++) {
+                    diff[i] = counts[i] - earlier.counts[i];
+                }
+                return new Snapshot(diff, sum - earlier.sum, max);
+            }
+        }
+    }
+}
@@ -0,0 +1,276 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+// One non-blocking client socket, owned by a single ProjectServer_NioServer.IoLoop.
+// Reads and writes only ever happen on the loop thread; sendMessage may be called from anywhere.
+// Commands can open a room from disk, wait on a cluster peer or append chat to a file, so they run
+// on the server's worker pool, one at a time and in order; replies come back through the queue.
+class ProjectServer_NioConnection extends ProjectServer_Connection {
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+    // Reading stops while this many commands wait for a worker, and resumes at half of it
+    private static final int MAX_QUEUED_COMMANDS = 256;
+    // Most messages handed to one gathering write, and roughly the most bytes
+    private static final int MAX_GATHER = 64;
+    private static final int MAX_GATHER_BYTES = 64 * 1024;
+
+    private final SocketChannel channel;
+    private final ProjectServer_NioServer.IoLoop loop;
+    private SelectionKey key;
+
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private final ByteArrayOutputStream partialLine = new ByteArrayOutputStream();
+    // Binary mode: bytes of a frame that has not fully arrived yet, kept in read mode
+    private ByteBuffer partialFrame = ByteBuffer.allocate(0);
+
+    // Encoded messages not yet fully written, gather[gatherStart..gatherEnd); each wraps the bytes
+    // cached on the message, so a broadcast is never copied per client
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private int gatherStart = 0;
+    private int gatherEnd = 0;
+    private int gatherCount = 0;
+    private long gatherBytes = 0;
+    private boolean binaryOut = false;
+    private final AtomicBoolean writeScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private volatile boolean closeRequested = false;
+
+    private final Queue<Runnable> commands = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedCommands = new AtomicInteger();
+    private final AtomicBoolean commandsRunning = new AtomicBoolean(false);
+    // Loop thread only
+    private boolean readPaused = false;
+
+    public ProjectServer_NioConnection(SocketChannel channel, ProjectServer_NioServer.IoLoop loop) {
+        this.channel = channel;
+        this.loop = loop;
+    }
+
+    void attach(Selector selector) throws IOException {
+        key = channel.register(selector, SelectionKey.OP_READ, this);
+        // Anything broadcast before registration is still waiting in the queue
+        if (!outbound.isEmpty()) {
+            onWritable();
+        }
+    }
+
+    void onReadable() {
+        int read;
+        try {
+            read = channel.read(readBuffer);
+        } catch (IOException e) {
+            System.out.println("Client handler error: " + e.getMessage());
+            close();
+            return;
+        }
+        if (read < 0) {
+            close();
+            return;
+        }
+        markReceived();
+
+        readBuffer.flip();
+        if (isBinary()) {
+            readFrames(readBuffer);
+            readBuffer.clear();
+            return;
+        }
+
+        byte[] bytes = readBuffer.array();
+        int start = readBuffer.position();
+        int limit = readBuffer.limit();
+        for (int i = start; i < limit; i++) {
+            if (bytes[i] == '\n') {
+                partialLine.write(bytes, start, i - start);
+                start = i + 1;
+                dispatchLine();
+                if (closed.get()) return;
+                if (isBinary()) {
+                    // HELLO switched the connection; the rest of this read is already frames
+                    readBuffer.position(start);
+                    readFrames(readBuffer);
+                    readBuffer.clear();
+                    return;
+                }
+            }
+        }
+        partialLine.write(bytes, start, limit - start);
+        readBuffer.clear();
+
+        if (partialLine.size() > ProjectWireCodec.MAX_LINE_LENGTH) {
+            System.out.println("Client handler error: line too long from " + username);
+            close();
+        }
+    }
+
+    private void readFrames(ByteBuffer bytes) {
+        ByteBuffer input = bytes;
+        if (partialFrame.hasRemaining()) {
+            // Glue the leftover of the previous read in front of this one
+            ByteBuffer joined = ByteBuffer.allocate(partialFrame.remaining() + bytes.remaining());
+            joined.put(partialFrame).put(bytes).flip();
+            input = joined;
+        }
+        try {
+            ProjectMessage message;
+            while ((message = ProjectWireCodec.decode(input)) != null) {
+                handleMessage(message);
+                if (closed.get()) return;
+            }
+        } catch (ProtocolException e) {
+            System.out.println("Client handler error: " + e.getMessage());
+            close();
+            return;
+        }
+        // Copy, because readBuffer is reused for the next read
+        partialFrame = ByteBuffer.allocate(input.remaining());
+        partialFrame.put(input).flip();
+    }
+
+    private void dispatchLine() {
+        byte[] raw = partialLine.toByteArray();
+        partialLine.reset();
+        int length = raw.length;
+        // Same line endings as BufferedReader.readLine: "\n" or "\r\n"
+        if (length > 0 && raw[length - 1] == '\r') {
+            length--;
+        }
+        handleLine(new String(raw, 0, length, StandardCharsets.UTF_8));
+    }
+
+    // Called on the loop thread for every command but HELLO, which has to switch the reader in place
+    @Override
+    protected void handleMessage(ProjectMessage message) {
+        submit(() -> {
+            if (!closed.get()) {
+                super.handleMessage(message);
+            }
+        });
+        if (!readPaused && queuedCommands.get() >= MAX_QUEUED_COMMANDS && key != null && key.isValid()) {
+            readPaused = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+    }
+
+    private void submit(Runnable command) {
+        commands.add(command);
+        queuedCommands.incrementAndGet();
+        if (commandsRunning.compareAndSet(false, true)) {
+            loop.offload(this::runCommands);
+        }
+    }
+
+    // Worker thread
+    private void runCommands() {
+        Runnable command;
+        while ((command = commands.poll()) != null) {
+            try {
+                command.run();
+            } catch (RuntimeException e) {
+                System.out.println("Client handler error: " + e.getMessage());
+            }
+            if (queuedCommands.decrementAndGet() == MAX_QUEUED_COMMANDS / 2) {
+                // The loop picks reading back up when it next looks at this connection
+                loop.requestWrite(this);
+            }
+        }
+        commandsRunning.set(false);
+        // A command added after the last poll but before the flag was cleared
+        if (!commands.isEmpty() && commandsRunning.compareAndSet(false, true)) {
+            loop.offload(this::runCommands);
+        }
+    }
+
+    private int readInterest() {
+        if (readPaused && queuedCommands.get() <= MAX_QUEUED_COMMANDS / 2) {
+            readPaused = false;
+        }
+        return readPaused ? 0 : SelectionKey.OP_READ;
+    }
+
+    void onWritable() {
+        writeScheduled.set(false);
+        if (closeRequested) {
+            close();
+            return;
+        }
+        if (key == null || closed.get()) return;
+
+        try {
+            // Whatever queued up goes out in one write per batch rather than one per message
+            while (gatherStart < gatherEnd || gatherMessages()) {
+                channel.write(gather, gatherStart, gatherEnd - gatherStart);
+                while (gatherStart < gatherEnd && !gather[gatherStart].hasRemaining()) {
+                    gather[gatherStart++] = null;
+                }
+                if (gatherStart < gatherEnd) {
+                    // Socket buffer is full, wait for OP_WRITE
+                    key.interestOps(readInterest() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                ProjectServer.recordFlush(gatherCount, gatherBytes);
+            }
+            key.interestOps(readInterest());
+        } catch (IOException e) {
+            System.out.println("Client handler error: " + e.getMessage());
+            close();
+        }
+    }
+
+    // Takes the next batch off the queue; false if there was nothing to send
+    private boolean gatherMessages() {
+        gatherStart = 0;
+        gatherEnd = 0;
+        int bytes = 0;
+        ProjectMessage message;
+        while (gatherEnd < MAX_GATHER && bytes < MAX_GATHER_BYTES && (message = outbound.poll()) != null) {
+            ByteBuffer encoded = ProjectWireCodec.encoded(message, binaryOut);
+            gather[gatherEnd++] = encoded;
+            bytes += encoded.remaining();
+            if (message.getType() == ProjectMessage.Type.HELLO) {
+                binaryOut = isBinary();
+            }
+        }
+        gatherCount = gatherEnd;
+        gatherBytes = bytes;
+        return gatherEnd > 0;
+    }
+
+    @Override
+    protected void onOutboundReady() {
+        if (closed.get()) return;
+        if (writeScheduled.compareAndSet(false, true)) {
+            loop.requestFlush(this);
+        }
+    }
+
+    @Override
+    protected void disconnect() {
+        // Socket state belongs to the loop thread, so let it do the closing
+        closeRequested = true;
+        loop.requestWrite(this);
+    }
+
+    void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        if (key != null) key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing client resources: " + e.getMessage());
+        }
+        outbound.clear();
+        // After any command still running, so a join in progress can't add the client back
+        submit(() -> ProjectServer.removeClient(this));
+    }
+}
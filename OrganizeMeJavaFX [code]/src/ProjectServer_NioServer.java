@@ -0,0 +1,194 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+// Selector based transport: one acceptor plus a small fixed pool of I/O loops,
+// each multiplexing many non-blocking SocketChannels. Speaks the same line protocol
+// as ProjectServer_ClientHandler, so existing ProjectClients work unchanged.
+// Commands run on a fixed pool of worker threads, because some block and the loops must not.
+// The workers are platform threads: room opens and cluster round trips wait inside synchronized
+// blocks, which would pin a virtual thread's carrier. Each connection has at most one task
+// queued for them (see ProjectServer_NioConnection.submit), so the queue is bounded by the
+// number of connections; a burst of slow joins makes other commands wait, not the threads grow.
+class ProjectServer_NioServer {
+    private final int port;
+    private final IoLoop[] loops;
+    private final Executor workers;
+    private int nextLoop = 0;
+
+    public ProjectServer_NioServer(int port, int ioThreads, int workerThreads) {
+        this.port = port;
+        this.loops = new IoLoop[Math.max(1, ioThreads)];
+        AtomicInteger workerCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, workerThreads), runnable -> {
+            Thread thread = new Thread(runnable, "project-nio-worker-" + workerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void run() throws IOException {
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new IoLoop(Selector.open(), workers);
+            Thread t = new Thread(loops[i], "project-nio-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
+            System.out.println("Server started successfully! (nio, " + loops.length + " I/O threads)");
+
+            while (true) {
+                // Blocking accept on the main thread, connections are handed to the loops round-robin
+                SocketChannel channel = serverChannel.accept();
+                System.out.println("New client connected: " + channel.socket().getInetAddress());
+
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                channel.socket().setKeepAlive(true);
+
+                IoLoop loop = loops[nextLoop];
+                nextLoop = (nextLoop + 1) % loops.length;
+
+                ProjectServer_NioConnection connection = new ProjectServer_NioConnection(channel, loop);
+                ProjectServer.registerClient(connection);
+                loop.register(connection);
+            }
+        }
+    }
+
+
+    static class IoLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<ProjectServer_NioConnection> pendingRegistrations = new ConcurrentLinkedQueue<>();
+        private final Queue<ProjectServer_NioConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+        // Output from other threads waiting out the flush delay, roughly in due order
+        private final Queue<DelayedWrite> delayedWrites = new ConcurrentLinkedQueue<>();
+        private final long flushDelayNanos = ProjectServer.getFlushDelayNanos();
+        private final Executor workers;
+        private volatile Thread loopThread;
+
+        IoLoop(Selector selector, Executor workers) {
+            this.selector = selector;
+            this.workers = workers;
+        }
+
+        // Work that may block, such as a connection's commands
+        void offload(Runnable work) {
+            workers.execute(work);
+        }
+
+        void register(ProjectServer_NioConnection connection) {
+            pendingRegistrations.add(connection);
+            selector.wakeup();
+        }
+
+        // Called by any thread that queued output for a connection owned by this loop
+        void requestWrite(ProjectServer_NioConnection connection) {
+            pendingWrites.add(connection);
+            if (Thread.currentThread() != loopThread) {
+                selector.wakeup();
+            }
+        }
+
+        // Called when a connection has new output. Without a flush delay it goes out at the end of
+        // the current turn; with one, whatever else queues up for the connection meanwhile goes
+        // out in the same write.
+        void requestFlush(ProjectServer_NioConnection connection) {
+            if (flushDelayNanos == 0) {
+                requestWrite(connection);
+                return;
+            }
+            delayedWrites.add(new DelayedWrite(connection, System.nanoTime() + flushDelayNanos));
+            if (Thread.currentThread() != loopThread) {
+                selector.wakeup();
+            }
+        }
+
+        private record DelayedWrite(ProjectServer_NioConnection connection, long due) {}
+
+        @Override
+        public void run() {
+            loopThread = Thread.currentThread();
+            while (true) {
+                try {
+                    DelayedWrite next = delayedWrites.peek();
+                    if (next == null) {
+                        selector.select();
+                    } else {
+                        long waitNanos = next.due() - System.nanoTime();
+                        if (waitNanos > 0) {
+                            selector.select(Math.max(1, (waitNanos + 999_999) / 1_000_000));
+                        } else {
+                            selector.selectNow();
+                        }
+                    }
+                    processRegistrations();
+                    processDelayedWrites();
+                    processWrites();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+
+                        ProjectServer_NioConnection connection = (ProjectServer_NioConnection) key.attachment();
+                        if (!key.isValid()) {
+                            connection.close();
+                            continue;
+                        }
+                        if (key.isReadable()) {
+                            connection.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.onWritable();
+                        }
+                    }
+                    // Replies produced while handling reads can be flushed in the same turn
+                    processWrites();
+                } catch (IOException e) {
+                    System.err.println("I/O loop error: " + e.getMessage());
+                }
+            }
+        }
+
+        private void processRegistrations() {
+            ProjectServer_NioConnection connection;
+            while ((connection = pendingRegistrations.poll()) != null) {
+                try {
+                    connection.attach(selector);
+                } catch (IOException e) {
+                    System.out.println("Client handler error: " + e.getMessage());
+                    connection.close();
+                }
+            }
+        }
+
+        private void processDelayedWrites() {
+            long now = System.nanoTime();
+            DelayedWrite next;
+            while ((next = delayedWrites.peek()) != null && next.due() - now <= 0) {
+                delayedWrites.poll();
+                next.connection().onWritable();
+            }
+        }
+
+        private void processWrites() {
+            ProjectServer_NioConnection connection;
+            while ((connection = pendingWrites.poll()) != null) {
+                connection.onWritable();
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+// Lock-free multi-producer queue of messages waiting to be written to one client.
+// Broadcasters only ever enqueue here; the connection's own writer drains it.
+// Only broadcasts count against the capacity: a client that is still receiving a large board
+// it asked for is not "too slow" just because those replies are queued ahead of live events.
+class ProjectServer_OutboundQueue {
+    // Broadcasts are queued as-is, replies wrapped so poll() knows which counter to decrement
+    private final Queue<Object> messages = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger broadcasts = new AtomicInteger();
+    private final AtomicInteger replies = new AtomicInteger();
+    private final int capacity;
+
+    private record Reply(ProjectMessage message) {}
+
+    public ProjectServer_OutboundQueue(int capacity) {
+        this.capacity = capacity;
+    }
+
+    // Bounded enqueue used for broadcasts, false when the client is too far behind
+    public boolean offer(ProjectMessage message) {
+        if (broadcasts.incrementAndGet() > capacity) {
+            broadcasts.decrementAndGet();
+            return false;
+        }
+        messages.add(message);
+        return true;
+    }
+
+    // Unbounded enqueue for replies the client asked for itself
+    public void add(ProjectMessage message) {
+        replies.incrementAndGet();
+        messages.add(new Reply(message));
+    }
+
+    public ProjectMessage poll() {
+        Object entry = messages.poll();
+        if (entry == null) {
+            return null;
+        }
+        if (entry instanceof Reply reply) {
+            replies.decrementAndGet();
+            return reply.message();
+        }
+        broadcasts.decrementAndGet();
+        return (ProjectMessage) entry;
+    }
+
+    public boolean isEmpty() {
+        return messages.isEmpty();
+    }
+
+    public int depth() {
+        return broadcasts.get() + replies.get();
+    }
+
+    public void clear() {
+        while (poll() != null) {
+            // drain so the counters stay consistent
+        }
+    }
+}
@@ -0,0 +1,636 @@
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+
+
+// One project on the server: its members, task board, task event history and chat. Nothing is
+// shared between rooms except the server's connection counters, so a broadcast only visits the
+// room's own members and two rooms never wait on each other's locks.
+// In a cluster (see ProjectServer_Cluster) the room is either the owner, which does all of the
+// above and keeps its replicas current, or a replica that mirrors the owner and forwards to it.
+class ProjectServer_Room {
+    private static final int MAX_HISTORY_PAGE = 500;
+
+    private final String id;
+    private final ProjectServer_Cluster cluster;
+    private final boolean owned;
+    private final String ownerId;
+    // Joined connections on this node only; a connection is in at most one room
+    private final Set<ProjectServer_Connection> members = ConcurrentHashMap.newKeySet();
+    // Every member in the cluster. The owner maps each to the node it is connected to; a
+    // replica only mirrors the names.
+    private final Map<String, String> usernames = new ConcurrentHashMap<>();
+    // Nodes holding a replica, sent every update (owner only)
+    private final Set<String> subscribers = ConcurrentHashMap.newKeySet();
+    private final ProjectTaskStore taskStore = new ProjectTaskStore();
+    // null when persistence is disabled (--data-dir=none)
+    private final ProjectTaskJournal journal;
+
+    // Task events are stamped and handed to members under this lock, so every member receives
+    // them in sequence order and a joining client can be subscribed without a gap
+    private final Object publishLock = new Object();
+    private int lastSeq = 0;
+    private final ProjectTaskHistory history;
+    // Sequence numbers restart with the owner's process; a client's cursor is only valid for
+    // this epoch. Replicas take the owner's, so a client can resume on any node.
+    private String epoch = Long.toHexString(new Random().nextLong());
+    // Replica only: updates are ignored until the owner's snapshot is in, and none are taken
+    // once the room is closed. An owner is closed when its task journal fails.
+    private boolean installed = false;
+    private volatile boolean closed = false;
+
+    // Chat lines are numbered and stored as they are relayed; the lock keeps numbering and
+    // delivery in the same order and lets a joining client get its history page without a gap
+    private final Object chatLock = new Object();
+    private final ProjectChatHistory chatHistory;
+
+    // dataDir is null to keep everything in memory, as a replica always does
+    public ProjectServer_Room(String id, ProjectServer_Cluster cluster, Path dataDir, int snapshotEvery,
+                              int resumeWindow) {
+        this.id = id;
+        this.cluster = cluster;
+        this.ownerId = cluster.ownerOf(id);
+        this.owned = ownerId.equals(cluster.getNodeId());
+        this.journal = dataDir != null ? new ProjectTaskJournal(dataDir, snapshotEvery) : null;
+        this.chatHistory = new ProjectChatHistory(dataDir != null ? dataDir.resolve("chat") : null,
+            ProjectChatHistory.DEFAULT_TAIL_LINES);
+        this.history = new ProjectTaskHistory(resumeWindow);
+    }
+
+    // Recovers the board and chat from disk, or for a replica fetches them from the owner
+    public void open() throws IOException {
+        if (!owned) {
+            cluster.addReplica(this);
+            try {
+                cluster.call(ownerId, ProjectServer_Bus.Kind.SUBSCRIBE, id, null, List.of(), this::installSnapshot);
+            } catch (IOException e) {
+                cluster.removeReplica(this);
+                throw e;
+            }
+            synchronized (publishLock) {
+                if (!installed) {
+                    cluster.removeReplica(this);
+                    throw new IOException("Unusable snapshot of " + id + " from node " + ownerId);
+                }
+            }
+            return;
+        }
+        if (journal != null) {
+            journal.open(taskStore, this::fail);
+        }
+        chatHistory.open();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public int getMemberCount() {
+        return members.size();
+    }
+
+    public int getTaskCount() {
+        return taskStore.size();
+    }
+
+    public boolean isOwned() {
+        return owned;
+    }
+
+    // ---- membership ----
+
+    // False if the username is taken anywhere in the cluster. A replica asks the owner, so this
+    // waits for a round trip and fails if the owner can't be reached.
+    public boolean addMember(String username, ProjectServer_Connection client) throws IOException {
+        if (closed) {
+            throw new IOException("Project " + id + " is out of service");
+        }
+        if (owned) {
+            if (!claim(username, cluster.getNodeId())) {
+                return false;
+            }
+        } else {
+            ProjectServer_Bus.Message reply = cluster.call(ownerId, ProjectServer_Bus.Kind.JOIN, id, username,
+                List.of(), null);
+            if (reply.kind() == ProjectServer_Bus.Kind.TAKEN) {
+                return false;
+            }
+            usernames.put(username, ownerId);
+        }
+        client.setUsername(username);
+        synchronized (publishLock) {
+            if (closed) {
+                if (owned) {
+                    usernames.remove(username, cluster.getNodeId());
+                } else {
+                    cluster.send(ownerId, ProjectServer_Bus.Kind.LEAVE, id, username, List.of());
+                }
+                throw new IOException("Project " + id + " was closed");
+            }
+            members.add(client);
+        }
+        broadcastMessage(ProjectMessage.system(username + " joined the project"));
+        return true;
+    }
+
+    public void removeMember(ProjectServer_Connection client) {
+        if (!members.remove(client) || client.getUsername() == null) {
+            return;
+        }
+        if (owned) {
+            release(client.getUsername(), cluster.getNodeId());
+            return;
+        }
+        cluster.send(ownerId, ProjectServer_Bus.Kind.LEAVE, id, client.getUsername(), List.of());
+        if (usernames.remove(client.getUsername()) != null) {
+            broadcastMessage(ProjectMessage.system(client.getUsername() + " left the project"));
+        }
+    }
+
+    // Owner: takes the username for a member on 'node' and tells the other replicas
+    private boolean claim(String username, String node) {
+        synchronized (publishLock) {
+            if (usernames.putIfAbsent(username, node) != null) {
+                return false;
+            }
+            publish(ProjectServer_Bus.Kind.MEMBER_JOINED, username, List.of(), node);
+        }
+        if (!node.equals(cluster.getNodeId())) {
+            broadcastMessage(ProjectMessage.system(username + " joined the project"));
+        }
+        return true;
+    }
+
+    private void release(String username, String node) {
+        synchronized (publishLock) {
+            if (!usernames.remove(username, node)) {
+                return;
+            }
+            publish(ProjectServer_Bus.Kind.MEMBER_LEFT, username, List.of(), node);
+        }
+        broadcastMessage(ProjectMessage.system(username + " left the project"));
+    }
+
+    public Set<String> getActiveUsers() {
+        return new HashSet<>(usernames.keySet());
+    }
+
+    // Only enqueues; each client's writer does the socket I/O, so a stalled peer cannot block the others
+    public void broadcastMessage(ProjectMessage message) {
+        for (ProjectServer_Connection client : members) {
+            client.offerBroadcast(message);
+        }
+    }
+
+    // ---- chat ----
+
+    // Stores the line, then hands it to every member: numbered to those that keep history,
+    // as a plain MESSAGE: line to the rest
+    public void broadcastChat(String text) {
+        synchronized (chatLock) {
+            int chatSeq;
+            try {
+                chatSeq = chatHistory.append(text);
+            } catch (IOException e) {
+                // Still relay it; it just won't be in anyone's history
+                System.err.println("Chat history write failed in " + id + ": " + e.getMessage());
+                chatSeq = 0;
+            }
+            ProjectMessage legacy = ProjectMessage.chat(text);
+            ProjectMessage numbered = ProjectMessage.chatLine(chatSeq, text);
+            long start = System.nanoTime();
+            for (ProjectServer_Connection client : members) {
+                client.deliverChat(legacy, numbered);
+            }
+            ProjectServer_Metrics.chatFanout.record(System.nanoTime() - start);
+            publish(ProjectServer_Bus.Kind.EVENT, null, List.of(numbered), null);
+        }
+    }
+
+    // Sends a joining client the newest chat lines and subscribes it to new ones in one step
+    public void syncChat(ProjectServer_Connection client, int lines) {
+        synchronized (chatLock) {
+            try {
+                ProjectChatHistory.Page page = chatHistory.page(0, lines);
+                client.sendMessage(ProjectMessage.chatPage(page.firstSeq(), page.more(), page.lines()));
+            } catch (IOException e) {
+                System.err.println("Chat history read failed in " + id + ": " + e.getMessage());
+            }
+            client.startChat();
+        }
+    }
+
+    // One page of older chat for a HISTORY request
+    private ProjectMessage chatPage(int beforeSeq, int limit) throws IOException {
+        ProjectChatHistory.Page page = chatHistory.page(beforeSeq, Math.min(limit, MAX_HISTORY_PAGE));
+        return ProjectMessage.chatPage(page.firstSeq(), page.more(), page.lines());
+    }
+
+    // A replica keeps only the newest lines, so it asks the owner and the page follows later
+    public void sendChatPage(ProjectServer_Connection client, int beforeSeq, int limit) throws IOException {
+        if (owned) {
+            client.sendMessage(chatPage(beforeSeq, limit));
+            return;
+        }
+        cluster.request(ownerId, ProjectServer_Bus.Kind.HISTORY, id, client.getUsername(),
+            List.of(ProjectMessage.history(beforeSeq, limit)), null)
+            .whenComplete((reply, error) -> {
+                if (error != null) {
+                    System.err.println("Chat history request for " + id + " failed: " + error.getMessage());
+                } else {
+                    client.sendMessage(reply.parts().get(0));
+                }
+            });
+    }
+
+    // ---- task events ----
+
+    // Applies a change to the board and, if it changed anything, stamps the next sequence number
+    // on its event and hands it to every synced member. Both under the publish lock, so a joining
+    // client's snapshot holds exactly the events published before it.
+    private void publishTaskEvent(ProjectMessage event, BooleanSupplier change) {
+        synchronized (publishLock) {
+            if (!change.getAsBoolean()) {
+                return;
+            }
+            ProjectMessage stamped = event.withSeq(++lastSeq);
+            history.add(stamped);
+            long start = System.nanoTime();
+            for (ProjectServer_Connection client : members) {
+                client.deliverTaskEvent(stamped);
+            }
+            ProjectServer_Metrics.taskFanout.record(System.nanoTime() - start);
+            publish(ProjectServer_Bus.Kind.EVENT, null, List.of(stamped), null);
+        }
+    }
+
+    // Brings a client that just joined up to date and subscribes it to task events. A client that
+    // sends the epoch and seq it last saw gets only the events it missed, as long as they are still
+    // in the history; everyone else gets the whole board, in TASK_SNAPSHOT parts if it asked for them.
+    public void syncTasks(ProjectServer_Connection client, boolean bulk, boolean resumable,
+                          String resumeEpoch, int resumeSeq) {
+        List<ProjectTask> tasks;
+        int snapshotSeq;
+        synchronized (publishLock) {
+            if (resumable && epoch.equals(resumeEpoch)) {
+                List<ProjectMessage> missed = history.since(resumeSeq, lastSeq);
+                // Replaying more events than the board has tasks costs more than a snapshot
+                if (missed != null && missed.size() <= Math.max(taskStore.size(), 1)) {
+                    for (ProjectMessage event : missed) {
+                        client.sendMessage(event);
+                    }
+                    client.sendMessage(ProjectMessage.sync(epoch, lastSeq));
+                    client.startTaskEvents();
+                    System.out.println("Resumed " + client.getUsername() + " in " + id + " at seq " + resumeSeq
+                        + ": " + missed.size() + " missed events");
+                    return;
+                }
+            }
+            snapshotSeq = lastSeq;
+            tasks = taskStore.getAll();
+            client.holdTaskEvents();
+        }
+
+        // Encoding a large board takes a while; events published meanwhile are held for this client
+        if (bulk) {
+            for (ProjectMessage part : ProjectTaskSnapshot.encode(tasks)) {
+                client.sendMessage(part);
+            }
+        } else {
+            for (ProjectTask task : tasks) {
+                client.sendMessage(ProjectMessage.taskAdded(task));
+            }
+        }
+
+        synchronized (publishLock) {
+            if (resumable) {
+                client.sendMessage(ProjectMessage.sync(epoch, snapshotSeq));
+            }
+            client.startTaskEvents();
+        }
+    }
+
+    // ---- commands ----
+
+    // Runs a member's ADD_TASK, COMPLETE_TASK, DELETE_TASK or MESSAGE; a replica forwards it to the
+    // owner, and the result comes back like anyone else's update
+    public void runCommand(String user, ProjectMessage command) {
+        if (closed) {
+            System.err.println("Dropped " + command.getType() + " from " + user + ": project " + id + " is out of service");
+            return;
+        }
+        if (!owned) {
+            if (!cluster.send(ownerId, ProjectServer_Bus.Kind.COMMAND, id, user, List.of(command))) {
+                System.err.println("Dropped " + command.getType() + " from " + user + ": node " + ownerId
+                    + " owning " + id + " is unreachable");
+            }
+            return;
+        }
+        switch (command.getType()) {
+            case ADD_TASK -> {
+                addTask(command.field(0), command.field(1), user);
+                System.out.println("Task added by " + user + ": " + command.field(0));
+            }
+            case COMPLETE_TASK -> {
+                if (completeTask(command.getTaskId(), user)) {
+                    System.out.println("Task " + command.getTaskId() + " completed by " + user);
+                }
+            }
+            case DELETE_TASK -> {
+                if (deleteTask(command.getTaskId(), user)) {
+                    System.out.println("Task " + command.getTaskId() + " deleted by " + user);
+                }
+            }
+            case SEND_CHAT -> broadcastChat(user + ": " + command.field(0));
+            default -> { }
+        }
+    }
+
+    // ---- task mutations ----
+
+    // A command is checked against the board, then logged. The board only changes once the record
+    // is on disk, in the journal's callback, together with publishing the event (see
+    // publishTaskEvent), so the board never shows anything its members haven't been sent. The
+    // journal runs callbacks in log order, which keeps each task's events in order; a change that
+    // no longer applies by then (a task completed twice) is dropped there, as it is on replay.
+    public int addTask(String title, String description, String assignedBy) {
+        ProjectTask task = new ProjectTask(taskStore.nextTaskId(), title, description, assignedBy);
+        ProjectMessage taskMessage = ProjectMessage.taskAdded(task);
+        Runnable commit = () -> publishTaskEvent(taskMessage, () -> {
+            taskStore.add(task);
+            return true;
+        });
+        if (journal != null) {
+            journal.logAdd(task, commit);
+        } else {
+            commit.run();
+        }
+        return task.getId();
+    }
+
+    public boolean completeTask(int taskId, String completedBy) {
+        ProjectTask task = taskStore.get(taskId);
+        if (task == null || task.getStatus() == TaskStatus.COMPLETED) {
+            return false;
+        }
+        Date completedDate = new Date();
+        ProjectMessage taskMessage = ProjectMessage.taskCompleted(taskId, task.getTitle(), completedBy);
+        Runnable commit = () -> publishTaskEvent(taskMessage,
+            () -> taskStore.complete(taskId, completedBy, completedDate) != null);
+        if (journal != null) {
+            journal.logComplete(taskId, completedBy, completedDate, commit);
+        } else {
+            commit.run();
+        }
+        return true;
+    }
+
+    public boolean deleteTask(int taskId, String deletedBy) {
+        ProjectTask task = taskStore.get(taskId);
+        if (task == null) {
+            return false;
+        }
+        ProjectMessage taskMessage = ProjectMessage.taskDeleted(taskId, task.getTitle(), deletedBy);
+        Runnable commit = () -> publishTaskEvent(taskMessage, () -> taskStore.delete(taskId) != null);
+        if (journal != null) {
+            journal.logDelete(taskId, commit);
+        } else {
+            commit.run();
+        }
+        return true;
+    }
+
+    public List<ProjectTask> getAllTasks() {
+        return taskStore.getAll();
+    }
+
+    // ---- cluster: owner side (called on the bus thread) ----
+
+    // Sends an update to every replica but 'except', the node it came from (null for none)
+    private void publish(ProjectServer_Bus.Kind kind, String user, List<ProjectMessage> parts, String except) {
+        for (String node : subscribers) {
+            if (!node.equals(except)) {
+                cluster.send(node, kind, id, user, parts);
+            }
+        }
+    }
+
+    void handleRequest(ProjectServer_Bus.Message request) {
+        if (closed) {
+            // Replicas asking a failed owner time out, and report the project as not available
+            return;
+        }
+        switch (request.kind()) {
+            case SUBSCRIBE -> sendSnapshot(request);
+            case JOIN -> cluster.reply(request, claim(request.user(), request.node())
+                ? ProjectServer_Bus.Kind.JOINED : ProjectServer_Bus.Kind.TAKEN, List.of());
+            case LEAVE -> release(request.user(), request.node());
+            case COMMAND -> runCommand(request.user(), request.parts().get(0));
+            case HISTORY -> {
+                ProjectMessage query = request.parts().get(0);
+                try {
+                    ProjectMessage page = chatPage(Integer.parseInt(query.field(0)), Integer.parseInt(query.field(1)));
+                    cluster.reply(request, ProjectServer_Bus.Kind.HISTORY_PAGE, List.of(page));
+                } catch (IOException | NumberFormatException e) {
+                    System.err.println("Chat history read failed in " + id + ": " + e.getMessage());
+                }
+            }
+            default -> { }
+        }
+    }
+
+    // The whole room for a new replica, which gets every update after it. Built and sent under
+    // both locks, so nothing is published between the snapshot and the subscription.
+    private void sendSnapshot(ProjectServer_Bus.Message request) {
+        synchronized (publishLock) {
+            synchronized (chatLock) {
+                List<ProjectMessage> parts = new ArrayList<>();
+                parts.add(ProjectMessage.sync(epoch, lastSeq));
+                parts.add(ProjectMessage.users(String.join(",", usernames.keySet())));
+                try {
+                    ProjectChatHistory.Page page = chatHistory.page(0, ProjectChatHistory.DEFAULT_TAIL_LINES);
+                    parts.add(ProjectMessage.chatPage(page.firstSeq(), page.more(), page.lines()));
+                } catch (IOException e) {
+                    // The replica starts without a chat tail and pages back through the owner
+                    System.err.println("Chat history read failed in " + id + ": " + e.getMessage());
+                }
+                parts.addAll(ProjectTaskSnapshot.encode(taskStore.getAll()));
+                subscribers.add(request.node());
+                cluster.reply(request, ProjectServer_Bus.Kind.SNAPSHOT, parts);
+            }
+        }
+        System.out.println("Node " + request.node() + " subscribed to project " + id);
+    }
+
+    // A node went down: it holds no replica any more and its members are gone
+    void dropNode(String node) {
+        subscribers.remove(node);
+        for (Map.Entry<String, String> member : usernames.entrySet()) {
+            if (member.getValue().equals(node)) {
+                release(member.getKey(), node);
+            }
+        }
+    }
+
+    // ---- cluster: replica side (called on the bus thread) ----
+
+    private void installSnapshot(ProjectServer_Bus.Message snapshot) {
+        synchronized (publishLock) {
+            synchronized (chatLock) {
+                try {
+                    for (ProjectMessage part : snapshot.parts()) {
+                        switch (part.getType()) {
+                            case SYNC -> {
+                                epoch = part.field(0);
+                                lastSeq = part.getSeq();
+                            }
+                            case USERS -> {
+                                for (String user : part.field(0).split(",")) {
+                                    if (!user.isEmpty()) usernames.put(user, ownerId);
+                                }
+                            }
+                            case CHAT_PAGE -> {
+                                int seq = Integer.parseInt(part.field(0));
+                                for (String line : part.getChatLines()) {
+                                    chatHistory.mirror(seq++, line);
+                                }
+                            }
+                            case TASK_SNAPSHOT -> {
+                                for (ProjectMessage added : ProjectTaskSnapshot.decode(part)) {
+                                    taskStore.restore(toTask(added));
+                                }
+                            }
+                            default -> { }
+                        }
+                    }
+                    installed = true;
+                } catch (ProtocolException | NumberFormatException e) {
+                    System.err.println("Bad snapshot of " + id + " from node " + ownerId + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    void applyUpdate(ProjectServer_Bus.Message update) {
+        switch (update.kind()) {
+            case EVENT -> {
+                ProjectMessage event = update.parts().get(0);
+                if (event.getType() == ProjectMessage.Type.CHAT_LINE) {
+                    applyChat(event);
+                } else if (!applyTaskEvent(event)) {
+                    close("missed task events before seq " + event.getSeq());
+                }
+            }
+            case MEMBER_JOINED -> {
+                if (installed && usernames.put(update.user(), ownerId) == null) {
+                    broadcastMessage(ProjectMessage.system(update.user() + " joined the project"));
+                }
+            }
+            case MEMBER_LEFT -> {
+                if (usernames.remove(update.user()) != null) {
+                    broadcastMessage(ProjectMessage.system(update.user() + " left the project"));
+                }
+            }
+            default -> { }
+        }
+    }
+
+    // Applies the owner's stamped event and hands it on, as publishTaskEvent does on the owner.
+    // False if events were lost on the way, which leaves the replica out of step.
+    private boolean applyTaskEvent(ProjectMessage event) {
+        synchronized (publishLock) {
+            if (!installed || closed) {
+                return true;
+            }
+            if (event.getSeq() != lastSeq + 1) {
+                return false;
+            }
+            switch (event.getType()) {
+                case TASK_ADDED -> taskStore.restore(toTask(event));
+                case TASK_COMPLETED -> taskStore.complete(event.getTaskId(), event.field(1));
+                case TASK_DELETED -> taskStore.delete(event.getTaskId());
+                default -> { }
+            }
+            lastSeq = event.getSeq();
+            history.add(event);
+            long start = System.nanoTime();
+            for (ProjectServer_Connection client : members) {
+                client.deliverTaskEvent(event);
+            }
+            ProjectServer_Metrics.taskFanout.record(System.nanoTime() - start);
+            return true;
+        }
+    }
+
+    private void applyChat(ProjectMessage numbered) {
+        synchronized (chatLock) {
+            if (!installed) {
+                return;
+            }
+            String text = numbered.field(1);
+            chatHistory.mirror(Integer.parseInt(numbered.field(0)), text);
+            ProjectMessage legacy = ProjectMessage.chat(text);
+            long start = System.nanoTime();
+            for (ProjectServer_Connection client : members) {
+                client.deliverChat(legacy, numbered);
+            }
+            ProjectServer_Metrics.chatFanout.record(System.nanoTime() - start);
+        }
+    }
+
+    // The owner's dates don't travel, so a replica's tasks are dated when it learned of them
+    private static ProjectTask toTask(ProjectMessage added) {
+        ProjectTask task = new ProjectTask(added.getTaskId(), added.field(0), added.field(1), added.field(2));
+        if (added.field(3).equals(TaskStatus.COMPLETED.name())) {
+            task.markCompleted(added.field(4), new Date());
+        }
+        return task;
+    }
+
+    // Owner: the task journal stopped working, so no change can be acknowledged any more. The room
+    // stays out of service until the server is restarted: commands are dropped, joins refused and
+    // members disconnected, and their clients keep trying to rejoin.
+    private void fail(IOException e) {
+        List<ProjectServer_Connection> dropped;
+        synchronized (publishLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            dropped = new ArrayList<>(members);
+        }
+        System.err.println("Project " + id + " is out of service, its task journal failed: " + e.getMessage()
+            + " (" + dropped.size() + " members disconnected)");
+        for (ProjectServer_Connection client : dropped) {
+            client.sendMessage(ProjectMessage.system("Project " + id + " is not available"));
+            client.disconnect();
+        }
+    }
+
+    // Takes the replica out of service; its members are disconnected and rejoin a fresh one
+    void close(String reason) {
+        List<ProjectServer_Connection> dropped;
+        synchronized (publishLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            dropped = new ArrayList<>(members);
+        }
+        cluster.removeReplica(this);
+        ProjectServer.dropRoom(this);
+        System.out.println("Closed replica of project " + id + ": " + reason + " (" + dropped.size() + " members)");
+        for (ProjectServer_Connection client : dropped) {
+            client.disconnect();
+        }
+    }
+}
@@ -0,0 +1,254 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+
+// Bus over plain TCP. Every node listens on its bus address and dials one outgoing link to each
+// other node, so everything A sends to B travels in order over A's link and is read by one thread
+// on B. A link is redialed every second; while it is down, sends to that node fail at once.
+//
+//   link    = node id, then messages
+//   message = kind (1 byte), room, node, user, request id (long), part count (int), parts
+//   part    = a ProjectWireCodec binary frame          (strings: int length + utf8)
+class ProjectServer_TcpBus implements ProjectServer_Bus {
+    private static final long REDIAL_MS = 1000;
+    private static final int CONNECT_TIMEOUT_MS = 2000;
+    // A peer this far behind is treated as down rather than buffered for without limit
+    private static final int MAX_QUEUED_MESSAGES = 100_000;
+
+    private final String nodeId;
+    private final Map<String, InetSocketAddress> addresses;
+    private final List<String> nodeIds;
+    private final Map<String, Link> links = new HashMap<>();
+    private Listener listener;
+
+    // addresses: every node's bus address, this one's included
+    public ProjectServer_TcpBus(String nodeId, Map<String, InetSocketAddress> addresses) {
+        if (!addresses.containsKey(nodeId)) {
+            throw new IllegalArgumentException("Node " + nodeId + " is not in the cluster list");
+        }
+        this.nodeId = nodeId;
+        this.addresses = addresses;
+        List<String> ids = new ArrayList<>(addresses.keySet());
+        ids.sort(null);
+        this.nodeIds = List.copyOf(ids);
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public List<String> getNodeIds() {
+        return nodeIds;
+    }
+
+    @Override
+    public void start(Listener listener) throws IOException {
+        this.listener = listener;
+        ServerSocket serverSocket = new ServerSocket(addresses.get(nodeId).getPort());
+        startThread("project-bus-accept", () -> acceptLoop(serverSocket));
+        for (String peer : nodeIds) {
+            if (!peer.equals(nodeId)) {
+                Link link = new Link(peer, addresses.get(peer));
+                links.put(peer, link);
+                startThread("project-bus-to-" + peer, link);
+            }
+        }
+        System.out.println("Cluster bus for node " + nodeId + " listening on port " + serverSocket.getLocalPort());
+    }
+
+    @Override
+    public boolean send(String targetId, Message message) {
+        Link link = links.get(targetId);
+        return link != null && link.offer(message);
+    }
+
+    // ---- incoming ----
+
+    private void acceptLoop(ServerSocket serverSocket) {
+        while (true) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                startThread("project-bus-in", () -> readLoop(socket));
+            } catch (IOException e) {
+                System.err.println("Cluster bus accept failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void readLoop(Socket socket) {
+        String peer = null;
+        try (socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+            ProjectWireCodec.WireReader frames = new ProjectWireCodec.WireReader(in);
+            peer = readString(in);
+            if (!addresses.containsKey(peer) || peer.equals(nodeId)) {
+                throw new ProtocolException("Unknown node " + peer);
+            }
+            System.out.println("Cluster node " + peer + " connected");
+            while (true) {
+                listener.onMessage(readMessage(in, frames));
+            }
+        } catch (IOException e) {
+            if (peer != null) {
+                System.out.println("Cluster link from " + peer + " closed: " + e.getMessage());
+                listener.onNodeDown(peer);
+            }
+        }
+    }
+
+    private static Message readMessage(DataInputStream in, ProjectWireCodec.WireReader frames) throws IOException {
+        int code = in.readUnsignedByte();
+        if (code >= Kind.values().length) {
+            throw new ProtocolException("Unknown bus message kind " + code);
+        }
+        Kind kind = Kind.values()[code];
+        String room = readString(in);
+        String node = readString(in);
+        String user = readString(in);
+        long requestId = in.readLong();
+        int count = in.readInt();
+        if (count < 0) {
+            throw new ProtocolException("Bad part count " + count);
+        }
+        List<ProjectMessage> parts = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            ProjectMessage part = frames.readFrame();
+            if (part == null) {
+                throw new ProtocolException("Link closed inside a message");
+            }
+            parts.add(part);
+        }
+        return new Message(kind, room, node, user.isEmpty() ? null : user, requestId, parts);
+    }
+
+    // ---- outgoing ----
+
+    // One outgoing connection and its queue; the thread writes whatever queued up, then flushes once
+    private class Link implements Runnable {
+        private final String peer;
+        private final InetSocketAddress address;
+        private final BlockingQueue<Message> queue = new LinkedBlockingQueue<>();
+        private volatile boolean connected = false;
+        private volatile Socket socket;
+
+        Link(String peer, InetSocketAddress address) {
+            this.peer = peer;
+            this.address = address;
+        }
+
+        boolean offer(Message message) {
+            if (!connected) {
+                return false;
+            }
+            if (queue.size() >= MAX_QUEUED_MESSAGES) {
+                System.err.println("Cluster node " + peer + " is not keeping up, dropping the link");
+                closeSocket();
+                return false;
+            }
+            return queue.offer(message);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try (Socket s = new Socket()) {
+                    s.connect(address, CONNECT_TIMEOUT_MS);
+                    s.setTcpNoDelay(true);
+                    socket = s;
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 64 * 1024));
+                    writeString(out, nodeId);
+                    out.flush();
+                    connected = true;
+                    System.out.println("Cluster link to " + peer + " up");
+                    while (true) {
+                        writeMessage(out, queue.take());
+                        Message next;
+                        while ((next = queue.poll()) != null) {
+                            writeMessage(out, next);
+                        }
+                        out.flush();
+                    }
+                } catch (IOException e) {
+                    if (connected) {
+                        connected = false;
+                        queue.clear();
+                        System.out.println("Cluster link to " + peer + " lost: " + e.getMessage());
+                        listener.onNodeDown(peer);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    Thread.sleep(REDIAL_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        private void closeSocket() {
+            Socket s = socket;
+            if (s != null) {
+                try {
+                    s.close();
+                } catch (IOException e) {
+                    // the writer notices on its next write
+                }
+            }
+        }
+    }
+
+    private static void writeMessage(DataOutputStream out, Message message) throws IOException {
+        out.writeByte(message.kind().ordinal());
+        writeString(out, message.room());
+        writeString(out, message.node());
+        writeString(out, message.user() != null ? message.user() : "");
+        out.writeLong(message.requestId());
+        out.writeInt(message.parts().size());
+        for (ProjectMessage part : message.parts()) {
+            byte[] frame = new byte[ProjectWireCodec.encodedLength(part, true)];
+            ProjectWireCodec.encode(part, true, ByteBuffer.wrap(frame));
+            out.write(frame);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > ProjectWireCodec.MAX_FRAME_LENGTH) {
+            throw new ProtocolException("Bad string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void startThread(String name, Runnable body) {
+        Thread thread = new Thread(body, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
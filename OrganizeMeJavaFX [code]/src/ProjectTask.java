@@ -0,0 +1,52 @@
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicReference;
+
+class ProjectTask {
+    private int id;
+    private String title;
+    private String description;
+    private String assignedBy;
+    private Date createdDate;
+    // null while PENDING; swapped in once, atomically, when the task is completed
+    private final AtomicReference<Completion> completion = new AtomicReference<>();
+
+    private record Completion(String completedBy, Date completedDate) {}
+    
+    public ProjectTask(int id, String title, String description, String assignedBy) {
+        this(id, title, description, assignedBy, new Date());
+    }
+
+    public ProjectTask(int id, String title, String description, String assignedBy, Date createdDate) {
+        this.id = id;
+        this.title = title;
+        this.description = description;
+        this.assignedBy = assignedBy;
+        this.createdDate = createdDate;
+    }
+    
+    // Getters
+    public int getId() { return id; }
+    public String getTitle() { return title; }
+    public String getDescription() { return description; }
+    public String getAssignedBy() { return assignedBy; }
+    public Date getCreatedDate() { return createdDate; }
+
+    public TaskStatus getStatus() {
+        return completion.get() == null ? TaskStatus.PENDING : TaskStatus.COMPLETED;
+    }
+
+    public String getCompletedBy() {
+        Completion c = completion.get();
+        return c != null ? c.completedBy() : null;
+    }
+
+    public Date getCompletedDate() {
+        Completion c = completion.get();
+        return c != null ? c.completedDate() : null;
+    }
+
+    // Compare-and-set PENDING -> COMPLETED; only one caller can win
+    public boolean markCompleted(String completedBy, Date completedDate) {
+        return completion.compareAndSet(null, new Completion(completedBy, completedDate));
+    }
+}
@@ -0,0 +1,34 @@
+import java.util.ArrayList;
+import java.util.List;
+
+
+// The most recent task events in publish order, so a reconnecting client can be sent only what
+// it missed. Every published sequence number goes in, so seq N sits at slot (N - 1) % capacity.
+// Not thread-safe: ProjectServer only touches it under its publish lock.
+class ProjectTaskHistory {
+    private final ProjectMessage[] events;
+    private int size = 0;
+
+    public ProjectTaskHistory(int capacity) {
+        this.events = new ProjectMessage[capacity];
+    }
+
+    public void add(ProjectMessage event) {
+        if (events.length == 0) return;
+        events[(event.getSeq() - 1) % events.length] = event;
+        size = Math.min(size + 1, events.length);
+    }
+
+    // Events with seq in (afterSeq, lastSeq], or null if some of them are no longer kept
+    public List<ProjectMessage> since(int afterSeq, int lastSeq) {
+        int oldestKept = lastSeq - size + 1;
+        if (afterSeq > lastSeq || afterSeq < oldestKept - 1) {
+            return null;
+        }
+        List<ProjectMessage> missed = new ArrayList<>(lastSeq - afterSeq);
+        for (int seq = afterSeq + 1; seq <= lastSeq; seq++) {
+            missed.add(events[(seq - 1) % events.length]);
+        }
+        return missed;
+    }
+}
@@ -0,0 +1,32 @@
+// What the board shows for one task. Immutable: a change replaces the item in the list,
+// which is what makes ListView redraw that row.
+class ProjectTaskItem {
+    final int id;
+    final String title;
+    final String description;
+    final String assignedBy;
+    final String completedBy; // null while pending
+
+    ProjectTaskItem(int id, String title, String description, String assignedBy, String completedBy) {
+        this.id = id;
+        this.title = title;
+        this.description = description;
+        this.assignedBy = assignedBy;
+        this.completedBy = completedBy;
+    }
+
+    // From a TASK_ADDED message (title, description, assignedBy, status, completedBy)
+    static ProjectTaskItem from(ProjectMessage task) {
+        boolean completed = "COMPLETED".equals(task.field(3));
+        return new ProjectTaskItem(task.getTaskId(), task.field(0), task.field(1), task.field(2),
+            completed ? task.field(4) : null);
+    }
+
+    boolean isCompleted() {
+        return completedBy != null;
+    }
+
+    ProjectTaskItem completedBy(String user) {
+        return new ProjectTaskItem(id, title, description, assignedBy, user);
+    }
+}
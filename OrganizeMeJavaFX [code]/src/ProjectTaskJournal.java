@@ -0,0 +1,318 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+
+// Durable task history for ProjectServer: an append-only write-ahead log of add/complete/delete
+// events plus a periodic compact snapshot of the whole board.
+//
+// Appends are group committed: callers enqueue a record with a callback and return immediately,
+// a single writer thread writes everything that queued up meanwhile, fsyncs once, then runs the
+// callbacks in log order. ProjectServer_Room applies the change to its board and broadcasts it
+// from those callbacks, so nobody sees a change, not even in a joining client's snapshot, before
+// it is on disk. If the log can't be written the journal stops and reports it; nothing is
+// acknowledged after that.
+class ProjectTaskJournal {
+    private static final byte ADD = 1;
+    private static final byte COMPLETE = 2;
+    private static final byte DELETE = 3;
+
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int MAX_BATCH = 4096;
+
+    private final Path logFile;
+    private final Path snapshotFile;
+    private final int snapshotEvery;
+    private final BlockingQueue<PendingRecord> queue = new LinkedBlockingQueue<>();
+
+    private ProjectTaskStore store;
+    private Consumer<IOException> onFailure;
+    private FileChannel log;
+    private long recordsSinceSnapshot = 0;
+    private volatile boolean failed = false;
+
+    private record PendingRecord(byte[] bytes, Runnable afterDurable) {}
+
+    public ProjectTaskJournal(Path dataDir, int snapshotEvery) {
+        this.logFile = dataDir.resolve("tasks.wal");
+        this.snapshotFile = dataDir.resolve("tasks.snapshot");
+        this.snapshotEvery = snapshotEvery;
+    }
+
+    // ---- startup ----
+
+    // Loads the last snapshot, replays the log on top of it and starts the writer thread.
+    // onFailure is called on the writer thread if the log later stops working.
+    public void open(ProjectTaskStore store, Consumer<IOException> onFailure) throws IOException {
+        this.store = store;
+        this.onFailure = onFailure;
+        Files.createDirectories(logFile.getParent());
+
+        long start = System.nanoTime();
+        int snapshotTasks = loadSnapshot();
+        long validLength = Files.exists(logFile) ? replayLog() : 0;
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        System.out.println("Recovered " + store.size() + " tasks (" + snapshotTasks + " from snapshot, "
+            + recordsSinceSnapshot + " log records) in " + elapsedMs + " ms");
+
+        log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // Drop a torn record left by a crash mid-write
+        log.truncate(validLength);
+        log.position(validLength);
+
+        Thread writer = new Thread(this::writeLoop, "project-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private int loadSnapshot() throws IOException {
+        if (!Files.exists(snapshotFile)) return 0;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+            int version = in.readInt();
+            if (version != SNAPSHOT_VERSION) {
+                throw new IOException("Unsupported snapshot version " + version);
+            }
+            store.setNextTaskId(in.readInt());
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                ProjectTask task = new ProjectTask(in.readInt(), readString(in), readString(in),
+                    readString(in), new Date(in.readLong()));
+                if (in.readBoolean()) {
+                    task.markCompleted(readString(in), new Date(in.readLong()));
+                }
+                store.restore(task);
+            }
+            return count;
+        }
+    }
+
+    // Returns the length of the log up to the last complete, checksummed record
+    private long replayLog() throws IOException {
+        long validLength = 0;
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(logFile), 1 << 16))) {
+            while (true) {
+                byte[] payload;
+                try {
+                    int length = in.readInt();
+                    long checksum = in.readInt() & 0xFFFFFFFFL;
+                    if (length <= 0 || length > (1 << 24)) break;
+                    payload = new byte[length];
+                    in.readFully(payload);
+                    crc.reset();
+                    crc.update(payload);
+                    if (crc.getValue() != checksum) break;
+                } catch (EOFException e) {
+                    break;
+                }
+                apply(payload);
+                validLength += 8 + payload.length;
+                recordsSinceSnapshot++;
+            }
+        }
+        return validLength;
+    }
+
+    private void apply(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        int taskId = in.readInt();
+        switch (type) {
+            case ADD -> store.restore(new ProjectTask(taskId, readString(in), readString(in),
+                readString(in), new Date(in.readLong())));
+            case COMPLETE -> store.complete(taskId, readString(in), new Date(in.readLong()));
+            case DELETE -> store.delete(taskId);
+            default -> throw new IOException("Unknown journal record type " + type);
+        }
+    }
+
+    // ---- appends (any thread) ----
+
+    public void logAdd(ProjectTask task, Runnable afterDurable) {
+        enqueue(encode(ADD, task.getId(), out -> {
+            writeString(out, task.getTitle());
+            writeString(out, task.getDescription());
+            writeString(out, task.getAssignedBy());
+            out.writeLong(task.getCreatedDate().getTime());
+        }), afterDurable);
+    }
+
+    public void logComplete(int taskId, String completedBy, Date completedDate, Runnable afterDurable) {
+        enqueue(encode(COMPLETE, taskId, out -> {
+            writeString(out, completedBy);
+            out.writeLong(completedDate.getTime());
+        }), afterDurable);
+    }
+
+    public void logDelete(int taskId, Runnable afterDurable) {
+        enqueue(encode(DELETE, taskId, out -> {}), afterDurable);
+    }
+
+    // After a failure records are dropped: their callbacks would never run anyway
+    private void enqueue(byte[] record, Runnable afterDurable) {
+        if (!failed) {
+            queue.add(new PendingRecord(record, afterDurable));
+        }
+    }
+
+    private interface Body {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static byte[] encode(byte type, int taskId, Body body) {
+        try {
+            ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream(64);
+            DataOutputStream payload = new DataOutputStream(payloadBytes);
+            payload.writeByte(type);
+            payload.writeInt(taskId);
+            body.write(payload);
+
+            byte[] data = payloadBytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(data);
+
+            ByteBuffer record = ByteBuffer.allocate(8 + data.length);
+            record.putInt(data.length);
+            record.putInt((int) crc.getValue());
+            record.put(data);
+            return record.array();
+        } catch (IOException e) {
+            // ByteArrayOutputStream does not throw
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // ---- writer thread ----
+
+    private void writeLoop() {
+        List<PendingRecord> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH - 1);
+
+                int size = 0;
+                for (PendingRecord record : batch) size += record.bytes().length;
+                ByteBuffer buffer = ByteBuffer.allocate(size);
+                for (PendingRecord record : batch) buffer.put(record.bytes());
+                buffer.flip();
+
+                while (buffer.hasRemaining()) {
+                    log.write(buffer);
+                }
+                // One fsync covers the whole batch (group commit)
+                log.force(false);
+
+                for (PendingRecord record : batch) {
+                    // The record is on disk either way; a failing callback mustn't cost the others theirs
+                    try {
+                        record.afterDurable().run();
+                    } catch (RuntimeException e) {
+                        System.err.println("Task journal callback error: " + e.getMessage());
+                    }
+                }
+                recordsSinceSnapshot += batch.size();
+                batch.clear();
+
+                if (recordsSinceSnapshot >= snapshotEvery) {
+                    writeSnapshot();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                // Without a working log nothing can be acknowledged safely: the batch's callbacks
+                // never run, and nothing queued after it is written
+                System.err.println("Task journal write failed in " + logFile.getParent() + ": " + e.getMessage());
+                failed = true;
+                queue.clear();
+                try {
+                    log.close();
+                } catch (IOException closeError) {
+                    System.err.println("Error closing task journal: " + closeError.getMessage());
+                }
+                onFailure.accept(e);
+                return;
+            } catch (RuntimeException e) {
+                System.err.println("Task journal writer error: " + e.getMessage());
+                batch.clear();
+            }
+        }
+    }
+
+    // Runs on the writer thread between batches. The store only holds changes whose callbacks
+    // have run, so it matches the log so far; records still queued go into the truncated log.
+    private void writeSnapshot() throws IOException {
+        long start = System.nanoTime();
+        int nextTaskId = store.peekNextTaskId();
+        List<ProjectTask> tasks = store.getAll();
+
+        Path tmp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(channel), 1 << 16))) {
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeInt(nextTaskId);
+            out.writeInt(tasks.size());
+            for (ProjectTask task : tasks) {
+                out.writeInt(task.getId());
+                writeString(out, task.getTitle());
+                writeString(out, task.getDescription());
+                writeString(out, task.getAssignedBy());
+                out.writeLong(task.getCreatedDate().getTime());
+                boolean completed = task.getStatus() == TaskStatus.COMPLETED;
+                out.writeBoolean(completed);
+                if (completed) {
+                    writeString(out, task.getCompletedBy());
+                    out.writeLong(task.getCompletedDate().getTime());
+                }
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        log.truncate(0);
+        log.position(0);
+        log.force(true);
+        recordsSinceSnapshot = 0;
+
+        System.out.println("Task snapshot written: " + tasks.size() + " tasks in "
+            + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    // Length-prefixed UTF-8, unlike writeUTF there is no 64KB limit
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,190 @@
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+
+// Times ProjectTaskJournal and checks what happens when it can't write. Logs N events (half
+// adds, then completes and deletes of them) applying each to a board in its callback the way
+// ProjectServer_Room does, recovers them into a new board, then breaks a journal's log file
+// (its channel is closed underneath it) and checks that nothing more is acknowledged. Last, a
+// server started in this process with a data dir gets one room's journal broken: that room's
+// members are disconnected while another room keeps working.
+//
+// Usage: ProjectTaskJournalTest [--events=N] [--port=N]
+// The exit code is 1 if any check fails.
+public class ProjectTaskJournalTest {
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        int events = Integer.parseInt(ProjectServer.option(args, "events", "1000000"));
+        int port = Integer.parseInt(ProjectServer.option(args, "port", "23461"));
+        Path dir = Files.createTempDirectory("task-journal-test");
+        try {
+            logAndRecover(dir.resolve("bench"), events);
+            failedWrite(dir.resolve("broken"));
+            failedRoom(dir.resolve("server"), port);
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+        System.out.println(failures == 0 ? "OK" : failures + " check(s) failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void logAndRecover(Path dir, int events) throws Exception {
+        ProjectTaskStore store = new ProjectTaskStore();
+        ProjectTaskJournal journal = new ProjectTaskJournal(dir, Integer.MAX_VALUE);
+        journal.open(store, e -> System.err.println("journal failed: " + e.getMessage()));
+        int adds = events / 2;
+        int completes = events * 3 / 10;
+        CountDownLatch done = new CountDownLatch(events);
+        long start = System.nanoTime();
+        for (int i = 0; i < adds; i++) {
+            ProjectTask task = new ProjectTask(store.nextTaskId(), "Task title " + i, "some description text",
+                "user" + (i % 10));
+            journal.logAdd(task, () -> {
+                store.add(task);
+                done.countDown();
+            });
+        }
+        for (int id = 1; id <= completes; id++) {
+            int taskId = id;
+            Date now = new Date();
+            journal.logComplete(taskId, "bob", now, () -> {
+                store.complete(taskId, "bob", now);
+                done.countDown();
+            });
+        }
+        for (int id = completes + 1; id <= adds; id++) {
+            int taskId = id;
+            journal.logDelete(taskId, () -> {
+                store.delete(taskId);
+                done.countDown();
+            });
+        }
+        check(done.await(120, TimeUnit.SECONDS), "every event is acknowledged");
+        long ms = (System.nanoTime() - start) / 1_000_000;
+        System.out.printf("logged %d events in %d ms (%d events/s), log %d MB%n", events, ms,
+            events * 1000L / Math.max(1, ms), Files.size(dir.resolve("tasks.wal")) >> 20);
+
+        start = System.nanoTime();
+        ProjectTaskStore recovered = new ProjectTaskStore();
+        new ProjectTaskJournal(dir, Integer.MAX_VALUE).open(recovered, e -> { });
+        System.out.printf("recovered in %d ms%n", (System.nanoTime() - start) / 1_000_000);
+        List<ProjectTask> tasks = recovered.getAll();
+        check(tasks.size() == store.size() && tasks.size() == completes, "recovery gives the same board (" + tasks.size() + " tasks)");
+        check(tasks.stream().allMatch(task -> task.getStatus() == TaskStatus.COMPLETED), "completions are recovered");
+    }
+
+    private static void failedWrite(Path dir) throws Exception {
+        ProjectTaskStore store = new ProjectTaskStore();
+        ProjectTaskJournal journal = new ProjectTaskJournal(dir, Integer.MAX_VALUE);
+        AtomicReference<IOException> failure = new AtomicReference<>();
+        CountDownLatch failed = new CountDownLatch(1);
+        journal.open(store, e -> {
+            failure.set(e);
+            failed.countDown();
+        });
+        CountDownLatch first = new CountDownLatch(1);
+        journal.logAdd(new ProjectTask(store.nextTaskId(), "before", "", "u"), first::countDown);
+        check(first.await(5, TimeUnit.SECONDS), "a record is acknowledged while the log works");
+
+        breakLog(journal);
+        AtomicBoolean acknowledged = new AtomicBoolean(false);
+        journal.logAdd(new ProjectTask(store.nextTaskId(), "after", "", "u"), () -> acknowledged.set(true));
+        check(failed.await(5, TimeUnit.SECONDS), "a failed write is reported (" + failure.get() + ")");
+        journal.logAdd(new ProjectTask(store.nextTaskId(), "later", "", "u"), () -> acknowledged.set(true));
+        Thread.sleep(200);
+        check(!acknowledged.get(), "nothing is acknowledged after the failure");
+    }
+
+    private static void failedRoom(Path dataDir, int port) throws Exception {
+        Thread server = new Thread(() -> ProjectServer.main(new String[] { "--port=" + port,
+            "--data-dir=" + dataDir, "--ping-interval=0", "--metrics-log=0" }), "journal-test-server");
+        server.setDaemon(true);
+        server.start();
+        awaitPort(port);
+
+        Member broken = new Member("alice", "broken", port);
+        Member healthy = new Member("bob", "healthy", port);
+        broken.client.addTask("kept", "");
+        check(broken.tasks.await(5, TimeUnit.SECONDS), "a task is added before the failure");
+
+        Field journalField = ProjectServer_Room.class.getDeclaredField("journal");
+        journalField.setAccessible(true);
+        breakLog((ProjectTaskJournal) journalField.get(ProjectServer.room("broken")));
+        broken.client.addTask("lost", "");
+        check(broken.dropped.await(5, TimeUnit.SECONDS), "the failed room's members are disconnected");
+
+        healthy.client.addTask("still works", "");
+        check(healthy.tasks.await(5, TimeUnit.SECONDS), "another room keeps working");
+        check(server.isAlive(), "the server keeps running");
+        broken.client.disconnect();
+        healthy.client.disconnect();
+    }
+
+    private static final class Member implements ProjectEvents {
+        final ProjectClient client;
+        final CountDownLatch tasks = new CountDownLatch(1);
+        final CountDownLatch dropped = new CountDownLatch(1);
+
+        Member(String name, String project, int port) throws IOException {
+            client = new ProjectClient("localhost", port, name, this);
+            client.setProject(project);
+            // As ProjectController does; a dropped connection shows up as onReconnecting
+            client.setAutoReconnect(true);
+            client.connect();
+        }
+
+        public void onSystemMessage(String message) {}
+        public void onChatMessage(String message) {}
+        public void onUsersUpdated(String usersCsv) {}
+        public void onTaskAdded(ProjectMessage task) {
+            tasks.countDown();
+        }
+        public void onTaskCompleted(ProjectMessage task) {}
+        public void onTaskDeleted(ProjectMessage task) {}
+        public void onDisconnected(String reason) {
+            dropped.countDown();
+        }
+        public void onReconnecting(int attempt, long delayMs) {
+            dropped.countDown();
+        }
+    }
+
+    // Closing the channel makes the writer's next write fail like a broken disk would
+    private static void breakLog(ProjectTaskJournal journal) throws Exception {
+        Field log = ProjectTaskJournal.class.getDeclaredField("log");
+        log.setAccessible(true);
+        ((FileChannel) log.get(journal)).close();
+    }
+
+    private static void awaitPort(int port) throws InterruptedException {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            try {
+                new Socket("localhost", port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("Server did not start on port " + port);
+    }
+
+    private static void check(boolean passed, String what) {
+        System.out.println((passed ? "ok    " : "FAIL  ") + what);
+        if (!passed) failures++;
+    }
+}
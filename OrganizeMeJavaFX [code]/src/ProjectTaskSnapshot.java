@@ -0,0 +1,178 @@
+import java.io.ByteArrayOutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+// Whole-board sync for a joining client: instead of one TASK_ADDED per task, the board goes out
+// as a few TASK_SNAPSHOT messages. Each carries a block of tasks
+//
+//   varint count { varint id, title, description, assignedBy, status, completedBy }   (strings: varint len + utf8)
+//
+// deflated when that makes it smaller. Part 1 tells the client to replace its board.
+final class ProjectTaskSnapshot {
+    static final String RAW = "raw";
+    static final String DEFLATE = "deflate";
+
+    // Keeps every part well below ProjectWireCodec.MAX_FRAME_LENGTH, even base64'd on a text line
+    private static final int MAX_PART_BYTES = 256 * 1024;
+    private static final int MIN_COMPRESS_BYTES = 1024;
+    // Refuse to inflate more than this from one part
+    private static final int MAX_INFLATED_BYTES = 16 * 1024 * 1024;
+
+    private ProjectTaskSnapshot() {}
+
+    // ---- server side ----
+
+    public static List<ProjectMessage> encode(List<ProjectTask> tasks) {
+        tasks.sort(Comparator.comparingInt(ProjectTask::getId));
+
+        List<byte[]> blocks = new ArrayList<>();
+        ByteArrayOutputStream block = new ByteArrayOutputStream(64 * 1024);
+        int count = 0;
+        for (ProjectTask task : tasks) {
+            // A part may run over the limit by one task, never more
+            if (count > 0 && block.size() >= MAX_PART_BYTES) {
+                blocks.add(withCount(count, block));
+                block.reset();
+                count = 0;
+            }
+            writeVarint(block, task.getId());
+            writeString(block, task.getTitle());
+            writeString(block, task.getDescription());
+            writeString(block, task.getAssignedBy());
+            writeString(block, task.getStatus().name());
+            writeString(block, task.getCompletedBy());
+            count++;
+        }
+        // An empty board is still one (empty) part, so the client knows the sync is complete
+        blocks.add(withCount(count, block));
+
+        List<ProjectMessage> parts = new ArrayList<>(blocks.size());
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            for (int i = 0; i < blocks.size(); i++) {
+                byte[] raw = blocks.get(i);
+                byte[] compressed = raw.length >= MIN_COMPRESS_BYTES ? deflate(deflater, raw) : null;
+                parts.add(compressed != null && compressed.length < raw.length
+                    ? ProjectMessage.taskSnapshot(i + 1, blocks.size(), DEFLATE, compressed)
+                    : ProjectMessage.taskSnapshot(i + 1, blocks.size(), RAW, raw));
+            }
+        } finally {
+            deflater.end();
+        }
+        return parts;
+    }
+
+    private static byte[] withCount(int count, ByteArrayOutputStream block) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(block.size() + 5);
+        writeVarint(out, count);
+        out.writeBytes(block.toByteArray());
+        return out.toByteArray();
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] raw) {
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 4 + 64);
+        byte[] chunk = new byte[16 * 1024];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(chunk);
+            out.write(chunk, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    // ---- client side ----
+
+    public static boolean isFirstPart(ProjectMessage part) {
+        return part.field(0).equals("1");
+    }
+
+    public static boolean isLastPart(ProjectMessage part) {
+        return part.field(0).equals(part.field(1));
+    }
+
+    // The part's tasks as TASK_ADDED messages, the same shape the per-task path delivers
+    public static List<ProjectMessage> decode(ProjectMessage part) throws ProtocolException {
+        byte[] block = part.getBody();
+        if (part.field(2).equals(DEFLATE)) {
+            block = inflate(block);
+        } else if (!part.field(2).equals(RAW)) {
+            throw new ProtocolException("Unknown snapshot encoding " + part.field(2));
+        }
+
+        ByteBuffer in = ByteBuffer.wrap(block);
+        int count = readInt(in);
+        List<ProjectMessage> tasks = new ArrayList<>(Math.min(count, block.length));
+        for (int i = 0; i < count; i++) {
+            int taskId = readInt(in);
+            tasks.add(new ProjectMessage(ProjectMessage.Type.TASK_ADDED, taskId,
+                readString(in), readString(in), readString(in), readString(in), readString(in)));
+        }
+        return tasks;
+    }
+
+    private static byte[] inflate(byte[] compressed) throws ProtocolException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 4);
+            byte[] chunk = new byte[16 * 1024];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(chunk);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new ProtocolException("Truncated snapshot part");
+                }
+                out.write(chunk, 0, n);
+                if (out.size() > MAX_INFLATED_BYTES) {
+                    throw new ProtocolException("Snapshot part too large");
+                }
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new ProtocolException("Corrupt snapshot part: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static int readInt(ByteBuffer in) throws ProtocolException {
+        long value = ProjectWireCodec.readVarint(in);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new ProtocolException("Corrupt snapshot part");
+        }
+        return (int) value;
+    }
+
+    private static String readString(ByteBuffer in) throws ProtocolException {
+        int length = readInt(in);
+        if (length > in.remaining()) {
+            throw new ProtocolException("Corrupt snapshot part");
+        }
+        String value = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+}
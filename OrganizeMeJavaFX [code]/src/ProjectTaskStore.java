@@ -0,0 +1,69 @@
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+// Task board state for the project server. Reads and writes on different task ids never
+// contend: the map is concurrent, ids come from an atomic counter and completion is a CAS
+// on the task itself. ProjectServer_Room decides the order changes are applied in (see
+// ProjectServer_Room.addTask etc.).
+class ProjectTaskStore {
+    private final Map<Integer, ProjectTask> tasks = new ConcurrentHashMap<>();
+    private final AtomicInteger taskIdCounter = new AtomicInteger(1);
+
+    public int nextTaskId() {
+        return taskIdCounter.getAndIncrement();
+    }
+
+    public int peekNextTaskId() {
+        return taskIdCounter.get();
+    }
+
+    // Used during recovery; never moves the counter backwards
+    public void setNextTaskId(int nextTaskId) {
+        taskIdCounter.accumulateAndGet(nextTaskId, Math::max);
+    }
+
+    public void add(ProjectTask task) {
+        tasks.put(task.getId(), task);
+    }
+
+    // Recovery path: insert or overwrite a task read back from disk
+    public void restore(ProjectTask task) {
+        tasks.put(task.getId(), task);
+        setNextTaskId(task.getId() + 1);
+    }
+
+    // Returns the task if this call moved it from PENDING to COMPLETED, null otherwise
+    public ProjectTask complete(int taskId, String completedBy) {
+        return complete(taskId, completedBy, new Date());
+    }
+
+    public ProjectTask complete(int taskId, String completedBy, Date completedDate) {
+        ProjectTask task = tasks.get(taskId);
+        if (task != null && task.markCompleted(completedBy, completedDate)) {
+            return task;
+        }
+        return null;
+    }
+
+    // Returns the removed task, or null if it did not exist
+    public ProjectTask delete(int taskId) {
+        return tasks.remove(taskId);
+    }
+
+    public ProjectTask get(int taskId) {
+        return tasks.get(taskId);
+    }
+
+    public List<ProjectTask> getAll() {
+        return new ArrayList<>(tasks.values());
+    }
+
+    public int size() {
+        return tasks.size();
+    }
+}
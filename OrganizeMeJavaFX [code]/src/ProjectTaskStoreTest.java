@@ -0,0 +1,154 @@
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+
+// Multi-threaded stress test of a project's task board, on a memory-only server started in this
+// process. Measures add+complete+delete throughput with 1..N threads, each on its own tasks; the
+// latency of those commands while another thread keeps copying a large board, as a join does;
+// and checks that of several threads completing one task, exactly one wins.
+//
+// Usage: ProjectTaskStoreTest [--threads=1,4,8] [--seconds=N] [--board=N] [--port=N]
+// The exit code is 1 if a completion race has no winner or more than one.
+public class ProjectTaskStoreTest {
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        String[] threadCounts = ProjectServer.option(args, "threads", "1,4,8").split(",");
+        int seconds = Integer.parseInt(ProjectServer.option(args, "seconds", "3"));
+        int boardSize = Integer.parseInt(ProjectServer.option(args, "board", "200000"));
+        int port = Integer.parseInt(ProjectServer.option(args, "port", "23462"));
+        Thread server = new Thread(() -> ProjectServer.main(new String[] { "--port=" + port, "--data-dir=none",
+            "--ping-interval=0", "--metrics-log=0" }), "store-test-server");
+        server.setDaemon(true);
+        server.start();
+        awaitPort(port);
+
+        System.out.println("CPUs: " + Runtime.getRuntime().availableProcessors());
+        for (String threads : threadCounts) {
+            throughput(ProjectServer.room("stress-" + threads), Integer.parseInt(threads), seconds);
+        }
+        duringSnapshots(ProjectServer.room("board"), boardSize, seconds);
+        completionRace(1000);
+        System.out.println(failures == 0 ? "OK" : failures + " check(s) failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void throughput(ProjectServer_Room room, int threads, int seconds) throws Exception {
+        for (int round = 0; round < 2; round++) {
+            LongAdder ops = new LongAdder();
+            AtomicBoolean stop = new AtomicBoolean();
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Thread(() -> {
+                    while (!stop.get()) {
+                        int id = room.addTask("stress", "", "u");
+                        room.completeTask(id, "u");
+                        room.deleteTask(id, "u");
+                        ops.add(3);
+                    }
+                });
+                workers[t].start();
+            }
+            Thread.sleep(seconds * 1000L);
+            stop.set(true);
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            // The first round warms up
+            if (round == 1) {
+                System.out.printf("%d thread(s): %d ops/s%n", threads, ops.sum() / seconds);
+            }
+        }
+    }
+
+    // One thread adds, completes and deletes while another copies the board over and over
+    private static void duringSnapshots(ProjectServer_Room room, int boardSize, int seconds) throws Exception {
+        for (int i = 0; i < boardSize; i++) {
+            room.addTask("task " + i, "description", "u");
+        }
+        AtomicBoolean stop = new AtomicBoolean();
+        LongAdder copies = new LongAdder();
+        Thread reader = new Thread(() -> {
+            while (!stop.get()) {
+                List<ProjectTask> tasks = room.getAllTasks();
+                if (tasks.size() >= boardSize) {
+                    copies.increment();
+                }
+            }
+        });
+        reader.start();
+        long[] samples = new long[1 << 20];
+        int count = 0;
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        while (System.nanoTime() < end && count < samples.length) {
+            long start = System.nanoTime();
+            int id = room.addTask("stress", "", "u");
+            room.completeTask(id, "u");
+            room.deleteTask(id, "u");
+            samples[count++] = System.nanoTime() - start;
+        }
+        stop.set(true);
+        reader.join();
+        Arrays.sort(samples, 0, count);
+        System.out.printf("add+complete+delete while copying a %d-task board (%d copies): p50 %.1f us, p99 %.1f us,"
+            + " p99.99 %.2f ms, max %.1f ms%n", boardSize, copies.sum(), samples[count / 2] / 1e3,
+            samples[count * 99 / 100] / 1e3, samples[(int) (count * 0.9999)] / 1e6, samples[count - 1] / 1e6);
+    }
+
+    private static void completionRace(int rounds) throws Exception {
+        ProjectTaskStore store = new ProjectTaskStore();
+        int bad = 0;
+        for (int round = 0; round < rounds; round++) {
+            ProjectTask task = new ProjectTask(store.nextTaskId(), "race", "", "u");
+            store.add(task);
+            AtomicInteger winners = new AtomicInteger();
+            CountDownLatch go = new CountDownLatch(1);
+            Thread[] racers = new Thread[4];
+            for (int r = 0; r < racers.length; r++) {
+                String name = "racer" + r;
+                racers[r] = new Thread(() -> {
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (store.complete(task.getId(), name) != null) {
+                        winners.incrementAndGet();
+                    }
+                });
+                racers[r].start();
+            }
+            go.countDown();
+            for (Thread racer : racers) {
+                racer.join();
+            }
+            if (winners.get() != 1 || !task.getCompletedBy().startsWith("racer")) {
+                bad++;
+            }
+        }
+        check(bad == 0, "each of " + rounds + " completion races has exactly one winner (" + bad + " did not)");
+    }
+
+    private static void awaitPort(int port) throws InterruptedException {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            try {
+                new Socket("localhost", port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("Server did not start on port " + port);
+    }
+
+    private static void check(boolean passed, String what) {
+        System.out.println((passed ? "ok    " : "FAIL  ") + what);
+        if (!passed) failures++;
+    }
+}
@@ -1,20 +1,35 @@
+import javafx.collections.ObservableList;
 import javafx.geometry.Insets;
+import javafx.geometry.Orientation;
 import javafx.geometry.Pos;
+import javafx.scene.Node;
 import javafx.scene.control.*;
+import javafx.scene.input.ScrollEvent;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.function.Supplier;
 
 public class ProjectViewHelper {
 
-    private final VBox taskArea;
-    private final VBox chatArea;
-    private final ScrollPane scrollPane;
-    private final ScrollPane chatScrollPane;
+    // The board is a virtualized list: only the visible rows exist as nodes.
+    // Kept sorted by task id, which makes it its own index (see positionOf).
+    private final ListView<ProjectTaskItem> taskList;
+    private final ObservableList<ProjectTaskItem> tasks;
+    // Chat keeps the last CHAT_CAPACITY lines (-Dproject.chatCapacity) in a ring, shown virtualized
+    private static final int CHAT_CAPACITY = Integer.getInteger("project.chatCapacity", 1000);
+    private final ListView<ProjectChatLog.Line> chatList;
+    private final ProjectChatLog chatLog = new ProjectChatLog(CHAT_CAPACITY);
+    // Older chat is fetched from the server a page at a time when the view is scrolled to the top
+    private static final int CHAT_PAGE_LINES = 50;
+    private ScrollBar chatScrollBar;
+    private boolean olderChatAvailable = false;
+    private boolean olderChatRequested = false;
     private final ListView<String> userList;
     private final Label userCount;
 
@@ -23,46 +38,72 @@ public class ProjectViewHelper {
     private final Supplier<ProjectClient> clientSupplier;
 
     public ProjectViewHelper(
-            VBox taskArea,
-            VBox chatArea,
-            ScrollPane scrollPane,
-            ScrollPane chatScrollPane,
+            ListView<ProjectTaskItem> taskList,
+            ListView<ProjectChatLog.Line> chatList,
             ListView<String> userList,
             Label userCount,
             Supplier<String> usernameSupplier,
             Supplier<ProjectClient> clientSupplier
     ) {
-        this.taskArea = taskArea;
-        this.chatArea = chatArea;
-        this.scrollPane = scrollPane;
-        this.chatScrollPane = chatScrollPane;
+        this.taskList = taskList;
+        this.tasks = taskList.getItems();
+        this.chatList = chatList;
         this.userList = userList;
         this.userCount = userCount;
         this.usernameSupplier = usernameSupplier;
         this.clientSupplier = clientSupplier;
 
-        // Auto-scroll when content grows
-        this.taskArea.heightProperty().addListener((obs, ov, nv) -> this.scrollPane.setVvalue(1.0));
-        this.chatArea.heightProperty().addListener((obs, ov, nv) -> this.chatScrollPane.setVvalue(1.0));
+        this.taskList.setCellFactory(list -> new TaskCell());
+        this.chatList.setItems(chatLog);
+        this.chatList.setCellFactory(list -> new ChatCell());
+        // The scroll bar only exists once the skin does
+        this.chatList.skinProperty().addListener((obs, oldSkin, skin) -> watchChatScrollBar());
+        // Scrolling up while already at the top (or with nothing to scroll) doesn't move the bar
+        this.chatList.addEventFilter(ScrollEvent.SCROLL, e -> {
+            if (e.getDeltaY() > 0) loadOlderChatAtTop();
+        });
     }
 
     // --------- Public methods used by controller / events ---------
 
     public void addSystemMessage(String message) {
-        HBox messageBox = createChatMessageBox(message, "system-message", Pos.CENTER);
-        chatArea.getChildren().add(messageBox);
+        appendChat(message, ProjectChatLog.Kind.SYSTEM);
     }
 
     public void addChatMessage(String message) {
-        String username = usernameSupplier.get();
-        String[] parts = message.split(": ", 2);
+        addChatMessage(message, 0);
+    }
 
-        if (parts[0].equals(username)) {
-            HBox messageBox = createChatMessageBox(message, "user-message", Pos.CENTER_RIGHT);
-            chatArea.getChildren().add(messageBox);
-        } else {
-            HBox messageBox = createChatMessageBox(message, "contact-message", Pos.CENTER_LEFT);
-            chatArea.getChildren().add(messageBox);
+    public void addChatMessage(String message, int seq) {
+        // Already shown, e.g. from the page sent after a reconnect
+        if (seq > 0 && seq <= chatLog.newestSeq()) return;
+        appendChat(message, chatKind(message), seq);
+    }
+
+    // A page of stored chat: lines older than what is shown go in front (as far as the log has room),
+    // newer ones (missed while offline) at the end, the rest are already on screen.
+    public void handleChatHistory(List<String> messages, int firstSeq, boolean more) {
+        olderChatRequested = false;
+        int oldest = chatLog.oldestSeq();
+        int newest = chatLog.newestSeq();
+        List<ProjectChatLog.Line> older = new ArrayList<>();
+        for (int i = 0; i < messages.size(); i++) {
+            int seq = firstSeq + i;
+            String message = messages.get(i);
+            if (oldest == 0 || seq > newest) {
+                appendChat(message, chatKind(message), seq);
+            } else if (seq < oldest) {
+                // No timestamp is stored for past lines
+                older.add(new ProjectChatLog.Line(message, chatKind(message), "", seq));
+            }
+        }
+        int prepended = chatLog.prepend(older);
+        if (prepended > 0) {
+            // Keep the line that was at the top in place
+            chatList.scrollTo(prepended);
+        }
+        if (oldest == 0 || prepended > 0) {
+            olderChatAvailable = more;
         }
     }
 
@@ -79,178 +120,241 @@ public class ProjectViewHelper {
         }
     }
 
-    public void handleTaskAdded(String taskData) {
-        String[] parts = taskData.split("\\|");
-        if (parts.length >= 5) {
-            int taskId = Integer.parseInt(parts[0]);
-            String title = parts[1];
-            String description = parts[2];
-            String assignedBy = parts[3];
-            String status = parts[4];
-            String completedBy = parts.length > 5 ? parts[5] : "";
-
-            addTaskToUI(taskId, title, description, assignedBy, status, completedBy);
+    public void handleTaskAdded(ProjectMessage task) {
+        ProjectTaskItem item = ProjectTaskItem.from(task);
+        // A task the board already shows (e.g. replayed after a reconnect) is replaced in place
+        int index = positionOf(item.id);
+        if (index >= 0) {
+            tasks.set(index, item);
+        } else {
+            index = -index - 1;
+            tasks.add(index, item);
+            taskList.scrollTo(index);
         }
     }
 
-    public void handleTaskCompleted(String taskData) {
-        String[] parts = taskData.split("\\|");
-        if (parts.length >= 3) {
-            int taskId = Integer.parseInt(parts[0]);
-            String title = parts[1];
-            String completedBy = parts[2];
-
-            addSystemMessage("Task completed: \"" + title + "\" by " + completedBy);
-            updateTaskStatus(taskId, "COMPLETED", completedBy);
+    // One list change for the whole part instead of one per task
+    public void handleTaskSnapshot(List<ProjectMessage> snapshot, boolean reset) {
+        List<ProjectTaskItem> items = new ArrayList<>(snapshot.size());
+        for (ProjectMessage task : snapshot) {
+            items.add(ProjectTaskItem.from(task));
+        }
+        // Parts arrive in id order, so they normally just extend the list
+        if (reset) {
+            tasks.setAll(items);
+        } else if (items.isEmpty() || tasks.isEmpty() || tasks.get(tasks.size() - 1).id < items.get(0).id) {
+            tasks.addAll(items);
+        } else {
+            for (ProjectMessage task : snapshot) {
+                handleTaskAdded(task);
+            }
         }
     }
 
-    public void handleTaskDeleted(String taskData) {
-        String[] parts = taskData.split("\\|");
-        if (parts.length >= 3) {
-            int taskId = Integer.parseInt(parts[0]);
-            String title = parts[1];
-            String deletedBy = parts[2];
+    public void handleTaskCompleted(ProjectMessage task) {
+        int taskId = task.getTaskId();
+        String title = task.field(0);
+        String completedBy = task.field(1);
 
-            addSystemMessage("Task deleted: \"" + title + "\" by " + deletedBy);
-            removeTaskFromUI(taskId);
+        addSystemMessage("Task completed: \"" + title + "\" by " + completedBy);
+        int index = positionOf(taskId);
+        if (index >= 0) {
+            tasks.set(index, tasks.get(index).completedBy(completedBy));
         }
     }
 
-    // --------- Internal helpers (UI only) ---------
+    public void handleTaskDeleted(ProjectMessage task) {
+        int taskId = task.getTaskId();
+        String title = task.field(0);
+        String deletedBy = task.field(1);
 
-    private void addTaskToUI(
-        int taskId, 
-        String title, 
-        String description, 
-        String assignedBy,
-        String status, 
-        String completedBy
-    ) {
-
-        VBox taskBox = new VBox(5);
-        taskBox.setUserData(taskId);
-        taskBox.setPadding(new Insets(10));
-        taskBox.getStyleClass().add(status.equals("COMPLETED") ? "task-completed" : "task-pending");
+        addSystemMessage("Task deleted: \"" + title + "\" by " + deletedBy);
+        int index = positionOf(taskId);
+        if (index >= 0) {
+            tasks.remove(index);
+        }
+    }
 
-        Label titleLabel = new Label("Task #" + taskId + ": " + title);
-        titleLabel.getStyleClass().add("task-title");
+    // --------- Internal helpers (UI only) ---------
 
-        Label descriptionLabel = new Label(description);
-        descriptionLabel.setWrapText(true);
-        descriptionLabel.getStyleClass().add("task-description");
+    // Binary search by id: the task's index, or (-(insertion point) - 1) like Collections.binarySearch.
+    // The server hands out increasing ids, so a new task almost always lands at the end.
+    private int positionOf(int taskId) {
+        int low = 0;
+        int high = tasks.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = tasks.get(mid).id;
+            if (midId < taskId) {
+                low = mid + 1;
+            } else if (midId > taskId) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
 
-        Label assignedLabel = new Label("Assigned by: " + assignedBy);
-        assignedLabel.getStyleClass().add("task-assigned");
+    private void confirmDelete(ProjectTaskItem item) {
+        Alert confirmAlert = new Alert(Alert.AlertType.CONFIRMATION);
+        confirmAlert.setTitle("Delete Task");
+        confirmAlert.setHeaderText("Are you sure you want to delete this task?");
+        confirmAlert.setContentText("Task: " + item.title);
 
-        HBox buttonBox = new HBox(10);
-        buttonBox.setAlignment(Pos.CENTER_LEFT);
+        Optional<ButtonType> result = confirmAlert.showAndWait();
+        if (result.isPresent() && result.get() == ButtonType.OK) {
+            ProjectClient c = clientSupplier.get();
+            if (c != null) c.deleteTask(item.id);
+        }
+    }
 
-        if (status.equals("PENDING")) {
-            Button completeButton = new Button("Mark Complete");
+    // One task card. ListView creates only enough of these to fill the viewport and
+    // re-binds them to other tasks as the list scrolls.
+    private class TaskCell extends ListCell<ProjectTaskItem> {
+        private final VBox taskBox = new VBox(5);
+        private final Label titleLabel = new Label();
+        private final Label descriptionLabel = new Label();
+        private final Label assignedLabel = new Label();
+        private final Label completedLabel = new Label();
+        private final Button completeButton = new Button("Mark Complete");
+        private final Button deleteButton = new Button("Delete");
+        private final HBox buttonBox = new HBox(10);
+
+        TaskCell() {
+            taskBox.setPadding(new Insets(10));
+            titleLabel.getStyleClass().add("task-title");
+            descriptionLabel.setWrapText(true);
+            descriptionLabel.getStyleClass().add("task-description");
+            assignedLabel.getStyleClass().add("task-assigned");
+            completedLabel.getStyleClass().add("completed-label");
             completeButton.getStyleClass().add("complete-button");
+            deleteButton.getStyleClass().add("delete-button");
+            buttonBox.setAlignment(Pos.CENTER_LEFT);
+
             completeButton.setOnAction(e -> {
                 ProjectClient c = clientSupplier.get();
-                if (c != null) c.completeTask(taskId);
+                if (c != null && getItem() != null) c.completeTask(getItem().id);
             });
-
-            Button deleteButton = new Button("Delete");
-            deleteButton.getStyleClass().add("delete-button");
             deleteButton.setOnAction(e -> {
-                Alert confirmAlert = new Alert(Alert.AlertType.CONFIRMATION);
-                confirmAlert.setTitle("Delete Task");
-                confirmAlert.setHeaderText("Are you sure you want to delete this task?");
-                confirmAlert.setContentText("Task: " + title);
-
-                Optional<ButtonType> result = confirmAlert.showAndWait();
-                if (result.isPresent() && result.get() == ButtonType.OK) {
-                    ProjectClient c = clientSupplier.get();
-                    if (c != null) c.deleteTask(taskId);
-                }
+                if (getItem() != null) confirmDelete(getItem());
             });
 
-            buttonBox.getChildren().addAll(completeButton, deleteButton);
-        } else {
-            Label completedLabel = new Label("✓ Completed by " + completedBy);
-            completedLabel.getStyleClass().add("completed-label");
-
-            Button deleteButton = new Button("Delete");
-            deleteButton.getStyleClass().add("delete-button");
-            deleteButton.setOnAction(e -> {
-                Alert confirmAlert = new Alert(Alert.AlertType.CONFIRMATION);
-                confirmAlert.setTitle("Delete Task");
-                confirmAlert.setHeaderText("Are you sure you want to delete this task?");
-                confirmAlert.setContentText("Task: " + title);
-
-                Optional<ButtonType> result = confirmAlert.showAndWait();
-                if (result.isPresent() && result.get() == ButtonType.OK) {
-                    ProjectClient c = clientSupplier.get();
-                    if (c != null) c.deleteTask(taskId);
-                }
-            });
-
-            buttonBox.getChildren().addAll(completedLabel, deleteButton);
+            taskBox.getChildren().addAll(titleLabel, descriptionLabel, assignedLabel, buttonBox);
+            // Wrap the description to the list's width instead of growing sideways
+            taskBox.maxWidthProperty().bind(taskList.widthProperty().subtract(40));
+            setText(null);
         }
 
-        taskBox.getChildren().addAll(titleLabel, descriptionLabel, assignedLabel, buttonBox);
-        taskArea.getChildren().add(taskBox);
-    }
-
-    private void updateTaskStatus(int taskId, String status, String completedBy) {
-        for (int i = 0; i < taskArea.getChildren().size(); i++) {
-            if (taskArea.getChildren().get(i) instanceof VBox) {
-                VBox taskBox = (VBox) taskArea.getChildren().get(i);
-                if (taskBox.getUserData() != null && taskBox.getUserData().equals(taskId)) {
-                    taskBox.getStyleClass().removeAll("task-pending");
-                    taskBox.getStyleClass().add("task-completed");
-
-                    for (int j = 0; j < taskBox.getChildren().size(); j++) {
-                        if (taskBox.getChildren().get(j) instanceof HBox) {
-                            HBox buttonBox = (HBox) taskBox.getChildren().get(j);
-                            buttonBox.getChildren().clear();
-
-                            Label completedLabel = new Label("✓ Completed by " + completedBy);
-                            completedLabel.getStyleClass().add("completed-label");
-                            buttonBox.getChildren().add(completedLabel);
-                        }
-                    }
-                    break;
-                }
+        @Override
+        protected void updateItem(ProjectTaskItem item, boolean empty) {
+            super.updateItem(item, empty);
+            if (empty || item == null) {
+                setGraphic(null);
+                return;
             }
+            titleLabel.setText("Task #" + item.id + ": " + item.title);
+            descriptionLabel.setText(item.description);
+            assignedLabel.setText("Assigned by: " + item.assignedBy);
+            taskBox.getStyleClass().removeAll("task-pending", "task-completed");
+            if (item.isCompleted()) {
+                taskBox.getStyleClass().add("task-completed");
+                completedLabel.setText("✓ Completed by " + item.completedBy);
+                buttonBox.getChildren().setAll(completedLabel, deleteButton);
+            } else {
+                taskBox.getStyleClass().add("task-pending");
+                buttonBox.getChildren().setAll(completeButton, deleteButton);
+            }
+            setGraphic(taskBox);
         }
     }
 
-    private void removeTaskFromUI(int taskId) {
-        taskArea.getChildren().removeIf(node -> {
-            if (node instanceof VBox) {
-                VBox taskBox = (VBox) node;
-                return taskBox.getUserData() != null && taskBox.getUserData().equals(taskId);
-            }
-            return false;
-        });
+    private ProjectChatLog.Kind chatKind(String message) {
+        String username = usernameSupplier.get();
+        String[] parts = message.split(": ", 2);
+        return parts[0].equals(username) ? ProjectChatLog.Kind.OWN : ProjectChatLog.Kind.CONTACT;
+    }
+
+    // Auto-scroll to the newest line as it arrives
+    private void appendChat(String message, ProjectChatLog.Kind kind) {
+        appendChat(message, kind, 0);
     }
 
-    private HBox createChatMessageBox(String message, String styleClass, Pos alignment) {
-        HBox messageBox = new HBox();
-        messageBox.setAlignment(alignment);
-        messageBox.setPadding(new Insets(5, 10, 5, 10));
+    private void appendChat(String message, ProjectChatLog.Kind kind, int seq) {
+        chatLog.append(new ProjectChatLog.Line(message, kind, getCurrentTime(), seq));
+        chatList.scrollTo(chatLog.size() - 1);
+    }
 
-        VBox messageBubble = new VBox();
-        messageBubble.getStyleClass().add(styleClass);
-        messageBubble.setPadding(new Insets(8, 12, 8, 12));
-        messageBubble.setMaxWidth(300);
+    private void watchChatScrollBar() {
+        for (Node node : chatList.lookupAll(".scroll-bar")) {
+            if (node instanceof ScrollBar bar && bar.getOrientation() == Orientation.VERTICAL) {
+                chatScrollBar = bar;
+                bar.valueProperty().addListener((obs, oldValue, value) -> loadOlderChatAtTop());
+            }
+        }
+    }
 
-        Label messageLabel = new Label(message);
-        messageLabel.setWrapText(true);
-        messageLabel.getStyleClass().add("message-text");
+    private void loadOlderChatAtTop() {
+        if (chatScrollBar == null || chatScrollBar.getValue() <= chatScrollBar.getMin()) {
+            loadOlderChat();
+        }
+    }
 
-        Label timeLabel = new Label(getCurrentTime());
-        timeLabel.getStyleClass().add("time-label");
+    // One page at a time, and only while the log has room to keep it
+    private void loadOlderChat() {
+        if (olderChatRequested || !olderChatAvailable || chatLog.size() >= chatLog.capacity()) return;
+        int oldest = chatLog.oldestSeq();
+        ProjectClient c = clientSupplier.get();
+        if (oldest > 1 && c != null && c.requestChatHistory(oldest, CHAT_PAGE_LINES)) {
+            olderChatRequested = true;
+        }
+    }
 
-        messageBubble.getChildren().addAll(messageLabel, timeLabel);
-        messageBox.getChildren().add(messageBubble);
+    // One chat bubble, re-bound to whichever line scrolls into view
+    private static class ChatCell extends ListCell<ProjectChatLog.Line> {
+        private final HBox messageBox = new HBox();
+        private final VBox messageBubble = new VBox();
+        private final Label messageLabel = new Label();
+        private final Label timeLabel = new Label();
+
+        ChatCell() {
+            messageBox.setPadding(new Insets(5, 10, 5, 10));
+            messageBubble.setPadding(new Insets(8, 12, 8, 12));
+            messageBubble.setMaxWidth(300);
+            messageLabel.setWrapText(true);
+            messageLabel.getStyleClass().add("message-text");
+            timeLabel.getStyleClass().add("time-label");
+            messageBubble.getChildren().addAll(messageLabel, timeLabel);
+            messageBox.getChildren().add(messageBubble);
+            setText(null);
+        }
 
-        return messageBox;
+        @Override
+        protected void updateItem(ProjectChatLog.Line line, boolean empty) {
+            super.updateItem(line, empty);
+            if (empty || line == null) {
+                setGraphic(null);
+                return;
+            }
+            messageLabel.setText(line.text());
+            timeLabel.setText(line.time());
+            messageBubble.getStyleClass().removeAll("system-message", "user-message", "contact-message");
+            switch (line.kind()) {
+                case SYSTEM -> {
+                    messageBubble.getStyleClass().add("system-message");
+                    messageBox.setAlignment(Pos.CENTER);
+                }
+                case OWN -> {
+                    messageBubble.getStyleClass().add("user-message");
+                    messageBox.setAlignment(Pos.CENTER_RIGHT);
+                }
+                case CONTACT -> {
+                    messageBubble.getStyleClass().add("contact-message");
+                    messageBox.setAlignment(Pos.CENTER_LEFT);
+                }
+            }
+            setGraphic(messageBox);
+        }
     }
 
     private String getCurrentTime() {
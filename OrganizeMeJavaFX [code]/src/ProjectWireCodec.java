@@ -0,0 +1,358 @@
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+
+// Binary framing for ProjectMessage, negotiated with "HELLO:<version>|BINARY" (features are a
+// comma-separated list; the server answers with the ones it accepted).
+//
+//   frame   = varint(payload length) payload
+//   payload = type code (1 byte) [varint task id] { varint(utf8 length) utf8 bytes } * fieldCount
+//             [varint seq] [varint(body length) body bytes]
+//
+// Fields are length-prefixed, so titles and chat text may contain '|'. They may not contain
+// line breaks, which would split the same message's text line; the server strips them from
+// commands and the text encoder refuses them. Each message is encoded once per format and the
+// bytes are shared by every connection sending it; decoding reads fields straight out of the
+// receive buffer and leaves it untouched until a whole frame is there.
+final class ProjectWireCodec {
+    static final int VERSION = 1;
+    static final String FEATURE_BINARY = "BINARY";
+    static final String FEATURE_SNAPSHOT = "SNAPSHOT";
+    static final String FEATURE_RESUME = "RESUME";
+    static final String FEATURE_HISTORY = "HISTORY";
+    static final String FEATURE_ROOMS = "ROOMS";
+    static final String FEATURE_HEARTBEAT = "HEARTBEAT";
+    static final int MAX_FRAME_LENGTH = 1024 * 1024;
+    static final int MAX_LINE_LENGTH = 1024 * 1024;
+    // Longest text a client may send in one command field, and as its username. Whatever the
+    // server builds from them (a chat line with its "user: " prefix, a task event, a page of
+    // chat history) then stays far below the line and frame limits of every receiver.
+    static final int MAX_FIELD_LENGTH = 16 * 1024;
+    static final int MAX_USERNAME_LENGTH = 64;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private ProjectWireCodec() {}
+
+    // ---- encoding ----
+
+    // Bytes needed to send the message as a frame (binary) or as a text line; HELLO is always a line
+    static int encodedLength(ProjectMessage message, boolean binary) {
+        return bytes(message, binary).length;
+    }
+
+    // Appends the message to 'out'. Returns false and leaves the buffer unchanged if it does not fit.
+    static boolean encode(ProjectMessage message, boolean binary, ByteBuffer out) {
+        byte[] bytes = bytes(message, binary);
+        if (out.remaining() < bytes.length) {
+            return false;
+        }
+        out.put(bytes);
+        return true;
+    }
+
+    // The message's bytes, shared with every other connection sending it: read them, don't change them
+    static ByteBuffer encoded(ProjectMessage message, boolean binary) {
+        return ByteBuffer.wrap(bytes(message, binary));
+    }
+
+    // A broadcast is written to every client, so each format is encoded at most once per message
+    // and cached on it; connections only copy the bytes into their own reused buffer
+    private static byte[] bytes(ProjectMessage message, boolean binary) {
+        if (binary && message.getType() != ProjectMessage.Type.HELLO) {
+            byte[] frame = message.frameBytes;
+            if (frame == null) {
+                frame = buildFrame(message);
+                message.frameBytes = frame;
+            }
+            return frame;
+        }
+        byte[] line = message.lineBytes;
+        if (line == null) {
+            if (message.hasLineBreak()) {
+                throw new IllegalArgumentException("Line break in a " + message.getType() + " field");
+            }
+            line = (message.toText() + "\n").getBytes(StandardCharsets.UTF_8);
+            message.lineBytes = line;
+        }
+        return line;
+    }
+
+    private static byte[] buildFrame(ProjectMessage message) {
+        ProjectMessage.Type type = message.getType();
+        byte[][] fields = new byte[message.getFieldCount()][];
+        int payload = 1;
+        if (type.hasTaskId) {
+            payload += varintLength(message.getTaskId());
+        }
+        for (int i = 0; i < fields.length; i++) {
+            String value = message.field(i);
+            fields[i] = value == null ? EMPTY : value.getBytes(StandardCharsets.UTF_8);
+            payload += varintLength(fields[i].length) + fields[i].length;
+        }
+        if (type.hasSeq) {
+            payload += varintLength(message.getSeq());
+        }
+        if (type.hasBody) {
+            payload += varintLength(message.getBody().length) + message.getBody().length;
+        }
+
+        ByteBuffer frame = ByteBuffer.allocate(varintLength(payload) + payload);
+        writeVarint(frame, payload);
+        frame.put((byte) type.code);
+        if (type.hasTaskId) {
+            writeVarint(frame, message.getTaskId());
+        }
+        for (byte[] field : fields) {
+            writeVarint(frame, field.length);
+            frame.put(field);
+        }
+        if (type.hasSeq) {
+            writeVarint(frame, message.getSeq());
+        }
+        if (type.hasBody) {
+            writeVarint(frame, message.getBody().length);
+            frame.put(message.getBody());
+        }
+        return frame.array();
+    }
+
+    // ---- decoding ----
+
+    // Reads the next frame from 'in' (in read mode). Returns null, with the position unchanged,
+    // if the buffer does not yet hold a complete frame.
+    static ProjectMessage decode(ByteBuffer in) throws ProtocolException {
+        int start = in.position();
+        long prefix = readVarint(in);
+        if (prefix < 0) {
+            in.position(start);
+            return null;
+        }
+        if (prefix == 0 || prefix > MAX_FRAME_LENGTH) {
+            throw new ProtocolException("Bad frame length " + prefix);
+        }
+        int length = (int) prefix;
+        if (in.remaining() < length) {
+            in.position(start);
+            return null;
+        }
+
+        int end = in.position() + length;
+        ProjectMessage.Type type = ProjectMessage.Type.fromCode(in.get());
+        if (type == null || type == ProjectMessage.Type.HELLO) {
+            throw new ProtocolException("Unknown message type");
+        }
+        int taskId = 0;
+        if (type.hasTaskId) {
+            taskId = (int) readVarint(in, end);
+        }
+        String[] fields = new String[type.fieldCount];
+        for (int i = 0; i < fields.length; i++) {
+            long size = readVarint(in, end);
+            if (size > end - in.position()) {
+                throw new ProtocolException("Field overruns frame");
+            }
+            fields[i] = readUtf8(in, (int) size);
+        }
+        int seq = 0;
+        if (type.hasSeq) {
+            seq = (int) readVarint(in, end);
+        }
+        byte[] body = new byte[0];
+        if (type.hasBody) {
+            long size = readVarint(in, end);
+            if (size > end - in.position()) {
+                throw new ProtocolException("Body overruns frame");
+            }
+            body = new byte[(int) size];
+            in.get(body);
+        }
+        if (in.position() != end) {
+            throw new ProtocolException("Trailing bytes in frame");
+        }
+        return new ProjectMessage(type, taskId, seq, body, fields);
+    }
+
+    // ---- varints (unsigned LEB128, ids and lengths are never negative) ----
+
+    static int varintLength(int value) {
+        if ((value & ~0x7F) == 0) return 1;
+        if ((value & ~0x3FFF) == 0) return 2;
+        if ((value & ~0x1FFFFF) == 0) return 3;
+        if ((value & ~0xFFFFFFF) == 0) return 4;
+        return 5;
+    }
+
+    static void writeVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    // -1 if the buffer ends in the middle of the varint
+    static long readVarint(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (!in.hasRemaining()) return -1;
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        // More than 5 bytes can never be a valid int; report it as an oversized length
+        return Long.MAX_VALUE;
+    }
+
+    // Inside a frame whose length is already known, running out of bytes is corrupt data
+    private static long readVarint(ByteBuffer in, int frameEnd) throws ProtocolException {
+        long value = in.position() < frameEnd ? readVarint(in) : -1;
+        if (value < 0 || value > Integer.MAX_VALUE || in.position() > frameEnd) {
+            throw new ProtocolException("Bad varint in frame");
+        }
+        return value;
+    }
+
+    // ---- strings ----
+
+    private static String readUtf8(ByteBuffer in, int size) {
+        String value;
+        if (in.hasArray()) {
+            value = new String(in.array(), in.arrayOffset() + in.position(), size, StandardCharsets.UTF_8);
+            in.position(in.position() + size);
+        } else {
+            byte[] bytes = new byte[size];
+            in.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    // ---- blocking streams (ProjectClient, thread-per-client server) ----
+
+    // Reads text lines until the connection switches to frames; one instance per socket
+    static final class WireReader {
+        private final InputStream in;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        private ByteBuffer frame = ByteBuffer.allocate(8 * 1024);
+
+        WireReader(InputStream bufferedIn) {
+            this.in = bufferedIn;
+        }
+
+        // Same line endings as BufferedReader.readLine for "\n" and "\r\n"; null at end of stream
+        String readLine() throws IOException {
+            line.reset();
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    return line.size() > 0 ? lineString() : null;
+                }
+                if (line.size() >= MAX_LINE_LENGTH) {
+                    throw new ProtocolException("Line too long");
+                }
+                line.write(b);
+            }
+            return lineString();
+        }
+
+        private String lineString() {
+            byte[] raw = line.toByteArray();
+            int length = raw.length;
+            if (length > 0 && raw[length - 1] == '\r') {
+                length--;
+            }
+            return new String(raw, 0, length, StandardCharsets.UTF_8);
+        }
+
+        // Next binary frame, null at a clean end of stream
+        ProjectMessage readFrame() throws IOException {
+            frame.clear();
+            int shift = 0;
+            int length = 0;
+            while (true) {
+                int b = in.read();
+                if (b < 0) {
+                    if (shift == 0) return null;
+                    throw new EOFException("Connection closed inside a frame");
+                }
+                frame.put((byte) b);
+                length |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) break;
+                shift += 7;
+                if (shift >= 35) throw new ProtocolException("Bad frame length");
+            }
+            if (length <= 0 || length > MAX_FRAME_LENGTH) {
+                throw new ProtocolException("Bad frame length " + length);
+            }
+            if (frame.remaining() < length) {
+                ByteBuffer larger = ByteBuffer.allocate(frame.position() + length);
+                frame.flip();
+                larger.put(frame);
+                frame = larger;
+            }
+            int offset = frame.position();
+            int read = 0;
+            while (read < length) {
+                int n = in.read(frame.array(), offset + read, length - read);
+                if (n < 0) throw new EOFException("Connection closed inside a frame");
+                read += n;
+            }
+            frame.position(offset + length);
+            frame.flip();
+            ProjectMessage message = decode(frame);
+            if (frame.capacity() > 64 * 1024) {
+                // Don't keep one huge frame's buffer around for the rest of the session
+                frame = ByteBuffer.allocate(8 * 1024);
+            }
+            return message;
+        }
+    }
+
+    // Encodes messages into one reused buffer and writes it out on flush
+    static final class WireWriter {
+        private final OutputStream out;
+        private ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+        private boolean binary = false;
+
+        WireWriter(OutputStream out) {
+            this.out = out;
+        }
+
+        void setBinary(boolean binary) {
+            this.binary = binary;
+        }
+
+        // Returns the message's encoded length
+        int write(ProjectMessage message) throws IOException {
+            int length = encodedLength(message, binary);
+            if (!encode(message, binary, buffer)) {
+                flushBuffer();
+                ByteBuffer target = length <= buffer.capacity() ? buffer : ByteBuffer.allocate(length);
+                encode(message, binary, target);
+                if (target != buffer) {
+                    out.write(target.array(), 0, target.position());
+                }
+            }
+            return length;
+        }
+
+        void flush() throws IOException {
+            flushBuffer();
+            out.flush();
+        }
+
+        private void flushBuffer() throws IOException {
+            if (buffer.position() > 0) {
+                out.write(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+        }
+    }
+}
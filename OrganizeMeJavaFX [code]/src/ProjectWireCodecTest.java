@@ -0,0 +1,240 @@
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+
+// Checks ProjectWireCodec's frames and compares it with the text protocol it replaces. Frames must
+// carry fields with '|', ':' and non-ASCII text unchanged, decode only once a frame is complete,
+// and refuse bad lengths; text lines must refuse line breaks. Then, over N mixed task and chat
+// messages, it times encode and decode in both formats (text the way the old code built and split
+// lines), one broadcast written to 100 clients, and counts bytes per message. Medians of 15 rounds.
+//
+// Usage: ProjectWireCodecTest [--messages=N]
+// The exit code is 1 if any check fails.
+public class ProjectWireCodecTest {
+    private static final int ROUNDS = 15;
+    private static final int CLIENTS = 100;
+    private static int failures = 0;
+    // Decoded values are summed into this so the JIT can't drop the work
+    private static volatile long sink = 0;
+
+    public static void main(String[] args) throws Exception {
+        int count = Integer.parseInt(ProjectServer.option(args, "messages", "200000"));
+        checkFrames();
+        benchmark(messages(count));
+        System.out.println(failures == 0 ? "OK" : failures + " check(s) failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void checkFrames() throws ProtocolException {
+        ProjectMessage[] awkward = {
+            ProjectMessage.taskAdded(new ProjectTask(7, "a|b:c", "line one|two", "zoë")),
+            ProjectMessage.taskCompleted(8, "", "bob"),
+            ProjectMessage.chat("carol: 50% | done: ✓ 日本"),
+        };
+        boolean same = true;
+        for (ProjectMessage message : awkward) {
+            ProjectMessage decoded = ProjectWireCodec.decode(ProjectWireCodec.encoded(message, true));
+            same &= decoded != null && decoded.getType() == message.getType() && decoded.getTaskId() == message.getTaskId()
+                && Arrays.equals(fields(decoded), fields(message));
+        }
+        check(same, "frames carry '|', ':' and non-ASCII fields unchanged");
+
+        ProjectMessage multiline = ProjectMessage.chat("first\nsecond");
+        ProjectMessage decoded = ProjectWireCodec.decode(ProjectWireCodec.encoded(multiline, true));
+        check(decoded != null && decoded.field(0).equals("first\nsecond"), "a frame carries a line break");
+        check(refused(multiline), "a text line refuses a line break");
+        check(multiline.withoutLineBreaks().field(0).equals("first second"), "withoutLineBreaks replaces it with a space");
+
+        // Bytes arriving one at a time give one message, once the last one is there
+        byte[] frame = ProjectWireCodec.encoded(awkward[0], true).array();
+        ByteBuffer in = ByteBuffer.allocate(frame.length);
+        int early = 0;
+        for (int i = 0; i < frame.length - 1; i++) {
+            in.put(frame[i]).flip();
+            early += ProjectWireCodec.decode(in) != null ? 1 : 0;
+            in.compact();
+        }
+        in.put(frame[frame.length - 1]).flip();
+        check(early == 0 && ProjectWireCodec.decode(in) != null && !in.hasRemaining(),
+            "a frame split into single bytes decodes once, when complete");
+
+        ByteBuffer tooLong = ByteBuffer.allocate(8);
+        ProjectWireCodec.writeVarint(tooLong, ProjectWireCodec.MAX_FRAME_LENGTH + 1);
+        tooLong.flip();
+        boolean refusedLength;
+        try {
+            ProjectWireCodec.decode(tooLong);
+            refusedLength = false;
+        } catch (ProtocolException e) {
+            refusedLength = true;
+        }
+        check(refusedLength, "a frame longer than the limit is refused");
+    }
+
+    private static void benchmark(ProjectMessage[] messages) throws ProtocolException {
+        int n = messages.length;
+        long sum = 0;
+        long[][] times = new long[4][ROUNDS];
+        long[][] fanout = new long[2][ROUNDS];
+        long textBytes = 0;
+        long frameBytes = 0;
+        ByteBuffer out = ByteBuffer.allocate(1 << 20);
+        byte[][] lines = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            lines[i] = (legacyLine(messages[i]) + "\n").getBytes(StandardCharsets.UTF_8);
+            textBytes += lines[i].length;
+        }
+        ByteBuffer frames = ByteBuffer.allocate(n * 128);
+        for (ProjectMessage message : messages) {
+            ProjectWireCodec.encode(fresh(message), true, frames);
+        }
+        frameBytes = frames.position();
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (ProjectMessage message : messages) {
+                put(out, (legacyLine(message) + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            times[0][round] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (byte[] line : lines) {
+                String text = new String(line, 0, line.length - 1, StandardCharsets.UTF_8);
+                String[] parts = text.substring(text.indexOf(':') + 1).split("\\|");
+                if (text.startsWith("TASK")) {
+                    sum += Integer.parseInt(parts[0]);
+                }
+                sum += parts.length;
+            }
+            times[1][round] = System.nanoTime() - start;
+
+            // A message is encoded once; copies of the message are made outside the timing
+            ProjectMessage[] copies = new ProjectMessage[n];
+            for (int i = 0; i < n; i++) {
+                copies[i] = fresh(messages[i]);
+            }
+            start = System.nanoTime();
+            for (ProjectMessage message : copies) {
+                if (!ProjectWireCodec.encode(message, true, out)) {
+                    out.clear();
+                    ProjectWireCodec.encode(message, true, out);
+                }
+            }
+            times[2][round] = System.nanoTime() - start;
+
+            ByteBuffer in = ByteBuffer.wrap(frames.array(), 0, frames.position());
+            start = System.nanoTime();
+            ProjectMessage decoded;
+            while ((decoded = ProjectWireCodec.decode(in)) != null) {
+                sum += decoded.getTaskId() + decoded.getFieldCount();
+            }
+            times[3][round] = System.nanoTime() - start;
+
+            // One broadcast to CLIENTS connections: the old code built the line for every client
+            int broadcasts = Math.min(n, 20_000);
+            start = System.nanoTime();
+            for (int i = 0; i < broadcasts; i++) {
+                for (int c = 0; c < CLIENTS; c++) {
+                    put(out, (legacyLine(messages[i]) + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            fanout[0][round] = (System.nanoTime() - start) / broadcasts;
+            start = System.nanoTime();
+            for (int i = 0; i < broadcasts; i++) {
+                ProjectMessage message = copies[i];
+                for (int c = 0; c < CLIENTS; c++) {
+                    if (!ProjectWireCodec.encode(message, true, out)) {
+                        out.clear();
+                        ProjectWireCodec.encode(message, true, out);
+                    }
+                }
+            }
+            fanout[1][round] = (System.nanoTime() - start) / broadcasts;
+        }
+
+        sink = sum;
+        System.out.printf("%d messages, median of %d rounds:%n", n, ROUNDS);
+        String[] names = { "text encode (concat + getBytes)", "text decode (String + split)",
+            "binary encode", "binary decode" };
+        for (int k = 0; k < names.length; k++) {
+            long median = median(times[k]);
+            System.out.printf("  %-32s %5.0f ns/msg  %6.2f M msg/s%n", names[k], median / (double) n, n / (median / 1e9) / 1e6);
+        }
+        System.out.printf("  one broadcast to %d clients: text %d ns, binary %d ns%n", CLIENTS, median(fanout[0]), median(fanout[1]));
+        System.out.printf("  bytes per message: text %.1f, binary %.1f (%.0f%%)%n", textBytes / (double) n,
+            frameBytes / (double) n, (frameBytes - textBytes) * 100.0 / textBytes);
+    }
+
+    private static ProjectMessage[] messages(int count) {
+        Random random = new Random(1);
+        String[] titles = { "Write docs", "Fix login bug on settings page", "Review PR", "Plan sprint 14 retrospective" };
+        ProjectMessage[] messages = new ProjectMessage[count];
+        for (int i = 0; i < count; i++) {
+            int id = 1 + random.nextInt(100_000);
+            String title = titles[i % titles.length];
+            messages[i] = switch (i % 4) {
+                case 0 -> ProjectMessage.taskAdded(new ProjectTask(id, title,
+                    "Make sure every step of the flow is covered and reviewed", "alice"));
+                case 1 -> ProjectMessage.taskCompleted(id, title, "bob");
+                case 2 -> ProjectMessage.chat("carol: shall we meet at 3pm to go over the board?");
+                default -> ProjectMessage.taskDeleted(id, title, "dave");
+            };
+        }
+        return messages;
+    }
+
+    // The lines the server built by concatenation before ProjectMessage
+    private static String legacyLine(ProjectMessage message) {
+        return switch (message.getType()) {
+            case TASK_ADDED -> "TASK_ADDED:" + message.getTaskId() + "|" + message.field(0) + "|" + message.field(1)
+                + "|" + message.field(2) + "|PENDING|";
+            case TASK_COMPLETED -> "TASK_COMPLETED:" + message.getTaskId() + "|" + message.field(0) + "|" + message.field(1);
+            case TASK_DELETED -> "TASK_DELETED:" + message.getTaskId() + "|" + message.field(0) + "|" + message.field(1);
+            default -> "MESSAGE:" + message.field(0);
+        };
+    }
+
+    // The same message without its cached encoding
+    private static ProjectMessage fresh(ProjectMessage message) {
+        return new ProjectMessage(message.getType(), message.getTaskId(), message.getSeq(), message.getBody(),
+            fields(message));
+    }
+
+    private static String[] fields(ProjectMessage message) {
+        String[] fields = new String[message.getFieldCount()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = message.field(i);
+        }
+        return fields;
+    }
+
+    private static boolean refused(ProjectMessage message) {
+        try {
+            ProjectWireCodec.encoded(message, false);
+            return false;
+        } catch (IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    private static void put(ByteBuffer out, byte[] bytes) {
+        if (out.remaining() < bytes.length) {
+            out.clear();
+        }
+        out.put(bytes);
+    }
+
+    private static long median(long[] samples) {
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static void check(boolean passed, String what) {
+        System.out.println((passed ? "ok    " : "FAIL  ") + what);
+        if (!passed) failures++;
+    }
+}
@@ -28,6 +28,7 @@ public class SidebarController {
     private List<String> categories = new ArrayList<>();
     private Button selectedCategoryButton = null; // Track currently selected button
     private String selectedCategory = null; // Track currently selected category
+    private todoController openTodo = null; // Controller of the category shown in contentPane
 
     @FXML
     public void initialize() {
@@ -64,6 +65,8 @@ public class SidebarController {
 
     @FXML
     public void userLogout(ActionEvent event) throws IOException{
+        closeOpenTodo();
+        TodoSearchIndex.close();
         Session.clear();
         App.changeScene("fxmlFiles/login.fxml");
     }
@@ -73,11 +76,13 @@ public class SidebarController {
 
     @FXML
     public void viewStreak(ActionEvent event) throws IOException {
+        closeOpenTodo();
         App.changeScene("fxmlFiles/streak.fxml");
     }
 
     @FXML
     public void backToMenu(ActionEvent event) throws IOException {
+        closeOpenTodo();
         App.changeScene("fxmlFiles/menu.fxml");
     }
 
@@ -202,27 +207,58 @@ public class SidebarController {
         }
     }
 
+    // Renamed on the todo persistence thread, after the open category has written its edits and closed
     private void renameTasksFile(String oldCategory, String newCategory) {
         if (Session.getUsername() == null) return;
         
+        boolean open = isOpenTodo(oldCategory);
+        if (open) {
+            closeOpenTodo();
+        }
         File oldFile = new File("tasks_" + Session.getUsername() + "_" + oldCategory + ".txt");
         File newFile = new File("tasks_" + Session.getUsername() + "_" + newCategory + ".txt");
         
-        if (oldFile.exists()) {
-            if (!oldFile.renameTo(newFile)) {
-                System.err.println("Failed to rename tasks file from " + oldFile.getName() + " to " + newFile.getName());
+        TodoTaskPersistence.run(() -> {
+            // The task file and its journals
+            try {
+                TodoTaskJournal.rename(oldFile, newFile);
+            } catch (IOException e) {
+                System.err.println("Failed to rename tasks file " + oldFile.getName() + ": " + e.getMessage());
+                return;
             }
+            TodoSearchIndex.renamed(oldFile, newFile);
+        });
+        if (open) {
+            loadCategoryContent(newCategory);
         }
     }
 
     private void deleteTasksFile(String category) {
         if (Session.getUsername() == null) return;
         
+        if (isOpenTodo(category)) {
+            closeOpenTodo();
+        }
         File file = new File("tasks_" + Session.getUsername() + "_" + category + ".txt");
-        if (file.exists()) {
-            if (!file.delete()) {
-                System.err.println("Failed to delete tasks file: " + file.getName());
+        TodoTaskPersistence.run(() -> {
+            try {
+                TodoTaskJournal.delete(file);
+            } catch (IOException e) {
+                System.err.println("Failed to delete tasks file " + file.getName() + ": " + e.getMessage());
+                return;
             }
+            TodoSearchIndex.removed(file);
+        });
+    }
+
+    private boolean isOpenTodo(String category) {
+        return openTodo != null && category.equals(openTodo.getCategory());
+    }
+
+    private void closeOpenTodo() {
+        if (openTodo != null) {
+            openTodo.close();
+            openTodo = null;
         }
     }
 
@@ -262,6 +298,7 @@ public class SidebarController {
     }
 
     private void loadContentWithCategory(String fxmlFile, String category) throws IOException {
+        closeOpenTodo();
         contentPane.getChildren().clear();
 
         FXMLLoader loader = new FXMLLoader(getClass().getResource(fxmlFile));
@@ -269,6 +306,7 @@ public class SidebarController {
 
         // Set controller parameters
         todoController controller = loader.getController();
+        openTodo = controller;
         controller.setUsername(Session.getUsername());
         controller.setCategory(category);
 
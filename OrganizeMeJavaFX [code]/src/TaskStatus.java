@@ -0,0 +1,3 @@
+enum TaskStatus {
+    PENDING, COMPLETED
+}
@@ -0,0 +1,185 @@
+import java.io.File;
+import java.io.PrintWriter;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.fxml.FXMLLoader;
+import javafx.scene.Node;
+import javafx.scene.Parent;
+import javafx.scene.Scene;
+import javafx.scene.control.ComboBox;
+import javafx.scene.control.ListView;
+import javafx.stage.Stage;
+
+
+// The todo view with a large category, as the user sees it: todo.fxml and todoController in a
+// window, loading N tasks from a tasks file. Counts the nodes in the scene and the heap held once
+// the list shows, then times FRAMES frames (time between pulses) idle, scrolling a step every frame,
+// and switching the status filter every frame, which re-runs applyFilters.
+//
+// Writes tasks_listtest_Home.txt into the working directory (todoController reads categories from
+// there) and deletes it and the search index afterwards.
+//
+// Usage: TodoListTest [--tasks=N]
+// Needs JavaFX and src (for fxmlFiles and styleCSS) on the class path, and a display. The exit code
+// is 1 if the scene holds more than 2000 nodes, or if the p99 frame time while scrolling or
+// filtering is over 33 ms (two 60 Hz frames).
+public class TodoListTest {
+    private static final String USER = "listtest";
+    private static final int FRAMES = 300;
+    private static final String[] WORDS = { "Buy", "milk", "Call", "mom", "Write", "report", "Fix", "bike",
+        "Plan", "trip", "Pay", "rent", "Review", "PR", "Book", "dentist" };
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        int taskCount = Integer.parseInt(ProjectServer.option(args, "tasks", "100000"));
+        try {
+            writeTasks(new File("tasks_" + USER + "_Home.txt"), taskCount);
+            measure(taskCount);
+        } finally {
+            File[] files = new File(".").listFiles((dir, name) -> name.startsWith("tasks_" + USER + "_")
+                || name.startsWith("search_" + USER + "."));
+            for (File file : files != null ? files : new File[0]) {
+                file.delete();
+            }
+        }
+        System.out.println(failures == 0 ? "OK" : failures + " check(s) failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void measure(int taskCount) throws Exception {
+        CompletableFuture<Void> started = new CompletableFuture<>();
+        Platform.startup(() -> started.complete(null));
+        started.get();
+        long base = onFx(TodoListTest::heapUsed);
+
+        Parent root = onFx(() -> {
+            FXMLLoader loader = new FXMLLoader(TodoListTest.class.getResource("fxmlFiles/todo.fxml"));
+            Parent loaded = loader.load();
+            todoController controller = loader.getController();
+            controller.setUsername(USER);
+            controller.setCategory("Home");
+            Stage stage = new Stage();
+            stage.setScene(new Scene(loaded, 900, 700));
+            stage.show();
+            return loaded;
+        });
+        @SuppressWarnings("unchecked")
+        ListView<TodoTask> taskList = (ListView<TodoTask>) root.lookup("#taskList");
+        @SuppressWarnings("unchecked")
+        ComboBox<String> statusFilter = (ComboBox<String>) root.lookup("#statusFilter");
+        // The category loads on the persistence thread
+        long start = System.nanoTime();
+        while (onFx(() -> taskList.getItems().size()) < taskCount) {
+            if (System.nanoTime() - start > 60_000_000_000L) {
+                throw new IllegalStateException("Only " + onFx(() -> taskList.getItems().size()) + " tasks shown");
+            }
+            Thread.sleep(50);
+        }
+        System.out.printf("%d tasks loaded and shown in %.0f ms%n", taskCount, (System.nanoTime() - start) / 1e6);
+        frameTimes(null);
+        long held = onFx(TodoListTest::heapUsed) - base;
+        int nodes = onFx(() -> countNodes(root));
+        System.out.printf("scene: %d nodes; heap held by the view and its tasks: %.1f MB%n", nodes, held / 1e6);
+        check(nodes <= 2000, "the scene holds 2000 nodes or fewer with " + taskCount + " tasks");
+
+        double[] idle = frameTimes(null);
+        int[] top = { 0 };
+        double[] scrolling = frameTimes(() -> {
+            top[0] = (top[0] + 7) % taskList.getItems().size();
+            taskList.scrollTo(top[0]);
+        });
+        double[] filtering = frameTimes(() ->
+            statusFilter.setValue("All".equals(statusFilter.getValue()) ? "Pending" : "All"));
+        System.out.printf("frame p50/p99/max ms: idle %s, scrolling %s, switching the status filter %s%n",
+            frames(idle), frames(scrolling), frames(filtering));
+        check(scrolling[1] <= 33 && filtering[1] <= 33, "p99 frame within 33 ms scrolling and filtering");
+        Platform.exit();
+    }
+
+    private static int countNodes(Node node) {
+        int count = 1;
+        if (node instanceof Parent parent) {
+            for (Node child : parent.getChildrenUnmodifiable()) {
+                count += countNodes(child);
+            }
+        }
+        return count;
+    }
+
+    // p50, p99 and max ms between FRAMES consecutive pulses, running 'perFrame' in each
+    private static double[] frameTimes(Runnable perFrame) throws Exception {
+        long[] stamps = new long[FRAMES + 1];
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        Platform.runLater(() -> new AnimationTimer() {
+            int count = 0;
+
+            @Override
+            public void handle(long now) {
+                stamps[count++] = now;
+                if (count == stamps.length) {
+                    stop();
+                    done.complete(null);
+                } else if (perFrame != null) {
+                    perFrame.run();
+                }
+            }
+        }.start());
+        done.get();
+        long[] gaps = new long[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            gaps[i] = stamps[i + 1] - stamps[i];
+        }
+        Arrays.sort(gaps);
+        return new double[] { gaps[FRAMES / 2] / 1e6, gaps[FRAMES * 99 / 100] / 1e6, gaps[FRAMES - 1] / 1e6 };
+    }
+
+    private static String frames(double[] times) {
+        return String.format("%.1f/%.1f/%.1f", times[0], times[1], times[2]);
+    }
+
+    private static long heapUsed() {
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static <T> T onFx(Callable<T> work) throws Exception {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Platform.runLater(() -> {
+            try {
+                result.complete(work.call());
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result.get();
+    }
+
+    private static void writeTasks(File file, int count) throws Exception {
+        Random random = new Random(7);
+        try (PrintWriter writer = new PrintWriter(file)) {
+            for (int i = 0; i < count; i++) {
+                TodoTask task = new TodoTask(WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)]
+                    + " " + i, random.nextBoolean() ? LocalDate.now().plusDays(random.nextInt(60) - 30) : null,
+                    random.nextBoolean() ? LocalTime.of(random.nextInt(24), 0) : null,
+                    TodoTask.Priority.values()[random.nextInt(3)], null);
+                task.setCompleted(random.nextInt(3) == 0);
+                writer.println(task.toFileString());
+            }
+        }
+    }
+
+    private static void check(boolean passed, String what) {
+        System.out.println((passed ? "ok    " : "FAIL  ") + what);
+        if (!passed) failures++;
+    }
+}
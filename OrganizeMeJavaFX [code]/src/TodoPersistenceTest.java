@@ -0,0 +1,187 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import jdk.jfr.consumer.RecordingStream;
+
+
+// Checks that todo edits do no file I/O on the thread that makes them, the way todoController
+// calls TodoTaskPersistence from the FX thread. A stand-in thread plays the FX thread; JFR file
+// events record which threads touch the category's files. Also checks that the edits survive a
+// reload, and that renaming or deleting a category right after closing it leaves no file behind
+// under the old name while its last snapshot is still being written.
+//
+// Usage: TodoPersistenceTest [--tasks=N] [--edits=N]
+// The exit code is 1 if any check fails.
+public class TodoPersistenceTest {
+    private static final String FX_THREAD = "fx-stand-in";
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        int taskCount = 2_000;
+        int edits = 1_000;
+        for (String arg : args) {
+            if (arg.startsWith("--tasks=")) taskCount = Integer.parseInt(arg.substring(8));
+            else if (arg.startsWith("--edits=")) edits = Integer.parseInt(arg.substring(8));
+            else {
+                System.err.println("Unknown option " + arg);
+                System.exit(2);
+            }
+        }
+        Path dir = Files.createTempDirectory("todo-persistence-test");
+        try {
+            editsStayOffTheCaller(dir, taskCount, edits);
+            for (int round = 0; round < 5; round++) {
+                renameWhileCompacting(dir, round, false);
+                renameWhileCompacting(dir, round, true);
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+        System.out.println(failures == 0 ? "OK" : failures + " check(s) failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void editsStayOffTheCaller(Path dir, int taskCount, int edits) throws Exception {
+        File file = dir.resolve("tasks_test_Home.txt").toFile();
+        writeTasks(file, taskCount);
+
+        String prefix = dir.toString();
+        Map<String, AtomicLong> io = new ConcurrentHashMap<>();
+        ExecutorService fx = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, FX_THREAD));
+        long[] samples = new long[edits];
+        List<TodoTask> tasks;
+        TodoTaskPersistence persistence = new TodoTaskPersistence(file,
+            (what, e) -> System.err.println(what + ": " + e.getMessage()));
+        try (RecordingStream recording = new RecordingStream()) {
+            for (String event : new String[] { "jdk.FileRead", "jdk.FileWrite", "jdk.FileForce" }) {
+                recording.enable(event).withThreshold(Duration.ZERO);
+                recording.onEvent(event, e -> {
+                    String path = e.getString("path");
+                    if (path != null && path.startsWith(prefix)) {
+                        io.computeIfAbsent(e.getThread().getJavaName() + " " + e.getEventType().getName(),
+                            key -> new AtomicLong()).incrementAndGet();
+                    }
+                });
+            }
+            recording.startAsync();
+
+            tasks = fx.submit(() -> persistence.load()).get().get();
+            long start = System.nanoTime();
+            fx.submit(() -> {
+                Random random = new Random(1);
+                for (int i = 0; i < edits; i++) {
+                    long editStart = System.nanoTime();
+                    int kind = random.nextInt(10);
+                    if (kind == 0) {
+                        persistence.delete(tasks.remove(random.nextInt(tasks.size())));
+                    } else if (kind == 1) {
+                        TodoTask task = new TodoTask("new " + i, null, null, TodoTask.Priority.HIGH, null);
+                        tasks.add(task);
+                        persistence.put(task);
+                    } else {
+                        TodoTask task = tasks.get(random.nextInt(tasks.size()));
+                        task.setCompleted(!task.isCompleted());
+                        persistence.put(task);
+                    }
+                    samples[i] = System.nanoTime() - editStart;
+                    if (i % 100 == 99) {
+                        // Let a few debounced writes happen in between, as typing would
+                        Thread.sleep(TodoTaskPersistence.DEBOUNCE_MS / 4);
+                    }
+                }
+                return null;
+            }).get();
+            System.out.printf("%d edits over %.0f ms%n", edits, (System.nanoTime() - start) / 1e6);
+            fx.submit(() -> persistence.close()).get().get();
+            // JFR events arrive in chunks about once a second
+            Thread.sleep(2_000);
+        }
+        fx.shutdown();
+
+        Arrays.sort(samples);
+        System.out.printf("edit on the caller: p50 %.1f us, p99 %.1f us, max %.1f us%n", samples[edits / 2] / 1e3,
+            samples[edits * 99 / 100] / 1e3, samples[edits - 1] / 1e3);
+        new TreeMap<>(io).forEach((key, count) -> System.out.println("  " + key + ": " + count));
+        check(!io.isEmpty(), "JFR saw the category's file I/O");
+        check(io.keySet().stream().noneMatch(key -> key.startsWith(FX_THREAD + " ")), "no file I/O on the caller");
+
+        List<TodoTask> reloaded = new TodoTaskPersistence(file, null).load().get();
+        check(lines(reloaded).equals(lines(tasks)), "a reload gives the edited tasks (" + reloaded.size() + ")");
+    }
+
+    // Enough edits for the close to start a compaction, then the rename or delete straight after it,
+    // the way SidebarController does them
+    private static void renameWhileCompacting(Path dir, int round, boolean delete) throws Exception {
+        File file = dir.resolve("tasks_test_Old" + round + delete + ".txt").toFile();
+        File renamed = dir.resolve("tasks_test_New" + round + delete + ".txt").toFile();
+        writeTasks(file, 50_000);
+        TodoTaskPersistence persistence = new TodoTaskPersistence(file, null);
+        List<TodoTask> tasks = persistence.load().get();
+        for (TodoTask task : tasks) {
+            task.setCompleted(true);
+            persistence.put(task);
+        }
+        persistence.close();
+        TodoTaskPersistence.run(() -> {
+            try {
+                if (delete) {
+                    TodoTaskJournal.delete(file);
+                } else {
+                    TodoTaskJournal.rename(file, renamed);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }).get();
+        // Whatever compaction is left finishes behind the rename, and must not write the old name again
+        new TodoTaskPersistence(dir.resolve("tasks_test_Other.txt").toFile(), null).load().get();
+
+        boolean ghost = TodoTaskJournal.files(file).stream().anyMatch(File::exists);
+        check(!ghost, (delete ? "delete" : "rename") + " during compaction leaves nothing under the old name");
+        if (!delete) {
+            List<TodoTask> moved = new TodoTaskPersistence(renamed, null).load().get();
+            check(moved.size() == tasks.size() && moved.stream().allMatch(TodoTask::isCompleted),
+                "the renamed category has every edit");
+        }
+    }
+
+    private static void writeTasks(File file, int count) throws IOException {
+        try (PrintWriter writer = new PrintWriter(file)) {
+            for (int i = 0; i < count; i++) {
+                writer.println(new TodoTask("task " + i, null, null, TodoTask.Priority.LOW, null).toFileString());
+            }
+        }
+    }
+
+    private static Map<String, String> lines(List<TodoTask> tasks) {
+        Map<String, String> lines = new HashMap<>();
+        for (TodoTask task : new ArrayList<>(tasks)) {
+            lines.put(task.getId(), task.toFileString());
+        }
+        return lines;
+    }
+
+    private static void check(boolean passed, String what) {
+        System.out.println((passed ? "ok    " : "FAIL  ") + what);
+        if (!passed) failures++;
+    }
+}
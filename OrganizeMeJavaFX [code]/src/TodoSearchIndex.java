@@ -0,0 +1,756 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+
+// Full-text search over the titles of every task the logged-in user has, in all categories: an
+// inverted index from each word to the tasks containing it. A query word matches a title word
+// exactly, as a prefix, or one typo away (for words of MIN_FUZZY_LENGTH or more); every query
+// word has to match, and results are ranked by how well and how rare the matched words are.
+//
+// It is kept up to date by TodoTaskPersistence, on its thread, with each batch it writes, and
+// saved to search_<user>.idx with the size and modification time of every category's files.
+// Opening it only reads the categories whose files changed since then.
+//
+// Updates and saves run on the persistence thread; search() runs on the FX thread and gives up
+// rather than wait if an update holds the lock.
+class TodoSearchIndex {
+    static final int FILE_VERSION = 1;
+    private static final int MIN_FUZZY_LENGTH = 4;
+    private static final int MIN_PREFIX_LENGTH = 2;
+    private static final int MAX_PREFIX_TERMS = 256;
+    private static final long SAVE_DELAY_MS = 5000;
+    private static final double EXACT = 1.0;
+    private static final double PREFIX = 0.6;
+    private static final double FUZZY = 0.4;
+
+    record Hit(String category, String taskId, String title, double score) {}
+
+    // Opening reads every changed category, which takes a while for a big account, so it has its
+    // own thread; updates that arrive meanwhile wait in 'backlog' and are applied before it is used
+    private static final ExecutorService opener = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "todo-search-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Object lifecycle = new Object();
+    // Guarded by 'lifecycle'. 'current' is the logged-in user's index once it has been opened.
+    private static TodoSearchIndex current;
+    private static TodoSearchIndex opening;
+    private static final List<Consumer<TodoSearchIndex>> backlog = new ArrayList<>();
+
+    private final String username;
+    private final File indexFile;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // One slot per task; slots of deleted tasks are reused
+    private String[] slotCategory = new String[1024];
+    private String[] slotTaskId = new String[1024];
+    private String[] slotTitle = new String[1024];
+    private int slots = 0;
+    private int[] freeSlots = new int[64];
+    private int freeCount = 0;
+    private final Map<String, Integer> slotByKey = new HashMap<>();
+    // Sorted, so a prefix is a range of keys
+    private final TreeMap<String, Postings> terms = new TreeMap<>();
+
+    // Persistence thread only, once the index is open
+    private Map<String, Long> stamps = new HashMap<>();
+    private boolean saveScheduled = false;
+
+    // Per-query scratch, by slot; 'seen' holds the generation of the query word that last counted
+    private double[] scores = new double[0];
+    private int[] matched = new int[0];
+    private int[] seen = new int[0];
+    private int generation = 0;
+
+    private TodoSearchIndex(String username) {
+        this.username = username;
+        this.indexFile = new File("search_" + username + ".idx");
+    }
+
+    // ---- lifecycle (any thread) ----
+
+    public static void open(String username) {
+        opener.execute(() -> {
+            TodoSearchIndex index = new TodoSearchIndex(username);
+            TodoSearchIndex previous;
+            synchronized (lifecycle) {
+                if (current != null && current.username.equals(username)) {
+                    return;
+                }
+                previous = current;
+                current = null;
+                opening = index;
+            }
+            if (previous != null) {
+                TodoTaskPersistence.run(previous::save);
+            }
+            boolean changed = false;
+            try {
+                changed = index.loadAndSync();
+                synchronized (lifecycle) {
+                    for (Consumer<TodoSearchIndex> update : backlog) {
+                        changed = true;
+                        update.accept(index);
+                    }
+                    current = index;
+                }
+            } finally {
+                // If opening failed, search stays off until the next login rather than every
+                // later update waiting in the backlog for an index that never comes
+                synchronized (lifecycle) {
+                    backlog.clear();
+                    opening = null;
+                }
+            }
+            if (changed) {
+                TodoTaskPersistence.run(index::scheduleSave);
+            }
+        });
+    }
+
+    public static void close() {
+        opener.execute(() -> TodoTaskPersistence.run(TodoSearchIndex::closeNow));
+    }
+
+    // Persistence thread
+    static void closeNow() {
+        TodoSearchIndex index;
+        synchronized (lifecycle) {
+            index = current;
+            current = null;
+        }
+        if (index != null) {
+            index.save();
+        }
+    }
+
+    // The index for this user, or null while it is still being opened
+    public static TodoSearchIndex get(String username) {
+        synchronized (lifecycle) {
+            return current != null && current.username.equals(username) ? current : null;
+        }
+    }
+
+    // ---- updates from TodoTaskPersistence (persistence thread) ----
+
+    // A category was read in full; whatever the index had for it is replaced
+    static void loaded(File file, List<TodoTask> tasks) {
+        update(index -> {
+            String category = index.categoryOf(file);
+            if (category == null) {
+                return;
+            }
+            index.removeCategory(category);
+            for (TodoTask task : tasks) {
+                index.put(category, task.getId(), task.getTitle());
+            }
+        });
+    }
+
+    // The same changes just written to the category's journal: each task's new line, null if deleted
+    static void changed(File file, Map<String, String> lines, boolean clear) {
+        update(index -> {
+            String category = index.categoryOf(file);
+            if (category == null) {
+                return;
+            }
+            if (clear) {
+                index.removeCategory(category);
+            }
+            for (Map.Entry<String, String> change : lines.entrySet()) {
+                if (change.getValue() == null) {
+                    Integer slot = index.slotByKey.get(key(category, change.getKey()));
+                    if (slot != null) {
+                        index.remove(slot);
+                    }
+                } else {
+                    TodoTask task = TodoTask.fromFileString(change.getValue());
+                    if (task != null) {
+                        index.put(category, change.getKey(), task.getTitle());
+                    }
+                }
+            }
+        });
+    }
+
+    static void renamed(File from, File to) {
+        update(index -> {
+            String oldCategory = index.categoryOf(from);
+            String newCategory = index.categoryOf(to);
+            if (oldCategory == null || newCategory == null) {
+                return;
+            }
+            for (int slot = 0; slot < index.slots; slot++) {
+                if (oldCategory.equals(index.slotCategory[slot])) {
+                    index.slotByKey.remove(key(oldCategory, index.slotTaskId[slot]));
+                    index.slotCategory[slot] = newCategory;
+                    index.slotByKey.put(key(newCategory, index.slotTaskId[slot]), slot);
+                }
+            }
+        });
+    }
+
+    static void removed(File file) {
+        update(index -> {
+            String category = index.categoryOf(file);
+            if (category != null) {
+                index.removeCategory(category);
+            }
+        });
+    }
+
+    // Runs the update under the index's lock, or leaves it for the index being opened
+    private static void update(Consumer<TodoSearchIndex> update) {
+        TodoSearchIndex index;
+        synchronized (lifecycle) {
+            if (opening != null) {
+                backlog.add(locked(update));
+                return;
+            }
+            index = current;
+        }
+        if (index != null) {
+            locked(update).accept(index);
+            index.scheduleSave();
+        }
+    }
+
+    private static Consumer<TodoSearchIndex> locked(Consumer<TodoSearchIndex> update) {
+        return index -> {
+            index.lock.lock();
+            try {
+                update.accept(index);
+            } finally {
+                index.lock.unlock();
+            }
+        };
+    }
+
+    // ---- searching (FX thread) ----
+
+    // The best 'limit' tasks matching every word of the query, outside 'excludeCategory' if it is
+    // given; null if the index is busy with an update, so the caller can try again shortly
+    public List<Hit> search(String query, int limit, String excludeCategory) {
+        List<String> words = tokens(query);
+        if (words.isEmpty() || !lock.tryLock()) {
+            return words.isEmpty() ? List.of() : null;
+        }
+        try {
+            if (scores.length < slots) {
+                scores = new double[slotCategory.length];
+                matched = new int[slotCategory.length];
+                seen = new int[slotCategory.length];
+            }
+            if (generation > Integer.MAX_VALUE - 64) {
+                Arrays.fill(seen, 0);
+                generation = 0;
+            }
+            int first = generation + 1;
+            List<Integer> complete = new ArrayList<>();
+            for (int w = 0; w < words.size(); w++) {
+                String word = words.get(w);
+                int wordGeneration = first + w;
+                boolean last = w == words.size() - 1;
+                // A single letter would match a large part of the index, so it only matches itself
+                NavigableMap<String, Postings> range = word.length() >= MIN_PREFIX_LENGTH
+                    ? terms.subMap(word, true, word + Character.MAX_VALUE, false)
+                    : terms.subMap(word, true, word, true);
+                int expanded = 0;
+                for (Map.Entry<String, Postings> term : range.entrySet()) {
+                    if (expanded++ >= MAX_PREFIX_TERMS) {
+                        break;
+                    }
+                    double weight = term.getKey().equals(word) ? EXACT : PREFIX;
+                    count(term.getValue(), weight, w, first, wordGeneration, last, complete);
+                }
+                if (word.length() >= MIN_FUZZY_LENGTH) {
+                    // A typo in the first letter is rare; only words starting with it are compared
+                    String from = word.substring(0, 1);
+                    for (Map.Entry<String, Postings> term : terms.subMap(from, true, from + Character.MAX_VALUE, false).entrySet()) {
+                        String candidate = term.getKey();
+                        if (Math.abs(candidate.length() - word.length()) <= 1 && !candidate.startsWith(word)
+                                && oneEditApart(word, candidate)) {
+                            count(term.getValue(), FUZZY, w, first, wordGeneration, last, complete);
+                        }
+                    }
+                }
+            }
+            generation = first + words.size();
+
+            PriorityQueue<Hit> best = new PriorityQueue<>(RANKING.reversed());
+            for (int slot : complete) {
+                if (excludeCategory != null && excludeCategory.equals(slotCategory[slot])) {
+                    continue;
+                }
+                best.add(new Hit(slotCategory[slot], slotTaskId[slot], slotTitle[slot], scores[slot]));
+                if (best.size() > limit) {
+                    best.poll();
+                }
+            }
+            List<Hit> hits = new ArrayList<>(best);
+            hits.sort(RANKING);
+            return hits;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Best score first, then shorter titles
+    private static final Comparator<Hit> RANKING = Comparator.comparingDouble(Hit::score).reversed()
+        .thenComparingInt(hit -> hit.title().length())
+        .thenComparing(Hit::title);
+
+    // Credits each task of the term to query word 'w', once per word (the best kind of match comes
+    // first) and only if it matched every word before
+    private void count(Postings postings, double weight, int w, int first, int wordGeneration, boolean last,
+                       List<Integer> complete) {
+        double score = weight * Math.log(1 + (double) slotByKey.size() / postings.size);
+        for (int i = 0; i < postings.size; i++) {
+            int slot = postings.slots[i];
+            if (seen[slot] == wordGeneration) {
+                continue;
+            }
+            if (w == 0) {
+                matched[slot] = 0;
+                scores[slot] = 0;
+            } else if (seen[slot] < first || matched[slot] != w) {
+                continue;
+            }
+            seen[slot] = wordGeneration;
+            matched[slot]++;
+            scores[slot] += score;
+            if (last) {
+                complete.add(slot);
+            }
+        }
+    }
+
+    // Levenshtein distance of exactly one, or two neighbouring letters swapped
+    static boolean oneEditApart(String a, String b) {
+        if (a.length() > b.length()) {
+            String t = a;
+            a = b;
+            b = t;
+        }
+        int i = 0;
+        while (i < a.length() && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        if (i == a.length()) {
+            return b.length() == a.length() + 1;
+        }
+        if (a.length() == b.length()) {
+            if (a.regionMatches(i + 1, b, i + 1, a.length() - i - 1)) {
+                return true; // substitution
+            }
+            return i + 1 < a.length() && a.charAt(i) == b.charAt(i + 1) && a.charAt(i + 1) == b.charAt(i)
+                && a.regionMatches(i + 2, b, i + 2, a.length() - i - 2);
+        }
+        return a.regionMatches(i, b, i + 1, a.length() - i); // insertion
+    }
+
+    // Lowercase runs of letters and digits, each once
+    static List<String> tokens(String text) {
+        Set<String> words = new LinkedHashSet<>();
+        if (text == null) {
+            return new ArrayList<>(words);
+        }
+        String lower = text.toLowerCase();
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean wordChar = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+        return new ArrayList<>(words);
+    }
+
+    // ---- the index itself (lock held) ----
+
+    private void put(String category, String taskId, String title) {
+        if (title == null) {
+            title = "";
+        }
+        String key = key(category, taskId);
+        Integer existing = slotByKey.get(key);
+        if (existing != null) {
+            if (title.equals(slotTitle[existing])) {
+                return;
+            }
+            remove(existing);
+        }
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (slots == slotCategory.length) {
+                int capacity = slots * 2;
+                slotCategory = Arrays.copyOf(slotCategory, capacity);
+                slotTaskId = Arrays.copyOf(slotTaskId, capacity);
+                slotTitle = Arrays.copyOf(slotTitle, capacity);
+            }
+            slot = slots++;
+        }
+        slotCategory[slot] = category;
+        slotTaskId[slot] = taskId;
+        slotTitle[slot] = title;
+        slotByKey.put(key, slot);
+        for (String word : tokens(title)) {
+            terms.computeIfAbsent(word, w -> new Postings()).add(slot);
+        }
+    }
+
+    private void remove(int slot) {
+        for (String word : tokens(slotTitle[slot])) {
+            Postings postings = terms.get(word);
+            if (postings != null && postings.remove(slot) && postings.size == 0) {
+                terms.remove(word);
+            }
+        }
+        slotByKey.remove(key(slotCategory[slot], slotTaskId[slot]));
+        slotCategory[slot] = null;
+        slotTaskId[slot] = null;
+        slotTitle[slot] = null;
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    private void removeCategory(String category) {
+        for (int slot = 0; slot < slots; slot++) {
+            if (category.equals(slotCategory[slot])) {
+                remove(slot);
+            }
+        }
+    }
+
+    private static String key(String category, String taskId) {
+        return category + '\n' + taskId;
+    }
+
+    // Slots of the tasks containing a word, in no particular order
+    private static final class Postings {
+        int[] slots = new int[4];
+        int size = 0;
+
+        void add(int slot) {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            slots[size++] = slot;
+        }
+
+        boolean remove(int slot) {
+            for (int i = 0; i < size; i++) {
+                if (slots[i] == slot) {
+                    slots[i] = slots[--size];
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    // ---- category files ----
+
+    // The category of one of this user's task files, null for anything else
+    private String categoryOf(File file) {
+        String prefix = "tasks_" + username + "_";
+        String name = file.getName();
+        if (!name.startsWith(prefix) || !name.endsWith(".txt")) {
+            return null;
+        }
+        return name.substring(prefix.length(), name.length() - ".txt".length());
+    }
+
+    // Categories with a snapshot or only a journal (a task moved to a category never opened)
+    private List<String> categoriesOnDisk() {
+        Set<String> categories = new LinkedHashSet<>();
+        String[] names = new File(".").list();
+        for (String name : names != null ? names : new String[0]) {
+            int suffix = name.indexOf(".txt");
+            if (suffix > 0) {
+                String category = categoryOf(new File(name.substring(0, suffix + ".txt".length())));
+                if (category != null) {
+                    categories.add(category);
+                }
+            }
+        }
+        return new ArrayList<>(categories);
+    }
+
+    private File snapshotFile(String category) {
+        return new File("tasks_" + username + "_" + category + ".txt");
+    }
+
+    // Changes whenever any of the category's files is written, renamed or removed
+    private long stamp(String category) {
+        long stamp = 17;
+        for (File file : TodoTaskJournal.files(snapshotFile(category))) {
+            stamp = stamp * 31 + file.length();
+            stamp = stamp * 31 + file.lastModified();
+        }
+        return stamp;
+    }
+
+    // ---- saving and loading (persistence thread) ----
+
+    private void scheduleSave() {
+        if (!saveScheduled) {
+            saveScheduled = true;
+            TodoTaskPersistence.runAfter(this::save, SAVE_DELAY_MS);
+        }
+    }
+
+    // Returns true if the index changed from what was saved
+    private boolean loadAndSync() {
+        long start = System.nanoTime();
+        boolean fromFile = false;
+        if (indexFile.exists()) {
+            try {
+                readFile();
+                fromFile = true;
+            } catch (IOException | RuntimeException e) {
+                // A damaged file can fail in any way while it is read; whatever it is, start over
+                System.err.println("Rebuilding search index, could not read " + indexFile.getName() + ": " + e.getMessage());
+                lock.lock();
+                try {
+                    clearAll();
+                } finally {
+                    lock.unlock();
+                }
+                stamps = new HashMap<>();
+            }
+        }
+
+        int reread = 0;
+        List<String> onDisk = categoriesOnDisk();
+        Map<String, Long> diskStamps = new HashMap<>();
+        for (String category : onDisk) {
+            long stamp = stamp(category);
+            diskStamps.put(category, stamp);
+            Long indexed = stamps.get(category);
+            if (indexed == null || indexed != stamp) {
+                try {
+                    List<TodoTask> tasks = TodoTaskJournal.read(snapshotFile(category));
+                    reread++;
+                    lock.lock();
+                    try {
+                        removeCategory(category);
+                        for (TodoTask task : tasks) {
+                            put(category, task.getId(), task.getTitle());
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                } catch (IOException e) {
+                    System.err.println("Search index could not read category " + category + ": " + e.getMessage());
+                    diskStamps.remove(category);
+                }
+            }
+        }
+        lock.lock();
+        try {
+            for (String category : stamps.keySet()) {
+                if (!diskStamps.containsKey(category)) {
+                    removeCategory(category);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        stamps = diskStamps;
+        System.out.println("Search index for " + username + ": " + slotByKey.size() + " tasks in " + onDisk.size()
+            + " categories, " + reread + " categories re-read, in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        return reread > 0 || !fromFile;
+    }
+
+    private void clearAll() {
+        Arrays.fill(slotCategory, null);
+        Arrays.fill(slotTaskId, null);
+        Arrays.fill(slotTitle, null);
+        slots = 0;
+        freeCount = 0;
+        slotByKey.clear();
+        terms.clear();
+    }
+
+    // Written from a copy taken under the lock, so searches only wait for the copy
+    private void save() {
+        saveScheduled = false;
+        long start = System.nanoTime();
+        String[] categories;
+        String[] taskIds;
+        String[] titles;
+        List<String> words = new ArrayList<>();
+        List<int[]> postings = new ArrayList<>();
+        int count;
+        lock.lock();
+        try {
+            count = slots;
+            categories = Arrays.copyOf(slotCategory, count);
+            taskIds = Arrays.copyOf(slotTaskId, count);
+            titles = Arrays.copyOf(slotTitle, count);
+            for (Map.Entry<String, Postings> term : terms.entrySet()) {
+                words.add(term.getKey());
+                postings.add(Arrays.copyOf(term.getValue().slots, term.getValue().size));
+            }
+        } finally {
+            lock.unlock();
+        }
+        // What the files look like now that the index has caught up with them
+        Map<String, Long> diskStamps = new HashMap<>();
+        for (String category : categoriesOnDisk()) {
+            diskStamps.put(category, stamp(category));
+        }
+        stamps = diskStamps;
+
+        File tmp = new File(indexFile.getPath() + ".tmp");
+        try {
+            try (FileOutputStream file = new FileOutputStream(tmp);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+                out.writeInt(FILE_VERSION);
+                out.writeInt(diskStamps.size());
+                for (Map.Entry<String, Long> stamp : diskStamps.entrySet()) {
+                    writeString(out, stamp.getKey());
+                    out.writeLong(stamp.getValue());
+                }
+                out.writeInt(count);
+                for (int slot = 0; slot < count; slot++) {
+                    out.writeBoolean(categories[slot] != null);
+                    if (categories[slot] != null) {
+                        writeString(out, categories[slot]);
+                        writeString(out, taskIds[slot]);
+                        writeString(out, titles[slot]);
+                    }
+                }
+                out.writeInt(words.size());
+                for (int i = 0; i < words.size(); i++) {
+                    writeString(out, words.get(i));
+                    int[] slotsOfWord = postings.get(i);
+                    out.writeInt(slotsOfWord.length);
+                    for (int slot : slotsOfWord) {
+                        out.writeInt(slot);
+                    }
+                }
+                out.flush();
+                file.getFD().sync();
+            }
+            Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+            System.out.println("Search index saved: " + (count - freeCount) + " tasks, " + words.size() + " words in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } catch (IOException e) {
+            System.err.println("Error saving search index " + indexFile.getName() + ": " + e.getMessage());
+        }
+    }
+
+    // Every count and slot is checked before it is used, so a damaged file fails here with an
+    // IOException instead of allocating whatever it says or indexing out of bounds later
+    private void readFile() throws IOException {
+        long fileSize = Files.size(indexFile.toPath());
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile.toPath()), 1 << 16))) {
+            int version = in.readInt();
+            if (version != FILE_VERSION) {
+                throw new IOException("Unsupported search index version " + version);
+            }
+            Map<String, Long> readStamps = new HashMap<>();
+            for (int i = readCount(in, fileSize, "category"); i > 0; i--) {
+                readStamps.put(readString(in, fileSize), in.readLong());
+            }
+            lock.lock();
+            try {
+                clearAll();
+                int count = readCount(in, fileSize, "slot");
+                int capacity = Math.max(1024, Integer.highestOneBit(Math.max(1, count)) * 2);
+                slotCategory = new String[capacity];
+                slotTaskId = new String[capacity];
+                slotTitle = new String[capacity];
+                // Categories repeat; keep one copy of each name
+                Map<String, String> names = new HashMap<>();
+                for (int slot = 0; slot < count; slot++) {
+                    if (in.readBoolean()) {
+                        String category = names.computeIfAbsent(readString(in, fileSize), name -> name);
+                        slotCategory[slot] = category;
+                        slotTaskId[slot] = readString(in, fileSize);
+                        slotTitle[slot] = readString(in, fileSize);
+                        slotByKey.put(key(category, slotTaskId[slot]), slot);
+                    } else {
+                        if (freeCount == freeSlots.length) {
+                            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+                        }
+                        freeSlots[freeCount++] = slot;
+                    }
+                }
+                slots = count;
+                for (int i = readCount(in, fileSize, "word"); i > 0; i--) {
+                    String word = readString(in, fileSize);
+                    Postings postings = new Postings();
+                    postings.size = readCount(in, fileSize / 4, "posting");
+                    postings.slots = new int[Math.max(4, postings.size)];
+                    for (int j = 0; j < postings.size; j++) {
+                        int slot = in.readInt();
+                        if (slot < 0 || slot >= count || slotCategory[slot] == null) {
+                            throw new IOException("Search index lists a missing task slot " + slot + " for " + word);
+                        }
+                        postings.slots[j] = slot;
+                    }
+                    terms.put(word, postings);
+                }
+            } finally {
+                lock.unlock();
+            }
+            stamps = readStamps;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // A count can't be more than the file has room for
+    private static int readCount(DataInputStream in, long max, String what) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > max) {
+            throw new IOException("Search index has an invalid " + what + " count " + count);
+        }
+        return count;
+    }
+
+    private static String readString(DataInputStream in, long fileSize) throws IOException {
+        byte[] bytes = new byte[readCount(in, fileSize, "string length")];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
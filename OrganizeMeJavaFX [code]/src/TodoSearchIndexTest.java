@@ -0,0 +1,188 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+
+// Times TodoSearchIndex over N generated tasks and checks that a damaged index file is rebuilt.
+// Writes tasks_searchtest_*.txt into the working directory (the index reads categories from
+// there, like the app), opens the index, times queries, saves and reopens it from the file, then
+// truncates or overwrites parts of the file and checks that each time the index still opens and
+// finds the same tasks. The files are deleted afterwards.
+//
+// Usage: TodoSearchIndexTest [--tasks=N] [--categories=N]
+// The exit code is 1 if any check fails.
+public class TodoSearchIndexTest {
+    private static final String USER = "searchtest";
+    private static final String[] QUERIES = { "review", "rev", "re", "reveiw", "dentist report", "groc",
+        "grocerise", "review report dentist" };
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        int taskCount = Integer.parseInt(ProjectServer.option(args, "tasks", "1000000"));
+        int categories = Integer.parseInt(ProjectServer.option(args, "categories", "20"));
+        File indexFile = new File("search_" + USER + ".idx");
+        try {
+            writeCategories(taskCount, categories);
+
+            long start = System.nanoTime();
+            TodoSearchIndex index = open();
+            System.out.printf("open, building from %d tasks: %.0f ms%n", taskCount, (System.nanoTime() - start) / 1e6);
+            String expected = timeQueries(index);
+            check(!expected.isEmpty(), "queries find tasks");
+            close();
+            System.out.printf("index file: %d MB%n", indexFile.length() >> 20);
+
+            start = System.nanoTime();
+            index = open();
+            System.out.printf("open from the file: %.0f ms%n", (System.nanoTime() - start) / 1e6);
+            check(results(index).equals(expected), "the saved index finds the same tasks");
+            close();
+
+            byte[] saved = Files.readAllBytes(indexFile.toPath());
+            damaged(indexFile, saved, expected, "truncated to 10 bytes", file -> file.setLength(10));
+            damaged(indexFile, saved, expected, "truncated to half", file -> file.setLength(saved.length / 2));
+            damaged(indexFile, saved, expected, "category count negative", file -> writeInt(file, 4, -1));
+            damaged(indexFile, saved, expected, "slot count huge",
+                file -> writeInt(file, slotCountOffset(saved), Integer.MAX_VALUE));
+            Random random = new Random(7);
+            for (int i = 0; i < 5; i++) {
+                long offset = random.nextInt(saved.length - 4);
+                int value = random.nextBoolean() ? -random.nextInt(1 << 20) : 1 << 30;
+                damaged(indexFile, saved, null, "int " + value + " at byte " + offset, file -> writeInt(file, offset, value));
+            }
+        } finally {
+            File[] files = new File(".").listFiles((dir, name) -> name.startsWith("tasks_" + USER + "_")
+                || name.startsWith("search_" + USER + "."));
+            for (File file : files != null ? files : new File[0]) {
+                file.delete();
+            }
+        }
+        System.out.println(failures == 0 ? "OK" : failures + " check(s) failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private interface Damage {
+        void apply(RandomAccessFile file) throws IOException;
+    }
+
+    // Damage that is always caught must give the same results as before. Random damage may land in
+    // a title and read fine, so then the index only has to open.
+    private static void damaged(File indexFile, byte[] saved, String expected, String what, Damage damage)
+            throws Exception {
+        Files.write(indexFile.toPath(), saved);
+        try (RandomAccessFile file = new RandomAccessFile(indexFile, "rw")) {
+            damage.apply(file);
+        }
+        TodoSearchIndex index = open();
+        check(index != null, "index file " + what + ": the index opens");
+        if (index != null && expected != null) {
+            check(results(index).equals(expected), "index file " + what + ": the rebuilt index finds the same tasks");
+        }
+        close();
+    }
+
+    private static TodoSearchIndex open() throws InterruptedException {
+        TodoSearchIndex.open(USER);
+        for (int attempt = 0; attempt < 1200; attempt++) {
+            TodoSearchIndex index = TodoSearchIndex.get(USER);
+            if (index != null) {
+                return index;
+            }
+            Thread.sleep(50);
+        }
+        return null;
+    }
+
+    private static void close() throws Exception {
+        TodoTaskPersistence.run(TodoSearchIndex::closeNow).get();
+    }
+
+    private static String timeQueries(TodoSearchIndex index) {
+        for (int warm = 0; warm < 20; warm++) {
+            results(index);
+        }
+        for (String query : QUERIES) {
+            long[] samples = new long[21];
+            for (int i = 0; i < samples.length; i++) {
+                long start = System.nanoTime();
+                index.search(query, 8, null);
+                samples[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(samples);
+            System.out.printf("  %-24s p50 %6.2f ms  max %6.2f ms%n", "\"" + query + "\"",
+                samples[samples.length / 2] / 1e6, samples[samples.length - 1] / 1e6);
+        }
+        return results(index);
+    }
+
+    private static String results(TodoSearchIndex index) {
+        StringBuilder results = new StringBuilder();
+        for (String query : QUERIES) {
+            List<TodoSearchIndex.Hit> hits = index.search(query, 8, null);
+            for (TodoSearchIndex.Hit hit : hits != null ? hits : List.<TodoSearchIndex.Hit>of()) {
+                results.append(hit.category()).append('/').append(hit.taskId()).append(' ');
+            }
+            results.append('\n');
+        }
+        return results.toString().trim();
+    }
+
+    // Titles of two to five words from a vocabulary where a few words are common and most are rare
+    private static void writeCategories(int taskCount, int categories) throws IOException {
+        Random random = new Random(3);
+        String[] vocabulary = new String[5000];
+        for (int i = 0; i < vocabulary.length; i++) {
+            StringBuilder word = new StringBuilder();
+            for (int length = 3 + random.nextInt(7); length > 0; length--) {
+                word.append((char) ('a' + random.nextInt(26)));
+            }
+            vocabulary[i] = word.toString();
+        }
+        vocabulary[0] = "review";
+        vocabulary[1] = "report";
+        vocabulary[2] = "dentist";
+        vocabulary[3] = "groceries";
+        for (int category = 0; category < categories; category++) {
+            try (PrintWriter writer = new PrintWriter(new BufferedWriter(
+                    new FileWriter("tasks_" + USER + "_cat" + category + ".txt")))) {
+                for (int i = 0; i < taskCount / categories; i++) {
+                    StringBuilder title = new StringBuilder();
+                    for (int words = 2 + random.nextInt(4); words > 0; words--) {
+                        int rank = (int) Math.min(vocabulary.length - 1, Math.abs(random.nextGaussian()) * 600);
+                        title.append(title.length() > 0 ? " " : "").append(vocabulary[rank]);
+                    }
+                    writer.println(new TodoTask(title.toString(), null, null, null, null).toFileString());
+                }
+            }
+        }
+    }
+
+    // After the version, the category count and each category's name and stamp
+    private static long slotCountOffset(byte[] saved) {
+        ByteBuffer buffer = ByteBuffer.wrap(saved);
+        buffer.getInt();
+        for (int i = buffer.getInt(); i > 0; i--) {
+            int nameLength = buffer.getInt();
+            buffer.position(buffer.position() + nameLength + 8);
+        }
+        return buffer.position();
+    }
+
+    private static void writeInt(RandomAccessFile file, long offset, int value) throws IOException {
+        file.seek(offset);
+        file.writeInt(value);
+    }
+
+    private static void check(boolean passed, String what) {
+        System.out.println((passed ? "ok    " : "FAIL  ") + what);
+        if (!passed) failures++;
+    }
+}
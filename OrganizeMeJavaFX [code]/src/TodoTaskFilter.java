@@ -0,0 +1,296 @@
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+
+
+// The search, status and priority filters behind todoController.applyFilters, kept as an index so
+// a keystroke doesn't lowercase, test and sort every task again. Each task's title is lowercased
+// once; completed tasks and each priority are a bitset over the task positions; the tasks in the
+// current sort order are kept until something they are sorted by changes. A query that contains
+// the previous one only looks at what the previous one matched.
+//
+// Edits are picked up without being reported: each call compares the list and every task's indexed
+// fields by reference and redoes the entries that changed. Tasks removed from anywhere and tasks
+// added at the end, which is how todoController changes the list, are patched in; anything else
+// (a reorder, an insert in the middle, a different category) rebuilds everything. FX thread only,
+// like the tasks.
+class TodoTaskFilter {
+    private static final TodoTask.Priority[] PRIORITIES = TodoTask.Priority.values();
+
+    private TodoTask[] tasks = new TodoTask[0];
+    // What each entry was indexed from, to notice edits
+    private String[] titles = new String[0];
+    private LocalDate[] dueDates = new LocalDate[0];
+    private String[] lowerTitles = new String[0];
+    private final BitSet completed = new BitSet();
+    private final BitSet[] byPriority = new BitSet[PRIORITIES.length];
+
+    // Positions in sort order, for sortKey; null once an edit may have moved something
+    private int[] order;
+    private String sortKey;
+    private Comparator<TodoTask> sortComparator;
+
+    // Positions whose title contains lastQuery
+    private String lastQuery;
+    private BitSet lastMatches;
+
+    public TodoTaskFilter() {
+        for (int i = 0; i < byPriority.length; i++) {
+            byPriority[i] = new BitSet();
+        }
+    }
+
+    // 'status' is one of the status filter's values, null or "All" for any; 'priority' null for any.
+    // 'sortBy' names 'comparator', whose order is reused for as long as the name stays the same.
+    public List<TodoTask> filter(List<TodoTask> all, String query, String status, TodoTask.Priority priority,
+                                 boolean overdueOnly, String sortBy, Comparator<TodoTask> comparator) {
+        sync(all);
+
+        BitSet selected = matches(query);
+        if ("Completed".equals(status)) {
+            selected.and(completed);
+        } else if ("Pending".equals(status)) {
+            selected.andNot(completed);
+        }
+        if (priority != null) {
+            selected.and(byPriority[priority.ordinal()]);
+        }
+        if ("Overdue".equals(status) || overdueOnly) {
+            // Depends on the clock, so it is worked out for the candidates left, with one reading of it
+            LocalDate today = LocalDate.now();
+            LocalTime now = LocalTime.now();
+            for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+                if (!tasks[i].isOverdue(today, now)) {
+                    selected.clear(i);
+                }
+            }
+        }
+
+        if (order == null || !sortBy.equals(sortKey)) {
+            order = sortedOrder(comparator);
+            sortKey = sortBy;
+            sortComparator = comparator;
+        }
+        List<TodoTask> result = new ArrayList<>(selected.cardinality());
+        for (int position : order) {
+            if (selected.get(position)) {
+                result.add(tasks[position]);
+            }
+        }
+        return result;
+    }
+
+    // Positions whose title contains the (already lowercased) query
+    private BitSet matches(String query) {
+        BitSet result;
+        if (query.isEmpty()) {
+            result = new BitSet(tasks.length);
+            result.set(0, tasks.length);
+        } else if (lastQuery != null && query.contains(lastQuery)) {
+            result = (BitSet) lastMatches.clone();
+            for (int i = result.nextSetBit(0); i >= 0; i = result.nextSetBit(i + 1)) {
+                if (!lowerTitles[i].contains(query)) {
+                    result.clear(i);
+                }
+            }
+        } else {
+            result = new BitSet(tasks.length);
+            for (int i = 0; i < tasks.length; i++) {
+                if (lowerTitles[i].contains(query)) {
+                    result.set(i);
+                }
+            }
+        }
+        lastQuery = query;
+        lastMatches = (BitSet) result.clone();
+        return result;
+    }
+
+    private int[] sortedOrder(Comparator<TodoTask> comparator) {
+        return sortedOrder(comparator, 0, tasks.length);
+    }
+
+    // Positions [from, to) in sort order
+    private int[] sortedOrder(Comparator<TodoTask> comparator, int from, int to) {
+        // Stable, so ties keep list order as the stream sort did
+        Integer[] boxed = new Integer[to - from];
+        for (int i = 0; i < boxed.length; i++) {
+            boxed[i] = from + i;
+        }
+        Arrays.sort(boxed, (a, b) -> comparator.compare(tasks[a], tasks[b]));
+        int[] sorted = new int[boxed.length];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = boxed[i];
+        }
+        return sorted;
+    }
+
+    // ---- keeping up with edits ----
+
+    private void sync(List<TodoTask> all) {
+        boolean sameTasks = all.size() == tasks.length;
+        for (int i = 0; sameTasks && i < tasks.length; i++) {
+            sameTasks = all.get(i) == tasks[i];
+        }
+        if (!sameTasks && !patch(all)) {
+            rebuild(all);
+            return;
+        }
+        for (int i = 0; i < tasks.length; i++) {
+            TodoTask task = tasks[i];
+            if (task.getTitle() != titles[i]) {
+                titles[i] = task.getTitle();
+                lowerTitles[i] = lower(titles[i]);
+                order = null;
+                lastQuery = null;
+            }
+            if (task.isCompleted() != completed.get(i)) {
+                completed.set(i, task.isCompleted());
+                order = null;
+            }
+            if (!byPriority[task.getPriority().ordinal()].get(i)) {
+                for (BitSet set : byPriority) {
+                    set.clear(i);
+                }
+                byPriority[task.getPriority().ordinal()].set(i);
+                order = null;
+            }
+            if (task.getDueDate() != dueDates[i]) {
+                dueDates[i] = task.getDueDate();
+                order = null;
+            }
+        }
+    }
+
+    // Applies removals and additions at the end without lowercasing or sorting the tasks that
+    // stay. Returns false if 'all' isn't the indexed tasks in the same order, less some, plus a
+    // few new ones after them.
+    private boolean patch(List<TodoTask> all) {
+        int size = all.size();
+        int[] newPosition = new int[tasks.length];
+        int kept = 0;
+        for (int i = 0; i < tasks.length; i++) {
+            newPosition[i] = kept < size && all.get(kept) == tasks[i] ? kept++ : -1;
+        }
+        int added = size - kept;
+        // Many new tasks mean the list was replaced or reordered; indexing it afresh is cheaper
+        if (added > Math.max(64, kept / 8)) {
+            return false;
+        }
+
+        // Positions only move down, so the entries can be moved within the arrays
+        for (int i = 0; i < tasks.length; i++) {
+            int j = newPosition[i];
+            if (j >= 0 && j != i) {
+                tasks[j] = tasks[i];
+                titles[j] = titles[i];
+                dueDates[j] = dueDates[i];
+                lowerTitles[j] = lowerTitles[i];
+                completed.set(j, completed.get(i));
+                for (BitSet set : byPriority) {
+                    set.set(j, set.get(i));
+                }
+            }
+        }
+        completed.clear(kept, Math.max(kept, tasks.length));
+        for (BitSet set : byPriority) {
+            set.clear(kept, Math.max(kept, tasks.length));
+        }
+        tasks = Arrays.copyOf(tasks, size);
+        titles = Arrays.copyOf(titles, size);
+        dueDates = Arrays.copyOf(dueDates, size);
+        lowerTitles = Arrays.copyOf(lowerTitles, size);
+        for (int j = kept; j < size; j++) {
+            tasks[j] = all.get(j);
+            index(j);
+        }
+
+        if (order != null) {
+            int[] sorted = new int[size];
+            int count = 0;
+            for (int position : order) {
+                if (newPosition[position] >= 0) {
+                    sorted[count++] = newPosition[position];
+                }
+            }
+            order = added == 0 ? sorted : merge(sorted, count, kept, size);
+        }
+        if (lastMatches != null) {
+            BitSet matches = new BitSet(size);
+            for (int i = lastMatches.nextSetBit(0); i >= 0; i = lastMatches.nextSetBit(i + 1)) {
+                if (newPosition[i] >= 0) {
+                    matches.set(newPosition[i]);
+                }
+            }
+            for (int j = kept; j < size; j++) {
+                if (lowerTitles[j].contains(lastQuery)) {
+                    matches.set(j);
+                }
+            }
+            lastMatches = matches;
+        }
+        return true;
+    }
+
+    // Sorts the new positions [from, to) and merges them into the first 'count' of 'sorted'. They
+    // come after every other task in the list, so each goes after the ones it ties with, as in a
+    // stable sort; being few, each is placed by a binary search rather than a full merge.
+    private int[] merge(int[] sorted, int count, int from, int to) {
+        int[] merged = new int[to];
+        int a = 0;
+        int m = 0;
+        for (int position : sortedOrder(sortComparator, from, to)) {
+            int low = a;
+            int high = count;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (sortComparator.compare(tasks[sorted[middle]], tasks[position]) <= 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            System.arraycopy(sorted, a, merged, m, low - a);
+            m += low - a;
+            a = low;
+            merged[m++] = position;
+        }
+        System.arraycopy(sorted, a, merged, m, count - a);
+        return merged;
+    }
+
+    private void rebuild(List<TodoTask> all) {
+        int size = all.size();
+        tasks = all.toArray(new TodoTask[0]);
+        titles = new String[size];
+        dueDates = new LocalDate[size];
+        lowerTitles = new String[size];
+        completed.clear();
+        for (BitSet set : byPriority) {
+            set.clear();
+        }
+        for (int i = 0; i < size; i++) {
+            index(i);
+        }
+        order = null;
+        lastQuery = null;
+        lastMatches = null;
+    }
+
+    private void index(int i) {
+        TodoTask task = tasks[i];
+        titles[i] = task.getTitle();
+        dueDates[i] = task.getDueDate();
+        lowerTitles[i] = lower(titles[i]);
+        completed.set(i, task.isCompleted());
+        byPriority[task.getPriority().ordinal()].set(i);
+    }
+
+    private static String lower(String title) {
+        return title == null ? "" : title.toLowerCase();
+    }
+}
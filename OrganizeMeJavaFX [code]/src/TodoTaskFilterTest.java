@@ -0,0 +1,185 @@
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+
+// Checks TodoTaskFilter against the stream filter applyFilters used before it, and times both.
+// Random edits, removals (one task, or every completed one as "Clear completed" does) and adds
+// are made between random queries, filters and sorts; every result has to equal the old one.
+// Then it times typing a word, the Overdue filter, and the first filter after an edit, an add
+// and a removal, which are the ones that used to re-index everything.
+//
+// Usage: TodoTaskFilterTest [--tasks=N] [--rounds=N]
+// The exit code is 1 if any check fails.
+public class TodoTaskFilterTest {
+    private static final String[] WORDS = { "Buy", "milk", "Call", "mom", "Write", "report", "Fix", "bike",
+        "Plan", "trip", "Pay", "rent", "Review", "PR", "Book", "dentist" };
+    private static final String[] STATUSES = { "All", "Completed", "Pending", "Overdue" };
+    private static final String[] SORTS = { "Created Date", "Due Date", "Priority", "Title", "Status" };
+    private static final int REPEATS = 20;
+    private static int failures = 0;
+
+    public static void main(String[] args) {
+        int taskCount = Integer.parseInt(ProjectServer.option(args, "tasks", "100000"));
+        int rounds = Integer.parseInt(ProjectServer.option(args, "rounds", "300"));
+        Random random = new Random(7);
+        List<TodoTask> all = new ArrayList<>();
+        for (int i = 0; i < taskCount; i++) {
+            all.add(randomTask(random));
+        }
+        TodoTaskFilter filter = new TodoTaskFilter();
+
+        int mismatches = 0;
+        int checks = 0;
+        for (int round = 0; round < rounds; round++) {
+            edit(all, random, round);
+            String word = WORDS[random.nextInt(WORDS.length)].toLowerCase();
+            String status = STATUSES[random.nextInt(STATUSES.length)];
+            TodoTask.Priority priority = random.nextBoolean() ? null : TodoTask.Priority.values()[random.nextInt(3)];
+            boolean overdueOnly = random.nextInt(4) == 0;
+            String sortBy = SORTS[random.nextInt(SORTS.length)];
+            for (int k = 0; k <= word.length(); k++) {
+                String query = word.substring(0, k);
+                if (!streamFilter(all, query, status, priority, overdueOnly, sortBy)
+                        .equals(filter.filter(all, query, status, priority, overdueOnly, sortBy, comparator(sortBy)))) {
+                    mismatches++;
+                }
+                checks++;
+            }
+        }
+        check(mismatches == 0, "same results as the stream filter in " + checks + " checks (" + mismatches + " differ)");
+
+        System.out.printf("%d tasks, status Pending, typing \"review\" (ms per keystroke, mean of %d):%n", all.size(), REPEATS);
+        String word = "review";
+        for (int warm = 0; warm < REPEATS; warm++) {
+            for (int k = 0; k <= word.length(); k++) {
+                streamFilter(all, word.substring(0, k), "Pending", null, false, "Created Date");
+                filter.filter(all, word.substring(0, k), "Pending", null, false, "Created Date", comparator("Created Date"));
+            }
+        }
+        double worstKeystroke = 0;
+        for (int k = 1; k <= word.length(); k++) {
+            String query = word.substring(0, k);
+            filter.filter(all, query.substring(0, k - 1), "Pending", null, false, "Created Date", comparator("Created Date"));
+            double before = time(() -> streamFilter(all, query, "Pending", null, false, "Created Date"));
+            double after = 0;
+            for (int i = 0; i < REPEATS; i++) {
+                filter.filter(all, query.substring(0, k - 1), "Pending", null, false, "Created Date", comparator("Created Date"));
+                long start = System.nanoTime();
+                filter.filter(all, query, "Pending", null, false, "Created Date", comparator("Created Date"));
+                after += (System.nanoTime() - start) / 1e6 / REPEATS;
+            }
+            worstKeystroke = Math.max(worstKeystroke, after);
+            System.out.printf("  %-7s stream %6.2f  indexed %6.2f%n", query, before, after);
+        }
+        filter.filter(all, "", "Overdue", null, false, "Due Date", comparator("Due Date"));
+        System.out.printf("  Overdue by due date: stream %.2f  indexed %.2f%n",
+            time(() -> streamFilter(all, "", "Overdue", null, false, "Due Date")),
+            time(() -> filter.filter(all, "", "Overdue", null, false, "Due Date", comparator("Due Date"))));
+        check(worstKeystroke < 16, "every keystroke filters within a 60 Hz frame");
+
+        // The first filter after each kind of change, as applyFilters runs it after the change
+        double unchanged = afterChange(all, filter, () -> { });
+        double edited = afterChange(all, filter, () -> all.get(5).setCompleted(!all.get(5).isCompleted()));
+        double added = afterChange(all, filter, () -> all.add(randomTask(random)));
+        double removed = afterChange(all, filter, () -> all.remove(all.size() / 2));
+        double cleared = afterChange(all, filter, () -> all.removeIf(task -> task.isCompleted() && random.nextInt(50) == 0));
+        System.out.printf("  filter with no change %.2f; first filter after an edit %.2f, an add %.2f, a removal %.2f,"
+            + " removing some completed %.2f%n", unchanged, edited, added, removed, cleared);
+        check(added < 16 && removed < 16 && cleared < 16, "adds and removals filter within a frame");
+        check(streamFilter(all, "", "All", null, false, "Created Date")
+            .equals(filter.filter(all, "", "All", null, false, "Created Date", comparator("Created Date"))),
+            "the results after those changes are still right");
+
+        System.out.println(failures == 0 ? "OK" : failures + " check(s) failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // Mean ms of the first filter after 'change', over REPEATS changes
+    private static double afterChange(List<TodoTask> all, TodoTaskFilter filter, Runnable change) {
+        double total = 0;
+        for (int i = 0; i < REPEATS; i++) {
+            filter.filter(all, "", "All", null, false, "Created Date", comparator("Created Date"));
+            change.run();
+            long start = System.nanoTime();
+            filter.filter(all, "", "All", null, false, "Created Date", comparator("Created Date"));
+            total += (System.nanoTime() - start) / 1e6;
+        }
+        return total / REPEATS;
+    }
+
+    private static double time(Supplier<List<TodoTask>> run) {
+        long start = System.nanoTime();
+        for (int i = 0; i < REPEATS; i++) {
+            run.get();
+        }
+        return (System.nanoTime() - start) / 1e6 / REPEATS;
+    }
+
+    private static void edit(List<TodoTask> all, Random random, int round) {
+        switch (random.nextInt(7)) {
+            case 0 -> all.get(random.nextInt(all.size())).setTitle("Edited " + WORDS[random.nextInt(WORDS.length)]);
+            case 1 -> {
+                TodoTask task = all.get(random.nextInt(all.size()));
+                task.setCompleted(!task.isCompleted());
+            }
+            case 2 -> all.get(random.nextInt(all.size())).setPriority(TodoTask.Priority.values()[random.nextInt(3)]);
+            case 3 -> all.remove(random.nextInt(all.size()));
+            case 4 -> all.removeIf(task -> task.isCompleted() && random.nextInt(100) == 0);
+            case 5 -> {
+                for (int i = random.nextInt(5); i >= 0; i--) {
+                    all.add(new TodoTask("New milk " + round, null, null, null, null));
+                }
+            }
+            default -> all.add(random.nextInt(all.size()), randomTask(random));
+        }
+    }
+
+    private static TodoTask randomTask(Random random) {
+        String title = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " "
+            + Integer.toString(random.nextInt(1 << 20), 36);
+        TodoTask task = new TodoTask(title,
+            random.nextBoolean() ? LocalDate.now().plusDays(random.nextInt(60) - 30) : null,
+            random.nextBoolean() ? LocalTime.of(random.nextInt(24), 0) : null,
+            TodoTask.Priority.values()[random.nextInt(3)], null);
+        task.setCompleted(random.nextInt(3) == 0);
+        return task;
+    }
+
+    // todoController's comparators
+    private static Comparator<TodoTask> comparator(String sortBy) {
+        return switch (sortBy) {
+            case "Due Date" -> Comparator.comparing(TodoTask::getDueDate, Comparator.nullsLast(Comparator.naturalOrder()));
+            case "Priority" -> Comparator.comparing(TodoTask::getPriority, Comparator.reverseOrder());
+            case "Title" -> Comparator.comparing(TodoTask::getTitle, String.CASE_INSENSITIVE_ORDER);
+            case "Status" -> Comparator.comparing(TodoTask::isCompleted);
+            default -> Comparator.comparing(TodoTask::getCreatedDate, Comparator.reverseOrder());
+        };
+    }
+
+    // applyFilters before TodoTaskFilter
+    private static List<TodoTask> streamFilter(List<TodoTask> all, String query, String status,
+                                               TodoTask.Priority priority, boolean overdueOnly, String sortBy) {
+        return all.stream().filter(task -> {
+            if (!query.isEmpty() && !task.getTitle().toLowerCase().contains(query)) return false;
+            switch (status) {
+                case "Completed": if (!task.isCompleted()) return false; break;
+                case "Pending": if (task.isCompleted()) return false; break;
+                case "Overdue": if (!task.isOverdue()) return false; break;
+                default: break;
+            }
+            if (priority != null && task.getPriority() != priority) return false;
+            return !overdueOnly || task.isOverdue();
+        }).sorted(comparator(sortBy)).collect(Collectors.toList());
+    }
+
+    private static void check(boolean passed, String what) {
+        System.out.println((passed ? "ok    " : "FAIL  ") + what);
+        if (!passed) failures++;
+    }
+}
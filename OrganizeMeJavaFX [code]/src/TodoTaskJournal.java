@@ -0,0 +1,334 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+// Storage for one todo category: the tasks_<user>_<category>.txt file, one TodoTask per line as
+// before, plus an append-only journal of changes made since it was written. An edit appends one
+// line to the journal instead of rewriting the whole file:
+//
+//   U|<task line>    add or replace the task with that line's id
+//   D|<id>           delete it
+//   C                delete everything
+//
+// Once the journal has as many records as there are tasks (and at least COMPACT_MIN), it is
+// renamed aside and a new snapshot is written from it in the background, so compaction costs
+// O(1) per edit on average. A journal left aside by a crash is replayed on load; replaying it
+// over a snapshot that already contains it changes nothing.
+//
+// Not thread-safe; TodoTaskPersistence calls it from its own thread only.
+class TodoTaskJournal {
+    private static final int COMPACT_MIN = 500;
+    private static final String JOURNAL_SUFFIX = ".journal";
+    private static final String COMPACTING_SUFFIX = ".journal.compacting";
+
+    // Snapshot writes for every category, one at a time and in the order they were started
+    private static final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "todo-journal-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final File snapshotFile;
+    private final File journalFile;
+    private final File compactingFile;
+    // The current line of every task, in snapshot order; what the next snapshot is written from
+    private final Map<String, String> lines = new LinkedHashMap<>();
+    private PrintWriter journal;
+    private int records = 0;
+    private volatile boolean compacting = false;
+
+    public TodoTaskJournal(File snapshotFile) {
+        this.snapshotFile = snapshotFile;
+        this.journalFile = new File(snapshotFile.getPath() + JOURNAL_SUFFIX);
+        this.compactingFile = new File(snapshotFile.getPath() + COMPACTING_SUFFIX);
+    }
+
+    // ---- loading ----
+
+    // Reads the snapshot and both journals and opens the journal for appending. Tasks saved
+    // before tasks had ids get one here, and the snapshot is rewritten once so they keep it.
+    public List<TodoTask> load() throws IOException {
+        close();
+        awaitCompaction();
+        lines.clear();
+        Map<String, TodoTask> tasks = new LinkedHashMap<>();
+        boolean assignedIds = readSnapshot(snapshotFile, tasks);
+        replay(compactingFile, tasks, true);
+        records = replay(journalFile, tasks, true);
+        for (TodoTask task : tasks.values()) {
+            lines.put(task.getId(), task.toFileString());
+        }
+
+        if (assignedIds || compactingFile.exists()) {
+            writeSnapshot(new ArrayList<>(lines.values()), snapshotFile);
+            Files.deleteIfExists(compactingFile.toPath());
+            Files.deleteIfExists(journalFile.toPath());
+            records = 0;
+        }
+        journal = openJournal();
+        return new ArrayList<>(tasks.values());
+    }
+
+    // The category's tasks as they are on disk, for readers that don't own the files (the search
+    // index). Nothing is written; tasks from before ids get a new one on every read.
+    public static List<TodoTask> read(File snapshotFile) throws IOException {
+        Map<String, TodoTask> tasks = new LinkedHashMap<>();
+        readSnapshot(snapshotFile, tasks);
+        replay(new File(snapshotFile.getPath() + COMPACTING_SUFFIX), tasks, false);
+        replay(new File(snapshotFile.getPath() + JOURNAL_SUFFIX), tasks, false);
+        return new ArrayList<>(tasks.values());
+    }
+
+    // Returns true if any task had no id yet
+    private static boolean readSnapshot(File snapshotFile, Map<String, TodoTask> tasks) throws IOException {
+        boolean assignedIds = false;
+        if (snapshotFile.exists()) {
+            int lineCount = 0;
+            for (String line : Files.readAllLines(snapshotFile.toPath(), StandardCharsets.UTF_8)) {
+                lineCount++;
+                TodoTask task = TodoTask.fromFileString(line);
+                if (task == null) {
+                    System.err.println("Failed to parse task from line " + lineCount + ": " + line);
+                    continue;
+                }
+                assignedIds |= !line.endsWith("|" + task.getId());
+                tasks.put(task.getId(), task);
+            }
+        }
+        return assignedIds;
+    }
+
+    // Applies a journal's records and returns how many there were. A last line without its
+    // newline was cut off mid-write; it is skipped, and with 'truncate' dropped from the file.
+    private static int replay(File file, Map<String, TodoTask> tasks, boolean truncate) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        int complete = bytes.length;
+        while (complete > 0 && bytes[complete - 1] != '\n') {
+            complete--;
+        }
+        if (complete < bytes.length && truncate) {
+            System.err.println("Dropping a partly written record at the end of " + file.getName());
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(complete);
+            }
+        }
+        int records = 0;
+        for (String record : new String(bytes, 0, complete, StandardCharsets.UTF_8).split("\n")) {
+            if (record.isEmpty()) {
+                continue;
+            }
+            records++;
+            if (record.equals("C")) {
+                tasks.clear();
+            } else if (record.startsWith("D|")) {
+                tasks.remove(record.substring(2));
+            } else if (record.startsWith("U|")) {
+                TodoTask task = TodoTask.fromFileString(record.substring(2));
+                if (task != null) {
+                    tasks.put(task.getId(), task);
+                }
+            } else {
+                System.err.println("Skipping unknown journal record in " + file.getName() + ": " + record);
+            }
+        }
+        return records;
+    }
+
+    // ---- changes ----
+
+    // Records a task's line as it is now, whether the task is new or edited. Records are
+    // buffered until flush().
+    public void put(String id, String line) {
+        lines.put(id, line);
+        append("U|" + line);
+    }
+
+    public void delete(String id) {
+        if (lines.remove(id) != null) {
+            append("D|" + id);
+        }
+    }
+
+    public void clear() {
+        lines.clear();
+        append("C");
+    }
+
+    // Adds a task to another category's journal, which is replayed when that category is opened
+    public static void appendTo(File snapshotFile, String line) throws IOException {
+        try (OutputStream out = new FileOutputStream(snapshotFile.getPath() + JOURNAL_SUFFIX, true)) {
+            out.write(("U|" + line + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    public void flush() throws IOException {
+        if (journal == null) {
+            throw new IOException("Task journal for " + snapshotFile.getName() + " is not open");
+        }
+        journal.flush();
+        if (journal.checkError()) {
+            throw new IOException("Error writing task journal " + journalFile.getName());
+        }
+    }
+
+    private void append(String record) {
+        if (journal == null) {
+            System.err.println("Task journal for " + snapshotFile.getName() + " is not open");
+            return;
+        }
+        journal.print(record);
+        journal.print('\n');
+        records++;
+        if (records >= Math.max(COMPACT_MIN, lines.size()) && !compacting) {
+            compact();
+        }
+    }
+
+    // ---- compaction ----
+
+    // Moves the journal aside and starts a new one; the snapshot is rewritten in the background
+    // from the lines as they are now, then the old journal is deleted
+    private void compact() {
+        close();
+        try {
+            if (compactingFile.exists()) {
+                // An earlier compaction failed, so those records aren't in the snapshot yet. Add this
+                // journal after them rather than replacing them; replaying it twice after a crash
+                // between the two steps gives the same tasks.
+                Files.write(compactingFile.toPath(), Files.readAllBytes(journalFile.toPath()), StandardOpenOption.APPEND);
+                Files.delete(journalFile.toPath());
+            } else {
+                Files.move(journalFile.toPath(), compactingFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not start compacting " + journalFile.getName() + ": " + e.getMessage());
+            journal = openJournalQuietly();
+            return;
+        }
+        journal = openJournalQuietly();
+        records = 0;
+        compacting = true;
+        List<String> snapshot = new ArrayList<>(lines.values());
+        compactor.execute(() -> {
+            try {
+                long start = System.nanoTime();
+                writeSnapshot(snapshot, snapshotFile);
+                Files.deleteIfExists(compactingFile.toPath());
+                System.out.println("Compacted " + snapshotFile.getName() + ": " + snapshot.size() + " tasks in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+            } catch (IOException e) {
+                // The journal stays aside and is replayed on the next load
+                System.err.println("Error compacting " + snapshotFile.getName() + ": " + e.getMessage());
+            }
+            compacting = false;
+        });
+    }
+
+    // A snapshot still being written would race the one load() may write, or bring back a
+    // category file that has just been renamed or deleted
+    private static void awaitCompaction() throws IOException {
+        try {
+            compactor.submit(() -> { }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for compaction");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    // Write to a temporary file and rename it over the snapshot, so a crash leaves the old one
+    private static void writeSnapshot(List<String> snapshot, File target) throws IOException {
+        File tmp = new File(target.getPath() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(tmp);
+             PrintWriter writer = new PrintWriter(new BufferedWriter(
+                 new OutputStreamWriter(file, StandardCharsets.UTF_8), 1 << 16))) {
+            for (String line : snapshot) {
+                writer.print(line);
+                writer.print('\n');
+            }
+            writer.flush();
+            if (writer.checkError()) {
+                throw new IOException("write failed");
+            }
+            file.getFD().sync();
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private PrintWriter openJournal() throws IOException {
+        return new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journalFile, true),
+            StandardCharsets.UTF_8)));
+    }
+
+    private PrintWriter openJournalQuietly() {
+        try {
+            return openJournal();
+        } catch (IOException e) {
+            System.err.println("Could not open task journal " + journalFile.getName() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public void close() {
+        if (journal != null) {
+            journal.close();
+            if (journal.checkError()) {
+                System.err.println("Error writing task journal " + journalFile.getName());
+            }
+            journal = null;
+        }
+    }
+
+    // ---- category files (SidebarController) ----
+
+    // The snapshot and its journals, which move and go together
+    static List<File> files(File snapshotFile) {
+        return List.of(snapshotFile, new File(snapshotFile.getPath() + JOURNAL_SUFFIX),
+            new File(snapshotFile.getPath() + COMPACTING_SUFFIX));
+    }
+
+    // Both run on the persistence thread once the category's journal is closed, so no new
+    // compaction can start for it; one already running is waited for first
+    static void rename(File snapshotFile, File newSnapshotFile) throws IOException {
+        awaitCompaction();
+        List<File> oldFiles = files(snapshotFile);
+        List<File> newFiles = files(newSnapshotFile);
+        for (int i = 0; i < oldFiles.size(); i++) {
+            File oldFile = oldFiles.get(i);
+            File newFile = newFiles.get(i);
+            if (oldFile.exists() && !oldFile.renameTo(newFile)) {
+                System.err.println("Failed to rename tasks file from " + oldFile.getName() + " to " + newFile.getName());
+            }
+        }
+    }
+
+    static void delete(File snapshotFile) throws IOException {
+        awaitCompaction();
+        for (File file : files(snapshotFile)) {
+            if (file.exists() && !file.delete()) {
+                System.err.println("Failed to delete tasks file: " + file.getName());
+            }
+        }
+    }
+}
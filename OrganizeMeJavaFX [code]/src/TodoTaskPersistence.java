@@ -0,0 +1,238 @@
+import javafx.application.Platform;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+
+// Does todoController's file I/O for one category on a persistence thread, so a slow disk or a
+// network home directory never holds up the FX thread. Edits only record the task's new line;
+// DEBOUNCE_MS after the first one, everything recorded meanwhile is written to the category's
+// TodoTaskJournal in one go, with later edits of a task replacing earlier ones. Snapshots are
+// written to a temporary file and renamed over the old one, as before.
+//
+// One thread serves every category, so a load, a move to another category and the writes that
+// came before them always happen in the order they were asked for. Results and failures are
+// handed back on the FX thread.
+class TodoTaskPersistence {
+    static final long DEBOUNCE_MS = 200;
+
+    private static final ScheduledExecutorService io = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "todo-persistence");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Categories with edits that may not be written yet, for the shutdown hook
+    private static final Set<TodoTaskPersistence> open = ConcurrentHashMap.newKeySet();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(TodoTaskPersistence::flushAll, "todo-persistence-shutdown"));
+    }
+
+    private final File file;
+    private final TodoTaskJournal journal;
+    private final BiConsumer<String, IOException> onFailure;
+
+    // Edits since the last write, guarded by 'this': the latest line of each task, null once deleted
+    private Map<String, String> pending = new LinkedHashMap<>();
+    private boolean pendingClear = false;
+    private boolean writeScheduled = false;
+
+    // Persistence thread only. False until the journal has read the file, and again after a failed
+    // write, when the journal's idea of the file can't be trusted.
+    private boolean loaded = false;
+
+    // onFailure gets a description of what failed and the error, on the FX thread
+    public TodoTaskPersistence(File file, BiConsumer<String, IOException> onFailure) {
+        this.file = file;
+        this.journal = new TodoTaskJournal(file);
+        this.onFailure = onFailure;
+        open.add(this);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    // ---- FX thread ----
+
+    // Writes whatever is pending, then reads the category back
+    public CompletableFuture<List<TodoTask>> load() {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                write();
+                long start = System.nanoTime();
+                List<TodoTask> tasks = journal.load();
+                loaded = true;
+                TodoSearchIndex.loaded(file, tasks);
+                System.out.println("Loaded " + tasks.size() + " tasks from file: " + file.getName() + " in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+                return tasks;
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, io);
+    }
+
+    public void put(TodoTask task) {
+        String line = task.toFileString();
+        synchronized (this) {
+            pending.put(task.getId(), line);
+            scheduleWrite();
+        }
+    }
+
+    public void delete(TodoTask task) {
+        synchronized (this) {
+            pending.put(task.getId(), null);
+            scheduleWrite();
+        }
+    }
+
+    public void clear() {
+        synchronized (this) {
+            pending.clear();
+            pendingClear = true;
+            scheduleWrite();
+        }
+    }
+
+    // Writes what is pending straight away and closes the journal; the instance is done after this
+    public CompletableFuture<Void> close() {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                writeScheduled();
+            } finally {
+                journal.close();
+                open.remove(this);
+            }
+        }, io);
+    }
+
+    // Adds a task to another category, after everything already asked of this thread
+    public static CompletableFuture<Void> appendTo(File file, TodoTask task) {
+        String id = task.getId();
+        String line = task.toFileString();
+        return CompletableFuture.runAsync(() -> {
+            try {
+                TodoTaskJournal.appendTo(file, line);
+                TodoSearchIndex.changed(file, Map.of(id, line), false);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, io);
+    }
+
+    // For other work on a category's files, such as renaming them, that must not overlap a write
+    public static CompletableFuture<Void> run(Runnable work) {
+        return CompletableFuture.runAsync(work, io);
+    }
+
+    static void runAfter(Runnable work, long delayMs) {
+        io.schedule(work, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Runs 'then' on the FX thread with the result, or the failure with its cause unwrapped
+    public static <T> void onFxThread(CompletableFuture<T> future, BiConsumer<T, Throwable> then) {
+        future.whenComplete((result, error) -> {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            Platform.runLater(() -> then.accept(result, cause));
+        });
+    }
+
+    private void scheduleWrite() {
+        if (!writeScheduled) {
+            writeScheduled = true;
+            io.schedule(this::writeScheduled, DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // ---- persistence thread ----
+
+    private void writeScheduled() {
+        try {
+            write();
+        } catch (IOException e) {
+            System.err.println("Error saving tasks to " + file.getName() + ": " + e.getMessage());
+            Platform.runLater(() -> onFailure.accept("Saving tasks to " + file.getName(), e));
+        }
+    }
+
+    private void write() throws IOException {
+        Map<String, String> batch;
+        boolean clear;
+        synchronized (this) {
+            writeScheduled = false;
+            if (pending.isEmpty() && !pendingClear) {
+                return;
+            }
+            batch = pending;
+            clear = pendingClear;
+            pending = new LinkedHashMap<>();
+            pendingClear = false;
+        }
+        try {
+            if (!loaded) {
+                journal.load();
+                loaded = true;
+            }
+            if (clear) {
+                journal.clear();
+            }
+            for (Map.Entry<String, String> change : batch.entrySet()) {
+                if (change.getValue() != null) {
+                    journal.put(change.getKey(), change.getValue());
+                } else {
+                    journal.delete(change.getKey());
+                }
+            }
+            journal.flush();
+            TodoSearchIndex.changed(file, batch, clear);
+        } catch (IOException e) {
+            // Put the batch back under anything newer, to be retried with the next write
+            loaded = false;
+            synchronized (this) {
+                if (!pendingClear) {
+                    Map<String, String> merged = new LinkedHashMap<>(batch);
+                    merged.putAll(pending);
+                    pending = merged;
+                    pendingClear = clear;
+                }
+            }
+            throw e;
+        }
+    }
+
+    // Last chance for edits still inside the debounce window, and the search index, when the
+    // application exits
+    private static void flushAll() {
+        List<TodoTaskPersistence> stores = new ArrayList<>(open);
+        try {
+            io.submit(() -> {
+                for (TodoTaskPersistence store : stores) {
+                    try {
+                        store.write();
+                    } catch (IOException e) {
+                        // The FX toolkit is gone by now, so there is no one else to tell
+                        System.err.println("Error saving tasks to " + store.file.getName() + ": " + e.getMessage());
+                    }
+                    store.journal.close();
+                }
+                TodoSearchIndex.closeNow();
+            }).get(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            System.err.println("Could not save tasks on exit: " + e);
+        }
+    }
+}
@@ -7,15 +7,12 @@ import javafx.animation.Timeline;
 import javafx.animation.TranslateTransition;
 import javafx.animation.KeyFrame;
 import javafx.animation.KeyValue;
+import javafx.animation.PauseTransition;
 import javafx.util.Duration;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.time.LocalDate;
-import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
@@ -23,6 +20,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 import javafx.event.ActionEvent;
@@ -35,7 +33,7 @@ public class todoController {
     @FXML private TextField dueTimePicker;
     @FXML private ComboBox<TodoTask.Priority> priorityComboBox;
     @FXML private ComboBox<TodoTask.RecurringType> recurringComboBox;
-    @FXML private VBox taskList;
+    @FXML private ListView<TodoTask> taskList;
     @FXML private Button addTask;
     @FXML private Button clear;
     @FXML private Button clearCompleted;
@@ -49,6 +47,7 @@ public class todoController {
     @FXML private Button refreshButton;
     @FXML private Button toggleFiltersButton;
     @FXML private VBox filtersContainer;
+    @FXML private VBox searchResultsBox;
     
     // Statistics labels
     @FXML private Label totalTasksLabel;
@@ -59,7 +58,15 @@ public class todoController {
     private String currentUsername;
     private String category = null;
     private List<TodoTask> allTasks = new ArrayList<>();
+    // The open category's file; edits are written to it off the FX thread
+    private TodoTaskPersistence persistence;
     private boolean filtersVisible = false;
+    private final TodoTaskFilter taskFilter = new TodoTaskFilter();
+    // What taskList shows: the tasks that pass the filters, in sort order
+    private final ObservableList<TodoTask> visibleTasks = FXCollections.observableArrayList();
+    private static final int OTHER_CATEGORY_RESULTS = 8;
+    // Typing filters once it pauses this long
+    private final PauseTransition searchDebounce = new PauseTransition(Duration.millis(120));
 
     // Predefined categories - you can modify this list as needed
     private final List<String> AVAILABLE_CATEGORIES = Arrays.asList(
@@ -72,6 +79,7 @@ public class todoController {
         System.out.println("todoController initialize() called");
         try {
             setupComboBoxes();
+            setupTaskList();
             setupSearchAndFilter();
             setupToggleButton();
             System.out.println("todoController initialized successfully");
@@ -81,6 +89,15 @@ public class todoController {
         }
     }
 
+    private void setupTaskList() {
+        if (taskList == null) return;
+        taskList.setItems(visibleTasks);
+        taskList.setCellFactory(list -> new TaskCell());
+        // Rows have their own controls; selecting one would only highlight it
+        taskList.setFocusTraversable(false);
+        taskList.setPlaceholder(new Label(""));
+    }
+
     private void setupComboBoxes() {
         try {
             // Priority ComboBox
@@ -120,7 +137,8 @@ public class todoController {
         try {
             // Add listeners for real-time filtering
             if (searchField != null) {
-                searchField.textProperty().addListener((obs, oldVal, newVal) -> applyFilters());
+                searchDebounce.setOnFinished(e -> applyFilters());
+                searchField.textProperty().addListener((obs, oldVal, newVal) -> searchDebounce.playFromStart());
             }
             if (statusFilter != null) {
                 statusFilter.valueProperty().addListener((obs, oldVal, newVal) -> applyFilters());
@@ -223,7 +241,7 @@ public class todoController {
             TodoTask newTask = new TodoTask(title, dueDate, dueTime, priority, recurring);
             allTasks.add(newTask);
             
-            saveTasksToFile();
+            saveTask(newTask);
             applyFilters();
             updateStatistics();
             clearInputFields();
@@ -243,9 +261,7 @@ public class todoController {
             
             if (alert.showAndWait().orElse(ButtonType.CANCEL) == ButtonType.OK) {
                 allTasks.clear();
-                if (taskList != null) {
-                    taskList.getChildren().clear();
-                }
+                visibleTasks.clear();
                 clearTasksFromFile();
                 updateStatistics();
             }
@@ -258,8 +274,11 @@ public class todoController {
     @FXML
     void clearCompletedTasks(ActionEvent event) {
         try {
-            allTasks.removeIf(TodoTask::isCompleted);
-            saveTasksToFile();
+            List<TodoTask> completed = allTasks.stream().filter(TodoTask::isCompleted).collect(Collectors.toList());
+            allTasks.removeAll(completed);
+            for (TodoTask task : completed) {
+                removeTaskFromFile(task);
+            }
             applyFilters();
             updateStatistics();
         } catch (Exception e) {
@@ -283,57 +302,48 @@ public class todoController {
             String sortBy = sortComboBox.getValue();
             boolean showOverdueOnlyValue = showOverdueOnly.isSelected();
 
-            List<TodoTask> filteredTasks = allTasks.stream()
-                .filter(task -> {
-                    // Search filter
-                    if (!searchText.isEmpty() && !task.getTitle().toLowerCase().contains(searchText)) {
-                        return false;
-                    }
-                    
-                    // Status filter
-                    if (!"All".equals(statusFilterValue)) {
-                        switch (statusFilterValue) {
-                            case "Completed":
-                                if (!task.isCompleted()) return false;
-                                break;
-                            case "Pending":
-                                if (task.isCompleted()) return false;
-                                break;
-                            case "Overdue":
-                                if (!task.isOverdue()) return false;
-                                break;
-                        }
-                    }
-                    
-                    // Priority filter
-                    if (priorityFilterValue != null && task.getPriority() != priorityFilterValue) {
-                        return false;
-                    }
-                    
-                    // Show overdue only
-                    if (showOverdueOnlyValue && !task.isOverdue()) {
-                        return false;
-                    }
-                    
-                    return true;
-                })
-                .sorted(getComparator(sortBy))
-                .collect(Collectors.toList());
+            // Indexed; see TodoTaskFilter
+            List<TodoTask> filteredTasks = taskFilter.filter(allTasks, searchText, statusFilterValue,
+                priorityFilterValue, showOverdueOnlyValue, sortBy, getComparator(sortBy));
 
             displayTasks(filteredTasks);
+            showOtherCategoryHits(searchText);
         } catch (Exception e) {
             System.err.println("Error applying filters: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
+    // The best matches for the search in the user's other categories, from the search index
+    private void showOtherCategoryHits(String searchText) {
+        if (searchResultsBox == null) return;
+
+        TodoSearchIndex index = TodoSearchIndex.get(currentUsername);
+        List<TodoSearchIndex.Hit> hits = index == null || searchText.isEmpty()
+            ? List.of() : index.search(searchText, OTHER_CATEGORY_RESULTS, category);
+        if (hits == null) {
+            // The index is being updated; look again in a moment
+            searchDebounce.playFromStart();
+            return;
+        }
+        searchResultsBox.getChildren().clear();
+        if (!hits.isEmpty()) {
+            Label header = new Label("In other categories:");
+            header.getStyleClass().add("filter-label");
+            searchResultsBox.getChildren().add(header);
+            for (TodoSearchIndex.Hit hit : hits) {
+                searchResultsBox.getChildren().add(new Label(hit.title() + "  —  " + hit.category()));
+            }
+        }
+        searchResultsBox.setVisible(!hits.isEmpty());
+        searchResultsBox.setManaged(!hits.isEmpty());
+    }
+
     @FXML
     void refreshTasks() {
         try {
             processRecurringTasks();
             loadTasksFromFile();
-            applyFilters();
-            updateStatistics();
         } catch (Exception e) {
             System.err.println("Error refreshing tasks: " + e.getMessage());
             e.printStackTrace();
@@ -357,8 +367,8 @@ public class todoController {
             }
             
             allTasks.addAll(newRecurringTasks);
-            if (!newRecurringTasks.isEmpty()) {
-                saveTasksToFile();
+            for (TodoTask task : newRecurringTasks) {
+                saveTask(task);
             }
         } catch (Exception e) {
             System.err.println("Error processing recurring tasks: " + e.getMessage());
@@ -376,114 +386,161 @@ public class todoController {
         };
     }
 
+    // The filtered tasks become the list's items; ListView only builds cells for the rows in view
+    // and re-binds them as it scrolls, so a new filter result doesn't build any nodes by itself
     private void displayTasks(List<TodoTask> tasks) {
         if (taskList == null) return;
         
         try {
-            taskList.getChildren().clear();
-            
-            for (TodoTask task : tasks) {
-                HBox taskItem = createTaskItem(task);
-                taskList.getChildren().add(taskItem);
-            }
+            visibleTasks.setAll(tasks);
         } catch (Exception e) {
             System.err.println("Error displaying tasks: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
-    private HBox createTaskItem(TodoTask task) {
-        CheckBox checkBox = new CheckBox();
-        TextField taskTitle = new TextField(task.getTitle());
-        Label dueDateLabel = new Label(task.getFormattedDueDate());
-        Label priorityLabel = new Label(task.getPriority().toString());
-        Button editButton = new Button("Edit");
-        Button switchButton = new Button("⇄");
-        Button removeButton = new Button("×");
-
-        // Styling
-        taskTitle.getStyleClass().add(task.isCompleted() ? "task-completed" : "task");
-        taskTitle.setEditable(!task.isCompleted());
-        checkBox.setSelected(task.isCompleted());
-        
-        // Priority color
-        priorityLabel.setStyle("-fx-background-color: " + task.getPriorityColor() + 
-                             "; -fx-text-fill: white; -fx-padding: 3 8; -fx-background-radius: 8; -fx-font-size: 11px; -fx-font-weight: 600;");
-        
-        // Overdue styling
-        if (task.isOverdue() && !task.isCompleted()) {
-            dueDateLabel.setStyle("-fx-text-fill: #ef4444; -fx-font-weight: 600;");
-            taskTitle.setStyle(taskTitle.getStyle() + "; -fx-border-color: #ef4444; -fx-border-width: 1.5;");
+    // One task row. ListView creates only enough of these to fill the viewport and re-binds them
+    // to other tasks as the list scrolls; the handlers act on whichever task the row shows.
+    private class TaskCell extends ListCell<TodoTask> {
+        private final CheckBox checkBox = new CheckBox();
+        private final TextField taskTitle = new TextField();
+        private final Label dueDateLabel = new Label();
+        private final Label priorityLabel = new Label();
+        private final Button editButton = new Button("Edit");
+        private final Button switchButton = new Button("⇄");
+        private final Button removeButton = new Button("×");
+        private final HBox taskBox = new HBox(12, checkBox, taskTitle, dueDateLabel, priorityLabel, editButton, switchButton, removeButton);
+        // The task the title field is editing, kept until the edit is saved
+        private TodoTask editing;
+        private boolean binding = false;
+
+        TaskCell() {
+            // Style buttons
+            editButton.getStyleClass().add("edit-button");
+            switchButton.getStyleClass().add("switch-button");
+            switchButton.setTooltip(new Tooltip("Move to another category"));
+            removeButton.getStyleClass().add("remove");
+
+            taskBox.setPadding(new Insets(16));
+            taskBox.getStyleClass().add("task-item");
+
+            // Set widths
+            HBox.setHgrow(taskTitle, Priority.ALWAYS);
+            dueDateLabel.setPrefWidth(120);
+            priorityLabel.setPrefWidth(80);
+            editButton.setPrefWidth(50);
+            switchButton.setPrefWidth(30);
+            removeButton.setPrefWidth(30);
+
+            // Event handlers
+            checkBox.selectedProperty().addListener((obs, wasSelected, isSelected) -> {
+                TodoTask task = getItem();
+                if (binding || task == null) return;
+                task.setCompleted(isSelected);
+                showState(task);
+                saveTask(task);
+                updateStatistics();
+            });
+
+            taskTitle.focusedProperty().addListener((obs, oldVal, newVal) -> {
+                if (newVal) {
+                    editing = getItem();
+                } else { // Focus lost
+                    saveTitle();
+                }
+            });
+
+            editButton.setOnAction(e -> {
+                if (getItem() != null) openTaskEditDialog(getItem());
+            });
+            
+            switchButton.setOnAction(e -> {
+                if (getItem() != null) openSwitchCategoryDialog(getItem());
+            });
+            
+            removeButton.setOnAction(e -> {
+                TodoTask task = getItem();
+                if (task == null) return;
+                allTasks.remove(task);
+                removeTaskFromFile(task);
+                // Nothing else can start or stop matching the filters, so only the row goes
+                visibleTasks.remove(task);
+                updateStatistics();
+            });
+
+            setText(null);
         }
-        
-        // Recurring indicator
-        if (task.getRecurringType() != TodoTask.RecurringType.NONE) {
-            Label recurringLabel = new Label("↻");
-            recurringLabel.setStyle("-fx-font-size: 12; -fx-text-fill: #3b82f6; -fx-font-weight: 600;");
-            recurringLabel.setTooltip(new Tooltip(task.getRecurringType().toString()));
-            dueDateLabel.setText(dueDateLabel.getText() + " ↻");
+
+        // An edit in progress belongs to the task it started on, even if the row has moved on
+        private void saveTitle() {
+            TodoTask task = editing;
+            editing = null;
+            if (task != null && !taskTitle.getText().equals(task.getTitle())) {
+                task.setTitle(taskTitle.getText());
+                saveTask(task);
+            }
         }
 
-        // Style buttons
-        editButton.getStyleClass().add("edit-button");
-        switchButton.getStyleClass().add("switch-button");
-        switchButton.setTooltip(new Tooltip("Move to another category"));
-        removeButton.getStyleClass().add("remove");
+        @Override
+        protected void updateItem(TodoTask task, boolean empty) {
+            if (editing != null && editing != task) {
+                saveTitle();
+            }
+            super.updateItem(task, empty);
+            if (empty || task == null) {
+                setGraphic(null);
+                return;
+            }
+            binding = true;
+            try {
+                checkBox.setSelected(task.isCompleted());
+            } finally {
+                binding = false;
+            }
+            if (editing == null) {
+                taskTitle.setText(task.getTitle());
+                if (taskTitle.isFocused()) {
+                    editing = task;
+                }
+            }
+
+            // Priority color
+            priorityLabel.setText(task.getPriority().toString());
+            priorityLabel.setStyle("-fx-background-color: " + task.getPriorityColor() + 
+                                 "; -fx-text-fill: white; -fx-padding: 3 8; -fx-background-radius: 8; -fx-font-size: 11px; -fx-font-weight: 600;");
 
-        HBox taskBox = new HBox(12, checkBox, taskTitle, dueDateLabel, priorityLabel, editButton, switchButton, removeButton);
-        taskBox.setPadding(new Insets(16));
-        taskBox.getStyleClass().add("task-item");
-        
-        if (task.isCompleted()) {
-            taskBox.getStyleClass().add("task-item-completed");
-        }
-        if (task.isOverdue() && !task.isCompleted()) {
-            taskBox.getStyleClass().add("task-item-overdue");
+            // Recurring indicator
+            String dueDate = task.getFormattedDueDate();
+            if (task.getRecurringType() != TodoTask.RecurringType.NONE) {
+                dueDate += " ↻";
+            }
+            dueDateLabel.setText(dueDate);
+
+            showState(task);
+            setGraphic(taskBox);
         }
-        
-        // Set widths
-        HBox.setHgrow(taskTitle, Priority.ALWAYS);
-        dueDateLabel.setPrefWidth(120);
-        priorityLabel.setPrefWidth(80);
-        editButton.setPrefWidth(50);
-        switchButton.setPrefWidth(30);
-        removeButton.setPrefWidth(30);
-
-        // Event handlers
-        checkBox.selectedProperty().addListener((obs, wasSelected, isSelected) -> {
-            task.setCompleted(isSelected);
+
+        // Styling that follows completion and being overdue
+        private void showState(TodoTask task) {
+            boolean completed = task.isCompleted();
+            boolean overdue = task.isOverdue() && !completed;
+
             taskTitle.getStyleClass().removeAll("task", "task-completed");
-            taskTitle.getStyleClass().add(isSelected ? "task-completed" : "task");
-            taskTitle.setEditable(!isSelected);
-            
-            taskBox.getStyleClass().removeAll("task-item-completed");
-            if (isSelected) {
+            taskTitle.getStyleClass().add(completed ? "task-completed" : "task");
+            taskTitle.setEditable(!completed);
+
+            taskBox.getStyleClass().removeAll("task-item-completed", "task-item-overdue");
+            if (completed) {
                 taskBox.getStyleClass().add("task-item-completed");
             }
-            
-            saveTasksToFile();
-            updateStatistics();
-        });
-
-        taskTitle.focusedProperty().addListener((obs, oldVal, newVal) -> {
-            if (!newVal) { // Focus lost
-                task.setTitle(taskTitle.getText());
-                saveTasksToFile();
+            if (overdue) {
+                taskBox.getStyleClass().add("task-item-overdue");
             }
-        });
-
-        editButton.setOnAction(e -> openTaskEditDialog(task));
-        
-        switchButton.setOnAction(e -> openSwitchCategoryDialog(task));
-        
-        removeButton.setOnAction(e -> {
-            allTasks.remove(task);
-            saveTasksToFile();
-            applyFilters();
-            updateStatistics();
-        });
 
-        return taskBox;
+            // Overdue styling
+            dueDateLabel.setStyle(overdue ? "-fx-text-fill: #ef4444; -fx-font-weight: 600;" : "");
+            taskTitle.setStyle(overdue ? "-fx-border-color: #ef4444; -fx-border-width: 1.5;" : "");
+        }
     }
 
     private void openSwitchCategoryDialog(TodoTask task) {
@@ -576,21 +633,31 @@ public class todoController {
         try {
             // Remove task from current category
             allTasks.remove(task);
-            saveTasksToFile();
-            
-            // Add task to target category
-            addTaskToCategory(task, targetCategory);
+            removeTaskFromFile(task);
             
             // Refresh current view
             applyFilters();
             updateStatistics();
             
-            // Show confirmation
-            Alert alert = new Alert(Alert.AlertType.INFORMATION);
-            alert.setTitle("Task Moved");
-            alert.setHeaderText("Success!");
-            alert.setContentText("Task \"" + task.getTitle() + "\" has been moved to category \"" + targetCategory + "\".");
-            alert.showAndWait();
+            // Add task to target category, then confirm
+            TodoTaskPersistence.onFxThread(addTaskToCategory(task, targetCategory), (result, error) -> {
+                if (error != null) {
+                    System.err.println("Error adding task to target category: " + error.getMessage());
+                    // Put it back where it was
+                    allTasks.add(task);
+                    saveTask(task);
+                    applyFilters();
+                    updateStatistics();
+                    showAlert("Error", "Failed to move task to new category.", Alert.AlertType.ERROR);
+                    return;
+                }
+                System.out.println("Task moved to category: " + targetCategory);
+                Alert alert = new Alert(Alert.AlertType.INFORMATION);
+                alert.setTitle("Task Moved");
+                alert.setHeaderText("Success!");
+                alert.setContentText("Task \"" + task.getTitle() + "\" has been moved to category \"" + targetCategory + "\".");
+                alert.showAndWait();
+            });
             
         } catch (Exception e) {
             System.err.println("Error switching task category: " + e.getMessage());
@@ -599,46 +666,13 @@ public class todoController {
         }
     }
 
-    private void addTaskToCategory(TodoTask task, String targetCategory) {
-        try {
-            if (currentUsername == null) {
-                System.err.println("Cannot add task to category: username is null");
-                return;
-            }
-
-            // Read existing tasks from target category file
-            List<TodoTask> targetCategoryTasks = new ArrayList<>();
-            File targetFile = new File("tasks_" + currentUsername + "_" + targetCategory + ".txt");
-            
-            if (targetFile.exists()) {
-                try (BufferedReader reader = new BufferedReader(new FileReader(targetFile))) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        TodoTask existingTask = TodoTask.fromFileString(line);
-                        if (existingTask != null) {
-                            targetCategoryTasks.add(existingTask);
-                        }
-                    }
-                }
-            }
-            
-            // Add the switched task
-            targetCategoryTasks.add(task);
-            
-            // Save all tasks to target category file
-            try (PrintWriter writer = new PrintWriter(targetFile)) {
-                for (TodoTask t : targetCategoryTasks) {
-                    writer.println(t.toFileString());
-                }
-            }
-            
-            System.out.println("Task moved to category: " + targetCategory);
-            
-        } catch (IOException e) {
-            System.err.println("Error adding task to target category: " + e.getMessage());
-            e.printStackTrace();
-            throw new RuntimeException("Failed to move task to new category", e);
+    private CompletableFuture<Void> addTaskToCategory(TodoTask task, String targetCategory) {
+        if (currentUsername == null) {
+            return CompletableFuture.failedFuture(new IOException("username is null"));
         }
+        // Appended to the target category's journal, which is replayed when it is opened
+        File targetFile = new File("tasks_" + currentUsername + "_" + targetCategory + ".txt");
+        return TodoTaskPersistence.appendTo(targetFile, task);
     }
 
     private void openTaskEditDialog(TodoTask task) {
@@ -704,8 +738,10 @@ public class todoController {
             });
 
             dialog.showAndWait().ifPresent(result -> {
-                saveTasksToFile();
+                saveTask(task);
                 applyFilters();
+                // A task that stays in the same row isn't a new item to the list, so show its edits
+                taskList.refresh();
                 updateStatistics();
             });
         } catch (Exception e) {
@@ -719,7 +755,9 @@ public class todoController {
             int total = allTasks.size();
             int completed = (int) allTasks.stream().filter(TodoTask::isCompleted).count();
             int pending = total - completed;
-            int overdue = (int) allTasks.stream().filter(TodoTask::isOverdue).count();
+            LocalDate today = LocalDate.now();
+            LocalTime now = LocalTime.now();
+            int overdue = (int) allTasks.stream().filter(task -> task.isOverdue(today, now)).count();
 
             if (totalTasksLabel != null) totalTasksLabel.setText("Total: " + total);
             if (completedTasksLabel != null) completedTasksLabel.setText("Completed: " + completed);
@@ -757,74 +795,92 @@ public class todoController {
         maybeLoadTasks();
     }
 
+    public String getCategory() {
+        return category;
+    }
+
     private void maybeLoadTasks() {
         if (currentUsername != null && category != null) {
             System.out.println("Loading tasks for user: " + currentUsername + ", category: " + category);
+            TodoSearchIndex.open(currentUsername);
             loadTasksFromFile();
-            applyFilters();
-            updateStatistics();
         }
     }
 
-    private void saveTasksToFile() {
-        if (currentUsername == null || category == null) {
+    // Records a new or edited task; it is written with any other edits made in the next moment
+    private void saveTask(TodoTask task) {
+        if (persistence == null) {
             System.err.println("Cannot save tasks: username or category is null");
             return;
         }
+        persistence.put(task);
+    }
 
-        File file = new File("tasks_" + currentUsername + "_" + category + ".txt");
-        try (PrintWriter writer = new PrintWriter(file)) {
-            for (TodoTask task : allTasks) {
-                writer.println(task.toFileString());
-            }
-            System.out.println("Tasks saved to file: " + file.getName());
-        } catch (IOException e) {
-            System.err.println("Error saving tasks: " + e.getMessage());
-            e.printStackTrace();
+    private void removeTaskFromFile(TodoTask task) {
+        if (persistence == null) {
+            System.err.println("Cannot save tasks: username or category is null");
+            return;
         }
+        persistence.delete(task);
     }
 
+    // Reads the category on the persistence thread and shows it when it arrives; the task
+    // controls are disabled until then so nothing is edited in a list about to be replaced
     private void loadTasksFromFile() {
         if (currentUsername == null || category == null) {
             System.err.println("Cannot load tasks: username or category is null");
             return;
         }
         
-        allTasks.clear();
         File file = new File("tasks_" + currentUsername + "_" + category + ".txt");
-        if (!file.exists()) {
-            System.out.println("Tasks file does not exist: " + file.getName());
-            return;
-        }
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            int lineCount = 0;
-            while ((line = reader.readLine()) != null) {
-                lineCount++;
-                TodoTask task = TodoTask.fromFileString(line);
-                if (task != null) {
-                    allTasks.add(task);
-                } else {
-                    System.err.println("Failed to parse task from line " + lineCount + ": " + line);
-                }
+        if (persistence != null && !persistence.getFile().equals(file)) {
+            persistence.close();
+            persistence = null;
+        }
+        if (persistence == null) {
+            persistence = new TodoTaskPersistence(file, this::showSaveError);
+        }
+        TodoTaskPersistence loading = persistence;
+        setLoading(true);
+        TodoTaskPersistence.onFxThread(loading.load(), (tasks, error) -> {
+            if (loading != persistence) {
+                return; // Another category was opened meanwhile
             }
-            System.out.println("Loaded " + allTasks.size() + " tasks from file: " + file.getName());
-        } catch (IOException e) {
-            System.err.println("Error loading tasks: " + e.getMessage());
-            e.printStackTrace();
+            setLoading(false);
+            if (error != null) {
+                System.err.println("Error loading tasks: " + error.getMessage());
+                showAlert("Error", "Failed to load tasks from " + file.getName() + ": " + error.getMessage(),
+                    Alert.AlertType.ERROR);
+                return;
+            }
+            allTasks = tasks;
+            applyFilters();
+            updateStatistics();
+        });
+    }
+
+    private void setLoading(boolean loading) {
+        for (Control control : Arrays.asList(taskInput, addTask, clear, clearCompleted, refreshButton)) {
+            if (control != null) control.setDisable(loading);
         }
+        if (taskList != null) taskList.setDisable(loading);
     }
 
     private void clearTasksFromFile() {
-        if (currentUsername == null || category == null) return;
-        
-        File file = new File("tasks_" + currentUsername + "_" + category + ".txt");
-        try (PrintWriter writer = new PrintWriter(file)) {
-            writer.print("");
-        } catch (IOException e) {
-            System.err.println("Error clearing tasks file: " + e.getMessage());
-            e.printStackTrace();
+        if (persistence == null) return;
+        persistence.clear();
+    }
+
+    private void showSaveError(String what, IOException error) {
+        showAlert("Error", what + " failed: " + error.getMessage()
+            + "\nYour changes are kept and will be saved again with the next edit.", Alert.AlertType.ERROR);
+    }
+
+    // The view is going away; pending edits are written and the file closed
+    public void close() {
+        if (persistence != null) {
+            persistence.close();
+            persistence = null;
         }
     }
 
@@ -839,12 +895,15 @@ public class todoController {
     // Legacy methods for backward compatibility (if needed)
     @FXML
     public void logoutbtn(ActionEvent event) throws IOException {
+        close();
+        TodoSearchIndex.close();
         Session.clear();
         App.changeScene("fxmlFiles/login.fxml");
     }
 
     @FXML
     void backbtn(ActionEvent event) throws IOException {
+        close();
         App.changeScene("fxmlFiles/sidebar.fxml");
     }
 
@@ -866,173 +925,7 @@ public class todoController {
 
     @FXML
     public void openStreakPage(ActionEvent event) throws IOException {
+        close();
         App.changeScene("fxmlFiles/streak.fxml");
     }
 }
-
-
-class TodoTask {
-    
-    public enum Priority {
-        LOW("#10b981"),    // Green
-        MEDIUM("#f59e0b"), // Yellow
-        HIGH("#ef4444");   // Red
-        
-        private final String color;
-        
-        Priority(String color) {
-            this.color = color;
-        }
-        
-        public String getColor() {
-            return color;
-        }
-    }
-    
-    public enum RecurringType {
-        NONE, DAILY, WEEKLY, MONTHLY
-    }
-    
-    private String title;
-    private LocalDate dueDate;
-    private LocalTime dueTime;
-    private Priority priority;
-    private RecurringType recurringType;
-    private boolean completed;
-    private LocalDateTime createdDate;
-    
-    // Constructor
-    public TodoTask(String title, LocalDate dueDate, LocalTime dueTime, Priority priority, RecurringType recurringType) {
-        this.title = title;
-        this.dueDate = dueDate;
-        this.dueTime = dueTime;
-        this.priority = priority != null ? priority : Priority.MEDIUM;
-        this.recurringType = recurringType != null ? recurringType : RecurringType.NONE;
-        this.completed = false;
-        this.createdDate = LocalDateTime.now();
-    }
-    
-    // Getters
-    public String getTitle() { return title; }
-    public LocalDate getDueDate() { return dueDate; }
-    public LocalTime getDueTime() { return dueTime; }
-    public Priority getPriority() { return priority; }
-    public RecurringType getRecurringType() { return recurringType; }
-    public boolean isCompleted() { return completed; }
-    public LocalDateTime getCreatedDate() { return createdDate; }
-    
-    // Setters
-    public void setTitle(String title) { this.title = title; }
-    public void setDueDate(LocalDate dueDate) { this.dueDate = dueDate; }
-    public void setDueTime(LocalTime dueTime) { this.dueTime = dueTime; }
-    public void setPriority(Priority priority) { this.priority = priority; }
-    public void setRecurringType(RecurringType recurringType) { this.recurringType = recurringType; }
-    public void setCompleted(boolean completed) { this.completed = completed; }
-    
-    // Utility methods
-    public String getPriorityColor() {
-        return priority.getColor();
-    }
-    
-    public boolean isOverdue() {
-        if (completed || dueDate == null) {
-            return false;
-        }
-        LocalDate today = LocalDate.now();
-        if (dueDate.isBefore(today)) {
-            return true;
-        }
-        if (dueDate.equals(today) && dueTime != null) {
-            return LocalTime.now().isAfter(dueTime);
-        }
-        return false;
-    }
-    
-    public String getFormattedDueDate() {
-        if (dueDate == null) {
-            return "No due date";
-        }
-        
-        StringBuilder formatted = new StringBuilder();
-        formatted.append(dueDate.format(DateTimeFormatter.ofPattern("MMM dd, yyyy")));
-        
-        if (dueTime != null) {
-            formatted.append(" at ").append(dueTime.format(DateTimeFormatter.ofPattern("HH:mm")));
-        }
-        
-        return formatted.toString();
-    }
-    
-    public TodoTask createNextRecurrence() {
-        if (recurringType == RecurringType.NONE || dueDate == null) {
-            return null;
-        }
-        
-        LocalDate nextDueDate = switch (recurringType) {
-            case DAILY -> dueDate.plusDays(1);
-            case WEEKLY -> dueDate.plusWeeks(1);
-            case MONTHLY -> dueDate.plusMonths(1);
-            default -> null;
-        };
-        
-        if (nextDueDate != null) {
-            return new TodoTask(title, nextDueDate, dueTime, priority, recurringType);
-        }
-        
-        return null;
-    }
-    
-    // File serialization methods
-    public String toFileString() {
-        StringBuilder sb = new StringBuilder();
-        sb.append(title).append("|");
-        sb.append(dueDate != null ? dueDate.toString() : "").append("|");
-        sb.append(dueTime != null ? dueTime.toString() : "").append("|");
-        sb.append(priority.name()).append("|");
-        sb.append(recurringType.name()).append("|");
-        sb.append(completed).append("|");
-        sb.append(createdDate.toString());
-        return sb.toString();
-    }
-    
-    public static TodoTask fromFileString(String fileString) {
-        try {
-            String[] parts = fileString.split("\\|");
-            if (parts.length < 7) {
-                System.err.println("Invalid task format: " + fileString);
-                return null;
-            }
-            
-            String title = parts[0];
-            LocalDate dueDate = parts[1].isEmpty() ? null : LocalDate.parse(parts[1]);
-            LocalTime dueTime = parts[2].isEmpty() ? null : LocalTime.parse(parts[2]);
-            Priority priority = Priority.valueOf(parts[3]);
-            RecurringType recurringType = RecurringType.valueOf(parts[4]);
-            boolean completed = Boolean.parseBoolean(parts[5]);
-            LocalDateTime createdDate = LocalDateTime.parse(parts[6]);
-            
-            TodoTask task = new TodoTask(title, dueDate, dueTime, priority, recurringType);
-            task.setCompleted(completed);
-            task.createdDate = createdDate;
-            
-            return task;
-        } catch (Exception e) {
-            System.err.println("Error parsing task from string: " + fileString);
-            e.printStackTrace();
-            return null;
-        }
-    }
-    
-    @Override
-    public String toString() {
-        return "TodoTask{" +
-                "title='" + title + '\'' +
-                ", dueDate=" + dueDate +
-                ", dueTime=" + dueTime +
-                ", priority=" + priority +
-                ", recurringType=" + recurringType +
-                ", completed=" + completed +
-                ", createdDate=" + createdDate +
-                '}';
-    }
-}
\ No newline at end of file